@@ -35,9 +35,28 @@ public interface DataStore {
 
     void fireChangeNotifications();
     
+    /**
+     * Registers a callback that runs when the configuration of this container may have changed.
+     * Bursts of changes are coalesced into a single invocation; callbacks implementing
+     * {@link PathChangeCallback} are also told which paths changed.
+     */
     void trackConfiguration(Runnable callback);
     void untrackConfiguration(Runnable callback);
 
+    //
+    // Caching
+    //
+
+    /**
+     * Returns the read counters of this store, keyed by operation.
+     */
+    Map<String, Object> getReadStatistics();
+
+    /**
+     * Returns the memory used by the local caches, keyed by the root path of each cached subtree.
+     */
+    Map<String, Object> getCacheFootprint();
+
     //
     // Container management
     //
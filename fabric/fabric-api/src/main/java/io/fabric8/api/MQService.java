@@ -59,6 +59,7 @@ public interface MQService {
         public static final String PARENT = "parent";
         public static final String SSL = "ssl";
         public static final String STANDBY_POOL = "standby.pool";
+        public static final String STANDBY_WARM = "standby.warm";
         public static final String REPLICAS = "replicas";
 
     }
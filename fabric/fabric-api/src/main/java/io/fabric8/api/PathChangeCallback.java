@@ -0,0 +1,34 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.api;
+
+import java.util.Set;
+
+/**
+ * A configuration callback that is told which registry paths changed.
+ *
+ * When registered through {@link DataStore#trackConfiguration(Runnable)} the data store calls
+ * {@link #run(Set)} instead of {@link #run()}, once for a whole burst of changes.
+ */
+public interface PathChangeCallback extends Runnable {
+
+    /**
+     * Invoked with the registry paths that changed since the previous notification.
+     * An empty set means that the change could not be attributed to specific paths,
+     * e.g. after {@link DataStore#fireChangeNotifications()}, and everything should be considered changed.
+     */
+    void run(Set<String> changedPaths);
+}
@@ -38,6 +38,10 @@ public interface FabricManagerMBean {
 
     Map<String, Object> fabricServiceStatus();
 
+    Map<String, Object> dataStoreReadStatistics();
+
+    Map<String, Object> dataStoreCacheFootprint();
+
     Map<String, String> createContainers(Map<String, Object> options);
 
     void importProfiles(String versionId, List<String> profileZipUrls);
@@ -20,7 +20,6 @@ import io.fabric8.api.AutoScaleRequest;
 import io.fabric8.api.AutoScaleStatus;
 import io.fabric8.api.Container;
 import io.fabric8.api.ContainerAutoScaler;
-import io.fabric8.api.Containers;
 import io.fabric8.api.DataStore;
 import io.fabric8.api.FabricRequirements;
 import io.fabric8.api.FabricService;
@@ -28,6 +27,7 @@ import io.fabric8.api.ProfileRequirements;
 import io.fabric8.api.jcip.GuardedBy;
 import io.fabric8.api.jcip.ThreadSafe;
 import io.fabric8.api.scr.AbstractComponent;
+import io.fabric8.api.scr.Configurer;
 import io.fabric8.api.scr.ValidatingReference;
 import io.fabric8.common.util.Closeables;
 import io.fabric8.common.util.Strings;
@@ -35,7 +35,6 @@ import io.fabric8.groups.Group;
 import io.fabric8.groups.GroupListener;
 import io.fabric8.groups.internal.ZooKeeperGroup;
 import io.fabric8.internal.RequirementsJson;
-import io.fabric8.internal.autoscale.AutoScalers;
 import io.fabric8.zookeeper.ZkPath;
 import io.fabric8.zookeeper.utils.ZooKeeperMasterCache;
 import org.apache.curator.framework.CuratorFramework;
@@ -52,8 +51,20 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -71,14 +82,30 @@ public final class AutoScaleController extends AbstractComponent implements Grou
     private final ValidatingReference<CuratorFramework> curator = new ValidatingReference<CuratorFramework>();
     @Reference(referenceInterface = FabricService.class, bind = "bindFabricService", unbind = "unbindFabricService")
     private final ValidatingReference<FabricService> fabricService = new ValidatingReference<FabricService>();
+    @Reference(bind = "bindConfigurer", unbind = "unbindConfigurer")
+    private Configurer configurer;
 
     @Property(name = "pollTime", longValue = 10000,
             label = "Poll period",
             description = "The number of milliseconds between polls to check if the system still has its requirements satisfied.")
     private long pollTime = 10000;
 
+    @Property(name = "maximumConcurrentCreations", intValue = 4,
+            label = "Maximum concurrent creations",
+            description = "The maximum number of auto scale requests creating containers at the same time.")
+    private int maximumConcurrentCreations = 4;
+
+    @Property(name = "maximumConcurrentCreationsPerProvider", intValue = 1,
+            label = "Maximum concurrent creations per provider",
+            description = "The maximum number of auto scale requests creating containers at the same time with the same kind of auto scaler.")
+    private int maximumConcurrentCreationsPerProvider = 1;
+
     private AtomicReference<Timer> timer = new AtomicReference<Timer>();
 
+    private ExecutorService creationExecutor;
+    private final ConcurrentMap<String, ProviderCreations> providerCreations = new ConcurrentHashMap<String, ProviderCreations>();
+    private final Set<String> creatingProfiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     @GuardedBy("volatile")
     private volatile Group<AutoScalerNode> group;
 
@@ -91,13 +118,24 @@ public final class AutoScaleController extends AbstractComponent implements Grou
     private ZooKeeperMasterCache zkMasterCache;
 
     @Activate
-    void activate() {
+    void activate(Map<String, ?> configuration) throws Exception {
+        configurer.configure(configuration, this);
         CuratorFramework curator = this.curator.get();
         enableMasterZkCache(curator);
         group = new ZooKeeperGroup<AutoScalerNode>(curator, ZkPath.AUTO_SCALE_CLUSTER.getPath(), AutoScalerNode.class);
         group.add(this);
         group.update(createState());
         group.start();
+        creationExecutor = Executors.newFixedThreadPool(maximumConcurrentCreations, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "fabric8-autoscaler-create-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
         activateComponent();
     }
 
@@ -106,6 +144,7 @@ public final class AutoScaleController extends AbstractComponent implements Grou
     void deactivate() {
         disableMasterZkCache();
         disableTimer();
+        creationExecutor.shutdown();
         deactivateComponent();
         group.remove(this);
         Closeables.closeQuietly(group);
@@ -193,12 +232,13 @@ public final class AutoScaleController extends AbstractComponent implements Grou
         List<ProfileRequirements> profileRequirements = requirements.getProfileRequirements();
         if (profileRequirements != null && !profileRequirements.isEmpty()) {
             AutoScaleStatus status = new AutoScaleStatus();
-            for (ProfileRequirements profileRequirement : profileRequirements) {
-                ContainerAutoScaler autoScaler = createAutoScaler(requirements, profileRequirement);
+            AutoScalePlanner planner = new AutoScalePlanner(service.getContainers());
+            for (AutoScalePlanner.ProfilePlan plan : planner.plan(requirements, status)) {
+                ContainerAutoScaler autoScaler = createAutoScaler(requirements, plan.getProfileRequirements());
                 if (autoScaler != null) {
-                    autoScaleProfile(service, autoScaler, requirements, profileRequirement, status);
+                    autoScaleProfile(service, autoScaler, requirements, plan, status);
                 } else {
-                    LOGGER.warn("No ContainerAutoScaler available for profile " + profileRequirement.getProfile());
+                    LOGGER.warn("No ContainerAutoScaler available for profile " + plan.getProfile());
                 }
             }
             if (zkMasterCache != null) {
@@ -225,76 +265,54 @@ public final class AutoScaleController extends AbstractComponent implements Grou
         }
     }
 
-    private void autoScaleProfile(FabricService service, final ContainerAutoScaler autoScaler, FabricRequirements requirements, ProfileRequirements profileRequirement, AutoScaleStatus status) {
-        final String profile = profileRequirement.getProfile();
-        Integer minimumInstances = profileRequirement.getMinimumInstances();
-        Integer maximumInstances = profileRequirement.getMaximumInstances();
-        if (maximumInstances != null || minimumInstances != null) {
-            if (maximumInstances != null) {
-                List<Container> containers = Containers.aliveAndSuccessfulContainersForProfile(profile, service);
-                int count = containers.size();
-                int delta = count - maximumInstances;
-                if (delta > 0) {
-                    stopContainers(containers, autoScaler, requirements, profileRequirement, status, delta);
-                }
-            }
-            if (minimumInstances != null) {
-                // lets check if we need to provision more
-                List<Container> containers = Containers.aliveOrPendingContainersForProfile(profile, service);
-                int count = containers.size();
-                int delta = minimumInstances - count;
-                try {
-                    AutoScaleProfileStatus profileStatus = status.profileStatus(profile);
-                    if (delta < 0) {
-                        profileStatus.destroyingContainer();
-                        autoScaler.destroyContainers(profile, -delta, containers);
-                    } else if (delta > 0) {
-                        if (AutoScalers.requirementsSatisfied(service, requirements, profileRequirement, status)) {
-                            profileStatus.creatingContainer();
-                            String requirementsVersion = requirements.getVersion();
-                            final String version = Strings.isNotBlank(requirementsVersion) ? requirementsVersion : service.getDefaultVersionId();
-                            final AutoScaleRequest command = new AutoScaleRequest(service, version, profile, delta, requirements, profileRequirement, status);
-                            new Thread("Creating container for " + command.getProfile()) {
-                                @Override
-                                public void run() {
-                                    try {
-                                        autoScaler.createContainers(command);
-                                    } catch (Exception e) {
-                                        LOGGER.error("Failed to create container of profile: " + profile + ". Caught: " + e, e);
-                                    }
-                                }
-                            }.start();
-                        }
-                    } else {
-                        profileStatus.provisioned();
-                    }
-                } catch (Exception e) {
-                    LOGGER.error("Failed to auto-scale " + profile + ". Caught: " + e, e);
-                }
+    private void autoScaleProfile(FabricService service, ContainerAutoScaler autoScaler, FabricRequirements requirements, AutoScalePlanner.ProfilePlan plan, AutoScaleStatus status) {
+        String profile = plan.getProfile();
+        if (!plan.getStopContainers().isEmpty()) {
+            stopContainers(plan.getStopContainers(), status.profileStatus(profile));
+        }
+        try {
+            AutoScaleProfileStatus profileStatus = status.profileStatus(profile);
+            if (plan.getDestroyCount() > 0) {
+                profileStatus.destroyingContainer();
+                autoScaler.destroyContainers(profile, plan.getDestroyCount(), plan.getDestroyCandidates());
+            } else if (plan.getCreateCount() > 0) {
+                profileStatus.creatingContainer();
+                String requirementsVersion = requirements.getVersion();
+                String version = Strings.isNotBlank(requirementsVersion) ? requirementsVersion : service.getDefaultVersionId();
+                AutoScaleRequest command = new AutoScaleRequest(service, version, profile, plan.getCreateCount(), requirements, plan.getProfileRequirements(), status);
+                submitCreation(autoScaler, command);
             }
+        } catch (Exception e) {
+            LOGGER.error("Failed to auto-scale " + profile + ". Caught: " + e, e);
         }
     }
 
-    protected void stopContainers(List<Container> containers, ContainerAutoScaler autoScaler, FabricRequirements requirements, ProfileRequirements profileRequirement, AutoScaleStatus status, int delta) {
-        final String profile = profileRequirement.getProfile();
-        AutoScaleProfileStatus profileStatus = status.profileStatus(profile);
-
-        // TODO sort the containers using some kind of requirements sorting order
-        List<Container> sorted = new ArrayList<>(containers);
-
-        // lets stop the ones at the end of the list by default
-        Collections.reverse(sorted);
+    /**
+     * Creates the containers on the creation pool unless the profile is still being created by a previous request.
+     * If the auto scaler already has its maximum number of creations in progress the request is queued
+     * until one of them completes.
+     */
+    protected void submitCreation(ContainerAutoScaler autoScaler, AutoScaleRequest command) {
+        String profile = command.getProfile();
+        if (!creatingProfiles.add(profile)) {
+            LOGGER.debug("Still creating containers for profile " + profile);
+            return;
+        }
+        String provider = autoScaler.getClass().getName();
+        ProviderCreations creations = providerCreations.get(provider);
+        if (creations == null) {
+            providerCreations.putIfAbsent(provider, new ProviderCreations(provider));
+            creations = providerCreations.get(provider);
+        }
+        creations.submit(new Creation(autoScaler, command));
+    }
 
+    protected void stopContainers(List<Container> containers, AutoScaleProfileStatus profileStatus) {
         List<String> stoppingContainerIds = new ArrayList<>();
-        for (int i = 0; i < delta; i++) {
-            if (i >= sorted.size()) {
-                break;
-            }
-            Container container = sorted.get(i);
+        for (Container container : containers) {
             stoppingContainerIds.add(container.getId());
             profileStatus.stoppingContainers(stoppingContainerIds);
             container.stop(true);
-
         }
     }
 
@@ -304,6 +322,87 @@ public final class AutoScaleController extends AbstractComponent implements Grou
         return state;
     }
 
+    /**
+     * A request to create the containers of a profile
+     */
+    private final class Creation implements Runnable {
+        private final ContainerAutoScaler autoScaler;
+        private final AutoScaleRequest command;
+
+        Creation(ContainerAutoScaler autoScaler, AutoScaleRequest command) {
+            this.autoScaler = autoScaler;
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            try {
+                autoScaler.createContainers(command);
+            } catch (Exception e) {
+                LOGGER.error("Failed to create container of profile: " + command.getProfile() + ". Caught: " + e, e);
+            } finally {
+                creatingProfiles.remove(command.getProfile());
+            }
+        }
+    }
+
+    /**
+     * The creations of one kind of auto scaler, which run on the creation pool
+     * at most {@link #maximumConcurrentCreationsPerProvider} at a time in the order they were submitted
+     */
+    private final class ProviderCreations {
+        private final String provider;
+        private final Semaphore permits = new Semaphore(maximumConcurrentCreationsPerProvider);
+        private final Queue<Creation> pending = new ConcurrentLinkedQueue<Creation>();
+
+        ProviderCreations(String provider) {
+            this.provider = provider;
+        }
+
+        void submit(Creation creation) {
+            if (permits.availablePermits() == 0) {
+                LOGGER.debug("Queueing the creation of profile " + creation.command.getProfile() + " as " + provider + " is busy");
+            }
+            pending.add(creation);
+            drain();
+        }
+
+        private void drain() {
+            while (!pending.isEmpty() && permits.tryAcquire()) {
+                final Creation creation = pending.poll();
+                if (creation == null) {
+                    permits.release();
+                    continue;
+                }
+                try {
+                    creationExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                creation.run();
+                            } finally {
+                                permits.release();
+                                drain();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    creatingProfiles.remove(creation.command.getProfile());
+                    LOGGER.warn("Could not create container of profile: " + creation.command.getProfile() + " as the auto scaler is shutting down");
+                }
+            }
+        }
+    }
+
+    void bindConfigurer(Configurer configurer) {
+        this.configurer = configurer;
+    }
+
+    void unbindConfigurer(Configurer configurer) {
+        this.configurer = null;
+    }
+
     void bindFabricService(FabricService fabricService) {
         this.fabricService.bind(fabricService);
     }
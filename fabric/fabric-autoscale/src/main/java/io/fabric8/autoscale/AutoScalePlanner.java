@@ -0,0 +1,226 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.autoscale;
+
+import io.fabric8.api.AutoScaleStatus;
+import io.fabric8.api.Container;
+import io.fabric8.api.FabricRequirements;
+import io.fabric8.api.ProfileRequirements;
+import io.fabric8.internal.autoscale.AutoScalers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Plans the scaling of all the profile requirements in a single pass over one snapshot of the containers,
+ * so that the state of each container is only read once per auto scale rather than once per profile.
+ * The plans are returned in dependency order so that dependent profiles are created after the profiles they depend on.
+ */
+public class AutoScalePlanner {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AutoScalePlanner.class);
+
+    private final Map<String, List<Container>> aliveAndSuccessfulContainers = new HashMap<>();
+    private final Map<String, List<Container>> aliveOrPendingContainers = new HashMap<>();
+
+    public AutoScalePlanner(Container[] containers) {
+        if (containers != null) {
+            for (Container container : containers) {
+                boolean alive = container.isAlive();
+                boolean provisioningPending = container.isProvisioningPending();
+                boolean success = alive && !provisioningPending && Container.PROVISION_SUCCESS.equals(container.getProvisionResult());
+                List<String> profileIds = container.getProfileIds();
+                if (profileIds == null) {
+                    continue;
+                }
+                for (String profileId : profileIds) {
+                    if (success) {
+                        containersFor(aliveAndSuccessfulContainers, profileId).add(container);
+                    }
+                    if (alive || provisioningPending) {
+                        containersFor(aliveOrPendingContainers, profileId).add(container);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the alive containers of the given profile which have completed provisioning successfully
+     */
+    public List<Container> getAliveAndSuccessfulContainers(String profile) {
+        return lookup(aliveAndSuccessfulContainers, profile);
+    }
+
+    /**
+     * Returns the alive containers of the given profile and those still being provisioned
+     */
+    public List<Container> getAliveOrPendingContainers(String profile) {
+        return lookup(aliveOrPendingContainers, profile);
+    }
+
+    /**
+     * Returns the plans of the profile requirements with minimum or maximum instances in dependency order,
+     * updating the status of the profiles which are provisioned or missing a dependency
+     */
+    public List<ProfilePlan> plan(FabricRequirements requirements, AutoScaleStatus status) {
+        List<ProfilePlan> answer = new ArrayList<>();
+        for (ProfileRequirements profileRequirement : sortByDependencies(requirements.getProfileRequirements())) {
+            String profile = profileRequirement.getProfile();
+            Integer minimumInstances = profileRequirement.getMinimumInstances();
+            Integer maximumInstances = profileRequirement.getMaximumInstances();
+            if (minimumInstances == null && maximumInstances == null) {
+                continue;
+            }
+            ProfilePlan plan = new ProfilePlan(profileRequirement);
+            if (maximumInstances != null) {
+                List<Container> containers = getAliveAndSuccessfulContainers(profile);
+                int delta = containers.size() - maximumInstances;
+                if (delta > 0) {
+                    // lets stop the ones at the end of the list by default
+                    List<Container> sorted = new ArrayList<>(containers);
+                    Collections.reverse(sorted);
+                    plan.stopContainers = sorted.subList(0, delta);
+                }
+            }
+            if (minimumInstances != null) {
+                List<Container> containers = getAliveOrPendingContainers(profile);
+                int delta = minimumInstances - containers.size();
+                if (delta < 0) {
+                    plan.destroyCount = -delta;
+                    plan.destroyCandidates = containers;
+                } else if (delta > 0) {
+                    if (AutoScalers.requirementsSatisfied(requirements, profileRequirement, status, aliveAndSuccessfulContainers)) {
+                        plan.createCount = delta;
+                    }
+                } else {
+                    status.profileStatus(profile).provisioned();
+                }
+            }
+            answer.add(plan);
+        }
+        return answer;
+    }
+
+    /**
+     * Sorts the profile requirements so that every profile comes after the profiles it depends on,
+     * keeping the configured order otherwise. A dependency cycle is broken at the dependency which closes it.
+     */
+    public static List<ProfileRequirements> sortByDependencies(List<ProfileRequirements> profileRequirements) {
+        List<ProfileRequirements> answer = new ArrayList<>();
+        if (profileRequirements == null) {
+            return answer;
+        }
+        Map<String, ProfileRequirements> remaining = new LinkedHashMap<>();
+        for (ProfileRequirements profileRequirement : profileRequirements) {
+            remaining.put(profileRequirement.getProfile(), profileRequirement);
+        }
+        Set<String> visiting = new HashSet<>();
+        while (!remaining.isEmpty()) {
+            ProfileRequirements next = remaining.values().iterator().next();
+            addWithDependencies(next, remaining, visiting, answer);
+        }
+        return answer;
+    }
+
+    private static void addWithDependencies(ProfileRequirements profileRequirement, Map<String, ProfileRequirements> remaining, Set<String> visiting, List<ProfileRequirements> answer) {
+        String profile = profileRequirement.getProfile();
+        visiting.add(profile);
+        List<String> dependentProfiles = profileRequirement.getDependentProfiles();
+        if (dependentProfiles != null) {
+            for (String dependentProfile : dependentProfiles) {
+                ProfileRequirements dependency = remaining.get(dependentProfile);
+                if (dependency == null) {
+                    continue;
+                }
+                if (visiting.contains(dependentProfile)) {
+                    LOGGER.warn("Profile " + profile + " has a cyclic dependency on profile " + dependentProfile);
+                } else {
+                    addWithDependencies(dependency, remaining, visiting, answer);
+                }
+            }
+        }
+        visiting.remove(profile);
+        if (remaining.remove(profile) != null) {
+            answer.add(profileRequirement);
+        }
+    }
+
+    private static List<Container> containersFor(Map<String, List<Container>> map, String profile) {
+        List<Container> answer = map.get(profile);
+        if (answer == null) {
+            answer = new ArrayList<>();
+            map.put(profile, answer);
+        }
+        return answer;
+    }
+
+    private static List<Container> lookup(Map<String, List<Container>> map, String profile) {
+        List<Container> answer = map.get(profile);
+        return answer != null ? answer : Collections.<Container>emptyList();
+    }
+
+    /**
+     * The scaling actions for a single profile
+     */
+    public static class ProfilePlan {
+        private final ProfileRequirements profileRequirements;
+        private List<Container> stopContainers = Collections.emptyList();
+        private int destroyCount;
+        private List<Container> destroyCandidates = Collections.emptyList();
+        private int createCount;
+
+        public ProfilePlan(ProfileRequirements profileRequirements) {
+            this.profileRequirements = profileRequirements;
+        }
+
+        @Override
+        public String toString() {
+            return "ProfilePlan{profile=" + getProfile() + ", stop=" + stopContainers.size() + ", destroy=" + destroyCount + ", create=" + createCount + "}";
+        }
+
+        public ProfileRequirements getProfileRequirements() {
+            return profileRequirements;
+        }
+
+        public String getProfile() {
+            return profileRequirements.getProfile();
+        }
+
+        public List<Container> getStopContainers() {
+            return stopContainers;
+        }
+
+        public int getDestroyCount() {
+            return destroyCount;
+        }
+
+        public List<Container> getDestroyCandidates() {
+            return destroyCandidates;
+        }
+
+        public int getCreateCount() {
+            return createCount;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.autoscale;
+
+import io.fabric8.api.AutoScaleStatus;
+import io.fabric8.api.Container;
+import io.fabric8.api.FabricRequirements;
+import io.fabric8.api.ProfileRequirements;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+public class AutoScalePlannerTest extends Assert {
+
+    // Fixtures
+
+    AutoScaleStatus status = new AutoScaleStatus();
+
+    // Tests
+
+    @Test
+    public void shouldSortProfilesAfterTheirDependencies() {
+        // Given
+        List<ProfileRequirements> requirements = Arrays.asList(
+                new ProfileRequirements("web", 1, null, "db", "mq"),
+                new ProfileRequirements("mq", 1, null, "zk"),
+                new ProfileRequirements("db", 1),
+                new ProfileRequirements("zk", 1));
+
+        // When
+        List<String> sorted = profiles(AutoScalePlanner.sortByDependencies(requirements));
+
+        // Then
+        assertEquals(Arrays.asList("db", "zk", "mq", "web"), sorted);
+    }
+
+    @Test
+    public void shouldKeepTheConfiguredOrderWithoutDependencies() {
+        // Given
+        List<ProfileRequirements> requirements = Arrays.asList(
+                new ProfileRequirements("b", 1),
+                new ProfileRequirements("a", 1, null, "missing"),
+                new ProfileRequirements("c", 1));
+
+        // When
+        List<String> sorted = profiles(AutoScalePlanner.sortByDependencies(requirements));
+
+        // Then
+        assertEquals(Arrays.asList("b", "a", "c"), sorted);
+        assertTrue(AutoScalePlanner.sortByDependencies(null).isEmpty());
+    }
+
+    @Test
+    public void shouldBreakDependencyCycles() {
+        // Given
+        List<ProfileRequirements> requirements = Arrays.asList(
+                new ProfileRequirements("a", 1, null, "b"),
+                new ProfileRequirements("b", 1, null, "c"),
+                new ProfileRequirements("c", 1, null, "a"),
+                new ProfileRequirements("d", 1, null, "d"));
+
+        // When
+        List<String> sorted = profiles(AutoScalePlanner.sortByDependencies(requirements));
+
+        // Then
+        assertEquals(Arrays.asList("c", "b", "a", "d"), sorted);
+    }
+
+    @Test
+    public void shouldPlanStopsAndCreations() {
+        // Given
+        Container web1 = container("web1", true, false, Container.PROVISION_SUCCESS, "web");
+        Container web2 = container("web2", true, false, Container.PROVISION_SUCCESS, "web");
+        Container web3 = container("web3", true, false, Container.PROVISION_SUCCESS, "web");
+        Container mq1 = container("mq1", false, true, null, "mq");
+        FabricRequirements requirements = new FabricRequirements(new ArrayList<ProfileRequirements>(Arrays.asList(
+                new ProfileRequirements("web", null, 1),
+                new ProfileRequirements("mq", 3),
+                new ProfileRequirements("ignored"))));
+        AutoScalePlanner planner = new AutoScalePlanner(new Container[]{web1, web2, web3, mq1});
+
+        // When
+        List<AutoScalePlanner.ProfilePlan> plans = planner.plan(requirements, status);
+
+        // Then
+        assertEquals(2, plans.size());
+        AutoScalePlanner.ProfilePlan mq = plans.get(0);
+        assertEquals("mq", mq.getProfile());
+        assertEquals(2, mq.getCreateCount());
+        assertEquals(0, mq.getDestroyCount());
+        assertTrue(mq.getStopContainers().isEmpty());
+        AutoScalePlanner.ProfilePlan web = plans.get(1);
+        assertEquals("web", web.getProfile());
+        assertEquals(Arrays.asList(web3, web2), web.getStopContainers());
+        assertEquals(0, web.getCreateCount());
+    }
+
+    @Test
+    public void shouldPlanDestroysOfSurplusContainers() {
+        // Given
+        Container mq1 = container("mq1", true, false, Container.PROVISION_SUCCESS, "mq");
+        Container mq2 = container("mq2", false, true, null, "mq");
+        FabricRequirements requirements = new FabricRequirements(new ArrayList<ProfileRequirements>(Arrays.asList(
+                new ProfileRequirements("mq", 1))));
+        AutoScalePlanner planner = new AutoScalePlanner(new Container[]{mq1, mq2});
+
+        // When
+        AutoScalePlanner.ProfilePlan plan = planner.plan(requirements, status).get(0);
+
+        // Then
+        assertEquals(1, plan.getDestroyCount());
+        assertEquals(Arrays.asList(mq1, mq2), plan.getDestroyCandidates());
+        assertEquals(0, plan.getCreateCount());
+    }
+
+    @Test
+    public void shouldNotCreateBeforeTheDependenciesAreProvisioned() {
+        // Given
+        Container db1 = container("db1", false, true, null, "db");
+        FabricRequirements requirements = new FabricRequirements(new ArrayList<ProfileRequirements>(Arrays.asList(
+                new ProfileRequirements("web", 2, null, "db"),
+                new ProfileRequirements("db", 1))));
+        AutoScalePlanner planner = new AutoScalePlanner(new Container[]{db1});
+
+        // When
+        List<AutoScalePlanner.ProfilePlan> plans = planner.plan(requirements, status);
+
+        // Then
+        assertEquals("db", plans.get(0).getProfile());
+        assertEquals(0, plans.get(0).getCreateCount());
+        assertEquals("web", plans.get(1).getProfile());
+        assertEquals(0, plans.get(1).getCreateCount());
+        assertEquals("db", status.profileStatus("web").getDependentProfile());
+        assertEquals(Integer.valueOf(0), status.profileStatus("web").getCurrentInstances());
+    }
+
+    @Test
+    public void shouldCreateOnceTheDependenciesAreProvisioned() {
+        // Given
+        Container db1 = container("db1", true, false, Container.PROVISION_SUCCESS, "db");
+        FabricRequirements requirements = new FabricRequirements(new ArrayList<ProfileRequirements>(Arrays.asList(
+                new ProfileRequirements("web", 2, null, "db"),
+                new ProfileRequirements("db", 1))));
+        AutoScalePlanner planner = new AutoScalePlanner(new Container[]{db1});
+
+        // When
+        List<AutoScalePlanner.ProfilePlan> plans = planner.plan(requirements, status);
+
+        // Then
+        assertEquals(2, plans.get(1).getCreateCount());
+        assertNull(status.profileStatus("web").getDependentProfile());
+    }
+
+    private static Container container(String id, boolean alive, boolean provisioningPending, String provisionResult, String... profileIds) {
+        Container container = mock(Container.class);
+        given(container.getId()).willReturn(id);
+        given(container.isAlive()).willReturn(alive);
+        given(container.isProvisioningPending()).willReturn(provisioningPending);
+        given(container.getProvisionResult()).willReturn(provisionResult);
+        given(container.getProfileIds()).willReturn(Arrays.asList(profileIds));
+        return container;
+    }
+
+    private static List<String> profiles(List<ProfileRequirements> requirements) {
+        List<String> answer = new ArrayList<>();
+        for (ProfileRequirements requirement : requirements) {
+            answer.add(requirement.getProfile());
+        }
+        return answer;
+    }
+
+}
@@ -28,13 +28,17 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.felix.scr.annotations.Activate;
@@ -71,6 +75,18 @@ public final class FabricConfigAdminBridge extends AbstractComponent implements
     private final ValidatingReference<URLStreamHandlerService> urlHandler = new ValidatingReference<URLStreamHandlerService>();
 
     private final ExecutorService executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("fabric-configadmin"));
+    private final AtomicBoolean updatePending = new AtomicBoolean();
+
+    /**
+     * The fabric managed configurations indexed by their fabric zookeeper pid, so that a profile change
+     * only lists the configurations of the configuration admin once rather than once per pid
+     */
+    private final Map<String, Configuration> fabricConfigurations = new HashMap<String, Configuration>();
+    /**
+     * The content last applied to each fabric managed configuration
+     */
+    private final Map<String, Hashtable<String, Object>> appliedConfigurations = new HashMap<String, Hashtable<String, Object>>();
+    private volatile boolean reindexRequired = true;
 
     @Activate
     void activate() {
@@ -97,10 +113,17 @@ public final class FabricConfigAdminBridge extends AbstractComponent implements
         submitUpdateJob();
     }
 
+    /**
+     * Submits an update unless one is already waiting to run, so that a burst of profile changes results in a single update
+     */
     private void submitUpdateJob() {
+        if (!updatePending.compareAndSet(false, true)) {
+            return;
+        }
         executor.submit(new Runnable() {
             @Override
             public void run() {
+                updatePending.set(false);
                 if (isValid()) {
                     try {
                         updateInternal();
@@ -116,7 +139,7 @@ public final class FabricConfigAdminBridge extends AbstractComponent implements
         });
     }
 
-    private synchronized void updateInternal() throws Exception {
+    private void updateInternal() throws Exception {
         
         Container currentContainer = fabricService.get().getCurrentContainer();
         if (currentContainer == null) {
@@ -126,43 +149,93 @@ public final class FabricConfigAdminBridge extends AbstractComponent implements
         Profile overlayProfile = currentContainer.getOverlayProfile();
         Profile effectiveProfile = Profiles.getEffectiveProfile(fabricService.get(), overlayProfile);
         
-        Map<String, Map<String, String>> configurations = effectiveProfile.getConfigurations();
-        List<Configuration> zkConfigs = asList(configAdmin.get().listConfigurations("(" + FABRIC_ZOOKEEPER_PID + "=*)"));
-        
-        // FABRIC-803: the agent may use the configuration provided by features definition if not managed
-        //   by fabric.  However, in order for this to work, we need to make sure managed configurations
-        //   are all registered before the agent kicks in.  Hence, the agent configuration is updated
-        //   after all other configurations.
-        
-        // Process all configurations but agent
-        for (String pid : configurations.keySet()) {
-            if (!pid.equals(Constants.AGENT_PID)) {
-                Hashtable<String, Object> c = new Hashtable<String, Object>();
-                c.putAll(configurations.get(pid));
-                updateConfig(zkConfigs, pid, c);
+        updateConfigurations(effectiveProfile.getConfigurations(), effectiveProfile.getProfileHash());
+    }
+
+    /**
+     * Updates and deletes the fabric managed configurations whose content differs from the given configurations
+     * of the effective profile
+     */
+    synchronized void updateConfigurations(Map<String, Map<String, String>> configurations, String profileHash) throws Exception {
+        try {
+            List<Configuration> zkConfigs = new ArrayList<Configuration>();
+            if (reindexRequired) {
+                reindexRequired = false;
+                zkConfigs.addAll(reindexConfigurations());
             }
-        }
-        // Process agent configuration last
-        for (String pid : configurations.keySet()) {
-            if (pid.equals(Constants.AGENT_PID)) {
-                Hashtable<String, Object> c = new Hashtable<String, Object>();
-                c.putAll(configurations.get(pid));
-                c.put(Profile.HASH, String.valueOf(effectiveProfile.getProfileHash()));
-                updateConfig(zkConfigs, pid, c);
+
+            // FABRIC-803: the agent may use the configuration provided by features definition if not managed
+            //   by fabric.  However, in order for this to work, we need to make sure managed configurations
+            //   are all registered before the agent kicks in.  Hence, the agent configuration is updated
+            //   after all other configurations.
+
+            // Process all configurations but agent
+            for (String pid : configurations.keySet()) {
+                if (!pid.equals(Constants.AGENT_PID)) {
+                    Hashtable<String, Object> c = new Hashtable<String, Object>();
+                    c.putAll(configurations.get(pid));
+                    updateConfig(pid, c);
+                }
+            }
+            // Process agent configuration last
+            for (String pid : configurations.keySet()) {
+                if (pid.equals(Constants.AGENT_PID)) {
+                    Hashtable<String, Object> c = new Hashtable<String, Object>();
+                    c.putAll(configurations.get(pid));
+                    c.put(Profile.HASH, String.valueOf(profileHash));
+                    updateConfig(pid, c);
+                }
+            }
+            Set<String> removedPids = new HashSet<String>(fabricConfigurations.keySet());
+            removedPids.removeAll(configurations.keySet());
+            for (String pid : removedPids) {
+                zkConfigs.add(fabricConfigurations.remove(pid));
+                appliedConfigurations.remove(pid);
+            }
+            for (Configuration config : zkConfigs) {
+                LOGGER.info("Deleting configuration {}", config.getPid());
+                fabricService.get().getPortService().unregisterPort(fabricService.get().getCurrentContainer(), config.getPid());
+                config.delete();
             }
+        } catch (Exception e) {
+            // the index may no longer match the configuration admin
+            reindexRequired = true;
+            throw e;
         }
-        for (Configuration config : zkConfigs) {
-            LOGGER.info("Deleting configuration {}", config.getPid());
-            fabricService.get().getPortService().unregisterPort(fabricService.get().getCurrentContainer(), config.getPid());
-            config.delete();
+    }
+
+    /**
+     * Rebuilds the index of the fabric managed configurations, returning the duplicate configurations of a pid to be deleted
+     */
+    private List<Configuration> reindexConfigurations() throws Exception {
+        fabricConfigurations.clear();
+        appliedConfigurations.clear();
+        List<Configuration> duplicates = new ArrayList<Configuration>();
+        for (Configuration config : asList(configAdmin.get().listConfigurations("(" + FABRIC_ZOOKEEPER_PID + "=*)"))) {
+            Dictionary<String, Object> props = config.getProperties();
+            Object zooKeeperPid = props != null ? props.get(FABRIC_ZOOKEEPER_PID) : null;
+            if (zooKeeperPid == null || fabricConfigurations.containsKey(zooKeeperPid.toString())) {
+                duplicates.add(config);
+            } else {
+                fabricConfigurations.put(zooKeeperPid.toString(), config);
+            }
         }
+        return duplicates;
     }
 
-    private void updateConfig(List<Configuration> configs, String pid, Hashtable<String, Object> c) throws Exception {
-        String p[] = parsePid(pid);
-        //Get the configuration by fabric zookeeper pid, pid and factory pid.
-        Configuration config = getConfiguration(configAdmin.get(), pid, p[0], p[1]);
-        configs.remove(config);
+    private void updateConfig(String pid, Hashtable<String, Object> c) throws Exception {
+        Configuration config = fabricConfigurations.get(pid);
+        if (config != null && c.equals(appliedConfigurations.get(pid))) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Ignoring configuration {} (no changes)", config.getPid());
+            }
+            return;
+        }
+        Hashtable<String, Object> content = new Hashtable<String, Object>(c);
+        if (config == null) {
+            String p[] = parsePid(pid);
+            config = createConfiguration(configAdmin.get(), p[0], p[1]);
+        }
         Dictionary<String, Object> props = config.getProperties();
         Hashtable<String, Object> old = props != null ? new Hashtable<String, Object>() : null;
         if (old != null) {
@@ -204,6 +277,8 @@ public final class FabricConfigAdminBridge extends AbstractComponent implements
                 LOGGER.debug("Ignoring configuration {} (no changes)", config.getPid());
             }
         }
+        fabricConfigurations.put(pid, config);
+        appliedConfigurations.put(pid, content);
     }
 
     @SuppressWarnings("unchecked")
@@ -232,28 +307,22 @@ public final class FabricConfigAdminBridge extends AbstractComponent implements
         }
     }
 
-    private Configuration getConfiguration(ConfigurationAdmin configAdmin, String zooKeeperPid, String pid, String factoryPid) throws Exception {
-        String filter = "(" + FABRIC_ZOOKEEPER_PID + "=" + zooKeeperPid + ")";
-        Configuration[] oldConfiguration = configAdmin.listConfigurations(filter);
-        if (oldConfiguration != null && oldConfiguration.length > 0) {
-            return oldConfiguration[0];
+    private Configuration createConfiguration(ConfigurationAdmin configAdmin, String pid, String factoryPid) throws Exception {
+        if (factoryPid != null) {
+            return configAdmin.createFactoryConfiguration(pid, null);
         } else {
-            Configuration newConfiguration;
-            if (factoryPid != null) {
-                newConfiguration = configAdmin.createFactoryConfiguration(pid, null);
-            } else {
-                newConfiguration = configAdmin.getConfiguration(pid, null);
-            }
-            return newConfiguration;
+            return configAdmin.getConfiguration(pid, null);
         }
     }
 
     void bindConfigAdmin(ConfigurationAdmin service) {
         this.configAdmin.bind(service);
+        reindexRequired = true;
     }
 
     void unbindConfigAdmin(ConfigurationAdmin service) {
         this.configAdmin.unbind(service);
+        reindexRequired = true;
     }
 
     void bindFabricService(FabricService fabricService) {
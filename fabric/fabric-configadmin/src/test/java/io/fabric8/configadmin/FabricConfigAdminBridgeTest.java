@@ -0,0 +1,155 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.configadmin;
+
+import io.fabric8.api.Constants;
+import io.fabric8.api.Container;
+import io.fabric8.api.FabricService;
+import io.fabric8.api.PortService;
+import io.fabric8.api.Profile;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+public class FabricConfigAdminBridgeTest {
+
+    private static final int PID_COUNT = 300;
+
+    ConfigurationAdmin configAdmin = mock(ConfigurationAdmin.class);
+    FabricService fabricService = mock(FabricService.class);
+    PortService portService = mock(PortService.class);
+    Container container = mock(Container.class);
+    Map<String, Configuration> configurations = new HashMap<String, Configuration>();
+    Map<String, Map<String, String>> profileConfigurations = new LinkedHashMap<String, Map<String, String>>();
+    FabricConfigAdminBridge bridge = new FabricConfigAdminBridge();
+
+    @Before
+    public void setUp() throws Exception {
+        given(fabricService.getPortService()).willReturn(portService);
+        given(fabricService.getCurrentContainer()).willReturn(container);
+        for (int i = 0; i < PID_COUNT; i++) {
+            String pid = "io.fabric8.test" + i;
+            Configuration configuration = mock(Configuration.class);
+            given(configuration.getPid()).willReturn(pid);
+            given(configAdmin.getConfiguration(pid, null)).willReturn(configuration);
+            configurations.put(pid, configuration);
+            profileConfigurations.put(pid, configuration("value", "" + i));
+        }
+        profileConfigurations.put(Constants.AGENT_PID, configuration("repositories", "http://repo1"));
+        Configuration agentConfiguration = mock(Configuration.class);
+        given(configAdmin.getConfiguration(Constants.AGENT_PID, null)).willReturn(agentConfiguration);
+        configurations.put(Constants.AGENT_PID, agentConfiguration);
+
+        bridge.bindConfigAdmin(configAdmin);
+        bridge.bindFabricService(fabricService);
+        bridge.updateConfigurations(profileConfigurations, "hash1");
+    }
+
+    @Test
+    public void testAllConfigurationsAreCreatedOnFirstUpdate() throws Exception {
+        verify(configAdmin, times(1)).listConfigurations(anyString());
+        for (Configuration configuration : configurations.values()) {
+            verify(configuration).update(any(Dictionary.class));
+        }
+    }
+
+    @Test
+    public void testOnlyTheEditedConfigurationIsUpdated() throws Exception {
+        String editedPid = "io.fabric8.test42";
+        profileConfigurations.put(editedPid, configuration("value", "changed"));
+
+        bridge.updateConfigurations(profileConfigurations, "hash1");
+
+        verify(configAdmin, times(1)).listConfigurations(anyString());
+        verify(configAdmin, times(PID_COUNT + 1)).getConfiguration(anyString(), anyString());
+        verify(configurations.get(editedPid), times(2)).update(any(Dictionary.class));
+        for (Map.Entry<String, Configuration> entry : configurations.entrySet()) {
+            if (!entry.getKey().equals(editedPid)) {
+                verify(entry.getValue(), times(1)).update(any(Dictionary.class));
+            }
+        }
+    }
+
+    @Test
+    public void testConfigurationAdminIsNotCalledWithoutChanges() throws Exception {
+        ConfigurationAdmin otherConfigAdmin = mock(ConfigurationAdmin.class);
+        for (Map.Entry<String, Configuration> entry : configurations.entrySet()) {
+            Hashtable<String, Object> properties = new Hashtable<String, Object>(profileConfigurations.get(entry.getKey()));
+            properties.put(FabricConfigAdminBridge.FABRIC_ZOOKEEPER_PID, entry.getKey());
+            if (entry.getKey().equals(Constants.AGENT_PID)) {
+                properties.put(Profile.HASH, "hash1");
+            }
+            given(entry.getValue().getProperties()).willReturn(properties);
+        }
+        given(otherConfigAdmin.listConfigurations(anyString())).willReturn(configurations.values().toArray(new Configuration[0]));
+        bridge.unbindConfigAdmin(configAdmin);
+        bridge.bindConfigAdmin(otherConfigAdmin);
+        bridge.updateConfigurations(profileConfigurations, "hash1");
+
+        bridge.updateConfigurations(profileConfigurations, "hash1");
+
+        verify(otherConfigAdmin, times(1)).listConfigurations(anyString());
+        verify(otherConfigAdmin, never()).getConfiguration(anyString(), anyString());
+        verify(otherConfigAdmin, never()).createFactoryConfiguration(anyString(), anyString());
+        for (Configuration configuration : configurations.values()) {
+            verify(configuration, times(1)).update(any(Dictionary.class));
+            verify(configuration, never()).delete();
+        }
+    }
+
+    @Test
+    public void testRemovedConfigurationIsDeleted() throws Exception {
+        String removedPid = "io.fabric8.test7";
+        profileConfigurations.remove(removedPid);
+
+        bridge.updateConfigurations(profileConfigurations, "hash1");
+
+        verify(configurations.get(removedPid)).delete();
+        verify(portService).unregisterPort(container, removedPid);
+        verify(configurations.get("io.fabric8.test8"), never()).delete();
+    }
+
+    @Test
+    public void testAgentConfigurationIsUpdatedWhenTheProfileHashChanged() throws Exception {
+        bridge.updateConfigurations(profileConfigurations, "hash2");
+
+        verify(configurations.get(Constants.AGENT_PID), times(2)).update(any(Dictionary.class));
+        verify(configurations.get("io.fabric8.test0"), times(1)).update(any(Dictionary.class));
+        verifyZeroInteractions(portService);
+    }
+
+    private static Map<String, String> configuration(String key, String value) {
+        Map<String, String> answer = new HashMap<String, String>();
+        answer.put(key, value);
+        return answer;
+    }
+}
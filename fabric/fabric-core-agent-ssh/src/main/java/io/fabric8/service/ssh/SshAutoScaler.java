@@ -32,7 +32,9 @@ import io.fabric8.internal.autoscale.LoadSortedHostConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.SortedSet;
 
 /**
@@ -64,9 +66,10 @@ public class SshAutoScaler implements ContainerAutoScaler {
         HostProfileCounter hostProfileCounter = new HostProfileCounter();
         AutoScalers.createHostToProfileScaleMap(hostProfileCounter, hostConfigurations, containers);
 
+        Set<String> createdNames = new HashSet<>();
         for (int i = 0; i < count; i++) {
             CreateSshContainerOptions.Builder builder = null;
-            NameValidator nameValidator = Containers.createNameValidator(containers);
+            NameValidator nameValidator = Containers.createNameValidator(containers, createdNames);
             String name = Containers.createContainerName(containers, profile, containerProvider.getScheme(), nameValidator);
 
             if (fabricService != null) {
@@ -78,6 +81,12 @@ public class SshAutoScaler implements ContainerAutoScaler {
                 CreateSshContainerOptions options = configuredBuilder.name(name).build();
                 LOG.info("Creating container name " + name + " version " + version + " profile " + profile + " " + count + " container(s)");
                 fabricService.createContainers(options);
+                createdNames.add(name);
+
+                // lets count the new container so the next one goes to the then least loaded host
+                String host = builder.getHost();
+                hostProfileCounter.incrementContainers(host);
+                hostProfileCounter.incrementProfileCount(host, profile);
             }
         }
     }
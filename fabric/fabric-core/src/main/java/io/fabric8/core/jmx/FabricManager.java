@@ -206,6 +206,16 @@ public final class FabricManager implements FabricManagerMBean {
         return answer;
     }
 
+    @Override
+    public Map<String, Object> dataStoreReadStatistics() {
+        return fabricService.adapt(DataStore.class).getReadStatistics();
+    }
+
+    @Override
+    public Map<String, Object> dataStoreCacheFootprint() {
+        return fabricService.adapt(DataStore.class).getCacheFootprint();
+    }
+
     @Override
     public Map<String, String> createContainers(Map<String, Object> options) {
 
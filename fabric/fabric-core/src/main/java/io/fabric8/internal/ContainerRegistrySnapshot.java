@@ -0,0 +1,202 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable view of the container registry with secondary indexes by version, profile, parent and alive state.
+ * The registry builds a new snapshot after it changed, so readers never observe a partial update.
+ */
+public final class ContainerRegistrySnapshot {
+
+    public static final ContainerRegistrySnapshot EMPTY = of(Collections.<Entry>emptyList());
+
+    private final Map<String, Entry> containers;
+    private final Map<String, Set<String>> byVersion;
+    private final Map<String, Set<String>> byProfile;
+    private final Map<String, Set<String>> byParent;
+    private final Set<String> alive;
+
+    private ContainerRegistrySnapshot(Map<String, Entry> containers, Map<String, Set<String>> byVersion, Map<String, Set<String>> byProfile,
+                                      Map<String, Set<String>> byParent, Set<String> alive) {
+        this.containers = containers;
+        this.byVersion = byVersion;
+        this.byProfile = byProfile;
+        this.byParent = byParent;
+        this.alive = alive;
+    }
+
+    /**
+     * Builds a snapshot of the given entries in a single pass.
+     */
+    public static ContainerRegistrySnapshot of(Collection<Entry> entries) {
+        Map<String, Entry> containers = new HashMap<String, Entry>();
+        Map<String, Set<String>> byVersion = new HashMap<String, Set<String>>();
+        Map<String, Set<String>> byProfile = new HashMap<String, Set<String>>();
+        Map<String, Set<String>> byParent = new HashMap<String, Set<String>>();
+        Set<String> alive = new HashSet<String>();
+        for (Entry entry : entries) {
+            containers.put(entry.getId(), entry);
+            addToIndex(byVersion, entry.getVersionId(), entry.getId());
+            for (String profileId : entry.getProfileIds()) {
+                addToIndex(byProfile, profileId, entry.getId());
+            }
+            addToIndex(byParent, entry.getParentId(), entry.getId());
+            if (entry.isAlive()) {
+                alive.add(entry.getId());
+            }
+        }
+        freeze(byVersion);
+        freeze(byProfile);
+        freeze(byParent);
+        return new ContainerRegistrySnapshot(containers, byVersion, byProfile, byParent, Collections.unmodifiableSet(alive));
+    }
+
+    public int size() {
+        return containers.size();
+    }
+
+    public Entry getContainer(String id) {
+        return containers.get(id);
+    }
+
+    public Collection<Entry> getContainers() {
+        return Collections.unmodifiableCollection(containers.values());
+    }
+
+    public Set<String> getContainersForVersion(String versionId) {
+        return lookup(byVersion, versionId);
+    }
+
+    /**
+     * Returns the containers that have the given profile assigned in their current version.
+     */
+    public Set<String> getContainersForProfile(String profileId) {
+        return lookup(byProfile, profileId);
+    }
+
+    public Set<String> getContainersForProfile(String versionId, String profileId) {
+        Set<String> answer = new HashSet<String>();
+        for (String id : lookup(byProfile, profileId)) {
+            if (versionId != null && versionId.equals(containers.get(id).getVersionId())) {
+                answer.add(id);
+            }
+        }
+        return answer;
+    }
+
+    public Set<String> getChildren(String parentId) {
+        return lookup(byParent, parentId);
+    }
+
+    public Set<String> getAliveContainers() {
+        return alive;
+    }
+
+    private static Set<String> lookup(Map<String, Set<String>> index, String key) {
+        Set<String> answer = key != null ? index.get(key) : null;
+        return answer != null ? answer : Collections.<String>emptySet();
+    }
+
+    private static void addToIndex(Map<String, Set<String>> index, String key, String id) {
+        if (key == null || key.isEmpty()) {
+            return;
+        }
+        Set<String> ids = index.get(key);
+        if (ids == null) {
+            ids = new HashSet<String>();
+            index.put(key, ids);
+        }
+        ids.add(id);
+    }
+
+    private static void freeze(Map<String, Set<String>> index) {
+        for (Map.Entry<String, Set<String>> entry : index.entrySet()) {
+            entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+        }
+    }
+
+    /**
+     * The registry state of a single container.
+     */
+    public static final class Entry {
+
+        private final String id;
+        private final String parentId;
+        private final String versionId;
+        private final List<String> profileIds;
+        private final boolean alive;
+
+        public Entry(String id, String parentId, String versionId, List<String> profileIds, boolean alive) {
+            this.id = id;
+            this.parentId = parentId != null ? parentId : "";
+            this.versionId = versionId;
+            this.profileIds = profileIds != null ? Collections.unmodifiableList(new ArrayList<String>(profileIds)) : Collections.<String>emptyList();
+            this.alive = alive;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Returns the id of the parent container or an empty string for root containers.
+         */
+        public String getParentId() {
+            return parentId;
+        }
+
+        public String getVersionId() {
+            return versionId;
+        }
+
+        public List<String> getProfileIds() {
+            return profileIds;
+        }
+
+        public boolean isAlive() {
+            return alive;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Entry)) return false;
+            Entry other = (Entry) o;
+            return id.equals(other.id) && parentId.equals(other.parentId) && alive == other.alive
+                    && (versionId != null ? versionId.equals(other.versionId) : other.versionId == null)
+                    && profileIds.equals(other.profileIds);
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{id=" + id + ", parent=" + parentId + ", version=" + versionId + ", profiles=" + profileIds + ", alive=" + alive + "}";
+        }
+    }
+}
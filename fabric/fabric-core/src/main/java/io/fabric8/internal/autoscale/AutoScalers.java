@@ -19,9 +19,7 @@ package io.fabric8.internal.autoscale;
 
 import io.fabric8.api.AutoScaleStatus;
 import io.fabric8.api.Container;
-import io.fabric8.api.Containers;
 import io.fabric8.api.FabricRequirements;
-import io.fabric8.api.FabricService;
 import io.fabric8.api.HostConfiguration;
 import io.fabric8.api.HostScalingRequirements;
 import io.fabric8.api.ProfileRequirements;
@@ -162,8 +160,10 @@ public class AutoScalers {
     /**
      * Returns true if the requirements are satisfied for the given profile requirements; updating the auto scale status
      * accordingly
+     *
+     * @param aliveAndSuccessfulContainers the alive containers which have completed provisioning successfully indexed by profile
      */
-    public static boolean requirementsSatisfied(FabricService service, FabricRequirements requirements, ProfileRequirements profileRequirement, AutoScaleStatus status) {
+    public static boolean requirementsSatisfied(FabricRequirements requirements, ProfileRequirements profileRequirement, AutoScaleStatus status, Map<String, ? extends Collection<Container>> aliveAndSuccessfulContainers) {
         String profile = profileRequirement.getProfile();
         List<String> dependentProfiles = profileRequirement.getDependentProfiles();
         if (dependentProfiles != null) {
@@ -171,8 +171,8 @@ public class AutoScalers {
                 ProfileRequirements dependentProfileRequirements = requirements.getOrCreateProfileRequirement(dependentProfile);
                 Integer minimumInstances = dependentProfileRequirements.getMinimumInstances();
                 if (minimumInstances != null) {
-                    List<Container> containers = Containers.aliveAndSuccessfulContainersForProfile(dependentProfile, service);
-                    int dependentSize = containers.size();
+                    Collection<Container> containers = aliveAndSuccessfulContainers.get(dependentProfile);
+                    int dependentSize = containers != null ? containers.size() : 0;
                     if (minimumInstances > dependentSize) {
                         status.profileStatus(profile).missingDependency(dependentProfile, dependentSize, minimumInstances);
                         return false;
@@ -0,0 +1,290 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.service;
+
+import io.fabric8.api.jcip.GuardedBy;
+import io.fabric8.internal.ContainerRegistrySnapshot;
+import io.fabric8.zookeeper.ZkPath;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maintains a {@link ContainerRegistrySnapshot} from the events of the caches of the {@link ZkDataStoreImpl},
+ * reading the container nodes through the data store so that they are served by the same caches.
+ * Every event only recomputes the entry of the container it refers to, and a new snapshot is built
+ * on the first read after a change, so a burst of events costs a single copy of the registry.
+ * The alive state comes from a single watch on the list of alive containers.
+ */
+final class ContainerRegistry implements PathChildrenCacheListener, Closeable {
+
+    private static final transient Logger LOGGER = LoggerFactory.getLogger(ContainerRegistry.class);
+
+    private final ZkDataStoreImpl dataStore;
+    // the initial build and the rebuilds after a reconnection do not block the caller nor the cache events
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "fabric-container-registry");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final AtomicBoolean rebuildPending = new AtomicBoolean();
+    private final AtomicBoolean aliveRefreshPending = new AtomicBoolean();
+    private final Watcher aliveWatcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            if (event.getType() != Event.EventType.None) {
+                scheduleAliveRefresh();
+            }
+        }
+    };
+
+    @GuardedBy("this")
+    private final Map<String, ContainerRegistrySnapshot.Entry> entries = new HashMap<String, ContainerRegistrySnapshot.Entry>();
+    @GuardedBy("this")
+    private final Set<String> alive = new HashSet<String>();
+    @GuardedBy("this")
+    private boolean initialized;
+    // null until the registry is initialized, and after every change until the next read
+    private volatile ContainerRegistrySnapshot snapshot;
+
+    ContainerRegistry(ZkDataStoreImpl dataStore) {
+        this.dataStore = dataStore;
+    }
+
+    void start() {
+        dataStore.addCacheListener(this);
+        scheduleRebuild();
+    }
+
+    @Override
+    public void close() {
+        dataStore.removeCacheListener(this);
+        executor.shutdownNow();
+        synchronized (this) {
+            initialized = false;
+            entries.clear();
+            alive.clear();
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Returns the current snapshot, or null if the registry has not been built yet.
+     */
+    ContainerRegistrySnapshot getSnapshot() {
+        ContainerRegistrySnapshot answer = snapshot;
+        if (answer == null) {
+            synchronized (this) {
+                if (initialized && snapshot == null) {
+                    snapshot = ContainerRegistrySnapshot.of(entries.values());
+                }
+                answer = snapshot;
+            }
+        }
+        return answer;
+    }
+
+    @Override
+    public void childEvent(CuratorFramework client, PathChildrenCacheEvent event) throws Exception {
+        ChildData data = event.getData();
+        switch (event.getType()) {
+            case CHILD_ADDED:
+            case CHILD_UPDATED:
+            case CHILD_REMOVED:
+                if (data != null && data.getPath() != null) {
+                    onNodeChanged(data.getPath(), event.getType() == PathChildrenCacheEvent.Type.CHILD_REMOVED);
+                }
+                break;
+            case CONNECTION_RECONNECTED:
+                scheduleRebuild();
+                break;
+        }
+    }
+
+    private void onNodeChanged(String path, boolean removed) {
+        String[] names;
+        if ((names = relativeNames(ZkPath.CONFIGS_CONTAINERS.getPath(), path)) != null && names.length == 1) {
+            update(names[0]);
+        } else if ((names = relativeNames(ZkPath.CONFIG_VERSIONS.getPath(), path)) != null) {
+            if (names.length == 3 && "containers".equals(names[1])) {
+                update(names[2]);
+            } else if (names.length == 1 && removed) {
+                updateVersion(names[0]);
+            }
+        } else if ((names = relativeNames(ZkPath.CONTAINERS.getPath(), path)) != null) {
+            if ((names.length == 2 && "parent".equals(names[1])) || (names.length == 1 && removed)) {
+                update(names[0]);
+            }
+        }
+    }
+
+    private void scheduleRebuild() {
+        if (rebuildPending.compareAndSet(false, true)) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        rebuildPending.set(false);
+                        try {
+                            rebuild();
+                        } catch (Exception e) {
+                            LOGGER.warn("Failed to build the container registry, container queries will go to the data store: " + e);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // closed
+                rebuildPending.set(false);
+            }
+        }
+    }
+
+    private void scheduleAliveRefresh() {
+        if (aliveRefreshPending.compareAndSet(false, true)) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        aliveRefreshPending.set(false);
+                        try {
+                            refreshAlive();
+                        } catch (Exception e) {
+                            LOGGER.warn("Failed to read the alive containers, rebuilding the container registry: " + e);
+                            scheduleRebuild();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // closed
+                aliveRefreshPending.set(false);
+            }
+        }
+    }
+
+    private synchronized void rebuild() throws Exception {
+        alive.clear();
+        alive.addAll(dataStore.getAliveContainers(aliveWatcher));
+        Map<String, ContainerRegistrySnapshot.Entry> rebuilt = new HashMap<String, ContainerRegistrySnapshot.Entry>();
+        for (String id : dataStore.getContainers()) {
+            ContainerRegistrySnapshot.Entry entry = createEntry(id);
+            if (entry != null) {
+                rebuilt.put(id, entry);
+            }
+        }
+        entries.clear();
+        entries.putAll(rebuilt);
+        initialized = true;
+        snapshot = null;
+    }
+
+    private synchronized void update(String id) {
+        if (!initialized) {
+            // the pending build reads the current state
+            return;
+        }
+        ContainerRegistrySnapshot.Entry entry;
+        try {
+            entry = createEntry(id);
+        } catch (Exception e) {
+            LOGGER.warn("Failed to read container " + id + ", rebuilding the container registry: " + e);
+            scheduleRebuild();
+            return;
+        }
+        ContainerRegistrySnapshot.Entry previous = entry != null ? entries.put(id, entry) : entries.remove(id);
+        if (entry != null ? !entry.equals(previous) : previous != null) {
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Reads the alive containers again, which also sets the watch for the next change, and updates
+     * the entries of the containers that came up or went down.
+     */
+    private synchronized void refreshAlive() throws Exception {
+        Set<String> current = new HashSet<String>(dataStore.getAliveContainers(aliveWatcher));
+        if (!initialized) {
+            return;
+        }
+        Set<String> changed = new HashSet<String>(current);
+        changed.removeAll(alive);
+        for (String id : alive) {
+            if (!current.contains(id)) {
+                changed.add(id);
+            }
+        }
+        alive.clear();
+        alive.addAll(current);
+        for (String id : changed) {
+            update(id);
+        }
+    }
+
+    private synchronized void updateVersion(String versionId) {
+        List<String> ids = new ArrayList<String>();
+        for (ContainerRegistrySnapshot.Entry entry : entries.values()) {
+            if (versionId.equals(entry.getVersionId())) {
+                ids.add(entry.getId());
+            }
+        }
+        for (String id : ids) {
+            update(id);
+        }
+    }
+
+    /**
+     * Creates the entry of a container from the cached nodes, returns null if the container does not exist.
+     */
+    private ContainerRegistrySnapshot.Entry createEntry(String id) {
+        String versionId = dataStore.getContainerVersion(id);
+        if (versionId == null) {
+            return null;
+        }
+        return new ContainerRegistrySnapshot.Entry(id, dataStore.getContainerParent(id), versionId.trim(),
+                dataStore.getContainerProfiles(id), alive.contains(id));
+    }
+
+    /**
+     * Returns the names below the given root, or null if the path is not below it.
+     */
+    private static String[] relativeNames(String root, String path) {
+        if (path.length() <= root.length() + 1 || !path.startsWith(root) || path.charAt(root.length()) != '/') {
+            return null;
+        }
+        return path.substring(root.length() + 1).split("/");
+    }
+}
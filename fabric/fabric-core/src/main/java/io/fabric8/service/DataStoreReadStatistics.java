@@ -0,0 +1,88 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per operation read counters of the {@link ZkDataStoreImpl}.
+ * A read is either served from one of the local caches or goes to the ensemble.
+ */
+final class DataStoreReadStatistics {
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+
+    void record(String operation, long startNanos, boolean cached) {
+        Counter counter = counters.get(operation);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = counters.putIfAbsent(operation, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.record(System.nanoTime() - startNanos, cached);
+    }
+
+    void reset() {
+        counters.clear();
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> answer = new TreeMap<String, Object>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            answer.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return answer;
+    }
+
+    private static final class Counter {
+
+        private final AtomicLong reads = new AtomicLong();
+        private final AtomicLong cachedReads = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos, boolean cached) {
+            reads.incrementAndGet();
+            if (cached) {
+                cachedReads.incrementAndGet();
+            }
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        Map<String, Object> toMap() {
+            long count = reads.get();
+            long total = totalNanos.get();
+            Map<String, Object> answer = new TreeMap<String, Object>();
+            answer.put("reads", count);
+            answer.put("cachedReads", cachedReads.get());
+            answer.put("totalMicros", TimeUnit.NANOSECONDS.toMicros(total));
+            answer.put("meanMicros", count > 0 ? TimeUnit.NANOSECONDS.toMicros(total / count) : 0L);
+            answer.put("maxMicros", TimeUnit.NANOSECONDS.toMicros(maxNanos.get()));
+            return answer;
+        }
+    }
+}
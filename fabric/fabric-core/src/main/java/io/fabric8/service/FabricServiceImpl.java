@@ -77,7 +77,9 @@ import io.fabric8.api.scr.AbstractComponent;
 import io.fabric8.api.scr.Configurer;
 import io.fabric8.api.scr.ValidatingReference;
 import io.fabric8.api.visibility.VisibleForTesting;
+import io.fabric8.common.util.Closeables;
 import io.fabric8.internal.ContainerImpl;
+import io.fabric8.internal.ContainerRegistrySnapshot;
 import io.fabric8.internal.ProfileDependencyConfig;
 import io.fabric8.internal.ProfileDependencyKind;
 import io.fabric8.utils.DataStoreUtils;
@@ -177,16 +179,27 @@ public final class FabricServiceImpl extends AbstractComponent implements Fabric
 
     private String defaultRepo = FabricService.DEFAULT_REPO_URI;
     private BundleContext bundleContext;
+    private ContainerRegistry containerRegistry;
 
     @Activate
     void activate(BundleContext bundleContext) {
         this.bundleContext = bundleContext;
+        DataStore store = dataStore.get();
+        if (store instanceof ZkDataStoreImpl) {
+            // built in the background from the data store caches, container queries go to the data store until then
+            containerRegistry = new ContainerRegistry((ZkDataStoreImpl) store);
+            containerRegistry.start();
+        }
         activateComponent();
     }
 
     @Deactivate
     void deactivate() {
         deactivateComponent();
+        if (containerRegistry != null) {
+            Closeables.closeQuietly(containerRegistry);
+            containerRegistry = null;
+        }
     }
 
     @Override
@@ -269,9 +282,22 @@ public final class FabricServiceImpl extends AbstractComponent implements Fabric
         dataStore.get().untrackConfiguration(callback);
     }
 
+    /**
+     * Returns the current container registry snapshot, or null if the registry is not available.
+     */
+    public ContainerRegistrySnapshot getContainerRegistrySnapshot() {
+        assertValid();
+        ContainerRegistry registry = containerRegistry;
+        return registry != null ? registry.getSnapshot() : null;
+    }
+
     @Override
     public Container[] getContainers() {
         assertValid();
+        ContainerRegistrySnapshot snapshot = getContainerRegistrySnapshot();
+        if (snapshot != null) {
+            return getContainers(snapshot, snapshot.getContainers());
+        }
         Map<String, Container> containers = new HashMap<String, Container>();
         List<String> containerIds = dataStore.get().getContainers();
         for (String containerId : containerIds) {
@@ -297,6 +323,14 @@ public final class FabricServiceImpl extends AbstractComponent implements Fabric
 	@Override
 	public Container[] getAssociatedContainers(String versionId, String profileId) {
 		assertValid();
+        ContainerRegistrySnapshot snapshot = getContainerRegistrySnapshot();
+        if (snapshot != null) {
+            List<ContainerRegistrySnapshot.Entry> entries = new ArrayList<>();
+            for (String id : snapshot.getContainersForProfile(profileId)) {
+                entries.add(snapshot.getContainer(id));
+            }
+            return getContainers(snapshot, entries);
+        }
         List<Container> containers = new ArrayList<>();
         for (Container container : getContainers()) {
         	for (Profile profile : Arrays.asList(container.getProfiles())) {
@@ -308,6 +342,32 @@ public final class FabricServiceImpl extends AbstractComponent implements Fabric
         return containers.toArray(new Container[containers.size()]);
 	}
 
+    /**
+     * Creates the containers for the given registry entries, linking each to its parent.
+     */
+    private Container[] getContainers(ContainerRegistrySnapshot snapshot, Collection<ContainerRegistrySnapshot.Entry> entries) {
+        Map<String, Container> parents = new HashMap<String, Container>();
+        List<Container> containers = new ArrayList<Container>(entries.size());
+        for (ContainerRegistrySnapshot.Entry entry : entries) {
+            containers.add(new ContainerImpl(getParent(snapshot, entry.getParentId(), parents), entry.getId(), this));
+        }
+        return containers.toArray(new Container[containers.size()]);
+    }
+
+    private Container getParent(ContainerRegistrySnapshot snapshot, String parentId, Map<String, Container> parents) {
+        if (parentId.isEmpty()) {
+            return null;
+        }
+        Container parent = parents.get(parentId);
+        if (parent == null) {
+            ContainerRegistrySnapshot.Entry entry = snapshot.getContainer(parentId);
+            Container grandParent = entry != null ? getParent(snapshot, entry.getParentId(), parents) : null;
+            parent = new ContainerImpl(grandParent, parentId, this);
+            parents.put(parentId, parent);
+        }
+        return parent;
+    }
+
     @Override
     public Container getContainer(String name) {
         assertValid();
@@ -884,9 +944,17 @@ public final class FabricServiceImpl extends AbstractComponent implements Fabric
                 versionId = version.getId();
             }
         }
-        List<Container> containers = Containers.containersForProfile(getContainers(), profileId, versionId);
-        for (Container container : containers) {
-            String url = containerWebAppURL(webAppId, container.getId());
+        ContainerRegistrySnapshot snapshot = getContainerRegistrySnapshot();
+        List<String> containerIds = new ArrayList<String>();
+        if (snapshot != null) {
+            containerIds.addAll(snapshot.getContainersForProfile(versionId, profileId));
+        } else {
+            for (Container container : Containers.containersForProfile(getContainers(), profileId, versionId)) {
+                containerIds.add(container.getId());
+            }
+        }
+        for (String containerId : containerIds) {
+            String url = containerWebAppURL(webAppId, containerId);
             if (url != null && url.length() > 0) {
                 return url;
             }
@@ -1231,8 +1299,8 @@ public final class FabricServiceImpl extends AbstractComponent implements Fabric
         FabricRequirements requirements = getRequirements();
         ProfileRequirements profileRequirements = requirements.getOrCreateProfileRequirement(profile);
         Integer minimumInstances = profileRequirements.getMinimumInstances();
-        List<Container> containers = Containers.containersForProfile(getContainers(), profile);
-        int containerCount = containers.size();
+        ContainerRegistrySnapshot snapshot = getContainerRegistrySnapshot();
+        int containerCount = snapshot != null ? snapshot.getContainersForProfile(profile).size() : Containers.containersForProfile(getContainers(), profile).size();
         int newCount = containerCount + numberOfInstances;
         if (newCount < 0) {
             newCount = 0;
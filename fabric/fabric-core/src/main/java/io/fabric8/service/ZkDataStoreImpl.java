@@ -18,10 +18,8 @@ package io.fabric8.service;
 import static io.fabric8.zookeeper.ZkPath.CONTAINER_DOMAIN;
 import static io.fabric8.zookeeper.utils.ZooKeeperUtils.deleteSafe;
 import static io.fabric8.zookeeper.utils.ZooKeeperUtils.exists;
-import static io.fabric8.zookeeper.utils.ZooKeeperUtils.getByteData;
 import static io.fabric8.zookeeper.utils.ZooKeeperUtils.getChildrenSafe;
 import static io.fabric8.zookeeper.utils.ZooKeeperUtils.getStringData;
-import static io.fabric8.zookeeper.utils.ZooKeeperUtils.getSubstitutedPath;
 import static io.fabric8.zookeeper.utils.ZooKeeperUtils.setData;
 import io.fabric8.api.AutoScaleStatus;
 import io.fabric8.api.CreateContainerMetadata;
@@ -30,9 +28,11 @@ import io.fabric8.api.DataStore;
 import io.fabric8.api.FabricException;
 import io.fabric8.api.FabricRequirements;
 import io.fabric8.api.FabricService;
+import io.fabric8.api.PathChangeCallback;
 import io.fabric8.api.ProfileService;
 import io.fabric8.api.RuntimeProperties;
 import io.fabric8.api.ZkDefs;
+import io.fabric8.api.jcip.GuardedBy;
 import io.fabric8.api.jcip.ThreadSafe;
 import io.fabric8.api.scr.AbstractComponent;
 import io.fabric8.api.scr.ValidatingReference;
@@ -43,28 +43,40 @@ import io.fabric8.internal.RequirementsJson;
 import io.fabric8.utils.Base64Encoder;
 import io.fabric8.utils.FabricVersionUtils;
 import io.fabric8.zookeeper.ZkPath;
+import io.fabric8.zookeeper.utils.InterpolationHelper;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectStreamClass;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.recipes.cache.ChildData;
 import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
 import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
 import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeData;
+import org.apache.curator.framework.recipes.cache.TreeDataStorage;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.ConfigurationPolicy;
@@ -72,6 +84,8 @@ import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
 import io.fabric8.api.gravia.IllegalArgumentAssertion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -88,6 +102,26 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
     
     private static final String JVM_OPTIONS_PATH = "/fabric/configs/io.fabric8.containers.jvmOptions";
     private static final String REQUIREMENTS_JSON_PATH = "/fabric/configs/io.fabric8.requirements.json";
+
+    /**
+     * Milliseconds without a relevant change after which the configuration callbacks run.
+     */
+    public static final String NOTIFICATION_QUIET_PERIOD = "fabric.datastore.notification.quiet.period";
+    /**
+     * Maximum milliseconds between the first change of a burst and the callbacks running.
+     */
+    public static final String NOTIFICATION_MAX_LATENCY = "fabric.datastore.notification.max.latency";
+    private static final String DEFAULT_NOTIFICATION_QUIET_PERIOD = "100";
+    private static final String DEFAULT_NOTIFICATION_MAX_LATENCY = "1000";
+    /**
+     * If true, the caches deduplicate and compress the node data they keep. Disabled by default.
+     */
+    public static final String CACHE_COMPACT_STORAGE = "fabric.datastore.cache.compact";
+    /**
+     * Maximum number of compressed nodes that are kept inflated.
+     */
+    public static final String CACHE_MAX_INFLATED_ENTRIES = "fabric.datastore.cache.max.inflated.entries";
+    private static final String DEFAULT_CACHE_COMPACT_STORAGE = "false";
     
     @Reference(referenceInterface = CuratorFramework.class)
     private final ValidatingReference<CuratorFramework> curator = new ValidatingReference<CuratorFramework>();
@@ -96,9 +130,22 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
     
     private final CopyOnWriteArrayList<Runnable> callbacks = new CopyOnWriteArrayList<Runnable>();
     private final ExecutorService cacheExecutor = Executors.newSingleThreadExecutor();
-    private final ExecutorService callbacksExecutor = Executors.newSingleThreadExecutor();
+    private final ScheduledExecutorService callbacksExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final DataStoreReadStatistics readStatistics = new DataStoreReadStatistics();
     private TreeCache configCache;
     private TreeCache containerCache;
+    private volatile String currentVersion;
+    private long quietPeriodNanos;
+    private long maxLatencyNanos;
+
+    @GuardedBy("this")
+    private final Set<String> pendingPaths = new LinkedHashSet<String>();
+    @GuardedBy("this")
+    private boolean pendingUnattributedChange;
+    @GuardedBy("this")
+    private long firstPendingNanos;
+    @GuardedBy("this")
+    private ScheduledFuture<?> pendingNotification;
 
     @Activate
     void activate() throws Exception {
@@ -113,14 +160,27 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
     }
     
     private void activateInternal() throws Exception {
-        configCache = new TreeCache(curator.get(), ZkPath.CONFIGS.getPath(), true, false, true, cacheExecutor);
+        RuntimeProperties sysprops = runtimeProperties.get();
+        quietPeriodNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(sysprops.getProperty(NOTIFICATION_QUIET_PERIOD, DEFAULT_NOTIFICATION_QUIET_PERIOD)));
+        maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(sysprops.getProperty(NOTIFICATION_MAX_LATENCY, DEFAULT_NOTIFICATION_MAX_LATENCY)));
+
+        // One storage for all caches, so payloads found in several subtrees are kept once
+        TreeDataStorage storage = null;
+        if (Boolean.parseBoolean(sysprops.getProperty(CACHE_COMPACT_STORAGE, DEFAULT_CACHE_COMPACT_STORAGE))) {
+            int maxInflated = Integer.parseInt(sysprops.getProperty(CACHE_MAX_INFLATED_ENTRIES, String.valueOf(TreeDataStorage.DEFAULT_MAX_INFLATED_ENTRIES)));
+            storage = new TreeDataStorage(TreeDataStorage.DEFAULT_COMPRESSION_THRESHOLD, maxInflated, false);
+        }
+
+        configCache = new TreeCache(curator.get(), ZkPath.CONFIGS.getPath(), true, false, true, cacheExecutor, storage);
         configCache.start(TreeCache.StartMode.NORMAL);
         configCache.getListenable().addListener(this);
 
-        containerCache = new TreeCache(curator.get(), ZkPath.CONTAINERS.getPath(), true, false, true, cacheExecutor);
+        containerCache = new TreeCache(curator.get(), ZkPath.CONTAINERS.getPath(), true, false, true, cacheExecutor, storage);
         containerCache.start(TreeCache.StartMode.NORMAL);
         containerCache.getListenable().addListener(this);
 
+        // Tracked from the cache events from now on
+        currentVersion = getStringData(configCache, ZkPath.CONFIG_CONTAINER.getPath(sysprops.getRuntimeIdentity()));
     }
 
     private void deactivateInternal() {
@@ -130,6 +190,8 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
         containerCache.getListenable().removeListener(this);
         Closeables.closeQuietly(containerCache);
 
+        readStatistics.reset();
+
         callbacksExecutor.shutdownNow();
         cacheExecutor.shutdownNow();
     }
@@ -158,10 +220,14 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
                 case CHILD_REMOVED:
                 case CHILD_UPDATED:
                 case INITIALIZED:
-                    if (shouldRunCallbacks(type, path)) {
+                    String runtimeIdentity = runtimeProperties.get().getRuntimeIdentity();
+                    if (path != null && path.equals(ZkPath.CONFIG_CONTAINER.getPath(runtimeIdentity))) {
+                        currentVersion = type != PathChildrenCacheEvent.Type.CHILD_REMOVED && data != null ? new String(data, "UTF-8").trim() : null;
+                    }
+                    if (shouldRunCallbacks(type, path, runtimeIdentity)) {
                         String s = data != null ? new String(data, "UTF-8") : "";
                         LOGGER.info("Event {} detected on {} with data {}. Sending notification.", type.name(), path, s);
-                        fireChangeNotifications();
+                        scheduleCallbacks(path);
                     }
                     break;
             }
@@ -171,13 +237,12 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
     /**
      * Checks if the container should react to a change in the specified path.
      */
-    private boolean shouldRunCallbacks(PathChildrenCacheEvent.Type type, String path) {
+    private boolean shouldRunCallbacks(PathChildrenCacheEvent.Type type, String path, String runtimeIdentity) {
         if (path == null) {
             return false;
         }
 
-        String runtimeIdentity = runtimeProperties.get().getRuntimeIdentity();
-        String currentVersion = getContainerVersion(runtimeIdentity);
+        String currentVersion = this.currentVersion;
         return (path.startsWith(ZkPath.CONTAINERS.getPath()) && type.equals(PathChildrenCacheEvent.Type.CHILD_UPDATED)) ||
                         path.equals(ZkPath.CONFIG_ENSEMBLES.getPath()) ||
                         path.equals(ZkPath.CONFIG_ENSEMBLE_URL.getPath()) ||
@@ -188,26 +253,66 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
     
     @Override
     public void fireChangeNotifications() {
-        runCallbacks();
+        scheduleCallbacks(null);
     }
-    
-    private void runCallbacks() {
-        callbacksExecutor.submit(new Runnable() {
-            @Override
-            public void run() {
-                doRunCallbacks();
+
+    /**
+     * Adds a change to the pending burst and (re)schedules the callbacks, so that they run once the
+     * burst has been quiet for the quiet period, or at the latest max latency after its first change.
+     *
+     * @param path the changed path, or null if the change cannot be attributed to a path
+     */
+    private synchronized void scheduleCallbacks(String path) {
+        if (path != null) {
+            pendingPaths.add(path);
+        } else {
+            pendingUnattributedChange = true;
+        }
+        long now = System.nanoTime();
+        if (pendingNotification == null) {
+            firstPendingNanos = now;
+        } else {
+            pendingNotification.cancel(false);
+        }
+        long delay = Math.max(0, Math.min(quietPeriodNanos, firstPendingNanos + maxLatencyNanos - now));
+        try {
+            pendingNotification = callbacksExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    runPendingCallbacks();
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // deactivated
+        }
+    }
+
+    private void runPendingCallbacks() {
+        Set<String> changedPaths;
+        synchronized (this) {
+            pendingNotification = null;
+            if (pendingPaths.isEmpty() && !pendingUnattributedChange) {
+                return;
             }
-        });
+            changedPaths = pendingUnattributedChange ? Collections.<String>emptySet() : Collections.unmodifiableSet(new LinkedHashSet<String>(pendingPaths));
+            pendingPaths.clear();
+            pendingUnattributedChange = false;
+        }
+        doRunCallbacks(changedPaths);
     }
-    
-    private void doRunCallbacks() {
+
+    private void doRunCallbacks(Set<String> changedPaths) {
         assertValid();
         for (Runnable callback : callbacks) {
             try {
                 if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("Running callback " + callback);
+                    LOGGER.debug("Running callback " + callback + " for " + changedPaths);
+                }
+                if (callback instanceof PathChangeCallback) {
+                    ((PathChangeCallback) callback).run(changedPaths);
+                } else {
+                    callback.run();
                 }
-                callback.run();
             } catch (Throwable e) {
                 LOGGER.warn("Caught: " + e, e);
             }
@@ -231,11 +336,60 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
         callbacks.remove(callback);
     }
 
+    /**
+     * Adds a listener to the events of the caches of the configuration and container registry trees,
+     * so that other components of this bundle can maintain derived state without caching these trees again.
+     */
+    void addCacheListener(PathChildrenCacheListener listener) {
+        assertValid();
+        configCache.getListenable().addListener(listener);
+        containerCache.getListenable().addListener(listener);
+    }
+
+    void removeCacheListener(PathChildrenCacheListener listener) {
+        configCache.getListenable().removeListener(listener);
+        containerCache.getListenable().removeListener(listener);
+    }
+
+    /**
+     * Returns the ids of the alive containers and leaves the given watcher on the list of alive containers,
+     * so that it is notified once when a container comes up or goes down. Only the parent node is watched,
+     * not the alive node of each container.
+     */
+    List<String> getAliveContainers(Watcher watcher) throws Exception {
+        assertValid();
+        String path = ZkPath.CONTAINERS_ALIVE.getPath();
+        long start = System.nanoTime();
+        try {
+            return curator.get().getChildren().usingWatcher(watcher).forPath(path);
+        } catch (KeeperException.NoNodeException e) {
+            // notified when the first container comes up
+            curator.get().checkExists().usingWatcher(watcher).forPath(path);
+            return Collections.emptyList();
+        } finally {
+            readStatistics.record("getAliveContainers", start, false);
+        }
+    }
+
+    @Override
+    public Map<String, Object> getReadStatistics() {
+        return readStatistics.toMap();
+    }
+
+    @Override
+    public Map<String, Object> getCacheFootprint() {
+        assertValid();
+        Map<String, Object> answer = new TreeMap<String, Object>();
+        answer.put(ZkPath.CONFIGS.getPath(), configCache.getFootprint());
+        answer.put(ZkPath.CONTAINERS.getPath(), containerCache.getFootprint());
+        return answer;
+    }
+
     @Override
     public List<String> getContainers() {
         assertValid();
         try {
-            return getChildrenSafe(curator.get(), ZkPath.CONFIGS_CONTAINERS.getPath());
+            return readChildren("getContainers", ZkPath.CONFIGS_CONTAINERS.getPath());
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         }
@@ -244,14 +398,18 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
     @Override
     public boolean hasContainer(String containerId) {
         assertValid();
-        return getContainers().contains(containerId);
+        try {
+            return hasChild("hasContainer", ZkPath.CONFIGS_CONTAINERS.getPath(), containerId);
+        } catch (Exception e) {
+            throw FabricException.launderThrowable(e);
+        }
     }
 
     @Override
     public String getContainerParent(String containerId) {
         assertValid();
         try {
-            String parentName = getStringData(curator.get(), ZkPath.CONTAINER_PARENT.getPath(containerId));
+            String parentName = readString("getContainerParent", ZkPath.CONTAINER_PARENT.getPath(containerId));
             return parentName != null ? parentName.trim() : "";
         } catch (KeeperException.NoNodeException e) {
             // Ignore
@@ -271,15 +429,15 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
             // Wipe all config entries that are related to the container for all versions.
             ProfileService profileService = fabricService.adapt(ProfileService.class);
             for (String version : profileService.getVersions()) {
-                deleteSafe(curator.get(), ZkPath.CONFIG_VERSIONS_CONTAINER.getPath(version, containerId));
+                deleteData(ZkPath.CONFIG_VERSIONS_CONTAINER.getPath(version, containerId));
             }
-            deleteSafe(curator.get(), ZkPath.CONFIG_CONTAINER.getPath(containerId));
-            deleteSafe(curator.get(), ZkPath.CONTAINER.getPath(containerId));
-            deleteSafe(curator.get(), ZkPath.CONTAINER_ALIVE.getPath(containerId));
-            deleteSafe(curator.get(), ZkPath.CONTAINER_DOMAINS.getPath(containerId));
-            deleteSafe(curator.get(), ZkPath.CONTAINER_PROVISION.getPath(containerId));
-            deleteSafe(curator.get(), ZkPath.CONTAINER_STATUS.getPath(containerId));
-            deleteSafe(curator.get(), ZkPath.AUTHENTICATION_CONTAINER.getPath(containerId));
+            deleteData(ZkPath.CONFIG_CONTAINER.getPath(containerId));
+            deleteData(ZkPath.CONTAINER.getPath(containerId));
+            deleteData(ZkPath.CONTAINER_ALIVE.getPath(containerId));
+            deleteData(ZkPath.CONTAINER_DOMAINS.getPath(containerId));
+            deleteData(ZkPath.CONTAINER_PROVISION.getPath(containerId));
+            deleteData(ZkPath.CONTAINER_STATUS.getPath(containerId));
+            deleteData(ZkPath.AUTHENTICATION_CONTAINER.getPath(containerId));
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         }
@@ -301,9 +459,9 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
                 sb.append(profileId);
             }
 
-            setData(curator.get(), ZkPath.CONFIG_CONTAINER.getPath(containerId), versionId);
-            setData(curator.get(), ZkPath.CONFIG_VERSIONS_CONTAINER.getPath(versionId, containerId), sb.toString());
-            setData(curator.get(), ZkPath.CONTAINER_PARENT.getPath(containerId), parent);
+            writeData(ZkPath.CONFIG_CONTAINER.getPath(containerId), versionId);
+            writeData(ZkPath.CONFIG_VERSIONS_CONTAINER.getPath(versionId, containerId), sb.toString());
+            writeData(ZkPath.CONTAINER_PARENT.getPath(containerId), parent);
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         }
@@ -340,7 +498,7 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
             for (Map.Entry<String, String> entry : configuration.entrySet()) {
                 String key = entry.getKey();
                 String value = entry.getValue();
-                setData(curator.get(), ZkPath.CONTAINER_ENTRY.getPath(metadata.getContainerName(), key), value);
+                writeData(ZkPath.CONTAINER_ENTRY.getPath(metadata.getContainerName(), key), value);
             }
 
             // If no resolver specified but a resolver is already present in the registry, use the registry value
@@ -358,7 +516,7 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
                 resolver = ZkDefs.DEFAULT_RESOLVER;
             }
             // Set the resolver if not already set
-            setData(curator.get(), ZkPath.CONTAINER_RESOLVER.getPath(containerId), resolver);
+            writeData(ZkPath.CONTAINER_RESOLVER.getPath(containerId), resolver);
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         }
@@ -368,7 +526,8 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
     public CreateContainerMetadata getContainerMetadata(String containerId, final ClassLoader classLoader) {
         assertValid();
         try {
-            byte[] encoded = getByteData(configCache, ZkPath.CONTAINER_METADATA.getPath(containerId));
+            ChildData node = readNode("getContainerMetadata", ZkPath.CONTAINER_METADATA.getPath(containerId));
+            byte[] encoded = node != null ? node.getData() : null;
             if (encoded == null) {
                 return null;
             }
@@ -396,7 +555,7 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
         assertValid();
         //We encode the metadata so that they are more friendly to import/export.
         try {
-            setData(curator.get(), ZkPath.CONTAINER_METADATA.getPath(metadata.getContainerName()), Base64Encoder.encode(ObjectUtils.toBytes(metadata)));
+            writeData(ZkPath.CONTAINER_METADATA.getPath(metadata.getContainerName()), Base64Encoder.encode(ObjectUtils.toBytes(metadata)));
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         }
@@ -406,7 +565,7 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
     public String getContainerVersion(String containerId) {
         assertValid();
         try {
-            return getStringData(configCache, ZkPath.CONFIG_CONTAINER.getPath(containerId));
+            return readString("getContainerVersion", ZkPath.CONFIG_CONTAINER.getPath(containerId));
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         }
@@ -419,8 +578,8 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
             String oldVersionId = getStringData(curator.get(), ZkPath.CONFIG_CONTAINER.getPath(containerId));
             String oldProfileIds = getStringData(curator.get(), ZkPath.CONFIG_VERSIONS_CONTAINER.getPath(oldVersionId, containerId));
 
-            setData(curator.get(), ZkPath.CONFIG_VERSIONS_CONTAINER.getPath(versionId, containerId), oldProfileIds);
-            setData(curator.get(), ZkPath.CONFIG_CONTAINER.getPath(containerId), versionId);
+            writeData(ZkPath.CONFIG_VERSIONS_CONTAINER.getPath(versionId, containerId), oldProfileIds);
+            writeData(ZkPath.CONFIG_CONTAINER.getPath(containerId), versionId);
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         }
@@ -432,9 +591,9 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
         try {
             String str = null;
             if (Strings.isNotBlank(containerId)) {
-                String versionId = getStringData(configCache, ZkPath.CONFIG_CONTAINER.getPath(containerId));
+                String versionId = readString("getContainerProfiles", ZkPath.CONFIG_CONTAINER.getPath(containerId));
                 if (Strings.isNotBlank(versionId)) {
-                    str = getStringData(configCache, ZkPath.CONFIG_VERSIONS_CONTAINER.getPath(versionId, containerId));
+                    str = readString("getContainerProfiles", ZkPath.CONFIG_VERSIONS_CONTAINER.getPath(versionId, containerId));
                 }
             }
             return str == null || str.isEmpty() ? Collections.<String> emptyList() : Arrays.asList(str.trim().split(" +"));
@@ -458,7 +617,7 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
                 sb.append(profileId);
                 idset.add(profileId);
             }
-            setData(curator.get(), ZkPath.CONFIG_VERSIONS_CONTAINER.getPath(versionId, containerId), sb.toString());
+            writeData(ZkPath.CONFIG_VERSIONS_CONTAINER.getPath(versionId, containerId), sb.toString());
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         }
@@ -468,9 +627,7 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
     public boolean isContainerAlive(String id) {
         assertValid();
         try {
-            return exists(curator.get(), ZkPath.CONTAINER_ALIVE.getPath(id)) != null;
-        } catch (KeeperException.NoNodeException e) {
-            return false;
+            return hasChild("isContainerAlive", ZkPath.CONTAINERS_ALIVE.getPath(), id);
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         }
@@ -481,9 +638,9 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
         assertValid();
         try {
             if (flag) {
-                setData(curator.get(), ZkPath.CONTAINER_ALIVE.getPath(id), "alive");
+                writeData(ZkPath.CONTAINER_ALIVE.getPath(id), "alive");
             } else {
-                deleteSafe(curator.get(), ZkPath.CONTAINER_ALIVE.getPath(id));
+                deleteData(ZkPath.CONTAINER_ALIVE.getPath(id));
             }
         } catch (KeeperException.NoNodeException e) {
             // ignore
@@ -512,16 +669,20 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
             }
         } else {
             try {
+                String path = getAttributePath(containerId, attribute);
+                ChildData node = readNode("getContainerAttribute", path);
+                if (node == null) {
+                    if (mandatory) {
+                        throw KeeperException.create(KeeperException.Code.NONODE, path);
+                    }
+                    return def;
+                }
+                byte[] data = node.getData();
                 if (substituted) {
-                    return getSubstitutedPath(curator.get(), getAttributePath(containerId, attribute));
+                    return data != null && data.length > 0 ? getSubstitutedData(new String(data, "UTF-8")) : null;
                 } else {
-                    return getStringData(curator.get(), getAttributePath(containerId, attribute));
-                }
-            } catch (KeeperException.NoNodeException e) {
-                if (mandatory) {
-                    throw FabricException.launderThrowable(e);
+                    return data != null ? new String(data, "UTF-8") : null;
                 }
-                return def;
             } catch (Exception e) {
                 throw FabricException.launderThrowable(e);
             }
@@ -536,8 +697,8 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
         // TODO: something like ${zk:container/${zk:container/resolver}}
         if (attribute == ContainerAttribute.Resolver) {
             try {
-                setData(curator.get(), ZkPath.CONTAINER_IP.getPath(containerId), "${zk:" + containerId + "/" + value + "}");
-                setData(curator.get(), ZkPath.CONTAINER_RESOLVER.getPath(containerId), value);
+                writeData(ZkPath.CONTAINER_IP.getPath(containerId), "${zk:" + containerId + "/" + value + "}");
+                writeData(ZkPath.CONTAINER_RESOLVER.getPath(containerId), value);
             } catch (Exception e) {
                 throw FabricException.launderThrowable(e);
             }
@@ -549,14 +710,14 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
                     String path = CONTAINER_DOMAIN.getPath(containerId, domain);
                     // add any missing domains
                     if (!zkSet.remove(domain)) {
-                        setData(curator.get(), path, "");
+                        writeData(path, "");
                     }
                 }
 
                 // now lets delete the old ones
                 for (String domain : zkSet) {
                     String path = CONTAINER_DOMAIN.getPath(containerId, domain);
-                    deleteSafe(curator.get(), path);
+                    deleteData(path);
                 }
             } catch (Exception e) {
                 throw FabricException.launderThrowable(e);
@@ -566,7 +727,7 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
                 //                if (value == null) {
                 //                    deleteSafe(zk, getAttributePath(containerId, attribute));
                 //                } else {
-                setData(curator.get(), getAttributePath(containerId, attribute), value);
+                writeData(getAttributePath(containerId, attribute), value);
                 //                }
             } catch (KeeperException.NoNodeException e) {
                 // Ignore
@@ -637,14 +798,11 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
     public String getDefaultVersion() {
         assertValid();
         try {
-            String version = null;
-            if (configCache.getCurrentData(ZkPath.CONFIG_DEFAULT_VERSION.getPath()) != null) {
-                version = getStringData(configCache, ZkPath.CONFIG_DEFAULT_VERSION.getPath());
-            }
+            String version = readString("getDefaultVersion", ZkPath.CONFIG_DEFAULT_VERSION.getPath());
             if (version == null || version.isEmpty()) {
                 version = ZkDefs.DEFAULT_VERSION;
-                setData(curator.get(), ZkPath.CONFIG_DEFAULT_VERSION.getPath(), version);
-                setData(curator.get(), ZkPath.CONFIG_VERSION.getPath(version), (String) null);
+                writeData(ZkPath.CONFIG_DEFAULT_VERSION.getPath(), version);
+                writeData(ZkPath.CONFIG_VERSION.getPath(version), (String) null);
             }
             return version;
         } catch (Exception e) {
@@ -656,7 +814,7 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
     public void setDefaultVersion(String versionId) {
         assertValid();
         try {
-            setData(curator.get(), ZkPath.CONFIG_DEFAULT_VERSION.getPath(), versionId);
+            writeData(ZkPath.CONFIG_DEFAULT_VERSION.getPath(), versionId);
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         }
@@ -667,11 +825,11 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
         assertValid();
         try {
             CuratorFramework curatorFramework = curator.get();
-            if (curatorFramework.getZookeeperClient().isConnected() && exists(curatorFramework, JVM_OPTIONS_PATH) != null) {
-                return getStringData(configCache, JVM_OPTIONS_PATH);
-            } else {
-                return "";
+            String jvmOptions = null;
+            if (curatorFramework.getZookeeperClient().isConnected()) {
+                jvmOptions = readString("getDefaultJvmOptions", JVM_OPTIONS_PATH);
             }
+            return jvmOptions != null ? jvmOptions : "";
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         }
@@ -682,7 +840,7 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
         assertValid();
         try {
             String opts = jvmOptions != null ? jvmOptions : "";
-            setData(curator.get(), JVM_OPTIONS_PATH, opts);
+            writeData(JVM_OPTIONS_PATH, opts);
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         }
@@ -693,8 +851,8 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
         assertValid();
         try {
             FabricRequirements answer = null;
-            if (configCache.getCurrentData(REQUIREMENTS_JSON_PATH) != null) {
-                String json = getStringData(configCache, REQUIREMENTS_JSON_PATH);
+            String json = readString("getRequirements", REQUIREMENTS_JSON_PATH);
+            if (json != null) {
                 answer = RequirementsJson.fromJSON(json);
             }
             if (answer == null) {
@@ -712,8 +870,8 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
         try {
             AutoScaleStatus answer = null;
             String zkPath = ZkPath.AUTO_SCALE_STATUS.getPath();
-            if (configCache.getCurrentData(zkPath) != null) {
-                String json = getStringData(configCache, zkPath);
+            String json = readString("getAutoScaleStatus", zkPath);
+            if (json != null) {
                 answer = RequirementsJson.autoScaleStatusFromJSON(json);
             }
             if (answer == null) {
@@ -731,7 +889,7 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
         try {
             requirements.removeEmptyRequirements();
             String json = RequirementsJson.toJSON(requirements);
-            setData(curator.get(), REQUIREMENTS_JSON_PATH, json);
+            writeData(REQUIREMENTS_JSON_PATH, json);
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         }
@@ -741,7 +899,7 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
     public String getClusterId() {
         assertValid();
         try {
-            return getStringData(curator.get(), ZkPath.CONFIG_ENSEMBLES.getPath());
+            return readString("getClusterId", ZkPath.CONFIG_ENSEMBLES.getPath());
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         }
@@ -752,7 +910,7 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
         assertValid();
         List<String> containers = new ArrayList<String>();
         try {
-            String ensemble = getStringData(curator.get(), ZkPath.CONFIG_ENSEMBLE.getPath(getClusterId()));
+            String ensemble = readString("getEnsembleContainers", ZkPath.CONFIG_ENSEMBLE.getPath(getClusterId()));
             if (ensemble != null) {
                 for (String name : ensemble.trim().split(",")) {
                     containers.add(name);
@@ -764,6 +922,142 @@ public final class ZkDataStoreImpl extends AbstractComponent implements DataStor
         return containers;
     }
 
+    /**
+     * Returns the cache that holds the given path, or null if the path is only available from the ensemble.
+     */
+    private TreeCache getCache(String path) {
+        if (isPathUnder(path, ZkPath.CONFIGS.getPath())) {
+            return configCache;
+        } else if (isPathUnder(path, ZkPath.CONTAINERS.getPath())) {
+            return containerCache;
+        } else {
+            return null;
+        }
+    }
+
+    private static boolean isPathUnder(String path, String root) {
+        return path.startsWith(root) && (path.length() == root.length() || path.charAt(root.length()) == '/');
+    }
+
+    /**
+     * Reads a node through the cache that holds it. Returns null if there is no such node.
+     */
+    private ChildData readNode(String operation, String path) throws Exception {
+        long start = System.nanoTime();
+        TreeCache cache = getCache(path);
+        if (cache != null) {
+            AtomicBoolean loaded = new AtomicBoolean();
+            try {
+                return cache.getCurrentData(path, loaded);
+            } finally {
+                readStatistics.record(operation, start, !loaded.get());
+            }
+        }
+        try {
+            Stat stat = new Stat();
+            byte[] data = curator.get().getData().storingStatIn(stat).forPath(path);
+            return new ChildData(path, stat, data);
+        } catch (KeeperException.NoNodeException e) {
+            return null;
+        } finally {
+            readStatistics.record(operation, start, false);
+        }
+    }
+
+    private String readString(String operation, String path) throws Exception {
+        ChildData node = readNode(operation, path);
+        byte[] data = node != null ? node.getData() : null;
+        return data != null ? new String(data, "UTF-8") : null;
+    }
+
+    private List<String> readChildren(String operation, String path) throws Exception {
+        long start = System.nanoTime();
+        TreeCache cache = getCache(path);
+        if (cache != null) {
+            AtomicBoolean loaded = new AtomicBoolean();
+            try {
+                TreeData node = cache.getCurrentData(path, loaded);
+                return node != null ? new ArrayList<String>(node.getChildren()) : new ArrayList<String>();
+            } finally {
+                readStatistics.record(operation, start, !loaded.get());
+            }
+        }
+        try {
+            return getChildrenSafe(curator.get(), path);
+        } finally {
+            readStatistics.record(operation, start, false);
+        }
+    }
+
+    /**
+     * Checks for a child using the cached children of its parent, so that a missing child does not cost a round trip.
+     */
+    private boolean hasChild(String operation, String parentPath, String child) throws Exception {
+        long start = System.nanoTime();
+        TreeCache cache = getCache(parentPath);
+        if (cache != null) {
+            AtomicBoolean loaded = new AtomicBoolean();
+            try {
+                TreeData node = cache.getCurrentData(parentPath, loaded);
+                return node != null && node.getChildren().contains(child);
+            } finally {
+                readStatistics.record(operation, start, !loaded.get());
+            }
+        }
+        try {
+            return exists(curator.get(), parentPath + "/" + child) != null;
+        } finally {
+            readStatistics.record(operation, start, false);
+        }
+    }
+
+    /**
+     * Resolves the ${zk:...} placeholders of the given data against the cached registry.
+     */
+    private String getSubstitutedData(String data) {
+        Map<String, String> props = new HashMap<String, String>();
+        props.put("data", data);
+        InterpolationHelper.performSubstitution(props, new InterpolationHelper.SubstitutionCallback() {
+            @Override
+            public String getValue(String key) {
+                if (key.startsWith("zk:")) {
+                    try {
+                        URI uri = new URI(key);
+                        String path = ZkPath.getURLPath(uri);
+                        ChildData node = readNode("getSubstitutedData", path);
+                        if (node != null && node.getData() != null) {
+                            return new String(ZkPath.getURLFragment(path, uri.getFragment(), node.getData()), "UTF-8");
+                        }
+                    } catch (Exception e) {
+                        //ignore and just return null.
+                    }
+                }
+                return null;
+            }
+        });
+        return props.get("data");
+    }
+
+    /**
+     * Writes to the ensemble and drops the cached copy, so that the next read observes the write.
+     */
+    private void writeData(String path, String value) throws Exception {
+        setData(curator.get(), path, value);
+        invalidateCache(path);
+    }
+
+    private void deleteData(String path) throws Exception {
+        deleteSafe(curator.get(), path);
+        invalidateCache(path);
+    }
+
+    private void invalidateCache(String path) {
+        TreeCache cache = getCache(path);
+        if (cache != null) {
+            cache.invalidate(path);
+        }
+    }
+
     void bindCurator(CuratorFramework curator) {
         this.curator.bind(curator);
     }
@@ -0,0 +1,68 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.internal;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+public class ContainerRegistrySnapshotTest {
+
+    @Test
+    public void testIndexes() {
+        ContainerRegistrySnapshot snapshot = ContainerRegistrySnapshot.of(Arrays.asList(
+                new ContainerRegistrySnapshot.Entry("root", "", "1.0", Arrays.asList("fabric", "default"), true),
+                new ContainerRegistrySnapshot.Entry("child1", "root", "1.0", Arrays.asList("mq-default"), true),
+                new ContainerRegistrySnapshot.Entry("child2", "root", "1.1", Arrays.asList("mq-default"), false)));
+
+        Assert.assertEquals(3, snapshot.size());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("root", "child1")), snapshot.getContainersForVersion("1.0"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("child1", "child2")), snapshot.getContainersForProfile("mq-default"));
+        Assert.assertEquals(Collections.singleton("child2"), snapshot.getContainersForProfile("1.1", "mq-default"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("child1", "child2")), snapshot.getChildren("root"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("root", "child1")), snapshot.getAliveContainers());
+        Assert.assertTrue(snapshot.getContainersForProfile("unknown").isEmpty());
+    }
+
+    @Test
+    public void testSnapshotIsNotChangedByLaterUpdates() {
+        Map<String, ContainerRegistrySnapshot.Entry> entries = new HashMap<>();
+        entries.put("root", new ContainerRegistrySnapshot.Entry("root", "", "1.0", Arrays.asList("fabric"), true));
+        entries.put("child1", new ContainerRegistrySnapshot.Entry("child1", "root", "1.0", Arrays.asList("mq-default"), false));
+        ContainerRegistrySnapshot first = ContainerRegistrySnapshot.of(entries.values());
+
+        entries.put("child1", new ContainerRegistrySnapshot.Entry("child1", "root", "1.0", Arrays.asList("mq-amq"), true));
+        ContainerRegistrySnapshot second = ContainerRegistrySnapshot.of(entries.values());
+        Assert.assertEquals(Collections.singleton("child1"), first.getContainersForProfile("mq-default"));
+        Assert.assertTrue(second.getContainersForProfile("mq-default").isEmpty());
+        Assert.assertEquals(Collections.singleton("child1"), second.getContainersForProfile("mq-amq"));
+        Assert.assertEquals(Collections.singleton("root"), first.getAliveContainers());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("root", "child1")), second.getAliveContainers());
+
+        entries.remove("child1");
+        ContainerRegistrySnapshot third = ContainerRegistrySnapshot.of(entries.values());
+        Assert.assertEquals(1, third.size());
+        Assert.assertTrue(third.getChildren("root").isEmpty());
+        Assert.assertTrue(third.getContainersForProfile("mq-amq").isEmpty());
+        Assert.assertEquals(Collections.singleton("child1"), second.getChildren("root"));
+        Assert.assertEquals(2, second.size());
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.service;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import io.fabric8.api.RuntimeProperties;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryNTimes;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ServerConfig;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZkDataStoreImplTest {
+
+    private static final String VERSION_PATH = "/fabric/configs/containers/test";
+
+    NIOServerCnxnFactory cnxnFactory;
+    CuratorFramework curator;
+    ZkDataStoreImpl dataStore;
+
+    @Before
+    public void setUp() throws Exception {
+        int port = findFreePort();
+        cnxnFactory = startZooKeeper(port);
+        curator = CuratorFrameworkFactory.builder()
+                .connectString("localhost:" + port)
+                .retryPolicy(new RetryNTimes(10, 100))
+                .build();
+        curator.start();
+        curator.getZookeeperClient().blockUntilConnectedOrTimedOut();
+        curator.create().creatingParentsIfNeeded().forPath(VERSION_PATH, "1.0".getBytes("UTF-8"));
+        curator.create().creatingParentsIfNeeded().forPath("/fabric/configs/versions/1.0/containers/test", "default".getBytes("UTF-8"));
+
+        RuntimeProperties runtimeProperties = createMock(RuntimeProperties.class);
+        expect(runtimeProperties.getRuntimeIdentity()).andReturn("root").anyTimes();
+        expect(runtimeProperties.getProperty(EasyMock.<String>anyObject(), EasyMock.<String>anyObject())).andAnswer(new IAnswer<String>() {
+            @Override
+            public String answer() throws Throwable {
+                return (String) getCurrentArguments()[1];
+            }
+        }).anyTimes();
+        replay(runtimeProperties);
+
+        dataStore = new ZkDataStoreImpl();
+        dataStore.bindCurator(curator);
+        dataStore.bindRuntimeProperties(runtimeProperties);
+        dataStore.activate();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataStore.deactivate();
+        curator.close();
+        cnxnFactory.shutdown();
+        cnxnFactory.join();
+    }
+
+    @Test
+    public void testCachedReads() throws Exception {
+        waitForVersion("test", "1.0");
+        long reads = getCounter("getContainerVersion", "reads");
+        long cachedReads = getCounter("getContainerVersion", "cachedReads");
+
+        assertEquals("1.0", dataStore.getContainerVersion("test"));
+        assertEquals("1.0", dataStore.getContainerVersion("test"));
+
+        assertEquals(reads + 2, getCounter("getContainerVersion", "reads"));
+        assertEquals(cachedReads + 2, getCounter("getContainerVersion", "cachedReads"));
+    }
+
+    @Test
+    public void testMissingNodesAreReadFromTheEnsemble() throws Exception {
+        // a missing node is not cached, so the loader runs on every read
+        assertNull(dataStore.getContainerVersion("missing"));
+        assertNull(dataStore.getContainerVersion("missing"));
+        assertEquals(2L, getCounter("getContainerVersion", "reads"));
+        assertEquals(0L, getCounter("getContainerVersion", "cachedReads"));
+
+        // the cached children of the parent tell that the container does not exist
+        waitForVersion("test", "1.0");
+        dataStore.hasContainer("test");
+        long cachedReads = getCounter("hasContainer", "cachedReads");
+        assertFalse(dataStore.hasContainer("missing"));
+        assertEquals(cachedReads + 1, getCounter("hasContainer", "cachedReads"));
+    }
+
+    @Test
+    public void testChangedNodesAreReadAgain() throws Exception {
+        waitForVersion("test", "1.0");
+
+        curator.setData().forPath(VERSION_PATH, "1.1".getBytes("UTF-8"));
+
+        waitForVersion("test", "1.1");
+    }
+
+    @Test
+    public void testWritesAreReadBack() throws Exception {
+        waitForVersion("test", "1.0");
+
+        dataStore.setContainerVersion("test", "1.2");
+
+        assertEquals("1.2", dataStore.getContainerVersion("test"));
+    }
+
+    @Test
+    public void testBurstOfChangesRunsTheCallbacksOnce() throws Exception {
+        CallbackCounter callback = new CallbackCounter();
+        dataStore.trackConfiguration(callback);
+
+        // each change comes within the quiet period of the previous one
+        for (int i = 0; i < 10; i++) {
+            dataStore.fireChangeNotifications();
+            Thread.sleep(10);
+        }
+
+        assertTrue(callback.await(5, TimeUnit.SECONDS));
+        Thread.sleep(500);
+        assertEquals(1, callback.count.get());
+    }
+
+    @Test
+    public void testContinuousChangesRunTheCallbacksAfterTheMaxLatency() throws Exception {
+        CallbackCounter callback = new CallbackCounter();
+        dataStore.trackConfiguration(callback);
+
+        // the changes never leave a quiet period, so only the max latency lets the callbacks run
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(2500);
+        while (System.nanoTime() < end) {
+            dataStore.fireChangeNotifications();
+            Thread.sleep(20);
+        }
+
+        assertTrue(callback.count.get() >= 2);
+        long firstRunMillis = TimeUnit.NANOSECONDS.toMillis(callback.firstRunNanos - start);
+        assertTrue("First run after " + firstRunMillis + "ms", firstRunMillis >= 900 && firstRunMillis < 2000);
+    }
+
+    private void waitForVersion(String containerId, String expected) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 10000;
+        String version = dataStore.getContainerVersion(containerId);
+        while (!expected.equals(version) && System.currentTimeMillis() < timeout) {
+            Thread.sleep(50);
+            version = dataStore.getContainerVersion(containerId);
+        }
+        assertEquals(expected, version);
+    }
+
+    @SuppressWarnings("unchecked")
+    private long getCounter(String operation, String counter) {
+        Map<String, Object> counters = (Map<String, Object>) dataStore.getReadStatistics().get(operation);
+        return counters != null ? (Long) counters.get(counter) : 0L;
+    }
+
+    static class CallbackCounter implements Runnable {
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        volatile long firstRunNanos;
+
+        @Override
+        public void run() {
+            if (count.incrementAndGet() == 1) {
+                firstRunNanos = System.nanoTime();
+            }
+            latch.countDown();
+        }
+
+        boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+            return latch.await(timeout, unit);
+        }
+    }
+
+    private int findFreePort() throws Exception {
+        ServerSocket ss = new ServerSocket(0);
+        int port = ss.getLocalPort();
+        ss.close();
+        return port;
+    }
+
+    private NIOServerCnxnFactory startZooKeeper(int port) throws Exception {
+        ServerConfig cfg = new ServerConfig();
+        cfg.parse(new String[] { Integer.toString(port), "target/zk/" + getClass().getSimpleName() + System.currentTimeMillis() });
+
+        ZooKeeperServer zkServer = new ZooKeeperServer();
+        FileTxnSnapLog ftxn = new FileTxnSnapLog(new File(cfg.getDataLogDir()), new File(cfg.getDataDir()));
+        zkServer.setTxnLogFactory(ftxn);
+        zkServer.setTickTime(cfg.getTickTime());
+        zkServer.setMinSessionTimeout(cfg.getMinSessionTimeout());
+        zkServer.setMaxSessionTimeout(cfg.getMaxSessionTimeout());
+        NIOServerCnxnFactory cnxnFactory = new NIOServerCnxnFactory();
+        cnxnFactory.configure(cfg.getClientPortAddress(), cfg.getMaxClientCnxns());
+        cnxnFactory.startup(zkServer);
+        return cnxnFactory;
+    }
+}
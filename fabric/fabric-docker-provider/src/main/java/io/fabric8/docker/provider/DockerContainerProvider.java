@@ -29,7 +29,7 @@ import io.fabric8.api.jcip.ThreadSafe;
 import io.fabric8.api.scr.Configurer;
 import io.fabric8.api.scr.ValidatingReference;
 import io.fabric8.common.util.Strings;
-import io.fabric8.container.process.JolokiaAgentHelper;
+import io.fabric8.container.process.JolokiaKeepAliveProber;
 import io.fabric8.docker.api.Docker;
 import io.fabric8.docker.api.DockerApiConnectionException;
 import io.fabric8.docker.api.Dockers;
@@ -85,6 +85,8 @@ public class DockerContainerProvider extends DockerContainerProviderSupport impl
     private final ValidatingReference<FabricService> fabricService = new ValidatingReference<FabricService>();
     @Reference(referenceInterface = CuratorFramework.class, bind = "bindCurator", unbind = "unbindCurator")
     private final ValidatingReference<CuratorFramework> curator = new ValidatingReference<CuratorFramework>();
+    @Reference(referenceInterface = JolokiaKeepAliveProber.class, bind = "bindKeepAliveProber", unbind = "unbindKeepAliveProber")
+    private final ValidatingReference<JolokiaKeepAliveProber> keepAliveProber = new ValidatingReference<JolokiaKeepAliveProber>();
     @Reference(bind = "bindConfigurer", unbind = "unbindConfigurer")
     private Configurer configurer;
 
@@ -354,17 +356,22 @@ public class DockerContainerProvider extends DockerContainerProviderSupport impl
             TimerTask timerTask = new TimerTask() {
                 @Override
                 public void run() {
+                    FabricService fabricService = getFabricService();
+                    JolokiaKeepAliveProber prober = keepAliveProber.getOptional();
+                    if (prober == null) {
+                        return;
+                    }
                     List<CreateDockerContainerMetadata> list = new ArrayList<>(jolokiaKeepAliveContainers.values());
+                    List<JolokiaKeepAliveProber.Target> targets = new ArrayList<>();
                     for (CreateDockerContainerMetadata containerMetadata : list) {
                         try {
-                            String jolokiaUrl = containerMetadata.getJolokiaUrl();
-                            String containerName = containerMetadata.getContainerName();
-                            JolokiaAgentHelper.jolokiaKeepAliveCheck(zkMasterCache, getFabricService(), jolokiaUrl, containerName);
-
+                            Container container = fabricService.getContainer(containerMetadata.getContainerName());
+                            targets.add(new JolokiaKeepAliveProber.Target(container, containerMetadata.getJolokiaUrl(), null));
                         } catch (Exception e) {
-                            LOG.warn("Jolokia keep alive check failed for container " + containerMetadata.getId() + ". " + e, e);
+                            LOG.debug("No container for " + containerMetadata.getId() + ". " + e, e);
                         }
                     }
+                    prober.probe(zkMasterCache, fabricService, targets, jolokiaKeepAlivePollTime);
                 }
             };
             keepAliveTimer.schedule(timerTask, jolokiaKeepAlivePollTime, jolokiaKeepAlivePollTime);
@@ -374,6 +381,10 @@ public class DockerContainerProvider extends DockerContainerProviderSupport impl
     protected void stopJolokiaKeepAlive(CreateDockerContainerMetadata metadata) {
         LOG.info("Stopping Jolokia Keep Alive for " + metadata.getId());
         jolokiaKeepAliveContainers.remove(metadata.getId());
+        JolokiaKeepAliveProber prober = keepAliveProber.getOptional();
+        if (prober != null) {
+            prober.forget(metadata.getContainerName());
+        }
     }
 
     @Override
@@ -476,6 +487,14 @@ public class DockerContainerProvider extends DockerContainerProviderSupport impl
         this.setConfigurer(null);
     }
 
+    void bindKeepAliveProber(JolokiaKeepAliveProber keepAliveProber) {
+        this.keepAliveProber.bind(keepAliveProber);
+    }
+
+    void unbindKeepAliveProber(JolokiaKeepAliveProber keepAliveProber) {
+        this.keepAliveProber.unbind(keepAliveProber);
+    }
+
     void bindMBeanServer(MBeanServer mbeanServer) {
         this.mbeanServer = mbeanServer;
     }
@@ -391,7 +391,7 @@ public abstract class DockerContainerProviderSupport extends AbstractComponent {
                 CustomDockerContainerImageBuilder builder = new CustomDockerContainerImageBuilder();
                 CustomDockerContainerImageOptions customDockerContainerImageOptions = new CustomDockerContainerImageOptions(image, imageRepository, newImageName, libDir, deployDir, homeDir, entryPoint, configOverlayDockerProvider.getOverlayFolder(), configOverlayDockerProvider.isMavenJavaLibraryPathLayout());
 
-                String actualImage = builder.generateContainerImage(service, container, profileOverlays, docker, customDockerContainerImageOptions, options, downloadExecutor, environmentVariables);
+                String actualImage = builder.generateContainerImage(service, container, profileOverlays, docker, getDockerAddress(), customDockerContainerImageOptions, options, downloadExecutor, environmentVariables);
                 if (actualImage != null) {
                     containerConfig.setImage(actualImage);
 
@@ -401,13 +401,21 @@ public abstract class DockerContainerProviderSupport extends AbstractComponent {
                         authConfig.setEmail("person@fabric8.io");
                         authConfig.setUsername(service.getZooKeeperUser());
                         authConfig.setPassword(service.getZookeeperPassword());
+                        // the container is created from the hash tag so that is the one which has to be pushed
+                        String hashTag = actualImage.substring(actualImage.lastIndexOf(':') + 1);
                         try {
-                            docker.imagePush(newImageName, "latest", authConfig);
-                            LOG.info("Image pushed to repository " + newImageName);
+                            docker.imagePush(newImageName, hashTag, authConfig);
+                            LOG.info("Image pushed to repository " + newImageName + ":" + hashTag);
                         } catch (Exception e) {
-                            LOG.info("Failed to push image " + newImageName + ": " + e + Dockers.dockerErrorMessage(e), e);
+                            LOG.info("Failed to push image " + actualImage + ": " + e + Dockers.dockerErrorMessage(e), e);
                             throw e;
                         }
+                        try {
+                            docker.imageTag(actualImage, newImageName, 1);
+                            docker.imagePush(newImageName, "latest", authConfig);
+                        } catch (Exception e) {
+                            LOG.warn("Failed to push image " + actualImage + " as " + newImageName + ":latest: " + e + Dockers.dockerErrorMessage(e));
+                        }
                     }
                 }
             }
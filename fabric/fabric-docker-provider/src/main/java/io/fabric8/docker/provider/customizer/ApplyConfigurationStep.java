@@ -17,11 +17,9 @@ package io.fabric8.docker.provider.customizer;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.Maps;
-import com.google.common.io.Files;
 import io.fabric8.process.manager.support.mvel.MvelPredicate;
 import io.fabric8.process.manager.support.mvel.MvelTemplateRendering;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.Map;
 
@@ -32,20 +30,25 @@ public class ApplyConfigurationStep {
     private final Map<String, String> configuration;
 
     private final MvelPredicate isTemplate = new MvelPredicate();
-    private final File baseDir;
+    private final DockerBuildContext buildContext;
+    private final String baseDir;
     private final String homeDirAndSeparator;
 
 
-    public ApplyConfigurationStep(DockerFileBuilder dockerFile, String restAPI, Map<String, String> configuration, Map<String, Object> variables, File baseDir, String homeDirAndSeparator) throws IOException {
+    public ApplyConfigurationStep(DockerFileBuilder dockerFile, String restAPI, Map<String, String> configuration, Map<String, Object> variables, DockerBuildContext buildContext, String baseDir, String homeDirAndSeparator) throws IOException {
         this.dockerFile = dockerFile;
         this.restAPI = restAPI;
         this.configuration = configuration;
         this.variables = variables;
+        this.buildContext = buildContext;
         this.baseDir = baseDir;
         this.homeDirAndSeparator = homeDirAndSeparator;
     }
 
-    public File getBaseDir() {
+    /**
+     * Returns the folder of the build context the configuration files are added to
+     */
+    public String getBaseDir() {
         return baseDir;
     }
 
@@ -54,11 +57,11 @@ public class ApplyConfigurationStep {
         Map<String, String> plainFiles = Maps.difference(configuration, templates).entriesOnlyOnLeft();
         Map<String, String> renderedTemplates = Maps.transformValues(templates, new MvelTemplateRendering(variables));
 
-        applyTemplates(renderedTemplates, baseDir);
-        applyPlainConfiguration(plainFiles, baseDir);
+        applyTemplates(renderedTemplates);
+        applyPlainConfiguration(plainFiles);
     }
 
-    private void applyTemplates(Map<String, String> templates, File installDir) throws IOException {
+    private void applyTemplates(Map<String, String> templates) throws IOException {
         for (Map.Entry<String, String> entry : templates.entrySet()) {
             String path = entry.getKey();
             String content = entry.getValue();
@@ -68,7 +71,7 @@ public class ApplyConfigurationStep {
         }
     }
 
-    private void applyPlainConfiguration(Map<String, String> configuration, File installDir) throws IOException {
+    private void applyPlainConfiguration(Map<String, String> configuration) throws IOException {
         for (Map.Entry<String, String> entry : configuration.entrySet()) {
             String path = entry.getKey();
             String content = entry.getValue();
@@ -83,19 +86,12 @@ public class ApplyConfigurationStep {
         while (path.startsWith("/")) {
             path = path.substring(1);
         }
-        File target = new File(baseDir, name);
-        if (!target.exists() && !target.getParentFile().exists() && !target.getParentFile().mkdirs()) {
-            throw new IOException("Directory: " + target.getParentFile().getAbsolutePath() + " can't be created");
-        } else if (target.isDirectory()) {
-            throw new IOException("Can't write to : " + target.getAbsolutePath() + ". It's a directory");
-        } else if (!target.exists() && !target.createNewFile()) {
-            throw new IOException("Failed to create file: " + target.getAbsolutePath() + ".");
+        if (path.isEmpty() || path.endsWith("/")) {
+            throw new IOException("Can't write to : " + name + ". It's a directory");
         }
-        Files.write(content.getBytes(Charsets.UTF_8), target);
         String lowerName = name.toLowerCase();
-        if (lowerName.endsWith(".sh") || lowerName.endsWith(".bat") || lowerName.endsWith(".cmd")) {
-            // lets ensure its executable
-            target.setExecutable(true);
-        }
+        // lets ensure scripts are executable
+        boolean executable = lowerName.endsWith(".sh") || lowerName.endsWith(".bat") || lowerName.endsWith(".cmd");
+        buildContext.addContent(baseDir + "/" + path, content.getBytes(Charsets.UTF_8), executable);
     }
 }
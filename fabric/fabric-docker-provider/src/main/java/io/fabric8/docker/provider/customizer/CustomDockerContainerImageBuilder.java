@@ -15,40 +15,43 @@
  */
 package io.fabric8.docker.provider.customizer;
 
+import com.google.common.util.concurrent.Striped;
 import io.fabric8.api.Constants;
 import io.fabric8.api.Container;
 import io.fabric8.api.FabricService;
 import io.fabric8.api.Profile;
 import io.fabric8.api.Profiles;
 import io.fabric8.common.util.Files;
-import io.fabric8.common.util.Objects;
 import io.fabric8.common.util.Strings;
 import io.fabric8.container.process.JolokiaAgentHelper;
 import io.fabric8.docker.api.Docker;
 import io.fabric8.docker.api.Dockers;
+import io.fabric8.docker.api.Image;
 import io.fabric8.docker.provider.DockerCreateOptions;
 import io.fabric8.process.manager.support.ProcessUtils;
 import io.fabric8.service.child.JavaContainerEnvironmentVariables;
 import org.apache.curator.framework.CuratorFramework;
-import org.codehaus.plexus.archiver.tar.TarArchiver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Creates a docker image, adding deployment units, overlays and environment vairables from the profile metadata.
@@ -56,7 +59,35 @@ import java.util.concurrent.ScheduledExecutorService;
 public class CustomDockerContainerImageBuilder {
     private static final transient Logger LOGGER = LoggerFactory.getLogger(CustomDockerContainerImageBuilder.class);
 
-    public String generateContainerImage(FabricService fabric, Container container, List<Profile> profileList, Docker docker, CustomDockerContainerImageOptions options, DockerCreateOptions containerOptions, ScheduledExecutorService downloadExecutor, Map<String, String> envVars) throws Exception {
+    public static final String LIB_DIR = "lib";
+    public static final String DEPLOY_DIR = "deploy";
+    public static final String SNAPSHOTS_DIR = "snapshots";
+    public static final String OVERLAYS_DIR = "overlays";
+
+    /**
+     * The number of characters of the content hash used as the tag of the image
+     */
+    private static final int HASH_TAG_LENGTH = 12;
+
+    /**
+     * Lets only build one image at a time for each content hash; using a fixed number of locks
+     * so that they do not grow with the number of images built
+     */
+    private static final Striped<Lock> BUILD_LOCKS = Striped.lock(64);
+
+    /**
+     * Returns the path in the build context of an artifact; snapshot artifacts go in separate folders
+     * which are added to the image after the release artifacts, so that rebuilding a snapshot reuses the cached layers
+     * of the release artifacts
+     */
+    public static String uploadPath(String dir, String fileName) {
+        if (fileName.contains("SNAPSHOT")) {
+            return SNAPSHOTS_DIR + "/" + dir + "/" + fileName;
+        }
+        return dir + "/" + fileName;
+    }
+
+    public String generateContainerImage(FabricService fabric, Container container, List<Profile> profileList, Docker docker, String dockerAddress, CustomDockerContainerImageOptions options, DockerCreateOptions containerOptions, ScheduledExecutorService downloadExecutor, Map<String, String> envVars) throws Exception {
         String libDirAndSeparator = ensureEndsWithFileSeparator(options.getJavaLibraryPath());
         String deployDirAndSeparator = ensureEndsWithFileSeparator(options.getJavaDeployPath());
         String homeDirAndSeparator = ensureEndsWithFileSeparator(options.getHomePath());
@@ -65,37 +96,26 @@ public class CustomDockerContainerImageBuilder {
         String tag = options.getNewImageName();
 
         DockerFileBuilder dockerFile = DockerFileBuilder.from(baseImage);
-
-        File tmpDockerfileDir = File.createTempFile("fabric-", ".dockerfiledir");
-        tmpDockerfileDir.delete();
-        tmpDockerfileDir.mkdirs();
-
-        String libDirPath = "lib";
-        File uploadLibDir = new File(tmpDockerfileDir, libDirPath);
-
-        String deployDirPath = "deploy";
-        File uploadDeployDir = new File(tmpDockerfileDir, deployDirPath);
-
-        String overlaysDirPath = "overlays";
-        File overlaysDir = new File(tmpDockerfileDir, overlaysDirPath);
+        DockerBuildContext buildContext = new DockerBuildContext();
 
         ArtifactFilesAdder artifactFilesAdder;
         if (options.isMavenJavaLibraryPathLayout()) {
-            artifactFilesAdder = new MavenArtifactFilesAdder(fabric, profileList, downloadExecutor, uploadLibDir, uploadDeployDir);
+            artifactFilesAdder = new MavenArtifactFilesAdder(fabric, profileList, downloadExecutor, buildContext);
         } else {
-            artifactFilesAdder = new FlatArtifactFilesAdder(fabric, profileList, downloadExecutor, uploadLibDir, uploadDeployDir);
+            artifactFilesAdder = new FlatArtifactFilesAdder(fabric, profileList, downloadExecutor, buildContext);
         }
         artifactFilesAdder.invoke();
 
         int libFileCount = artifactFilesAdder.getLibFileCount();
         int deployFileCount = artifactFilesAdder.getDeployFileCount();
         Set<String> artifactKeys = artifactFilesAdder.getArtifactKeys();
-        if (libFileCount > 0) {
-            dockerFile.add(libDirPath, libDirAndSeparator);
-        }
-        if (deployFileCount > 0) {
-            if (libFileCount == 0 || !Objects.equal(libDirPath, overlaysDirPath)) {
-                dockerFile.add(deployDirPath, deployDirAndSeparator);
+
+        // the layers which change least often go first so that rebuilds can reuse them
+        String[] artifactDirs = {LIB_DIR, DEPLOY_DIR, SNAPSHOTS_DIR + "/" + LIB_DIR, SNAPSHOTS_DIR + "/" + DEPLOY_DIR};
+        String[] artifactDestinations = {libDirAndSeparator, deployDirAndSeparator, libDirAndSeparator, deployDirAndSeparator};
+        for (int i = 0; i < artifactDirs.length; i++) {
+            if (buildContext.hasEntriesUnder(artifactDirs[i])) {
+                dockerFile.add(artifactDirs[i], artifactDestinations[i]);
             }
         }
 
@@ -115,10 +135,9 @@ public class CustomDockerContainerImageBuilder {
         int overlays = 0;
         if (Strings.isNotBlank(restAPI)) {
             String profileOverlayFolder = options.getOverlayFolder();
-            overlays = addOverlayFiles(dockerFile, restAPI, fabric, profileList, containerOptions, envVars, homeDirAndSeparator, overlaysDir, tmpDockerfileDir, profileOverlayFolder);
-            String[] childFiles = overlaysDir.list();
-            if (childFiles != null && childFiles.length > 0) {
-                dockerFile.add(overlaysDirPath, homeDirAndSeparator);
+            overlays = addOverlayFiles(dockerFile, restAPI, fabric, profileList, containerOptions, envVars, homeDirAndSeparator, buildContext, profileOverlayFolder);
+            if (buildContext.hasEntriesUnder(OVERLAYS_DIR)) {
+                dockerFile.add(OVERLAYS_DIR, homeDirAndSeparator);
             }
         } else {
             LOGGER.error("Cannot perform container overlays as there is no REST API for fabric8!");
@@ -142,38 +161,92 @@ public class CustomDockerContainerImageBuilder {
             dockerFile.cmd(entryPoint);
         }
 
-        dockerFile.writeTo(new File(tmpDockerfileDir, "Dockerfile"));
+        buildContext.addContent("Dockerfile", dockerFile.toString());
 
-        // lets create a tarball so we can post it to docker via REST
-        File tmpArchive = File.createTempFile("fabric8-", ".dockerarchive");
-        createDockerArchive(tmpArchive, tmpDockerfileDir);
-
-        String answer = tag;
-        Object errors = null;
+        // images are tagged with the hash of their build context so we only build an image once for the same inputs
+        String hash = buildContext.getContentHash();
+        String answer = tag + ":" + hash.substring(0, HASH_TAG_LENGTH);
+        Lock lock = BUILD_LOCKS.get(hash);
+        lock.lock();
         try {
-            LOGGER.info("POSTing archive " + tmpArchive.getCanonicalPath() + " from docker archive folder " + tmpDockerfileDir.getCanonicalPath());
-            Object results = docker.build(tmpArchive, tag, 0, 0, 1, 1);
-            LOGGER.info("Docker Build Result: " + results);
+            if (imageExists(docker, answer)) {
+                LOGGER.info("Reusing image " + answer + " as its build context has not changed");
+            } else {
+                try {
+                    LOGGER.info("Building image " + answer + " from " + buildContext.size() + " files");
+                    Object results = buildImage(docker, dockerAddress, buildContext, answer);
+                    LOGGER.info("Docker Build Result: " + results);
+                } catch (Exception e) {
+                    LOGGER.error("Failed to build docker image " + answer
+                            + ": " + Dockers.dockerErrorMessage(e)
+                            + ". " + e, e);
+                    throw e;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        try {
+            // lets keep the untagged name pointing at the latest image; the image is used and pushed by its hash tag
+            docker.imageTag(answer, tag, 1);
         } catch (Exception e) {
-            LOGGER.error("Failed to upload docker folder: " + tmpDockerfileDir
-                    + ": " + Dockers.dockerErrorMessage(e)
-                    + ". " + e, e);
-            throw e;
-        }
-        if (answer == null) {
-            LOGGER.error("Failed to create image " + errors);
-            throw new CreateDockerImageFailedException("Failed to create docker image: " + errors);
-        } else {
-            LOGGER.info("Created Image: " + answer);
-            return answer;
+            LOGGER.warn("Failed to tag image " + answer + " as " + tag + ": " + Dockers.dockerErrorMessage(e) + ". " + e);
+        }
+        LOGGER.info("Created Image: " + answer);
+        return answer;
+    }
+
+    protected boolean imageExists(Docker docker, String name) {
+        List<Image> images = docker.images(0);
+        if (images != null) {
+            for (Image image : images) {
+                List<String> repoTags = image.getRepoTags();
+                if (repoTags != null && repoTags.contains(name)) {
+                    return true;
+                }
+            }
         }
+        return false;
     }
 
-    protected void createDockerArchive(File archive, File dockerDir) throws IOException {
-        TarArchiver archiver = new TarArchiver();
-        archiver.addDirectory(dockerDir);
-        archiver.setDestFile(archive);
-        archiver.createArchive();
+    /**
+     * Streams the build context as the body of the build request; falling back to uploading a temporary tar file
+     * if the docker address is not a HTTP URL
+     */
+    protected Object buildImage(Docker docker, String dockerAddress, DockerBuildContext buildContext, String tag) throws Exception {
+        if (dockerAddress == null || !dockerAddress.startsWith("http")) {
+            File tmpArchive = File.createTempFile("fabric8-", ".dockerarchive");
+            try {
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpArchive))) {
+                    buildContext.writeTar(out);
+                }
+                return docker.build(tmpArchive, tag, 0, 0, 1, 1);
+            } finally {
+                tmpArchive.delete();
+            }
+        }
+        String address = dockerAddress.endsWith("/") ? dockerAddress : dockerAddress + "/";
+        URL url = new URL(address + "build?t=" + URLEncoder.encode(tag, "UTF-8") + "&q=0&nocache=0&rm=1&forcerm=1");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/tar");
+            connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(64 * 1024);
+            try (OutputStream out = new BufferedOutputStream(connection.getOutputStream(), 64 * 1024)) {
+                buildContext.writeTar(out);
+            }
+            int code = connection.getResponseCode();
+            InputStream is = code < 300 ? connection.getInputStream() : connection.getErrorStream();
+            String results = is != null ? Files.toString(is) : "";
+            // the build output is streamed with a 200 status so errors show up in the output
+            if (code >= 300 || results.contains("\"errorDetail\"")) {
+                throw new CreateDockerImageFailedException("Failed to build docker image " + tag + ": " + code + " " + results);
+            }
+            return results;
+        } finally {
+            connection.disconnect();
+        }
     }
 
     protected String ensureEndsWithFileSeparator(String path) {
@@ -187,7 +260,7 @@ public class CustomDockerContainerImageBuilder {
         return answer;
     }
 
-    protected int addOverlayFiles(DockerFileBuilder dockerFile, String restAPI, FabricService fabricService, List<Profile> profiles, DockerCreateOptions containerOptions, Map<String, String> environmentVariables, String homeDirAndSeparator, File overlaysDir, File tmpDockerfileDir, String profileOverlayFolder) throws Exception {
+    protected int addOverlayFiles(DockerFileBuilder dockerFile, String restAPI, FabricService fabricService, List<Profile> profiles, DockerCreateOptions containerOptions, Map<String, String> environmentVariables, String homeDirAndSeparator, DockerBuildContext buildContext, String profileOverlayFolder) throws Exception {
         Set<String> profileIds = containerOptions.getProfiles();
         String versionId = containerOptions.getVersion();
         int overlays = 0;
@@ -206,8 +279,7 @@ public class CustomDockerContainerImageBuilder {
                     }
                     variables.putAll(environmentVariables);
                     LOGGER.info("Using template variables for MVEL: " + variables);
-                    overlaysDir.mkdirs();
-                    new ApplyConfigurationStep(dockerFile, profileRestApi, configuration, variables, overlaysDir, homeDirAndSeparator).install();
+                    new ApplyConfigurationStep(dockerFile, profileRestApi, configuration, variables, buildContext, OVERLAYS_DIR, homeDirAndSeparator).install();
                     overlays++;
                 }
             }
@@ -226,11 +298,11 @@ public class CustomDockerContainerImageBuilder {
                         LOGGER.warn("Ignoring invalid URL '" + urlText + "' for overlay resource " + localPath + ". " + e, e);
                     }
                     if (url != null) {
-                        File newFile = new File(tmpDockerfileDir, localPath);
-                        newFile.getParentFile().mkdirs();
                         InputStream stream = url.openStream();
                         if (stream != null) {
-                            Files.copy(stream, new BufferedOutputStream(new FileOutputStream(newFile)));
+                            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                            Files.copy(stream, buffer);
+                            buildContext.addContent(localPath, buffer.toByteArray(), false);
 
                             // now lets add to the Dockerfile
                             dockerFile.add(localPath, homeDirAndSeparator + localPath);
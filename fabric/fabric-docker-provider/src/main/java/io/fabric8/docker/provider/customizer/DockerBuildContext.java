@@ -0,0 +1,230 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.docker.provider.customizer;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The files of a docker build, kept as references to the downloaded artifacts and as in memory content
+ * for the generated files, so that the build context can be hashed and streamed as a tar file
+ * without copying anything to a temporary folder.
+ */
+public class DockerBuildContext {
+    private static final int BLOCK_SIZE = 512;
+
+    /**
+     * The content hashes of the artifact files keyed by their path, size and modification time
+     */
+    private static final Cache<String, HashCode> FILE_HASHES = CacheBuilder.newBuilder().maximumSize(10000).build();
+
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    /**
+     * Adds the given file at the given path of the build context
+     */
+    public void addFile(String path, File file) {
+        entries.put(normalize(path), new Entry(file, null, file.canExecute()));
+    }
+
+    public void addContent(String path, byte[] content, boolean executable) {
+        entries.put(normalize(path), new Entry(null, content, executable));
+    }
+
+    public void addContent(String path, String content) {
+        addContent(path, content.getBytes(Charsets.UTF_8), false);
+    }
+
+    /**
+     * Returns true if the build context has any file in the given folder
+     */
+    public boolean hasEntriesUnder(String dir) {
+        String prefix = normalize(dir) + "/";
+        for (String path : entries.keySet()) {
+            if (path.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns a SHA-1 over the paths, modes and contents of all the files, so that two builds with the same hash
+     * create the same image
+     */
+    public String getContentHash() throws IOException {
+        Hasher hasher = Hashing.sha1().newHasher();
+        for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            hasher.putString(mapEntry.getKey(), Charsets.UTF_8).putByte((byte) 0);
+            hasher.putBoolean(entry.executable);
+            hasher.putLong(entry.getSize());
+            if (entry.file != null) {
+                hasher.putBytes(hashFile(entry.file).asBytes());
+            } else {
+                hasher.putBytes(entry.content);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Writes the build context as a tar file to the given stream without closing it
+     */
+    public void writeTar(OutputStream out) throws IOException {
+        SortedSet<String> dirs = new TreeSet<>();
+        for (String path : entries.keySet()) {
+            int idx = path.lastIndexOf('/');
+            while (idx > 0) {
+                path = path.substring(0, idx);
+                dirs.add(path);
+                idx = path.lastIndexOf('/');
+            }
+        }
+        for (String dir : dirs) {
+            writeHeader(out, dir + "/", 0, 0755, '5');
+        }
+        byte[] buffer = new byte[64 * 1024];
+        for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            long size = entry.getSize();
+            writeHeader(out, mapEntry.getKey(), size, entry.executable ? 0755 : 0644, '0');
+            if (entry.file != null) {
+                long remaining = size;
+                try (InputStream in = new FileInputStream(entry.file)) {
+                    int read;
+                    while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                        out.write(buffer, 0, read);
+                        remaining -= read;
+                    }
+                }
+                if (remaining > 0) {
+                    throw new IOException("File " + entry.file + " changed while writing the docker build context");
+                }
+            } else {
+                out.write(entry.content);
+            }
+            pad(out, size);
+        }
+        // end of archive
+        out.write(new byte[2 * BLOCK_SIZE]);
+        out.flush();
+    }
+
+    protected static HashCode hashFile(File file) throws IOException {
+        String key = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        HashCode answer = FILE_HASHES.getIfPresent(key);
+        if (answer == null) {
+            answer = Files.asByteSource(file).hash(Hashing.sha1());
+            FILE_HASHES.put(key, answer);
+        }
+        return answer;
+    }
+
+    protected static String normalize(String path) {
+        String answer = path.replace('\\', '/');
+        while (answer.startsWith("/") || answer.startsWith("./")) {
+            answer = answer.substring(answer.indexOf('/') + 1);
+        }
+        while (answer.endsWith("/")) {
+            answer = answer.substring(0, answer.length() - 1);
+        }
+        return answer.replaceAll("/+", "/");
+    }
+
+    private static void writeHeader(OutputStream out, String name, long size, int mode, char type) throws IOException {
+        byte[] nameBytes = name.getBytes(Charsets.UTF_8);
+        if (nameBytes.length > 100) {
+            // a GNU long name entry holds the name of the next entry
+            writeHeader(out, "././@LongLink", nameBytes.length + 1, 0644, 'L');
+            out.write(nameBytes);
+            out.write(0);
+            pad(out, nameBytes.length + 1);
+        }
+        byte[] header = new byte[BLOCK_SIZE];
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, 100));
+        putOctal(header, 100, 8, mode);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, 0);
+        header[156] = (byte) type;
+        System.arraycopy("ustar  ".getBytes(Charsets.US_ASCII), 0, header, 257, 7);
+        // the checksum is computed with the checksum field filled with spaces
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        putOctal(header, 148, 7, checksum);
+        out.write(header);
+    }
+
+    private static void putOctal(byte[] header, int offset, int length, long value) {
+        String text = Long.toOctalString(value);
+        int digits = length - 1;
+        while (text.length() < digits) {
+            text = "0" + text;
+        }
+        byte[] bytes = text.getBytes(Charsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, digits));
+        header[offset + digits] = 0;
+    }
+
+    private static void pad(OutputStream out, long size) throws IOException {
+        int remainder = (int) (size % BLOCK_SIZE);
+        if (remainder > 0) {
+            out.write(new byte[BLOCK_SIZE - remainder]);
+        }
+    }
+
+    private static class Entry {
+        private final File file;
+        private final byte[] content;
+        private final boolean executable;
+
+        private Entry(File file, byte[] content, boolean executable) {
+            this.file = file;
+            this.content = content;
+            this.executable = executable;
+        }
+
+        private long getSize() {
+            return file != null ? file.length() : content.length;
+        }
+    }
+}
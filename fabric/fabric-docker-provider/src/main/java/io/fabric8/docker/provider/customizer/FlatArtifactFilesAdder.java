@@ -19,7 +19,6 @@ package io.fabric8.docker.provider.customizer;
 
 import io.fabric8.api.FabricService;
 import io.fabric8.api.Profile;
-import io.fabric8.common.util.Files;
 import io.fabric8.deployer.JavaContainers;
 
 import java.io.File;
@@ -35,18 +34,16 @@ public class FlatArtifactFilesAdder implements ArtifactFilesAdder {
     private FabricService fabric;
     private List<Profile> profileList;
     private ScheduledExecutorService downloadExecutor;
-    private File uploadLibDir;
-    private File uploadDeployDir;
+    private DockerBuildContext buildContext;
     private int libFileCount;
     private int deployFileCount;
     private Set<String> artifactKeys;
 
-    public FlatArtifactFilesAdder(FabricService fabric, List<Profile> profileList, ScheduledExecutorService downloadExecutor, File uploadLibDir, File uploadDeployDir) {
+    public FlatArtifactFilesAdder(FabricService fabric, List<Profile> profileList, ScheduledExecutorService downloadExecutor, DockerBuildContext buildContext) {
         this.fabric = fabric;
         this.profileList = profileList;
         this.downloadExecutor = downloadExecutor;
-        this.uploadLibDir = uploadLibDir;
-        this.uploadDeployDir = uploadDeployDir;
+        this.buildContext = buildContext;
     }
 
     @Override
@@ -73,17 +70,16 @@ public class FlatArtifactFilesAdder implements ArtifactFilesAdder {
         for (Map.Entry<String, File> entry : entries) {
             File file = entry.getValue();
             String fileName = file.getName();
-            File outputDir;
+            String outputDir;
             if (fileName.toLowerCase().endsWith(".jar")) {
-                outputDir = uploadLibDir;
+                outputDir = CustomDockerContainerImageBuilder.LIB_DIR;
                 libFileCount++;
             }
             else {
-                outputDir = uploadDeployDir;
+                outputDir = CustomDockerContainerImageBuilder.DEPLOY_DIR;
                 deployFileCount++;
             }
-            outputDir.mkdirs();
-            Files.copy(file, new File(outputDir, fileName));
+            buildContext.addFile(CustomDockerContainerImageBuilder.uploadPath(outputDir, fileName), file);
         }
         artifactKeys = artifacts.keySet();
         return this;
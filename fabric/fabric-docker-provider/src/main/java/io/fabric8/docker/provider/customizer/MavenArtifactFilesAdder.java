@@ -29,9 +29,8 @@ import io.fabric8.service.VersionPropertyPointerResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
@@ -52,18 +51,16 @@ public class MavenArtifactFilesAdder implements ArtifactFilesAdder {
     private FabricService fabric;
     private List<Profile> profileList;
     private ScheduledExecutorService downloadExecutor;
-    private File uploadLibDir;
-    private File uploadDeployDir;
+    private DockerBuildContext buildContext;
     private int libFileCount;
     private int deployFileCount;
     private Set<String> artifactKeys;
 
-    public MavenArtifactFilesAdder(FabricService fabric, List<Profile> profileList, ScheduledExecutorService downloadExecutor, File uploadLibDir, File uploadDeployDir) {
+    public MavenArtifactFilesAdder(FabricService fabric, List<Profile> profileList, ScheduledExecutorService downloadExecutor, DockerBuildContext buildContext) {
         this.fabric = fabric;
         this.profileList = profileList;
         this.downloadExecutor = downloadExecutor;
-        this.uploadLibDir = uploadLibDir;
-        this.uploadDeployDir = uploadDeployDir;
+        this.buildContext = buildContext;
     }
 
     @Override
@@ -103,19 +100,16 @@ public class MavenArtifactFilesAdder implements ArtifactFilesAdder {
                 continue;
             }
             String fileName = parser.getArtifactPath();
-            File outputDir;
+            String outputDir;
             if (fileName.toLowerCase().endsWith(".jar")) {
-                outputDir = uploadLibDir;
+                outputDir = CustomDockerContainerImageBuilder.LIB_DIR;
                 libFileCount++;
             }
             else {
-                outputDir = uploadDeployDir;
+                outputDir = CustomDockerContainerImageBuilder.DEPLOY_DIR;
                 deployFileCount++;
             }
-            outputDir.mkdirs();
-            File outFile = new File(outputDir, fileName);
-            outFile.getParentFile().mkdirs();
-            Files.copy(file, outFile);
+            buildContext.addFile(CustomDockerContainerImageBuilder.uploadPath(outputDir, fileName), file);
         }
 
         // lets make sure there's all the feature files too
@@ -153,13 +147,12 @@ public class MavenArtifactFilesAdder implements ArtifactFilesAdder {
                             continue;
                         }
                         String fileName = parser.getArtifactPath();
-                        uploadLibDir.mkdirs();
-                        File outFile = new File(uploadLibDir, fileName);
-                        outFile.getParentFile().mkdirs();
                         try {
-                            Files.copy(inputStream, new FileOutputStream(outFile));
-                        } catch (FileNotFoundException e) {
-                            LOG.warn("Failed to copy stream to " + outFile);
+                            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                            Files.copy(inputStream, buffer);
+                            buildContext.addContent(CustomDockerContainerImageBuilder.uploadPath(CustomDockerContainerImageBuilder.LIB_DIR, fileName), buffer.toByteArray(), false);
+                        } catch (IOException e) {
+                            LOG.warn("Failed to read feature repository: " + repository + ". " + e, e);
                         }
                     }
                 }
@@ -0,0 +1,232 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.docker.provider.customizer;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DockerBuildContextTest extends Assert {
+
+    File dir;
+
+    File jar;
+
+    @Before
+    public void before() throws IOException {
+        dir = Files.createTempDir();
+        jar = new File(dir, "lib.jar");
+        Files.write("jar content", jar, Charsets.UTF_8);
+    }
+
+    @After
+    public void after() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void shouldHashTheSameInputsTheSame() throws Exception {
+        // Given
+        DockerBuildContext first = new DockerBuildContext();
+        first.addFile("lib/lib.jar", jar);
+        first.addContent("Dockerfile", "FROM base");
+        DockerBuildContext second = new DockerBuildContext();
+        second.addContent("./Dockerfile", "FROM base");
+        second.addFile("lib//lib.jar", jar);
+
+        // When
+        String hash = first.getContentHash();
+
+        // Then
+        assertEquals(40, hash.length());
+        assertEquals(hash, second.getContentHash());
+        assertEquals(hash, first.getContentHash());
+        assertArrayEquals(tar(first), tar(second));
+    }
+
+    @Test
+    public void shouldHashChangedInputsDifferently() throws Exception {
+        // Given
+        DockerBuildContext context = new DockerBuildContext();
+        context.addFile("lib/lib.jar", jar);
+        context.addContent("Dockerfile", "FROM base");
+        String hash = context.getContentHash();
+
+        DockerBuildContext renamed = new DockerBuildContext();
+        renamed.addFile("deploy/lib.jar", jar);
+        renamed.addContent("Dockerfile", "FROM base");
+
+        DockerBuildContext executable = new DockerBuildContext();
+        executable.addFile("lib/lib.jar", jar);
+        executable.addContent("Dockerfile", "FROM base".getBytes(Charsets.UTF_8), true);
+
+        // When
+        Files.write("changed jar content", jar, Charsets.UTF_8);
+
+        // Then
+        assertFalse(hash.equals(context.getContentHash()));
+        assertFalse(hash.equals(renamed.getContentHash()));
+        assertFalse(hash.equals(executable.getContentHash()));
+    }
+
+    @Test
+    public void shouldWriteLongNamesAsGnuLongLinks() throws Exception {
+        // Given
+        StringBuilder path = new StringBuilder("lib");
+        while (path.length() <= 100) {
+            path.append("/folder");
+        }
+        path.append("/lib.jar");
+        DockerBuildContext context = new DockerBuildContext();
+        context.addFile(path.toString(), jar);
+        context.addContent("Dockerfile", "FROM base");
+
+        // When
+        Map<String, String> entries = untar(tar(context));
+
+        // Then
+        assertEquals("jar content", entries.get(path.toString()));
+        assertEquals("FROM base", entries.get("Dockerfile"));
+        assertTrue(entries.containsKey(path.substring(0, path.lastIndexOf("/") + 1)));
+        assertTrue(entries.containsKey("lib/"));
+    }
+
+    @Test
+    public void shouldFailWhenAFileShrinksWhileWriting() throws Exception {
+        // Given
+        DockerBuildContext context = new DockerBuildContext();
+        context.addFile("lib.jar", jar);
+
+        // When
+        try {
+            context.writeTar(new FilterOutputStream(new ByteArrayOutputStream()) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    truncate(jar, 3);
+                    out.write(b, off, len);
+                }
+            });
+            fail("Expected the changed file to fail the build context");
+        } catch (IOException e) {
+            // Then
+            assertTrue(e.getMessage().contains("changed while writing"));
+        }
+    }
+
+    @Test
+    public void shouldOnlyWriteTheHeaderSizeWhenAFileGrowsWhileWriting() throws Exception {
+        // Given
+        DockerBuildContext context = new DockerBuildContext();
+        context.addFile("lib.jar", jar);
+        final boolean[] appended = {false};
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        // When
+        context.writeTar(new FilterOutputStream(buffer) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (!appended[0]) {
+                    appended[0] = true;
+                    Files.append(" and more", jar, Charsets.UTF_8);
+                }
+                out.write(b, off, len);
+            }
+        });
+
+        // Then
+        assertEquals("jar content", untar(buffer.toByteArray()).get("lib.jar"));
+    }
+
+    private static byte[] tar(DockerBuildContext context) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        context.writeTar(buffer);
+        return buffer.toByteArray();
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    /**
+     * Reads the names and contents of the entries of a tar file, checking the header checksums
+     */
+    private static Map<String, String> untar(byte[] tar) throws IOException {
+        Map<String, String> answer = new LinkedHashMap<>();
+        List<byte[]> emptyBlocks = new ArrayList<>();
+        String longName = null;
+        int offset = 0;
+        while (offset < tar.length) {
+            byte[] header = Arrays.copyOfRange(tar, offset, offset + 512);
+            offset += 512;
+            if (Arrays.equals(header, new byte[512])) {
+                emptyBlocks.add(header);
+                continue;
+            }
+            assertEquals(readOctal(header, 148, 8), checksum(header));
+            String name = new String(header, 0, 100, Charsets.UTF_8).replaceAll("\u0000.*", "");
+            int size = (int) readOctal(header, 124, 12);
+            String content = new String(tar, offset, size, Charsets.UTF_8);
+            offset += (size + 511) / 512 * 512;
+            char type = (char) header[156];
+            if (type == 'L') {
+                longName = content.substring(0, content.length() - 1);
+                continue;
+            }
+            if (longName != null) {
+                assertTrue(longName.startsWith(name));
+                name = longName;
+                longName = null;
+            }
+            answer.put(name, content);
+        }
+        assertEquals(2, emptyBlocks.size());
+        return answer;
+    }
+
+    private static long readOctal(byte[] header, int offset, int length) {
+        String text = new String(header, offset, length, Charsets.US_ASCII).replaceAll("[\u0000 ]", "");
+        return Long.parseLong(text, 8);
+    }
+
+    private static long checksum(byte[] header) {
+        long answer = 0;
+        for (int i = 0; i < header.length; i++) {
+            answer += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+        }
+        return answer;
+    }
+
+}
@@ -0,0 +1,481 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.dosgi.api;
+
+import io.fabric8.dosgi.util.ClassLoaderObjectInputStream;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.DataByteArrayInputStream;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * A schema-less binary serialization. Primitives, strings, primitive arrays, enums, object arrays
+ * and the common collections are written with a one byte tag and a compact value, every other
+ * object falls back to java serialization.
+ * </p>
+ * <p>
+ * Class names are only written the first time they appear in a message, later occurrences refer
+ * to them by index.
+ * </p>
+ * <p>
+ * The compact encoding writes every occurrence of an object separately, so when the arguments of a request,
+ * or the error and value of a response, hold an object which needs java serialization, or the same array,
+ * collection or map more than once, the whole graph is written with a single java serialization stream
+ * instead, which keeps shared references and cycles.
+ * </p>
+ */
+public class BinarySerializationStrategy implements SerializationStrategy {
+
+    public static final BinarySerializationStrategy INSTANCE = new BinarySerializationStrategy();
+
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte BYTE = 3;
+    private static final byte SHORT = 4;
+    private static final byte CHAR = 5;
+    private static final byte INT = 6;
+    private static final byte LONG = 7;
+    private static final byte FLOAT = 8;
+    private static final byte DOUBLE = 9;
+    private static final byte STRING = 10;
+    private static final byte BYTE_ARRAY = 11;
+    private static final byte INT_ARRAY = 12;
+    private static final byte LONG_ARRAY = 13;
+    private static final byte OBJECT_ARRAY = 14;
+    private static final byte COLLECTION = 15;
+    private static final byte MAP = 16;
+    private static final byte ENUM = 17;
+    private static final byte SERIALIZED = 18;
+
+    public String name() {
+        return "binary";
+    }
+
+    public void encodeRequest(ClassLoader loader, Class<?>[] types, Object[] args, DataByteArrayOutputStream target) throws IOException {
+        Writer writer = new Writer(target);
+        int length = args != null ? args.length : 0;
+        if (length > 0 && requiresSerialization(args)) {
+            target.writeByte(SERIALIZED);
+            writer.writeSerialized(args);
+        } else {
+            target.writeByte(OBJECT_ARRAY);
+            target.writeVarInt(length);
+            for (int i = 0; i < length; i++) {
+                writer.write(args[i]);
+            }
+        }
+    }
+
+    public void decodeResponse(ClassLoader loader, Class<?> type, DataByteArrayInputStream source, AsyncCallback result) throws IOException, ClassNotFoundException {
+        Reader reader = new Reader(loader, source);
+        Throwable error;
+        Object value;
+        if (source.readByte() == SERIALIZED) {
+            Object[] response = (Object[]) reader.readSerialized();
+            error = (Throwable) response[0];
+            value = response[1];
+        } else {
+            error = (Throwable) reader.read();
+            value = reader.read();
+        }
+        if (error != null) {
+            result.onFailure(error);
+        } else {
+            result.onSuccess(value);
+        }
+    }
+
+    public void decodeRequest(ClassLoader loader, Class<?>[] types, DataByteArrayInputStream source, Object[] target) throws IOException, ClassNotFoundException {
+        Reader reader = new Reader(loader, source);
+        if (source.readByte() == SERIALIZED) {
+            Object[] args = (Object[]) reader.readSerialized();
+            System.arraycopy(args, 0, target, 0, args.length);
+            return;
+        }
+        int length = source.readVarInt();
+        for (int i = 0; i < length; i++) {
+            target[i] = reader.read();
+        }
+    }
+
+    public void encodeResponse(ClassLoader loader, Class<?> type, Object value, Throwable error, DataByteArrayOutputStream target) throws IOException {
+        Writer writer = new Writer(target);
+        Object[] response = new Object[]{error, value};
+        if (requiresSerialization(response)) {
+            target.writeByte(SERIALIZED);
+            writer.writeSerialized(response);
+        } else {
+            target.writeByte(OBJECT_ARRAY);
+            writer.write(error);
+            writer.write(value);
+        }
+    }
+
+    /**
+     * Returns true if the given values can not be written with the compact encoding without losing
+     * object identity, because they hold an object that needs java serialization or the same array,
+     * collection or map more than once.
+     */
+    static boolean requiresSerialization(Object[] values) {
+        Set<Object> containers = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (Object value : values) {
+            if (requiresSerialization(value, containers)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean requiresSerialization(Object value, Set<Object> containers) {
+        if (value == null) {
+            return false;
+        }
+        Class<?> clazz = value.getClass();
+        if (clazz == String.class || clazz == Integer.class || clazz == Long.class || clazz == Boolean.class
+                || clazz == Byte.class || clazz == Short.class || clazz == Character.class || clazz == Float.class
+                || clazz == Double.class || value instanceof Enum) {
+            return false;
+        }
+        if (clazz == byte[].class || clazz == int[].class || clazz == long[].class) {
+            return !containers.add(value);
+        }
+        if (value instanceof Object[]) {
+            if (!containers.add(value)) {
+                return true;
+            }
+            for (Object element : (Object[]) value) {
+                if (requiresSerialization(element, containers)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (isSupportedCollection(clazz)) {
+            if (!containers.add(value)) {
+                return true;
+            }
+            for (Object element : (Collection<?>) value) {
+                if (requiresSerialization(element, containers)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (isSupportedMap(clazz)) {
+            if (!containers.add(value)) {
+                return true;
+            }
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (requiresSerialization(entry.getKey(), containers) || requiresSerialization(entry.getValue(), containers)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isSupportedCollection(Class<?> clazz) {
+        return clazz == ArrayList.class || clazz == LinkedList.class || clazz == HashSet.class || clazz == LinkedHashSet.class;
+    }
+
+    private static boolean isSupportedMap(Class<?> clazz) {
+        return clazz == HashMap.class || clazz == LinkedHashMap.class;
+    }
+
+    private static final class Writer {
+
+        private final DataByteArrayOutputStream out;
+        private final Map<Class<?>, Integer> classes = new HashMap<Class<?>, Integer>();
+
+        Writer(DataByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        void write(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL);
+                return;
+            }
+            Class<?> clazz = value.getClass();
+            if (clazz == String.class) {
+                byte[] bytes = ((String) value).getBytes("UTF-8");
+                out.writeByte(STRING);
+                out.writeVarInt(bytes.length);
+                out.write(bytes);
+            } else if (clazz == Integer.class) {
+                out.writeByte(INT);
+                int v = (Integer) value;
+                out.writeVarInt((v << 1) ^ (v >> 31));
+            } else if (clazz == Long.class) {
+                out.writeByte(LONG);
+                long v = (Long) value;
+                out.writeVarLong((v << 1) ^ (v >> 63));
+            } else if (clazz == Boolean.class) {
+                out.writeByte((Boolean) value ? TRUE : FALSE);
+            } else if (clazz == Byte.class) {
+                out.writeByte(BYTE);
+                out.writeByte((Byte) value);
+            } else if (clazz == Short.class) {
+                out.writeByte(SHORT);
+                out.writeShort((Short) value);
+            } else if (clazz == Character.class) {
+                out.writeByte(CHAR);
+                out.writeChar((Character) value);
+            } else if (clazz == Float.class) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) value);
+            } else if (clazz == Double.class) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (clazz == byte[].class) {
+                byte[] bytes = (byte[]) value;
+                out.writeByte(BYTE_ARRAY);
+                out.writeVarInt(bytes.length);
+                out.write(bytes);
+            } else if (clazz == int[].class) {
+                int[] ints = (int[]) value;
+                out.writeByte(INT_ARRAY);
+                out.writeVarInt(ints.length);
+                for (int v : ints) {
+                    out.writeInt(v);
+                }
+            } else if (clazz == long[].class) {
+                long[] longs = (long[]) value;
+                out.writeByte(LONG_ARRAY);
+                out.writeVarInt(longs.length);
+                for (long v : longs) {
+                    out.writeLong(v);
+                }
+            } else if (value instanceof Object[]) {
+                Object[] array = (Object[]) value;
+                out.writeByte(OBJECT_ARRAY);
+                writeClass(clazz.getComponentType());
+                out.writeVarInt(array.length);
+                for (Object element : array) {
+                    write(element);
+                }
+            } else if (isSupportedCollection(clazz)) {
+                Collection<?> collection = (Collection<?>) value;
+                out.writeByte(COLLECTION);
+                writeClass(clazz);
+                out.writeVarInt(collection.size());
+                for (Object element : collection) {
+                    write(element);
+                }
+            } else if (isSupportedMap(clazz)) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                out.writeByte(MAP);
+                writeClass(clazz);
+                out.writeVarInt(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    write(entry.getKey());
+                    write(entry.getValue());
+                }
+            } else if (value instanceof Enum) {
+                out.writeByte(ENUM);
+                writeClass(((Enum<?>) value).getDeclaringClass());
+                write(((Enum<?>) value).name());
+            } else {
+                out.writeByte(SERIALIZED);
+                writeSerialized(value);
+            }
+        }
+
+        void writeSerialized(Object value) throws IOException {
+            DataByteArrayOutputStream serialized = new DataByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(serialized);
+            oos.writeObject(value);
+            oos.flush();
+            Buffer buffer = serialized.toBuffer();
+            out.writeVarInt(buffer.length);
+            out.write(buffer.data, buffer.offset, buffer.length);
+        }
+
+        private void writeClass(Class<?> clazz) throws IOException {
+            Integer index = classes.get(clazz);
+            if (index != null) {
+                out.writeVarInt(index);
+            } else {
+                classes.put(clazz, classes.size() + 1);
+                out.writeVarInt(0);
+                write(clazz.getName());
+            }
+        }
+    }
+
+    private static final class Reader {
+
+        private final ClassLoader loader;
+        private final DataByteArrayInputStream in;
+        private final List<Class<?>> classes = new ArrayList<Class<?>>();
+
+        Reader(ClassLoader loader, DataByteArrayInputStream in) {
+            this.loader = loader;
+            this.in = in;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Object read() throws IOException, ClassNotFoundException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case BYTE:
+                    return in.readByte();
+                case SHORT:
+                    return in.readShort();
+                case CHAR:
+                    return in.readChar();
+                case INT: {
+                    int v = in.readVarInt();
+                    return (v >>> 1) ^ -(v & 1);
+                }
+                case LONG: {
+                    long v = in.readVarLong();
+                    return (v >>> 1) ^ -(v & 1);
+                }
+                case FLOAT:
+                    return in.readFloat();
+                case DOUBLE:
+                    return in.readDouble();
+                case STRING:
+                    return new String(readBytes(), "UTF-8");
+                case BYTE_ARRAY:
+                    return readBytes();
+                case INT_ARRAY: {
+                    int[] ints = new int[in.readVarInt()];
+                    for (int i = 0; i < ints.length; i++) {
+                        ints[i] = in.readInt();
+                    }
+                    return ints;
+                }
+                case LONG_ARRAY: {
+                    long[] longs = new long[in.readVarInt()];
+                    for (int i = 0; i < longs.length; i++) {
+                        longs[i] = in.readLong();
+                    }
+                    return longs;
+                }
+                case OBJECT_ARRAY: {
+                    Class<?> componentType = readClass();
+                    Object[] array = (Object[]) Array.newInstance(componentType, in.readVarInt());
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = read();
+                    }
+                    return array;
+                }
+                case COLLECTION: {
+                    Class<?> clazz = readClass();
+                    if (!isSupportedCollection(clazz)) {
+                        throw new StreamCorruptedException("Unsupported collection type: " + clazz.getName());
+                    }
+                    Collection<Object> collection = (Collection<Object>) newInstance(clazz);
+                    int size = in.readVarInt();
+                    for (int i = 0; i < size; i++) {
+                        collection.add(read());
+                    }
+                    return collection;
+                }
+                case MAP: {
+                    Class<?> clazz = readClass();
+                    if (!isSupportedMap(clazz)) {
+                        throw new StreamCorruptedException("Unsupported map type: " + clazz.getName());
+                    }
+                    Map<Object, Object> map = (Map<Object, Object>) newInstance(clazz);
+                    int size = in.readVarInt();
+                    for (int i = 0; i < size; i++) {
+                        Object key = read();
+                        map.put(key, read());
+                    }
+                    return map;
+                }
+                case ENUM: {
+                    Class clazz = readClass();
+                    return Enum.valueOf(clazz, (String) read());
+                }
+                case SERIALIZED:
+                    return readSerialized();
+                default:
+                    throw new StreamCorruptedException("Unknown type tag: " + tag);
+            }
+        }
+
+        Object readSerialized() throws IOException, ClassNotFoundException {
+            ClassLoaderObjectInputStream ois = new ClassLoaderObjectInputStream(new DataByteArrayInputStream(readBytes()));
+            ois.setClassLoader(loader);
+            return ois.readObject();
+        }
+
+        private byte[] readBytes() throws IOException {
+            byte[] bytes = new byte[in.readVarInt()];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        private Class<?> readClass() throws IOException, ClassNotFoundException {
+            int index = in.readVarInt();
+            if (index > 0) {
+                return classes.get(index - 1);
+            }
+            Class<?> clazz = loadClass((String) read());
+            classes.add(clazz);
+            return clazz;
+        }
+
+        private Class<?> loadClass(String name) throws ClassNotFoundException {
+            if (name.startsWith("[")) {
+                return Class.forName(name, false, loader);
+            }
+            try {
+                return loader.loadClass(name);
+            } catch (ClassNotFoundException e) {
+                // classes of the jdk and of the dosgi api are not always visible from the service class loader
+                return Class.forName(name, false, BinarySerializationStrategy.class.getClassLoader());
+            }
+        }
+
+        private static Object newInstance(Class<?> clazz) throws IOException {
+            try {
+                return clazz.newInstance();
+            } catch (Exception e) {
+                throw (IOException) new StreamCorruptedException("Unable to create " + clazz.getName()).initCause(e);
+            }
+        }
+    }
+}
@@ -60,6 +60,25 @@ public class CapabilitySet<C extends Capability>
         }
     }
 
+    /**
+     * Adds several capabilities while holding the write lock once.
+     */
+    public void addCapabilities(Collection<C> caps)
+    {
+        m_lock.writeLock().lock();
+        try
+        {
+            for (C cap : caps)
+            {
+                doAddCapability(cap);
+            }
+        }
+        finally
+        {
+            m_lock.writeLock().unlock();
+        }
+    }
+
     private void doAddCapability(C cap)
     {
         m_capSet.add(cap);
@@ -16,6 +16,7 @@
 package io.fabric8.dosgi.impl;
 
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
 import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
 import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
 import org.apache.curator.framework.recipes.cache.TreeCache;
@@ -23,6 +24,7 @@ import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
 import org.apache.curator.framework.recipes.cache.TreeCacheListener;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
 
 import io.fabric8.dosgi.api.Dispatched;
 import io.fabric8.dosgi.api.SerializationStrategy;
@@ -53,22 +55,35 @@ import org.osgi.service.remoteserviceadmin.RemoteConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static io.fabric8.dosgi.util.ZooKeeperUtils.create;
 import static io.fabric8.dosgi.util.ZooKeeperUtils.delete;
@@ -80,13 +95,14 @@ import static org.osgi.service.remoteserviceadmin.RemoteConstants.SERVICE_EXPORT
 import static org.osgi.service.remoteserviceadmin.RemoteConstants.SERVICE_IMPORTED;
 import static org.osgi.service.remoteserviceadmin.RemoteConstants.SERVICE_IMPORTED_CONFIGS;
 
-public class Manager implements ServiceListener, ListenerHook, EventHook, FindHook, TreeCacheListener, Dispatched {
+public class Manager implements ManagerMBean, ServiceListener, ListenerHook, EventHook, FindHook, TreeCacheListener, Dispatched {
 
     public static final String CONFIG = "fabric-dosgi";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Manager.class);
     private static final String DOSGI_REGISTRY = "/fabric/dosgi";
     private static final String FABRIC_ADDRESS = "fabric.address";
+    private static final String FABRIC_PROTOCOL_VERSION = "fabric.protocol.version";
 
     private final BundleContext bundleContext;
 
@@ -102,6 +118,12 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
     private TreeCache tree;
     // Remote endpoints
     private final CapabilitySet<EndpointDescription> remoteEndpoints;
+    // Parsed remote endpoints by zookeeper path, only accessed when processing the tree events
+    private final Map<String, CachedEndpoint> endpointsByPath = new HashMap<String, CachedEndpoint>();
+    // Tree events waiting to be processed
+    private final Queue<TreeCacheEvent> pendingEvents = new ConcurrentLinkedQueue<TreeCacheEvent>();
+    private final AtomicBoolean processingEvents = new AtomicBoolean();
+    private ExecutorService eventExecutor;
 
     //
     // Internal data structures
@@ -114,6 +136,12 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
 
     private final Map<ListenerInfo, SimpleFilter> listeners;
 
+    // Listeners by the objectClass their filter requires
+    private final Map<String, Set<ListenerInfo>> listenersByObjectClass;
+
+    // Listeners whose filter does not require a single objectClass
+    private final Set<ListenerInfo> unindexedListeners;
+
     private final Map<String, SerializationStrategy> serializationStrategies;
 
 
@@ -129,6 +157,8 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
 
     private ServerInvoker server;
 
+    private ObjectName objectName;
+
     public Manager(BundleContext context, CuratorFramework curator) throws Exception {
         this(context, curator, "tcp://0.0.0.0:2543", null, TimeUnit.MINUTES.toMillis(5));
     }
@@ -138,6 +168,8 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
         this.importedServices = new ConcurrentHashMap<EndpointDescription, Map<Long, ImportRegistration>>();
         this.exportedServices = new ConcurrentHashMap<ServiceReference, ExportRegistration>();
         this.listeners = new ConcurrentHashMap<ListenerInfo, SimpleFilter>();
+        this.listenersByObjectClass = new ConcurrentHashMap<String, Set<ListenerInfo>>();
+        this.unindexedListeners = Collections.newSetFromMap(new ConcurrentHashMap<ListenerInfo, Boolean>());
         this.serializationStrategies = new ConcurrentHashMap<String, SerializationStrategy>();
         this.remoteEndpoints = new CapabilitySet<EndpointDescription>(
                 Arrays.asList(Constants.OBJECTCLASS, ENDPOINT_FRAMEWORK_UUID), false);
@@ -154,7 +186,15 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
         this.server = new ServerInvokerImpl(uri, queue, serializationStrategies);
         this.client.start();
         this.server.start();
+        registerMBean();
         // ZooKeeper tracking
+        this.eventExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DOSGi endpoints");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
         try {
             create(curator, DOSGI_REGISTRY, CreateMode.PERSISTENT);
         } catch (KeeperException.NodeExistsException e) {
@@ -189,18 +229,56 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
         for (ServiceReference reference : this.exportedServices.keySet()) {
             unExportService(reference);
         }
+        unregisterMBean();
         this.server.stop();
         this.client.stop();
         if(tree!=null)
         {
             this.tree.close();
         }
+        if (eventExecutor != null) {
+            this.eventExecutor.shutdownNow();
+        }
         if (registration != null) {
             this.registration.unregister();
         }
         this.bundleContext.removeServiceListener(this);
     }
 
+    private void registerMBean() {
+        try {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("io.fabric8:type=DOSGi");
+            if (!mbeanServer.isRegistered(name)) {
+                mbeanServer.registerMBean(this, name);
+                objectName = name;
+            }
+        } catch (Exception e) {
+            LOGGER.warn("An error occurred during mbean server registration: " + e, e);
+        }
+    }
+
+    private void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                LOGGER.warn("An error occurred during mbean server unregistration: " + e, e);
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public Map<String, Object> getImportedServiceLatencies() {
+        return client.getLatencyStatistics();
+    }
+
+    @Override
+    public Map<String, Object> getExportedServiceStatistics() {
+        return server.getServiceStatistics();
+    }
+
     //
     // ServiceListener
     //
@@ -235,6 +313,7 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
             String filter = "(&" + listenerInfo.getFilter() + "(!(" + ENDPOINT_FRAMEWORK_UUID + "=" + this.uuid + ")))";
             SimpleFilter exFilter = SimpleFilter.parse(filter);
             listeners.put(listenerInfo, exFilter);
+            indexListener(listenerInfo, exFilter);
             // Iterate through known services and import them if needed
             Set<EndpointDescription> matches = remoteEndpoints.match(exFilter);
             for (EndpointDescription endpoint : matches) {
@@ -251,6 +330,7 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
                 continue;
             }
             SimpleFilter exFilter = listeners.remove(listenerInfo);
+            unindexListener(listenerInfo, exFilter);
             // Iterate through known services and dereference them if needed
             Set<EndpointDescription> matches = remoteEndpoints.match(exFilter);
             for (EndpointDescription endpoint : matches) {
@@ -269,6 +349,69 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
         }
     }
 
+    private void indexListener(ListenerInfo listenerInfo, SimpleFilter filter) {
+        String objectClass = getObjectClass(filter);
+        if (objectClass == null) {
+            unindexedListeners.add(listenerInfo);
+            return;
+        }
+        synchronized (listenersByObjectClass) {
+            Set<ListenerInfo> infos = listenersByObjectClass.get(objectClass);
+            if (infos == null) {
+                infos = Collections.newSetFromMap(new ConcurrentHashMap<ListenerInfo, Boolean>());
+                listenersByObjectClass.put(objectClass, infos);
+            }
+            infos.add(listenerInfo);
+        }
+    }
+
+    private void unindexListener(ListenerInfo listenerInfo, SimpleFilter filter) {
+        String objectClass = filter != null ? getObjectClass(filter) : null;
+        if (objectClass == null) {
+            unindexedListeners.remove(listenerInfo);
+            return;
+        }
+        synchronized (listenersByObjectClass) {
+            Set<ListenerInfo> infos = listenersByObjectClass.get(objectClass);
+            if (infos != null && infos.remove(listenerInfo) && infos.isEmpty()) {
+                listenersByObjectClass.remove(objectClass);
+            }
+        }
+    }
+
+    /**
+     * Returns the listeners whose filter may match the given endpoint.
+     */
+    Set<ListenerInfo> getCandidateListeners(EndpointDescription endpoint) {
+        Set<ListenerInfo> candidates = new HashSet<ListenerInfo>(unindexedListeners);
+        for (String objectClass : endpoint.getInterfaces()) {
+            Set<ListenerInfo> infos = listenersByObjectClass.get(objectClass);
+            if (infos != null) {
+                candidates.addAll(infos);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns the objectClass a filter requires, or null if it does not require a single one.
+     */
+    @SuppressWarnings("unchecked")
+    static String getObjectClass(SimpleFilter filter) {
+        if (filter.getOperation() == SimpleFilter.EQ && Constants.OBJECTCLASS.equalsIgnoreCase(filter.getName())) {
+            return filter.getValue().toString();
+        }
+        if (filter.getOperation() == SimpleFilter.AND) {
+            for (SimpleFilter child : (List<SimpleFilter>) filter.getValue()) {
+                String objectClass = getObjectClass(child);
+                if (objectClass != null) {
+                    return objectClass;
+                }
+            }
+        }
+        return null;
+    }
+
     //
     // EventHook
     //
@@ -376,6 +519,7 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
         properties.put(SERVICE_IMPORTED_CONFIGS, new String[] { CONFIG });
         properties.put(ENDPOINT_FRAMEWORK_UUID, this.uuid);
         properties.put(FABRIC_ADDRESS, fabricAddress);
+        properties.put(FABRIC_PROTOCOL_VERSION, Integer.toString(ClientInvoker.PROTOCOL_VERSION));
 
         String uuid = UuidGenerator.getUUID();
         properties.put(ENDPOINT_ID, uuid);
@@ -436,55 +580,157 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
         switch (event.getType())
         {
             case NODE_ADDED:
-            {
-                if (event.getData().getData() != null)
+            case NODE_UPDATED:
+            case NODE_REMOVED:
+                if (event.getData() != null && event.getData().getData() != null)
                 {
-                    EndpointDescription endpoint = Utils.getEndpointDescription(new String(event.getData().getData()));
-                    remoteEndpoints.addCapability(endpoint);
-                    // Check existing listeners
-                    for (Map.Entry<ListenerInfo, SimpleFilter> entry : listeners.entrySet())
-                    {
-                        if (CapabilitySet.matches(endpoint, entry.getValue()))
-                        {
-                            doImportService(endpoint, entry.getKey());
+                    queueEvent(event);
+                    scheduleEvents();
+                }
+                break;
+        }
+    }
+
+    void queueEvent(TreeCacheEvent event) {
+        pendingEvents.add(event);
+    }
+
+    /**
+     * Events are processed in batches on a single thread, so the endpoints of a container
+     * exporting many services are added and imported in one pass.
+     */
+    private void scheduleEvents() {
+        if (processingEvents.compareAndSet(false, true)) {
+            try {
+                eventExecutor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            processEvents();
+                        } finally {
+                            processingEvents.set(false);
+                        }
+                        if (!pendingEvents.isEmpty()) {
+                            scheduleEvents();
                         }
                     }
-                }
+                });
+            } catch (RejectedExecutionException e) {
+                // stopped
+                processingEvents.set(false);
             }
-                break;
-            case NODE_UPDATED:
+        }
+    }
+
+    /**
+     * Processes the pending events in order. The endpoints added so far are imported before an update or a removal
+     * so that the update or removal applies to them.
+     */
+    void processEvents() {
+        List<EndpointDescription> added = new ArrayList<EndpointDescription>();
+        TreeCacheEvent event;
+        while ((event = pendingEvents.poll()) != null)
+        {
+            try
             {
-                if (event.getData().getData() != null)
+                switch (event.getType())
                 {
-                    EndpointDescription endpoint = Utils.getEndpointDescription(new String(event.getData().getData()));
-                    Map<Long, ImportRegistration> registrations = importedServices.get(endpoint);
-                    if (registrations != null)
+                    case NODE_ADDED:
                     {
-                        for (ImportRegistration reg : registrations.values())
+                        added.add(getEndpoint(event.getData(), false));
+                    }
+                        break;
+                    case NODE_UPDATED:
+                    {
+                        importEndpoints(added);
+                        EndpointDescription endpoint = getEndpoint(event.getData(), false);
+                        Map<Long, ImportRegistration> registrations = importedServices.get(endpoint);
+                        if (registrations != null)
                         {
-                            reg.importedService.setProperties(new Hashtable<String, Object>(endpoint.getProperties()));
+                            for (ImportRegistration reg : registrations.values())
+                            {
+                                reg.importedService.setProperties(new Hashtable<String, Object>(endpoint.getProperties()));
+                            }
                         }
                     }
-                }
-            }
-                break;
-            case NODE_REMOVED:
-            {
-                if (event.getData().getData() != null)
-                {
-                    EndpointDescription endpoint = Utils.getEndpointDescription(new String(event.getData().getData()));
-                    remoteEndpoints.removeCapability(endpoint);
-                    Map<Long, ImportRegistration> registrations = importedServices.remove(endpoint);
-                    if (registrations != null)
+                        break;
+                    case NODE_REMOVED:
                     {
-                        for (ImportRegistration reg : registrations.values())
+                        importEndpoints(added);
+                        EndpointDescription endpoint = getEndpoint(event.getData(), true);
+                        remoteEndpoints.removeCapability(endpoint);
+                        Map<Long, ImportRegistration> registrations = importedServices.remove(endpoint);
+                        if (registrations != null)
                         {
-                            reg.getImportedService().unregister();
+                            for (ImportRegistration reg : registrations.values())
+                            {
+                                reg.getImportedService().unregister();
+                            }
                         }
                     }
+                        break;
                 }
             }
-                break;
+            catch (Exception e)
+            {
+                LOGGER.warn("Error while processing the endpoint at " + event.getData().getPath(), e);
+            }
+        }
+        importEndpoints(added);
+    }
+
+    /**
+     * Adds the given endpoints and imports them for the listeners they match, then clears the list.
+     */
+    private void importEndpoints(List<EndpointDescription> endpoints) {
+        if (endpoints.isEmpty()) {
+            return;
+        }
+        remoteEndpoints.addCapabilities(endpoints);
+        for (EndpointDescription endpoint : endpoints) {
+            for (ListenerInfo listenerInfo : getCandidateListeners(endpoint)) {
+                SimpleFilter filter = listeners.get(listenerInfo);
+                if (filter != null && CapabilitySet.matches(endpoint, filter)) {
+                    try {
+                        doImportService(endpoint, listenerInfo);
+                    } catch (Exception e) {
+                        LOGGER.warn("Error while importing " + endpoint, e);
+                    }
+                }
+            }
+        }
+        endpoints.clear();
+    }
+
+    /**
+     * Returns the endpoint stored in the given node, only parsing it when the node changed since it was last seen.
+     */
+    private EndpointDescription getEndpoint(ChildData data, boolean removed) throws Exception {
+        Stat stat = data.getStat();
+        CachedEndpoint cached = removed ? endpointsByPath.remove(data.getPath()) : endpointsByPath.get(data.getPath());
+        if (cached != null && cached.isCurrent(stat)) {
+            return cached.endpoint;
+        }
+        EndpointDescription endpoint = Utils.getEndpointDescription(new String(data.getData()));
+        if (!removed && stat != null) {
+            endpointsByPath.put(data.getPath(), new CachedEndpoint(stat, endpoint));
+        }
+        return endpoint;
+    }
+
+    static class CachedEndpoint {
+
+        private final long czxid;
+        private final int version;
+        private final EndpointDescription endpoint;
+
+        CachedEndpoint(Stat stat, EndpointDescription endpoint) {
+            this.czxid = stat.getCzxid();
+            this.version = stat.getVersion();
+            this.endpoint = endpoint;
+        }
+
+        boolean isCurrent(Stat stat) {
+            return stat != null && stat.getCzxid() == czxid && stat.getVersion() == version;
         }
     }
 
@@ -507,7 +753,10 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
                 }
             }
             String address = (String) description.getProperties().get(FABRIC_ADDRESS);
-            InvocationHandler handler = client.getProxy(address, description.getId(), classLoader);
+            // endpoints exported by older versions do not advertise a protocol version
+            Object version = description.getProperties().get(FABRIC_PROTOCOL_VERSION);
+            int protocolVersion = version != null ? Math.min(Integer.parseInt(version.toString()), ClientInvoker.PROTOCOL_VERSION) : 1;
+            InvocationHandler handler = client.getProxy(address, description.getId(), classLoader, protocolVersion);
             return Proxy.newProxyInstance(classLoader, interfaces.toArray(new Class[interfaces.size()]), handler);
         }
 
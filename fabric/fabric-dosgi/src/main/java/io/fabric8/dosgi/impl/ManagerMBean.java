@@ -0,0 +1,35 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.dosgi.impl;
+
+import java.util.Map;
+
+/**
+ * JMX view of the DOSGi transport.
+ */
+public interface ManagerMBean {
+
+    /**
+     * Returns the request count, failures and latency percentiles of each imported service, keyed by endpoint id.
+     */
+    Map<String, Object> getImportedServiceLatencies();
+
+    /**
+     * Returns the executor statistics of each exported service, keyed by endpoint id.
+     */
+    Map<String, Object> getExportedServiceStatistics();
+
+}
@@ -16,9 +16,27 @@
 package io.fabric8.dosgi.io;
 
 import java.lang.reflect.InvocationHandler;
+import java.util.Map;
 
 public interface ClientInvoker extends Service {
 
+    /**
+     * The protocol version spoken by this invoker. Version 1 sends the method signature with every
+     * request and uses java serialization by default. Version 2 assigns method ids per connection and
+     * uses the binary serialization by default.
+     */
+    int PROTOCOL_VERSION = 2;
+
     InvocationHandler getProxy(String address, String service, ClassLoader classLoader);
 
+    /**
+     * @param protocolVersion the protocol version supported by the server
+     */
+    InvocationHandler getProxy(String address, String service, ClassLoader classLoader, int protocolVersion);
+
+    /**
+     * Returns the request count, failures and latency percentiles of each remote service, keyed by service id.
+     */
+    Map<String, Object> getLatencyStatistics();
+
 }
@@ -15,6 +15,8 @@
  */
 package io.fabric8.dosgi.io;
 
+import java.util.Map;
+
 public interface ServerInvoker extends Service {
 
     String getConnectAddress();
@@ -23,6 +25,11 @@ public interface ServerInvoker extends Service {
 
     void unregisterService(String id);
 
+    /**
+     * Returns the executor statistics of each exported service, keyed by service id.
+     */
+    Map<String, Object> getServiceStatistics();
+
 
     public interface ServiceFactory {
 
@@ -114,7 +114,7 @@ public class AsyncInvocationStrategy implements InvocationStrategy {
         return new_types;
     }
 
-    static private Class getResultType(Method method) {
+    static Class getResultType(Method method) {
         Type[] types = method.getGenericParameterTypes();
         ParameterizedType t = (ParameterizedType) types[types.length-1];
         return (Class) t.getActualTypeArguments()[0];
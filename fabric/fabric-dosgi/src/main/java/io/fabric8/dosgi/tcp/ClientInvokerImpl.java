@@ -20,12 +20,16 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import io.fabric8.dosgi.api.BinarySerializationStrategy;
 import io.fabric8.dosgi.api.Dispatched;
 import io.fabric8.dosgi.api.ObjectSerializationStrategy;
 import io.fabric8.dosgi.api.Serialization;
@@ -65,9 +69,10 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
     protected final DispatchQueue queue;
     protected final Map<String, TransportPool> transports = new HashMap<String, TransportPool>();
     protected final AtomicBoolean running = new AtomicBoolean(false);
-    protected final Map<Long, ResponseFuture> requests = new HashMap<Long, ResponseFuture>();
+    protected final Map<Long, ResponseFuture> requests = new ConcurrentHashMap<Long, ResponseFuture>();
     protected final long timeout;
     protected final Map<String, SerializationStrategy> serializationStrategies;
+    protected final ConcurrentMap<String, LatencyStatistics> latencies = new ConcurrentHashMap<String, LatencyStatistics>();
 
     public ClientInvokerImpl(DispatchQueue queue, Map<String, SerializationStrategy> serializationStrategies) {
         this(queue, DEFAULT_TIMEOUT, serializationStrategies);
@@ -125,7 +130,34 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
     }
 
     public InvocationHandler getProxy(String address, String service, ClassLoader classLoader) {
-        return new ProxyInvocationHandler(address, service, classLoader);
+        return getProxy(address, service, classLoader, 1);
+    }
+
+    public InvocationHandler getProxy(String address, String service, ClassLoader classLoader, int protocolVersion) {
+        return new ProxyInvocationHandler(address, service, classLoader, protocolVersion);
+    }
+
+    /**
+     * Returns the latency statistics of the remote services, keyed by service id.
+     */
+    public Map<String, Object> getLatencyStatistics() {
+        Map<String, Object> answer = new TreeMap<String, Object>();
+        for (Map.Entry<String, LatencyStatistics> entry : latencies.entrySet()) {
+            answer.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return answer;
+    }
+
+    protected LatencyStatistics getLatencyStatistics(String service) {
+        LatencyStatistics rc = latencies.get(service);
+        if (rc == null) {
+            rc = new LatencyStatistics();
+            LatencyStatistics previous = latencies.putIfAbsent(service, rc);
+            if (previous != null) {
+                rc = previous;
+            }
+        }
+        return rc;
     }
 
     protected void onCommand(TransportPool pool, Object data) {
@@ -150,25 +182,23 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
         }
     }
 
-    static final WeakHashMap<Method, MethodData> method_cache = new WeakHashMap<Method, MethodData>();
-
     static class MethodData {
         private final SerializationStrategy serializationStrategy;
         final Buffer signature;
+        // the service and the signature, as sent in front of the arguments
+        final Buffer header;
         final InvocationStrategy invocationStrategy;
 
-        MethodData(InvocationStrategy invocationStrategy, SerializationStrategy serializationStrategy, Buffer signature) {
+        MethodData(InvocationStrategy invocationStrategy, SerializationStrategy serializationStrategy, Buffer signature, Buffer header) {
             this.invocationStrategy = invocationStrategy;
             this.serializationStrategy = serializationStrategy;
             this.signature = signature;
+            this.header = header;
         }
     }
 
-    private MethodData getMethodData(Method method) throws IOException {
-        MethodData rc = null;
-        synchronized (method_cache) {
-            rc = method_cache.get(method);
-        }
+    private MethodData getMethodData(ProxyInvocationHandler handler, Method method) throws IOException {
+        MethodData rc = handler.methods.get(method);
         if( rc==null ) {
             StringBuilder sb = new StringBuilder();
             sb.append(method.getName());
@@ -189,6 +219,8 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
                 if( serializationStrategy==null ) {
                     throw new RuntimeException("Could not find the serialization strategy named: "+annotation.value());
                 }
+            } else if( handler.protocolVersion >= 2 ) {
+                serializationStrategy = BinarySerializationStrategy.INSTANCE;
             } else {
                 serializationStrategy = ObjectSerializationStrategy.INSTANCE;
             }
@@ -200,9 +232,14 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
                 strategy = BlockingInvocationStrategy.INSTANCE;
             }
 
-            rc = new MethodData(strategy, serializationStrategy, signature);
-            synchronized (method_cache) {
-                method_cache.put(method, rc);
+            DataByteArrayOutputStream header = new DataByteArrayOutputStream(handler.service.length + signature.length + 10);
+            writeBuffer(header, handler.service);
+            writeBuffer(header, signature);
+
+            rc = new MethodData(strategy, serializationStrategy, signature, header.toBuffer());
+            MethodData previous = handler.methods.putIfAbsent(method, rc);
+            if( previous!=null ) {
+                rc = previous;
             }
         }
         return rc;
@@ -231,25 +268,34 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
         // and #2 reduce CPU load done in the execution queue since it's
         // serially executed.
 
+        MethodData methodData = getMethodData(handler, method);
         DataByteArrayOutputStream baos = new DataByteArrayOutputStream((int) (handler.lastRequestSize*1.10));
-        baos.writeInt(0); // we don't know the size yet...
-        baos.writeVarLong(correlation);
-        writeBuffer(baos, service);
-
-        MethodData methodData = getMethodData(method);
-        writeBuffer(baos, methodData.signature);
-
-        final ResponseFuture future = methodData.invocationStrategy.request(methodData.serializationStrategy, classLoader, method, args, baos);
+        final Object command;
+        final ResponseFuture response;
+        if( handler.protocolVersion >= 2 ) {
+            // only the arguments are encoded here, the method id depends on the connection the pool picks
+            response = methodData.invocationStrategy.request(methodData.serializationStrategy, classLoader, method, args, baos);
+            Buffer arguments = baos.toBuffer();
+            handler.lastRequestSize = arguments.length;
+            command = new MethodIdRequest(correlation, methodData.header, arguments);
+        } else {
+            baos.writeInt(0); // we don't know the size yet...
+            baos.writeVarLong(correlation);
+            baos.write(methodData.header);
 
-        // toBuffer() is better than toByteArray() since it avoids an
-        // array copy.
-        final Buffer command = baos.toBuffer();
+            response = methodData.invocationStrategy.request(methodData.serializationStrategy, classLoader, method, args, baos);
 
+            // toBuffer() is better than toByteArray() since it avoids an
+            // array copy.
+            Buffer buffer = baos.toBuffer();
 
-        // Update the field size.
-        BufferEditor editor = command.buffer().bigEndianEditor();
-        editor.writeInt(command.length);
-        handler.lastRequestSize = command.length;
+            // Update the field size.
+            BufferEditor editor = buffer.buffer().bigEndianEditor();
+            editor.writeInt(buffer.length);
+            handler.lastRequestSize = buffer.length;
+            command = buffer;
+        }
+        final TimedResponseFuture future = new TimedResponseFuture(response, handler.statistics);
 
         queue().execute(new Runnable() {
             public void run() {
@@ -270,7 +316,52 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
         });
 
         // TODO: make that configurable, that's only for tests
-        return future.get(timeout, TimeUnit.MILLISECONDS);
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // forget the request, so neither the pending response nor its connection slot leak
+            if (requests.remove(correlation) != null) {
+                handler.statistics.record(System.nanoTime() - future.start, true);
+            }
+            queue().execute(new Runnable() {
+                public void run() {
+                    TransportPool pool = transports.get(address);
+                    if (pool != null) {
+                        pool.onDone(correlation);
+                    }
+                }
+            });
+            throw e;
+        }
+    }
+
+    /**
+     * Records the latency of a request in the statistics of its service.
+     */
+    static class TimedResponseFuture implements ResponseFuture {
+
+        final ResponseFuture delegate;
+        final LatencyStatistics statistics;
+        final long start = System.nanoTime();
+
+        TimedResponseFuture(ResponseFuture delegate, LatencyStatistics statistics) {
+            this.delegate = delegate;
+            this.statistics = statistics;
+        }
+
+        public void set(DataByteArrayInputStream responseStream) throws Exception {
+            statistics.record(System.nanoTime() - start, false);
+            delegate.set(responseStream);
+        }
+
+        public Object get(long timeout, TimeUnit unit) throws Exception {
+            return delegate.get(timeout, unit);
+        }
+
+        public void fail(Throwable throwable) {
+            statistics.record(System.nanoTime() - start, true);
+            delegate.fail(throwable);
+        }
     }
 
     private void writeBuffer(DataByteArrayOutputStream baos, Buffer value) throws IOException {
@@ -278,17 +369,70 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
         baos.write(value);
     }
 
+    /**
+     * A request to a server that supports method ids. The first request for a method on a connection
+     * defines its id along with the service and signature, later requests on that connection only send the id:
+     * <pre>size, correlation, 0, id &lt;&lt; 1 | define, [service, signature], arguments</pre>
+     * The leading 0 is an empty service name, which tells the server that a method id follows.
+     */
+    static class MethodIdRequest {
+        final long correlation;
+        final Buffer header;
+        final Buffer arguments;
+
+        MethodIdRequest(long correlation, Buffer header, Buffer arguments) {
+            this.correlation = correlation;
+            this.header = header;
+            this.arguments = arguments;
+        }
+
+        Buffer encode(Map<Object, Integer> methodIds) {
+            Integer id = methodIds.get(header);
+            boolean define = id == null;
+            if( define ) {
+                id = methodIds.size() + 1;
+                methodIds.put(header, id);
+            }
+            try {
+                DataByteArrayOutputStream baos = new DataByteArrayOutputStream(arguments.length + (define ? header.length : 0) + 16);
+                baos.writeInt(0);
+                baos.writeVarLong(correlation);
+                baos.writeVarInt(0);
+                baos.writeVarInt(id << 1 | (define ? 1 : 0));
+                if( define ) {
+                    baos.write(header);
+                }
+                baos.write(arguments);
+                Buffer command = baos.toBuffer();
+                command.buffer().bigEndianEditor().writeInt(command.length);
+                return command;
+            } catch (IOException e) { // should not happen
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     protected class ProxyInvocationHandler implements InvocationHandler {
 
         final String address;
         final UTF8Buffer service;
         final ClassLoader classLoader;
-        int lastRequestSize = 250;
+        final int protocolVersion;
+        final LatencyStatistics statistics;
+        // lives as long as the proxy, so it does not pin the service classes
+        final ConcurrentMap<Method, MethodData> methods = new ConcurrentHashMap<Method, MethodData>();
+        volatile int lastRequestSize = 250;
 
         public ProxyInvocationHandler(String address, String service, ClassLoader classLoader) {
+            this(address, service, classLoader, 1);
+        }
+
+        public ProxyInvocationHandler(String address, String service, ClassLoader classLoader, int protocolVersion) {
             this.address = address;
             this.service = new UTF8Buffer(service);
             this.classLoader = classLoader;
+            this.protocolVersion = protocolVersion;
+            this.statistics = getLatencyStatistics(service);
         }
 
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
@@ -300,7 +444,7 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
     protected class InvokerTransportPool extends TransportPool {
 
         public InvokerTransportPool(String uri, DispatchQueue queue) {
-            super(uri, queue, TransportPool.DEFAULT_POOL_SIZE, timeout << 1);
+            super(uri, queue, TransportPool.DEFAULT_MAX_POOL_SIZE, timeout << 1);
         }
 
         @Override
@@ -313,6 +457,14 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
             return new LengthPrefixedCodec();
         }
 
+        @Override
+        protected boolean doOffer(Transport transport, Object command, Object id) {
+            if( command instanceof MethodIdRequest ) {
+                command = ((MethodIdRequest) command).encode(transports.get(transport).methodIds);
+            }
+            return super.doOffer(transport, command, id);
+        }
+
         @Override
         protected void onCommand(Object command) {
             ClientInvokerImpl.this.onCommand(this, command);
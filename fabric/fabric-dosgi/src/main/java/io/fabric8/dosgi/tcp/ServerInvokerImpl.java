@@ -15,6 +15,7 @@
  */
 package io.fabric8.dosgi.tcp;
 
+import io.fabric8.dosgi.api.BinarySerializationStrategy;
 import io.fabric8.dosgi.api.Dispatched;
 import io.fabric8.dosgi.api.ObjectSerializationStrategy;
 import io.fabric8.dosgi.api.Serialization;
@@ -32,12 +33,23 @@ import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ServerInvokerImpl implements ServerInvoker, Dispatched {
 
+    public static final int DEFAULT_THREADS_PER_SERVICE = 8;
+
+    public static final int DEFAULT_QUEUE_SIZE_PER_SERVICE = 1000;
+
     protected static final Logger LOGGER = LoggerFactory.getLogger(ServerInvokerImpl.class);
     static private final HashMap<String, Class> PRIMITIVE_TO_CLASS = new HashMap<String, Class>(8, 1.0F);
     static {
@@ -51,14 +63,17 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
         PRIMITIVE_TO_CLASS.put("D", double.class);
     }
 
-    protected final ExecutorService blockingExecutor = Executors.newFixedThreadPool(8);
     protected final DispatchQueue queue;
     private final Map<String, SerializationStrategy> serializationStrategies;
     protected final TransportServer server;
-    protected final Map<UTF8Buffer, ServiceFactoryHolder> holders = new HashMap<UTF8Buffer, ServiceFactoryHolder>();
+    // only modified from the dispatch queue, concurrent so statistics can be read from any thread
+    protected final Map<UTF8Buffer, ServiceFactoryHolder> holders = new ConcurrentHashMap<UTF8Buffer, ServiceFactoryHolder>();
+    protected final int threadsPerService;
+    protected final int queueSizePerService;
 
     static class MethodData {
 
+        // null unless the method carries a @Serialization annotation
         private final SerializationStrategy serializationStrategy;
         final InvocationStrategy invocationStrategy;
         final Method method;
@@ -68,16 +83,45 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
             this.serializationStrategy = serializationStrategy;
             this.method = method;
         }
+
+        /**
+         * Clients that use method ids default to the binary serialization, older clients to java serialization.
+         */
+        SerializationStrategy getSerializationStrategy(boolean methodIds) {
+            if( serializationStrategy!=null ) {
+                return serializationStrategy;
+            }
+            return methodIds ? BinarySerializationStrategy.INSTANCE : ObjectSerializationStrategy.INSTANCE;
+        }
+    }
+
+    /**
+     * A method defined on a connection by a client that uses method ids.
+     */
+    static class MethodId {
+
+        final UTF8Buffer service;
+        final Buffer method;
+
+        MethodId(UTF8Buffer service, Buffer method) {
+            this.service = service;
+            this.method = method;
+        }
     }
 
     class ServiceFactoryHolder {
 
+        private final String id;
         private final ServiceFactory factory;
         private final ClassLoader loader;
         private final Class clazz;
         private HashMap<Buffer, MethodData> method_cache = new HashMap<Buffer, MethodData>();
+        private final AtomicLong rejected = new AtomicLong();
+        // created on the first request to a service that is not dispatched
+        private volatile ThreadPoolExecutor executor;
 
-        public ServiceFactoryHolder(ServiceFactory factory, ClassLoader loader) {
+        public ServiceFactoryHolder(String id, ServiceFactory factory, ClassLoader loader) {
+            this.id = id;
             this.factory = factory;
             this.loader = loader;
             Object o = factory.get();
@@ -85,6 +129,44 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
             factory.unget();
         }
 
+        /**
+         * Each service gets its own bounded executor, so a slow or overloaded service
+         * does not hold up the requests to the other services.
+         */
+        private Executor getExecutor() {
+            if( executor==null ) {
+                final AtomicInteger threads = new AtomicInteger();
+                ThreadPoolExecutor rc = new ThreadPoolExecutor(threadsPerService, threadsPerService, 60, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<Runnable>(queueSizePerService), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "DOSGi " + id + " #" + threads.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                rc.allowCoreThreadTimeOut(true);
+                executor = rc;
+            }
+            return executor;
+        }
+
+        private void shutdown() {
+            if( executor!=null ) {
+                executor.shutdown();
+            }
+        }
+
+        private Map<String, Object> getStatistics() {
+            Map<String, Object> answer = new TreeMap<String, Object>();
+            ThreadPoolExecutor current = executor;
+            answer.put("threads", current != null ? current.getPoolSize() : 0);
+            answer.put("activeThreads", current != null ? current.getActiveCount() : 0);
+            answer.put("queued", current != null ? current.getQueue().size() : 0);
+            answer.put("completed", current != null ? current.getCompletedTaskCount() : 0L);
+            answer.put("rejected", rejected.get());
+            return answer;
+        }
+
         private MethodData getMethodData(Buffer data) throws IOException, NoSuchMethodException, ClassNotFoundException {
             MethodData rc = method_cache.get(data);
             if( rc == null ) {
@@ -98,14 +180,12 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
 
 
                 Serialization annotation = method.getAnnotation(Serialization.class);
-                SerializationStrategy serializationStrategy;
+                SerializationStrategy serializationStrategy = null;
                 if( annotation!=null ) {
                     serializationStrategy = serializationStrategies.get(annotation.value());
                     if( serializationStrategy==null ) {
                         throw new RuntimeException("Could not find the serialization strategy named: "+annotation.value());
                     }
-                } else {
-                    serializationStrategy = ObjectSerializationStrategy.INSTANCE;
                 }
 
 
@@ -139,8 +219,20 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
 
 
     public ServerInvokerImpl(String address, DispatchQueue queue, Map<String, SerializationStrategy> serializationStrategies) throws Exception {
+        this(address, queue, serializationStrategies, DEFAULT_THREADS_PER_SERVICE, DEFAULT_QUEUE_SIZE_PER_SERVICE);
+    }
+
+    /**
+     * @param threadsPerService   the number of threads that serve the requests of a single service
+     * @param queueSizePerService the number of requests of a single service that may wait for a thread,
+     *                            further requests are rejected
+     */
+    public ServerInvokerImpl(String address, DispatchQueue queue, Map<String, SerializationStrategy> serializationStrategies,
+                             int threadsPerService, int queueSizePerService) throws Exception {
         this.queue = queue;
         this.serializationStrategies = serializationStrategies;
+        this.threadsPerService = threadsPerService;
+        this.queueSizePerService = queueSizePerService;
         this.server = new TcpTransportFactory().bind(address);
         this.server.setDispatchQueue(queue);
         this.server.setAcceptListener(new InvokerAcceptListener());
@@ -162,7 +254,10 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
     public void registerService(final String id, final ServiceFactory service, final ClassLoader classLoader) {
         queue().execute(new Runnable() {
             public void run() {
-                holders.put(new UTF8Buffer(id), new ServiceFactoryHolder(service, classLoader));
+                ServiceFactoryHolder previous = holders.put(new UTF8Buffer(id), new ServiceFactoryHolder(id, service, classLoader));
+                if (previous != null) {
+                    previous.shutdown();
+                }
             }
         });
     }
@@ -170,7 +265,10 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
     public void unregisterService(final String id) {
         queue().execute(new Runnable() {
             public void run() {
-                holders.remove(new UTF8Buffer(id));
+                ServiceFactoryHolder holder = holders.remove(new UTF8Buffer(id));
+                if (holder != null) {
+                    holder.shutdown();
+                }
             }
         });
     }
@@ -190,7 +288,9 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
     public void stop(final Runnable onComplete) {
         this.server.stop(new Runnable() {
             public void run() {
-                blockingExecutor.shutdown();
+                for (ServiceFactoryHolder holder : holders.values()) {
+                    holder.shutdown();
+                }
                 if (onComplete != null) {
                     onComplete.run();
                 }
@@ -200,6 +300,13 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
 
 
     protected void onCommand(final Transport transport, Object data) {
+        onCommand(transport, data, null);
+    }
+
+    /**
+     * @param methodIds the methods defined on the connection the request was received on
+     */
+    protected void onCommand(final Transport transport, Object data, Map<Integer, MethodId> methodIds) {
         try {
             final DataByteArrayInputStream bais = new DataByteArrayInputStream((Buffer) data);
             final int size = bais.readInt();
@@ -207,11 +314,35 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
 
             // Use UTF8Buffer instead of string to avoid encoding/decoding UTF-8 strings
             // for every request.
-            final UTF8Buffer service = readBuffer(bais).utf8();
-            final Buffer encoded_method = readBuffer(bais);
+            final UTF8Buffer service;
+            final Buffer encoded_method;
+            final boolean usesMethodIds;
+            int length = bais.readVarInt();
+            if( length==0 && methodIds!=null ) {
+                // an empty service name is followed by a method id
+                int key = bais.readVarInt();
+                MethodId methodId;
+                if( (key & 1)!=0 ) {
+                    methodId = new MethodId(readBuffer(bais).utf8(), readBuffer(bais));
+                    methodIds.put(key >>> 1, methodId);
+                } else {
+                    methodId = methodIds.get(key >>> 1);
+                    if( methodId==null ) {
+                        throw new IOException("Unknown method id: " + (key >>> 1));
+                    }
+                }
+                service = methodId.service;
+                encoded_method = methodId.method;
+                usesMethodIds = true;
+            } else {
+                service = readBuffer(bais, length).utf8();
+                encoded_method = readBuffer(bais);
+                usesMethodIds = false;
+            }
 
             final ServiceFactoryHolder holder = holders.get(service);
             final MethodData methodData = holder.getMethodData(encoded_method);
+            final SerializationStrategy serializationStrategy = methodData.getSerializationStrategy(usesMethodIds);
 
             final Object svc = holder.factory.get();
 
@@ -228,7 +359,7 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
 
                     // Lets decode the remaining args on the target's executor
                     // to take cpu load off the
-                    methodData.invocationStrategy.service(methodData.serializationStrategy, holder.loader, methodData.method, svc, bais, baos, new Runnable() {
+                    methodData.invocationStrategy.service(serializationStrategy, holder.loader, methodData.method, svc, bais, baos, new Runnable() {
                         public void run() {
                             holder.factory.unget();
                             final Buffer command = baos.toBuffer();
@@ -251,17 +382,55 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
             if( svc instanceof Dispatched ) {
                 executor = ((Dispatched)svc).queue();
             } else {
-                executor = blockingExecutor;
+                executor = holder.getExecutor();
+            }
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                holder.factory.unget();
+                holder.rejected.incrementAndGet();
+                reject(transport, correlation, holder, methodData, serializationStrategy);
             }
-            executor.execute(task);
 
         } catch (Exception e) {
             LOGGER.info("Error while reading request", e);
         }
     }
 
+    /**
+     * Answers right away with a {@link RejectedExecutionException} when the service is overloaded,
+     * so the client fails fast instead of waiting for its timeout.
+     */
+    private void reject(Transport transport, long correlation, ServiceFactoryHolder holder, MethodData methodData, SerializationStrategy serializationStrategy) throws Exception {
+        Method method = methodData.method;
+        Class<?> resultType = AsyncInvocationStrategy.isAsyncMethod(method) ? AsyncInvocationStrategy.getResultType(method) : method.getReturnType();
+        DataByteArrayOutputStream baos = new DataByteArrayOutputStream();
+        baos.writeInt(0); // make space for the size field.
+        baos.writeVarLong(correlation);
+        serializationStrategy.encodeResponse(holder.loader, resultType, null,
+                new RejectedExecutionException("Service " + holder.id + " is overloaded, the request was rejected"), baos);
+        Buffer command = baos.toBuffer();
+        command.buffer().bigEndianEditor().writeInt(command.length);
+        transport.offer(command);
+    }
+
+    /**
+     * Returns the executor statistics of each registered service, keyed by service id.
+     */
+    public Map<String, Object> getServiceStatistics() {
+        Map<String, Object> answer = new TreeMap<String, Object>();
+        for (ServiceFactoryHolder holder : holders.values()) {
+            answer.put(holder.id, holder.getStatistics());
+        }
+        return answer;
+    }
+
     private Buffer readBuffer(DataByteArrayInputStream bais) throws IOException {
-        byte b[] = new byte[bais.readVarInt()];
+        return readBuffer(bais, bais.readVarInt());
+    }
+
+    private Buffer readBuffer(DataByteArrayInputStream bais, int length) throws IOException {
+        byte b[] = new byte[length];
         bais.readFully(b);
         return new Buffer(b);
     }
@@ -282,8 +451,11 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
 
     class InvokerTransportListener implements TransportListener {
 
+        // only accessed from the dispatch queue
+        private final Map<Integer, MethodId> methodIds = new HashMap<Integer, MethodId>();
+
         public void onTransportCommand(Transport transport, Object command) {
-            ServerInvokerImpl.this.onCommand(transport, command);
+            ServerInvokerImpl.this.onCommand(transport, command, methodIds);
         }
 
         public void onRefill(Transport transport) {
@@ -39,6 +39,10 @@ public abstract class TransportPool implements Service {
 
     public static final int DEFAULT_POOL_SIZE = 2;
 
+    public static final int DEFAULT_MAX_POOL_SIZE = 8;
+
+    public static final int DEFAULT_INFLIGHT_PER_TRANSPORT = 32;
+
     public static final long DEFAULT_EVICTION_DELAY = TimeUnit.MINUTES.toMillis(5);
 
     protected final String uri;
@@ -49,16 +53,27 @@ public abstract class TransportPool implements Service {
 
     protected int poolSize;
     protected long evictionDelay;
+    protected int inflightPerTransport;
 
     public TransportPool(String uri, DispatchQueue queue) {
         this(uri, queue, DEFAULT_POOL_SIZE, DEFAULT_EVICTION_DELAY);
     }
 
     public TransportPool(String uri, DispatchQueue queue, int poolSize, long evictionDelay) {
+        this(uri, queue, poolSize, evictionDelay, DEFAULT_INFLIGHT_PER_TRANSPORT);
+    }
+
+    /**
+     * @param poolSize             the maximum number of transports
+     * @param evictionDelay        the delay after which an unused transport is closed
+     * @param inflightPerTransport the number of in-flight requests a transport may carry before a new one is started
+     */
+    public TransportPool(String uri, DispatchQueue queue, int poolSize, long evictionDelay, int inflightPerTransport) {
         this.uri = uri;
         this.queue = queue;
         this.poolSize = poolSize;
         this.evictionDelay = evictionDelay;
+        this.inflightPerTransport = inflightPerTransport;
     }
 
     protected abstract Transport createTransport(String uri) throws Exception;
@@ -101,20 +116,39 @@ public abstract class TransportPool implements Service {
         return transport.offer(command);
     }
 
+    /**
+     * Requests are multiplexed on the available transport with the fewest in-flight requests.
+     * A new transport is started when there is none available or when the least loaded one
+     * already carries {@link #inflightPerTransport} requests, so the pool grows with the load
+     * and idle transports are evicted again.
+     */
     protected Transport getIdleTransport() {
+        Transport best = null;
+        int bestInflight = Integer.MAX_VALUE;
+        boolean connecting = false;
         for (Map.Entry<Transport, TransportState> entry : transports.entrySet()) {
-            if (entry.getValue().time > 0) {
-                return entry.getKey();
+            TransportState state = entry.getValue();
+            connecting |= !state.connected;
+            if (state.time > 0 && state.inflight.size() < bestInflight) {
+                best = entry.getKey();
+                bestInflight = state.inflight.size();
             }
         }
-        if (transports.size() < poolSize) {
+        if ((best == null || bestInflight >= inflightPerTransport) && !connecting && transports.size() < poolSize) {
             try {
                 startNewTransport();
             } catch (Exception e) {
                 LOGGER.info("Unable to start new transport", e);
             }
         }
-        return null;
+        return best;
+    }
+
+    /**
+     * Returns the number of open transports.
+     */
+    public int getTransportCount() {
+        return transports.size();
     }
 
     public void start() throws Exception {
@@ -184,11 +218,15 @@ public abstract class TransportPool implements Service {
 
     protected static class TransportState {
         long time;
+        boolean connected;
         final Set<Object> inflight;
+        // the method ids defined on this connection
+        final Map<Object, Integer> methodIds;
 
         public TransportState() {
             time = 0;
             inflight = new HashSet<Object>();
+            methodIds = new HashMap<Object, Integer>();
         }
     }
 
@@ -214,7 +252,7 @@ public abstract class TransportPool implements Service {
                     queue.executeAfter(evictionDelay, TimeUnit.MILLISECONDS, new Runnable() {
                         public void run() {
                             TransportState state = transports.get(transport);
-                            if (state != null && state.time == time) {
+                            if (state != null && state.time == time && state.inflight.isEmpty()) {
                                 transports.remove(transport);
                                 transport.stop();
                             }
@@ -245,6 +283,10 @@ public abstract class TransportPool implements Service {
         }
 
         public void onTransportConnected(Transport transport) {
+            TransportState state = transports.get(transport);
+            if (state != null) {
+                state.connected = true;
+            }
             transport.resumeRead();
             onRefill(transport);
         }
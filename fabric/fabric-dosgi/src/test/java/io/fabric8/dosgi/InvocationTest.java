@@ -21,12 +21,15 @@ import java.lang.reflect.UndeclaredThrowableException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import io.fabric8.dosgi.api.*;
+import io.fabric8.dosgi.io.ClientInvoker;
 import io.fabric8.dosgi.io.ServerInvoker;
 import io.fabric8.dosgi.tcp.ClientInvokerImpl;
 import io.fabric8.dosgi.tcp.ServerInvokerImpl;
@@ -36,6 +39,7 @@ import org.junit.Test;
 
 import static org.fusesource.hawtdispatch.Dispatch.createQueue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class InvocationTest {
     final static long MILLIS_IN_A_NANO = TimeUnit.MILLISECONDS.toNanos(1);
@@ -100,6 +104,132 @@ public class InvocationTest {
         }
     }
 
+    @Test
+    public void testInvokeWithMethodIds() throws Exception {
+
+        DispatchQueue queue = Dispatch.createQueue();
+        HashMap<String, SerializationStrategy> map = new HashMap<String, SerializationStrategy>();
+        map.put("protobuf", new ProtobufSerializationStrategy());
+
+        ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.start();
+
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, map);
+        client.start();
+
+        try {
+            server.registerService("service-id", new ServerInvoker.ServiceFactory() {
+                public Object get() {
+                    return new HelloImpl();
+                }
+                public void unget() {
+                }
+            }, HelloImpl.class.getClassLoader());
+
+
+            InvocationHandler handler = client.getProxy(server.getConnectAddress(), "service-id", HelloImpl.class.getClassLoader(), ClientInvoker.PROTOCOL_VERSION);
+            Hello hello  = (Hello) Proxy.newProxyInstance(HelloImpl.class.getClassLoader(), new Class[] { Hello.class }, handler);
+
+            // the first calls define the method ids, the following ones only send them
+            for (int i = 0; i < 3; i++) {
+                assertEquals("Hello Fabric!", hello.hello("Fabric"));
+                assertEquals("Hello World!", hello.helloworld());
+                assertEquals('a', hello.mix(0));
+                assertEquals('b', hello.mix(new int[]{0}));
+                assertEquals('c', hello.mix(new Integer(0)));
+                assertEquals('d', hello.mix(new Integer[]{new Integer(0)}));
+                assertEquals('e', hello.mix(new int[0][0]));
+                assertEquals('f', hello.mix(new Integer[0][0]));
+
+                AsyncCallbackFuture<String> future1 = new AsyncCallbackFuture<String>();
+                hello.hello("Hiram", future1);
+                assertEquals("Hello Hiram!", future1.get(2, TimeUnit.SECONDS));
+
+                assertEquals("Hello Hiram!", hello.protobuf(stringValue("Hiram")).getValue());
+            }
+        }
+        finally {
+            server.stop();
+            client.stop();
+        }
+    }
+
+    @Test
+    public void testOverloadRejection() throws Exception {
+
+        DispatchQueue queue = Dispatch.createQueue();
+        HashMap<String, SerializationStrategy> map = new HashMap<String, SerializationStrategy>();
+
+        // a single thread and a single queued request per service
+        ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map, 1, 1);
+        server.start();
+
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, map);
+        client.start();
+
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            server.registerService("service-id", new ServerInvoker.ServiceFactory() {
+                public Object get() {
+                    return new BlockingHelloImpl(release);
+                }
+                public void unget() {
+                }
+            }, BlockingHelloImpl.class.getClassLoader());
+
+            InvocationHandler handler = client.getProxy(server.getConnectAddress(), "service-id", BlockingHelloImpl.class.getClassLoader());
+            final BlockingHello hello = (BlockingHello) Proxy.newProxyInstance(BlockingHelloImpl.class.getClassLoader(), new Class[] { BlockingHello.class }, handler);
+
+            final AtomicInteger responses = new AtomicInteger(0);
+            final AtomicInteger rejections = new AtomicInteger(0);
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread() {
+                    public void run() {
+                        try {
+                            hello.hello("Fabric");
+                            responses.incrementAndGet();
+                        } catch (Throwable t) {
+                            while (t.getCause() != null && !(t instanceof RejectedExecutionException)) {
+                                t = t.getCause();
+                            }
+                            if (t instanceof RejectedExecutionException) {
+                                rejections.incrementAndGet();
+                            }
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+
+            // one request runs, one waits in the queue and the others are rejected without waiting for the first one
+            long deadline = System.currentTimeMillis() + 10000;
+            while (rejections.get() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, rejections.get());
+            assertEquals(0, responses.get());
+
+            release.countDown();
+            for (Thread thread : threads) {
+                thread.join(10000);
+                assertEquals(false, thread.isAlive());
+            }
+            assertEquals(2, responses.get());
+
+            Map<?, ?> serviceStatistics = (Map<?, ?>) server.getServiceStatistics().get("service-id");
+            assertEquals(2L, serviceStatistics.get("rejected"));
+            Map<?, ?> latencies = (Map<?, ?>) client.getLatencyStatistics().get("service-id");
+            assertEquals(4L, latencies.get("count"));
+            assertTrue((Long) latencies.get("maxMicros") > 0);
+        }
+        finally {
+            release.countDown();
+            server.stop();
+            client.stop();
+        }
+    }
+
     @Test
     public void testOverflowAsync() throws Exception {
 
@@ -502,6 +632,28 @@ public class InvocationTest {
         return rc;
     }
 
+    public static interface BlockingHello {
+        String hello(String name);
+    }
+
+    public static class BlockingHelloImpl implements BlockingHello {
+
+        private final CountDownLatch release;
+
+        public BlockingHelloImpl(CountDownLatch release) {
+            this.release = release;
+        }
+
+        public String hello(String name) {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "Hello " + name + "!";
+        }
+    }
+
     public static class HelloImpl implements Hello, Dispatched {
 
         DispatchQueue queue = Dispatch.createQueue();
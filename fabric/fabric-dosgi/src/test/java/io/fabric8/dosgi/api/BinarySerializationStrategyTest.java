@@ -0,0 +1,247 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.dosgi.api;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.DataByteArrayInputStream;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BinarySerializationStrategyTest {
+
+    private final BinarySerializationStrategy strategy = BinarySerializationStrategy.INSTANCE;
+
+    @Test
+    public void testCollectionsKeepTheirTypeAndOrder() throws Exception {
+        Object[] args = {
+                new ArrayList<Object>(Arrays.<Object>asList("a", 1, 2L)),
+                new LinkedList<Object>(Arrays.<Object>asList(true, 'c')),
+                new HashSet<Object>(Arrays.<Object>asList("x", "y")),
+                new LinkedHashSet<Object>(Arrays.<Object>asList(3, 2, 1))};
+        Object[] decoded = roundTrip(args);
+        for (int i = 0; i < args.length; i++) {
+            assertEquals(args[i].getClass(), decoded[i].getClass());
+            assertEquals(args[i], decoded[i]);
+        }
+        assertEquals(Arrays.asList(3, 2, 1), new ArrayList<Object>((LinkedHashSet<?>) decoded[3]));
+    }
+
+    @Test
+    public void testMapsKeepTheirTypeAndOrder() throws Exception {
+        Map<Object, Object> hashMap = new HashMap<Object, Object>();
+        hashMap.put("key", new int[]{1, 2});
+        hashMap.put(1, null);
+        Map<Object, Object> linkedMap = new LinkedHashMap<Object, Object>();
+        linkedMap.put("z", 1.5d);
+        linkedMap.put("a", new long[]{3L});
+        linkedMap.put("m", new ArrayList<Object>(Arrays.<Object>asList("nested")));
+
+        Object[] decoded = roundTrip(hashMap, linkedMap);
+
+        assertEquals(HashMap.class, decoded[0].getClass());
+        Map<?, ?> map = (Map<?, ?>) decoded[0];
+        assertArrayEquals(new int[]{1, 2}, (int[]) map.get("key"));
+        assertTrue(map.containsKey(1));
+        assertNull(map.get(1));
+        assertEquals(LinkedHashMap.class, decoded[1].getClass());
+        map = (Map<?, ?>) decoded[1];
+        assertEquals(Arrays.asList("z", "a", "m"), new ArrayList<Object>(map.keySet()));
+        assertArrayEquals(new long[]{3L}, (long[]) map.get("a"));
+        assertEquals(Arrays.asList("nested"), map.get("m"));
+    }
+
+    @Test
+    public void testEnums() throws Exception {
+        Object[] decoded = roundTrip(TimeUnit.SECONDS, Operation.PLUS, new Operation[]{Operation.MINUS, null});
+        assertSame(TimeUnit.SECONDS, decoded[0]);
+        assertSame(Operation.PLUS, decoded[1]);
+        assertArrayEquals(new Operation[]{Operation.MINUS, null}, (Operation[]) decoded[2]);
+        assertEquals(Operation[].class, decoded[2].getClass());
+    }
+
+    @Test
+    public void testSerializableObjects() throws Exception {
+        Date date = new Date(123456789L);
+        Object[] decoded = roundTrip(date, new BigDecimal("1.50"), new Point(1, 2));
+        assertEquals(date, decoded[0]);
+        assertEquals(new BigDecimal("1.50"), decoded[1]);
+        assertEquals(new Point(1, 2), decoded[2]);
+    }
+
+    @Test
+    public void testClassNamesAreWrittenOncePerMessage() throws Exception {
+        Object[] args = {
+                new ArrayList<Object>(Arrays.<Object>asList(1)),
+                new ArrayList<Object>(Arrays.<Object>asList(2)),
+                new Object[]{new ArrayList<Object>(Arrays.<Object>asList(3))}};
+        byte[] encoded = encode(args);
+        assertEquals(1, count(new String(encoded, "ISO-8859-1"), ArrayList.class.getName()));
+        Object[] decoded = roundTrip(args);
+        assertEquals(Arrays.asList(1), decoded[0]);
+        assertEquals(Arrays.asList(2), decoded[1]);
+        assertEquals(Arrays.asList(3), ((Object[]) decoded[2])[0]);
+    }
+
+    @Test
+    public void testSharedReferencesAreKept() throws Exception {
+        Point point = new Point(1, 2);
+        List<Object> list = new ArrayList<Object>();
+        list.add(point);
+        Object[] decoded = roundTrip(point, list);
+        assertEquals(point, decoded[0]);
+        assertSame(decoded[0], ((List<?>) decoded[1]).get(0));
+
+        List<Object> shared = new ArrayList<Object>(Arrays.<Object>asList("a"));
+        decoded = roundTrip(shared, shared);
+        assertEquals(shared, decoded[0]);
+        assertSame(decoded[0], decoded[1]);
+
+        List<Object> cyclic = new ArrayList<Object>();
+        cyclic.add(cyclic);
+        decoded = roundTrip((Object) cyclic);
+        assertSame(decoded[0], ((List<?>) decoded[0]).get(0));
+    }
+
+    @Test
+    public void testRequestsWithoutSharedObjectsUseTheCompactEncoding() throws Exception {
+        assertFalse(BinarySerializationStrategy.requiresSerialization(new Object[]{"a", "a", 1, new ArrayList<Object>(), new ArrayList<Object>()}));
+        assertTrue(BinarySerializationStrategy.requiresSerialization(new Object[]{new Date()}));
+        int[] ints = {1};
+        assertTrue(BinarySerializationStrategy.requiresSerialization(new Object[]{ints, new Object[]{ints}}));
+    }
+
+    @Test
+    public void testResponses() throws Exception {
+        Map<Object, Object> value = new LinkedHashMap<Object, Object>();
+        value.put("key", Operation.MINUS);
+        assertEquals(value, decodeResponse(encodeResponse(value, null)).value);
+
+        IllegalStateException error = new IllegalStateException("failed");
+        Result result = decodeResponse(encodeResponse(null, error));
+        assertNull(result.value);
+        assertEquals(IllegalStateException.class, result.error.getClass());
+        assertEquals("failed", result.error.getMessage());
+    }
+
+    private Object[] roundTrip(Object... args) throws Exception {
+        Object[] target = new Object[args.length];
+        strategy.decodeRequest(getClass().getClassLoader(), null, new DataByteArrayInputStream(encode(args)), target);
+        return target;
+    }
+
+    private byte[] encode(Object... args) throws Exception {
+        DataByteArrayOutputStream out = new DataByteArrayOutputStream();
+        strategy.encodeRequest(getClass().getClassLoader(), null, args, out);
+        return toBytes(out.toBuffer());
+    }
+
+    private byte[] encodeResponse(Object value, Throwable error) throws Exception {
+        DataByteArrayOutputStream out = new DataByteArrayOutputStream();
+        strategy.encodeResponse(getClass().getClassLoader(), null, value, error, out);
+        return toBytes(out.toBuffer());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Result decodeResponse(byte[] bytes) throws Exception {
+        final Result result = new Result();
+        strategy.decodeResponse(getClass().getClassLoader(), null, new DataByteArrayInputStream(bytes), new AsyncCallback<Object>() {
+            public void onSuccess(Object value) {
+                result.value = value;
+            }
+
+            public void onFailure(Throwable failure) {
+                result.error = failure;
+            }
+        });
+        return result;
+    }
+
+    private static byte[] toBytes(Buffer buffer) {
+        return Arrays.copyOfRange(buffer.data, buffer.offset, buffer.offset + buffer.length);
+    }
+
+    private static int count(String text, String token) {
+        int count = 0;
+        for (int idx = text.indexOf(token); idx >= 0; idx = text.indexOf(token, idx + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    static class Result {
+        Object value;
+        Throwable error;
+    }
+
+    enum Operation {
+        PLUS {
+            int apply(int a, int b) {
+                return a + b;
+            }
+        },
+        MINUS {
+            int apply(int a, int b) {
+                return a - b;
+            }
+        };
+
+        abstract int apply(int a, int b);
+    }
+
+    static class Point implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int x;
+        final int y;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Point && ((Point) o).x == x && ((Point) o).y == y;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * x + y;
+        }
+    }
+
+}
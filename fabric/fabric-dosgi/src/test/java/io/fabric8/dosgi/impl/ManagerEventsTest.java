@@ -0,0 +1,185 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.dosgi.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.fabric8.dosgi.capset.SimpleFilter;
+import io.fabric8.dosgi.util.Utils;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.zookeeper.data.Stat;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.hooks.service.ListenerHook.ListenerInfo;
+
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ManagerEventsTest {
+
+    private static final String PATH = "/fabric/dosgi/endpoint1";
+
+    private BundleContext bundleContext;
+    private BundleContext listenerContext;
+    private Bundle listenerBundle;
+    private ServiceRegistration registration;
+    private Manager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        bundleContext = createNiceMock(BundleContext.class);
+        // unexpected service registrations fail the test
+        listenerContext = createMock(BundleContext.class);
+        listenerBundle = createNiceMock(Bundle.class);
+        registration = createMock(ServiceRegistration.class);
+        expect(bundleContext.getBundle(5L)).andReturn(listenerBundle).anyTimes();
+        expect(listenerBundle.getBundleId()).andReturn(5L).anyTimes();
+        expect(listenerBundle.getBundleContext()).andReturn(listenerContext).anyTimes();
+        expect(listenerContext.getBundle()).andReturn(listenerBundle).anyTimes();
+        manager = new Manager(bundleContext, createNiceMock(CuratorFramework.class), "tcp://localhost:0", "localhost", TimeUnit.MINUTES.toMillis(5));
+    }
+
+    @Test
+    public void testGetObjectClass() {
+        assertEquals("foo.Bar", Manager.getObjectClass(SimpleFilter.parse("(objectClass=foo.Bar)")));
+        assertEquals("foo.Bar", Manager.getObjectClass(SimpleFilter.parse("(&(objectClass=foo.Bar)(a=b))")));
+        assertEquals("foo.Bar", Manager.getObjectClass(SimpleFilter.parse("(&(a=b)(&(!(c=d))(objectClass=foo.Bar)))")));
+        assertNull(Manager.getObjectClass(SimpleFilter.parse("(|(objectClass=foo.Bar)(objectClass=foo.Baz))")));
+        assertNull(Manager.getObjectClass(SimpleFilter.parse("(objectClass=foo.*)")));
+        assertNull(Manager.getObjectClass(SimpleFilter.parse("(!(objectClass=foo.Bar))")));
+        assertNull(Manager.getObjectClass(SimpleFilter.parse("(a=b)")));
+    }
+
+    @Test
+    public void testListenersAreIndexedByObjectClass() throws Exception {
+        replay(bundleContext, listenerContext, listenerBundle, registration);
+        ListenerInfo indexed = listener("(objectClass=foo.Bar)");
+        ListenerInfo unindexed = listener("(|(objectClass=foo.Bar)(objectClass=foo.Baz))");
+
+        manager.added(Arrays.asList(indexed, unindexed));
+
+        EndpointDescription bar = endpoint("foo.Bar", "1");
+        EndpointDescription baz = endpoint("foo.Baz", "1");
+        assertEquals(2, manager.getCandidateListeners(bar).size());
+        assertTrue(manager.getCandidateListeners(bar).contains(indexed));
+        assertEquals(Collections.singleton(unindexed), manager.getCandidateListeners(baz));
+
+        manager.removed(Arrays.asList(indexed, unindexed));
+
+        assertTrue(manager.getCandidateListeners(bar).isEmpty());
+        assertTrue(manager.getCandidateListeners(baz).isEmpty());
+    }
+
+    @Test
+    public void testEndpointAddedAndUpdatedInTheSameBatchIsImportedFirst() throws Exception {
+        Capture<Dictionary> properties = new Capture<Dictionary>();
+        expectImport(registration);
+        registration.setProperties(capture(properties));
+        expectLastCall();
+        replay(bundleContext, listenerContext, listenerBundle, registration);
+        manager.added(Collections.singletonList(listener("(objectClass=foo.Bar)")));
+
+        manager.queueEvent(event(TreeCacheEvent.Type.NODE_ADDED, endpoint("foo.Bar", "1"), 0));
+        manager.queueEvent(event(TreeCacheEvent.Type.NODE_UPDATED, endpoint("foo.Bar", "2"), 1));
+        manager.processEvents();
+
+        verify(listenerContext, registration);
+        assertEquals("2", properties.getValue().get("value"));
+    }
+
+    @Test
+    public void testEndpointAddedAndRemovedInTheSameBatchIsUnregistered() throws Exception {
+        expectImport(registration);
+        registration.unregister();
+        expectLastCall();
+        replay(bundleContext, listenerContext, listenerBundle, registration);
+        manager.added(Collections.singletonList(listener("(objectClass=foo.Bar)")));
+
+        manager.queueEvent(event(TreeCacheEvent.Type.NODE_ADDED, endpoint("foo.Bar", "1"), 0));
+        manager.queueEvent(event(TreeCacheEvent.Type.NODE_REMOVED, endpoint("foo.Bar", "1"), 0));
+        manager.processEvents();
+
+        verify(listenerContext, registration);
+        // the removed endpoint is not imported for new listeners
+        manager.added(Collections.singletonList(listener("(objectClass=foo.Bar)")));
+    }
+
+    @Test
+    public void testEndpointIsOnlyImportedForMatchingListeners() throws Exception {
+        replay(bundleContext, listenerContext, listenerBundle, registration);
+        manager.added(Collections.singletonList(listener("(&(objectClass=foo.Bar)(value=2))")));
+
+        manager.queueEvent(event(TreeCacheEvent.Type.NODE_ADDED, endpoint("foo.Bar", "1"), 0));
+        manager.processEvents();
+
+        verify(listenerContext);
+    }
+
+    private void expectImport(ServiceRegistration registration) {
+        expect(listenerContext.registerService(
+                EasyMock.aryEq(new String[]{"foo.Bar"}),
+                EasyMock.anyObject(),
+                EasyMock.<Dictionary>anyObject())).andReturn(registration).once();
+    }
+
+    private ListenerInfo listener(String filter) {
+        ListenerInfo listenerInfo = createNiceMock(ListenerInfo.class);
+        expect(listenerInfo.getBundleContext()).andReturn(listenerContext).anyTimes();
+        expect(listenerInfo.getFilter()).andReturn(filter).anyTimes();
+        replay(listenerInfo);
+        return listenerInfo;
+    }
+
+    private static EndpointDescription endpoint(String objectClass, String value) {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put(Constants.OBJECTCLASS, new String[]{objectClass});
+        props.put("endpoint.id", "endpoint1");
+        props.put("endpoint.framework.uuid", "remote-framework");
+        props.put("service.imported.configs", Collections.<Object>singletonList(Manager.CONFIG));
+        props.put("value", value);
+        return new EndpointDescription(props);
+    }
+
+    private static TreeCacheEvent event(TreeCacheEvent.Type type, EndpointDescription endpoint, int version) throws Exception {
+        Stat stat = new Stat();
+        stat.setCzxid(1);
+        stat.setVersion(version);
+        byte[] data = Utils.getEndpointDescriptionXML(endpoint).getBytes();
+        return new TreeCacheEvent(type, new ChildData(PATH, stat, data));
+    }
+
+}
@@ -19,6 +19,7 @@ import static io.fabric8.utils.features.FeatureUtils.search;
 import io.fabric8.api.Container;
 import io.fabric8.api.FabricService;
 import io.fabric8.api.OptionsProvider;
+import io.fabric8.api.PathChangeCallback;
 import io.fabric8.api.Profile;
 import io.fabric8.api.ProfileBuilder;
 import io.fabric8.api.ProfileService;
@@ -28,6 +29,7 @@ import io.fabric8.api.jcip.GuardedBy;
 import io.fabric8.api.jcip.ThreadSafe;
 import io.fabric8.api.scr.AbstractComponent;
 import io.fabric8.api.scr.ValidatingReference;
+import io.fabric8.zookeeper.ZkPath;
 
 import java.net.URI;
 import java.util.Arrays;
@@ -69,7 +71,7 @@ import com.google.common.cache.LoadingCache;
 @Properties(
         @Property(name = "service.ranking", intValue = 1)
 )
-public final class FabricFeaturesServiceImpl extends AbstractComponent implements FeaturesService, Runnable {
+public final class FabricFeaturesServiceImpl extends AbstractComponent implements FeaturesService, PathChangeCallback {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FeaturesService.class);
 
@@ -106,6 +108,20 @@ public final class FabricFeaturesServiceImpl extends AbstractComponent implement
         fabricService.get().untrackConfiguration(this);
     }
 
+    @Override
+    public void run(Set<String> changedPaths) {
+        // The repositories only depend on the profiles, not on the runtime attributes of containers or the ensemble
+        for (String path : changedPaths) {
+            if (!path.startsWith(ZkPath.CONTAINERS.getPath()) && !path.startsWith(ZkPath.CONFIG_ENSEMBLES.getPath())) {
+                run();
+                return;
+            }
+        }
+        if (changedPaths.isEmpty()) {
+            run();
+        }
+    }
+
     @Override
     public synchronized void run() {
         assertValid();
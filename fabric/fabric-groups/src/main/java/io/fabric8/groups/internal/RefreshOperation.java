@@ -29,7 +29,7 @@ class RefreshOperation implements Operation
     @Override
     public void invoke() throws Exception
     {
-        cache.refresh(mode);
+        cache.refresh(mode, true);
     }
 
     @Override
@@ -23,6 +23,8 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
 import org.apache.curator.framework.listen.ListenerContainer;
 import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.framework.state.ConnectionStateListener;
@@ -49,9 +51,12 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>A utility that attempts to keep all data from all children of a ZK path locally cached. This class
@@ -68,12 +73,53 @@ public class ZooKeeperGroup<T extends NodeState> implements Group<T> {
 
     static private final Logger LOG = LoggerFactory.getLogger(ZooKeeperGroup.class);
 
+    /**
+     * The maximum number of operations a group runs before handing its thread back to the shared executor.
+     */
+    static private final int MAX_OPERATIONS_PER_DRAIN = 64;
+
+    static private ExecutorService sharedExecutor;
+    static private int sharedExecutorUsers;
+
+    /**
+     * Returns the bounded executor shared by all started groups created without an explicit executor or thread
+     * factory. Groups no longer block a thread each, they only borrow one while they have pending operations.
+     * Every call must be paired with {@link #releaseSharedExecutor()}.
+     */
+    static synchronized ExecutorService acquireSharedExecutor() {
+        if (sharedExecutor == null) {
+            int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), ThreadUtils.newThreadFactory("ZooKeeperGroup"));
+            executor.allowCoreThreadTimeOut(true);
+            sharedExecutor = executor;
+        }
+        sharedExecutorUsers++;
+        return sharedExecutor;
+    }
+
+    /**
+     * Shuts the shared executor down once the last group using it is closed, so its threads do not
+     * outlive the bundle.
+     */
+    static synchronized void releaseSharedExecutor() {
+        if (--sharedExecutorUsers == 0) {
+            sharedExecutor.shutdown();
+            sharedExecutor = null;
+        }
+    }
+
     private final Class<T> clazz;
     private final CuratorFramework client;
     private final String path;
-    private final ExecutorService executorService;
+    // the shared executor is only held while the group is started
+    private volatile ExecutorService executorService;
+    private final boolean ownsExecutor;
     private final EnsurePath ensurePath;
     private final BlockingQueue<Operation> operations = new LinkedBlockingQueue<Operation>();
+    // operations are run one at a time, close() holds the same lock so nothing runs after it
+    private final Object operationLock = new Object();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
     private final ListenerContainer<GroupListener<T>> listeners = new ListenerContainer<GroupListener<T>>();
     protected final ConcurrentMap<String, ChildData<T>> currentData = Maps.newConcurrentMap();
     private final AtomicBoolean started = new AtomicBoolean();
@@ -82,6 +128,8 @@ public class ZooKeeperGroup<T extends NodeState> implements Group<T> {
 
     private volatile String id;
     private volatile T state;
+    // the group runs no other operation until the pipelined reads of a refresh are applied
+    private volatile PipelinedReads pendingReads;
 
     private final Watcher childrenWatcher = new Watcher() {
         @Override
@@ -117,8 +165,7 @@ public class ZooKeeperGroup<T extends NodeState> implements Group<T> {
      * @param path   path to watch
      */
     public ZooKeeperGroup(CuratorFramework client, String path, Class<T> clazz) {
-        this(client, path, clazz,
-                Executors.newSingleThreadExecutor(ThreadUtils.newThreadFactory("ZooKeeperGroup")));
+        this(client, path, clazz, null, false);
     }
 
     /**
@@ -136,10 +183,15 @@ public class ZooKeeperGroup<T extends NodeState> implements Group<T> {
      * @param executorService ExecutorService to use for the ZooKeeperGroup's background thread
      */
     public ZooKeeperGroup(CuratorFramework client, String path, Class<T> clazz, final ExecutorService executorService) {
+        this(client, path, clazz, executorService, true);
+    }
+
+    private ZooKeeperGroup(CuratorFramework client, String path, Class<T> clazz, ExecutorService executorService, boolean ownsExecutor) {
         this.client = client;
         this.path = path;
         this.clazz = clazz;
         this.executorService = executorService;
+        this.ownsExecutor = ownsExecutor;
         ensurePath = client.newNamespaceAwareEnsurePath(path);
     }
 
@@ -149,13 +201,11 @@ public class ZooKeeperGroup<T extends NodeState> implements Group<T> {
     public void start() {
         if (started.compareAndSet(false, true)) {
             connected.set(client.getZookeeperClient().isConnected());
+            if (!ownsExecutor) {
+                executorService = acquireSharedExecutor();
+            }
             client.getConnectionStateListenable().addListener(connectionStateListener);
-            executorService.execute(new Runnable() {
-                @Override
-                public void run() {
-                    mainLoop();
-                }
-            });
+            scheduleDrain();
 
             if (isConnected()) {
                 handleStateChange(ConnectionState.CONNECTED);
@@ -172,19 +222,29 @@ public class ZooKeeperGroup<T extends NodeState> implements Group<T> {
     public void close() throws IOException {
         if (started.compareAndSet(true, false)) {
             client.getConnectionStateListenable().removeListener(connectionStateListener);
-            executorService.shutdownNow();
-            try {
-                executorService.awaitTermination(5, TimeUnit.SECONDS);
-            } catch (InterruptedException e) {
-                throw (IOException) new InterruptedIOException().initCause(e);
+            operations.clear();
+            if (ownsExecutor) {
+                executorService.shutdownNow();
+                try {
+                    executorService.awaitTermination(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw (IOException) new InterruptedIOException().initCause(e);
+                }
             }
-            try {
-                if (isConnected()) {
-                    doUpdate(null);
-                    callListeners(GroupListener.GroupEvent.DISCONNECTED);
+            // waits for a running operation, the shared executor is not ours to shut down
+            synchronized (operationLock) {
+                pendingReads = null;
+                try {
+                    if (isConnected()) {
+                        doUpdate(null);
+                        callListeners(GroupListener.GroupEvent.DISCONNECTED);
+                    }
+                } catch (Exception e) {
+                    handleException(e);
                 }
-            } catch (Exception e) {
-                handleException(e);
+            }
+            if (!ownsExecutor) {
+                releaseSharedExecutor();
             }
             listeners.clear();
         }
@@ -381,6 +441,14 @@ public class ZooKeeperGroup<T extends NodeState> implements Group<T> {
     }
 
     void refresh(final RefreshMode mode) throws Exception {
+        refresh(mode, false);
+    }
+
+    /**
+     * @param pipelined whether the data of the children may be read with pipelined requests that are applied
+     *                  by a later drain, only operations run by {@link #drain()} may ask for it
+     */
+    void refresh(final RefreshMode mode, boolean pipelined) throws Exception {
         ensurePath.ensure(client.getZookeeperClient());
         List<String> children = client.getChildren().usingWatcher(childrenWatcher).forPath(path);
         Collections.sort(children, new Comparator<String>() {
@@ -389,7 +457,7 @@ public class ZooKeeperGroup<T extends NodeState> implements Group<T> {
                 return left.compareTo(right);
             }
         });
-        processChildren(children, mode);
+        processChildren(children, mode, pipelined);
     }
 
     void callListeners(final GroupListener.GroupEvent event) {
@@ -464,7 +532,7 @@ public class ZooKeeperGroup<T extends NodeState> implements Group<T> {
         }
     }
 
-    private void processChildren(List<String> children, RefreshMode mode) throws Exception {
+    private void processChildren(List<String> children, RefreshMode mode, boolean pipelined) throws Exception {
         List<String> fullPaths = Lists.newArrayList(Lists.transform
                 (
                         children,
@@ -482,10 +550,53 @@ public class ZooKeeperGroup<T extends NodeState> implements Group<T> {
             remove(fullPath);
         }
 
+        List<String> toRead = new ArrayList<String>();
         for (String name : children) {
             String fullPath = ZKPaths.makePath(path, name);
 
             if ((mode == RefreshMode.FORCE_GET_DATA_AND_STAT) || !currentData.containsKey(fullPath)) {
+                toRead.add(fullPath);
+            }
+        }
+        if (pipelined && toRead.size() > 1) {
+            readInBackground(toRead);
+        } else {
+            for (String fullPath : toRead) {
+                try {
+                    getDataAndStat(fullPath);
+                } catch (KeeperException.NoNodeException ignore) {}
+            }
+        }
+    }
+
+    /**
+     * Reads all the given nodes with pipelined asynchronous requests, so a refresh costs a single round trip
+     * instead of one per child. The thread is not held while the requests are in flight: the group stops
+     * draining and the last response schedules the drain that applies the results in the order of the paths.
+     */
+    private void readInBackground(List<String> fullPaths) throws Exception {
+        final PipelinedReads reads = new PipelinedReads(fullPaths);
+        pendingReads = reads;
+        for (int i = 0; i < fullPaths.size(); i++) {
+            final int index = i;
+            client.getData().usingWatcher(dataWatcher).inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(CuratorFramework client, CuratorEvent event) throws Exception {
+                    if (reads.complete(index, event)) {
+                        scheduleDrain();
+                    }
+                }
+            }).forPath(fullPaths.get(i));
+        }
+    }
+
+    private void applyPipelinedReads(PipelinedReads reads) throws Exception {
+        for (int i = 0; i < reads.fullPaths.size(); i++) {
+            String fullPath = reads.fullPaths.get(i);
+            CuratorEvent event = reads.results[i];
+            if (event.getResultCode() == KeeperException.Code.OK.intValue()) {
+                applyNewData(fullPath, event.getResultCode(), event.getStat(), event.getData());
+            } else if (event.getResultCode() != KeeperException.Code.NONODE.intValue()) {
                 try {
                     getDataAndStat(fullPath);
                 } catch (KeeperException.NoNodeException ignore) {}
@@ -496,27 +607,81 @@ public class ZooKeeperGroup<T extends NodeState> implements Group<T> {
     private void applyNewData(String fullPath, int resultCode, Stat stat, byte[] bytes) {
         if (resultCode == KeeperException.Code.OK.intValue()) {
             // otherwise - node must have dropped or something - we should be getting another event
-            ChildData<T> data = new ChildData<T>(fullPath, stat, bytes, decode(bytes));
-            ChildData<T> previousData = currentData.put(fullPath, data);
+            ChildData<T> previousData = currentData.get(fullPath);
+            boolean unchanged = previousData != null
+                    && previousData.getStat().getVersion() == stat.getVersion()
+                    && previousData.getStat().getCzxid() == stat.getCzxid();
+            // the same node at the same version holds the same bytes, so its decoded state can be reused
+            T node = unchanged ? previousData.getNode() : decode(bytes);
+            ChildData<T> data = new ChildData<T>(fullPath, stat, bytes, node);
+            previousData = currentData.put(fullPath, data);
             if (previousData == null || previousData.getStat().getVersion() != stat.getVersion()) {
                 offerOperation(new EventOperation(this, GroupListener.GroupEvent.CHANGED));
             }
         }
     }
 
-    private void mainLoop() {
-        while (started.get() && !Thread.currentThread().isInterrupted()) {
+    private boolean hasPendingWork() {
+        PipelinedReads reads = pendingReads;
+        return reads != null ? reads.isDone() : !operations.isEmpty();
+    }
+
+    private void scheduleDrain() {
+        ExecutorService executor = executorService;
+        if (started.get() && executor != null && hasPendingWork() && drainScheduled.compareAndSet(false, true)) {
             try {
-                operations.take().invoke();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            } catch (Exception e) {
-                handleException(e);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        drain();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                drainScheduled.set(false);
             }
         }
     }
 
+    /**
+     * Runs the pending operations of this group. A group never runs operations concurrently and yields
+     * its thread after {@link #MAX_OPERATIONS_PER_DRAIN} operations so that busy groups cannot starve the others.
+     */
+    private void drain() {
+        try {
+            for (int i = 0; i < MAX_OPERATIONS_PER_DRAIN && !Thread.currentThread().isInterrupted(); i++) {
+                synchronized (operationLock) {
+                    if (!started.get()) {
+                        return;
+                    }
+                    PipelinedReads reads = pendingReads;
+                    if (reads != null && !reads.isDone()) {
+                        // the last response schedules the next drain
+                        break;
+                    }
+                    Operation operation = reads == null ? operations.poll() : null;
+                    if (reads == null && operation == null) {
+                        break;
+                    }
+                    try {
+                        if (reads != null) {
+                            pendingReads = null;
+                            applyPipelinedReads(reads);
+                        } else {
+                            operation.invoke();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        handleException(e);
+                    }
+                }
+            }
+        } finally {
+            drainScheduled.set(false);
+        }
+        scheduleDrain();
+    }
+
     private byte[] encode(T state) {
         try {
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -538,15 +703,15 @@ public class ZooKeeperGroup<T extends NodeState> implements Group<T> {
     private void offerOperation(Operation operation) {
         operations.remove(operation);   // avoids herding for refresh operations
         operations.offer(operation);
+        scheduleDrain();
     }
 
     public static <T> Map<String, T> members(CuratorFramework curator, String path, Class<T> clazz) throws Exception {
         Map<String, T> map = new TreeMap<String, T>();
         List<String> nodes = curator.getChildren().forPath(path);
-        ObjectMapper mapper = new ObjectMapper();
         for (String node : nodes) {
             byte[] data = curator.getData().forPath(path + "/" + node);
-            T val = mapper.readValue(data, clazz);
+            T val = MAPPER.readValue(data, clazz);
             map.put(node, val);
         }
         return map;
@@ -555,4 +720,31 @@ public class ZooKeeperGroup<T extends NodeState> implements Group<T> {
     public String getId() {
         return id;
     }
+
+    /**
+     * The responses of the pipelined reads of one refresh.
+     */
+    static class PipelinedReads {
+        final List<String> fullPaths;
+        final CuratorEvent[] results;
+        private final AtomicInteger remaining;
+
+        PipelinedReads(List<String> fullPaths) {
+            this.fullPaths = fullPaths;
+            this.results = new CuratorEvent[fullPaths.size()];
+            this.remaining = new AtomicInteger(fullPaths.size());
+        }
+
+        /**
+         * @return whether this was the last outstanding response
+         */
+        boolean complete(int index, CuratorEvent event) {
+            results[index] = event;
+            return remaining.decrementAndGet() == 0;
+        }
+
+        boolean isDone() {
+            return remaining.get() == 0;
+        }
+    }
 }
@@ -27,11 +27,13 @@ import org.junit.Test;
 
 import java.io.File;
 import java.net.ServerSocket;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -226,6 +228,47 @@ public class GroupTest {
         cnxnFactory.join();
     }
 
+    //Tests that more groups than threads of the shared executor all join and see each other.
+    @Test
+    public void testManyGroupsOnSharedExecutor() throws Exception {
+        int port = findFreePort();
+        NIOServerCnxnFactory cnxnFactory = startZooKeeper(port);
+
+        CuratorFramework curator = CuratorFrameworkFactory.builder()
+                .connectString("localhost:" + port)
+                .retryPolicy(new RetryNTimes(10, 100))
+                .build();
+        curator.start();
+        curator.getZookeeperClient().blockUntilConnectedOrTimedOut();
+        String groupNode =  "/singletons/test" + System.currentTimeMillis();
+
+        int count = Runtime.getRuntime().availableProcessors() * 4 + 1;
+        List<Group<NodeState>> groups = new ArrayList<Group<NodeState>>();
+        for (int i = 0; i < count; i++) {
+            Group<NodeState> group = new ZooKeeperGroup<NodeState>(curator, groupNode, NodeState.class);
+            group.update(new NodeState("node" + i));
+            group.start();
+            groups.add(group);
+        }
+
+        for (Group<NodeState> group : groups) {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (group.members().size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(count, group.members().size());
+        }
+
+        for (Group<NodeState> group : groups) {
+            group.close();
+        }
+        assertTrue(curator.getChildren().forPath(groupNode).isEmpty());
+
+        curator.close();
+        cnxnFactory.shutdown();
+        cnxnFactory.join();
+    }
+
     private class GroupCondition implements GroupListener<NodeState> {
         private CountDownLatch connected = new CountDownLatch(1);
         private CountDownLatch master = new CountDownLatch(1);
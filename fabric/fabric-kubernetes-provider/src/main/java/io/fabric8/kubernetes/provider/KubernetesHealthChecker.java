@@ -30,6 +30,7 @@ import io.fabric8.api.scr.support.Strings;
 import io.fabric8.common.util.Closeables;
 import io.fabric8.common.util.Objects;
 import io.fabric8.container.process.JolokiaAgentHelper;
+import io.fabric8.container.process.JolokiaKeepAliveProber;
 import io.fabric8.groups.Group;
 import io.fabric8.groups.GroupListener;
 import io.fabric8.groups.internal.ZooKeeperGroup;
@@ -59,12 +60,17 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static io.fabric8.common.util.Lists.notNullList;
@@ -87,13 +93,60 @@ public final class KubernetesHealthChecker extends AbstractComponent implements
     private final ValidatingReference<KubernetesService> kubernetesService = new ValidatingReference<KubernetesService>();
     @Reference(referenceInterface = ContainerPlaceholderResolver.class, bind = "bindContainerPlaceholderResolver", unbind = "unbindContainerPlaceholderResolver")
     private final ValidatingReference<ContainerPlaceholderResolver> containerPlaceholderResolver = new ValidatingReference<ContainerPlaceholderResolver>();
+    @Reference(referenceInterface = JolokiaKeepAliveProber.class, bind = "bindKeepAliveProber", unbind = "unbindKeepAliveProber")
+    private final ValidatingReference<JolokiaKeepAliveProber> keepAliveProber = new ValidatingReference<JolokiaKeepAliveProber>();
 
     @Property(name = "pollTime", longValue = 10000,
             label = "Poll period",
             description = "The number of milliseconds between polls to check the health of the system.")
     private long pollTime = 10000;
 
+    @Property(name = "resyncTime", longValue = 600000,
+            label = "Resync period",
+            description = "The number of milliseconds between full relists of the pods, replication controllers and services. In between only the pods changed by the pod watch are checked.")
+    private long resyncTime = 600000;
+
     private AtomicReference<Timer> timer = new AtomicReference<Timer>();
+    private AtomicReference<PodWatcher> podWatcher = new AtomicReference<PodWatcher>();
+
+    /**
+     * The pods by ID as last listed or watched, and the IDs of the pods changed since the last health check
+     */
+    private final ConcurrentMap<String, PodSchema> pods = new ConcurrentHashMap<String, PodSchema>();
+    private final Set<String> changedPodIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicBoolean resyncRequested = new AtomicBoolean(true);
+    private final AtomicBoolean refreshRequested = new AtomicBoolean();
+
+    // the state of the reconciliation which is only used by the timer thread
+    private long lastResync;
+    private Map<String, Container> podContainers = new HashMap<>();
+    private Map<String, Container> kubernetesContainers = new HashMap<>();
+    private Map<String, CreateKubernetesContainerMetadata> kubernetesMetadata = new HashMap<>();
+    private Map<String, ReplicationControllerSchema> replicationControllerMap = new HashMap<>();
+    private Map<String, ServiceSchema> serviceMap = new HashMap<>();
+    private final Map<String, JolokiaKeepAliveProber.Target> jolokiaTargets = new HashMap<>();
+    private final Map<String, ContainerStatus> containerStatuses = new HashMap<>();
+
+    final PodWatcher.Listener podListener = new PodWatcher.Listener() {
+        @Override
+        public void onWatchStarted(boolean resumed) {
+            if (!resumed) {
+                resyncRequested.set(true);
+            }
+        }
+
+        @Override
+        public void onPodChanged(PodSchema pod) {
+            pods.put(pod.getId(), pod);
+            changedPodIds.add(pod.getId());
+        }
+
+        @Override
+        public void onPodDeleted(String podId) {
+            pods.remove(podId);
+            changedPodIds.add(podId);
+        }
+    };
 
     @GuardedBy("volatile")
     private volatile Group<KubernetesHealthCheckNode> group;
@@ -192,7 +245,19 @@ public final class KubernetesHealthChecker extends AbstractComponent implements
                     healthCheck();
                 }
             };
-            newTimer.schedule(timerTask, pollTime, pollTime);
+            resyncRequested.set(true);
+            newTimer.schedule(timerTask, 0, pollTime);
+            String address = KubernetesService.getKubernetesAddress(kubernetesService.getOptional());
+            if (address != null) {
+                PodWatcher watcher = new PodWatcher(address, podListener);
+                PodWatcher oldWatcher = podWatcher.getAndSet(watcher);
+                if (oldWatcher != null) {
+                    oldWatcher.close();
+                }
+                watcher.start();
+            }
+        } else {
+            newTimer.cancel();
         }
     }
 
@@ -203,89 +268,45 @@ public final class KubernetesHealthChecker extends AbstractComponent implements
                 oldValue.cancel();
             }
         }
+        PodWatcher oldWatcher = podWatcher.getAndSet(null);
+        if (oldWatcher != null) {
+            oldWatcher.close();
+        }
     }
 
 
     private void onConfigurationChanged() {
-        LOGGER.debug("Configuration has changed; so checking the auto-scaling requirements");
-        healthCheck();
+        // the pods did not change, only the containers may have so lets not relist the pods
+        LOGGER.debug("Configuration has changed; so reloading the containers on the next health check");
+        refreshRequested.set(true);
     }
 
-    private void healthCheck() {
+    /**
+     * Relists everything on the resync period, when the pod watch may have missed events or while it is not connected,
+     * otherwise only checks the pods which the watch reported as changed; then checks the Jolokia agents of the running pods.
+     * Container state is only written to ZooKeeper when it differs from what was last read or written.
+     */
+    void healthCheck() {
         FabricService service = fabricService.get();
         Kubernetes kubernetes = getKubernetes();
         if (kubernetes != null && service != null) {
             try {
-                Map<String, PodSchema> podMap = KubernetesHelper.getPodMap(kubernetes);
-                Container[] containerArray = service.getContainers();
-                Collection<PodSchema> pods = podMap.values();
-                if (!pods.isEmpty()) {
-                    Map<String, Container> containerMap = createPodIdToContainerMap(containerArray);
-
-                    for (PodSchema item : pods) {
-                        String podId = item.getId();
-                        CurrentState currentState = item.getCurrentState();
-                        if (currentState != null) {
-                            String host = currentState.getHost();
-                            String hostIp = currentState.getHost();
-                            String status = currentState.getStatus();
-
-                            Container container = containerMap.remove(podId);
-                            if (container != null) {
-                                DesiredState desiredState = item.getDesiredState();
-                                if (desiredState != null) {
-                                    ManifestSchema manifest = desiredState.getManifest();
-                                    if (manifest != null) {
-                                        List<ManifestContainer> containers = manifest.getContainers();
-                                        for (ManifestContainer manifestContainer : containers) {
-                                            // TODO
-                                        }
-                                    }
-                                }
-
-                                if (!container.isAlive()) {
-                                    container.setAlive(true);
-                                }
-                                if (status != null) {
-                                    String result = currentStatusStringToContainerProvisionResult(status);
-                                    if (isProvisionSuccess(result)) {
-                                        keepAliveCheck(service, status, container, currentState, item);
-                                    } else {
-                                        if (!result.equals(container.getProvisionResult())) {
-                                            container.setProvisionResult(result);
-                                        }
-                                    }
-                                } else {
-                                    if (container.isAlive()) {
-                                        container.setAlive(false);
-                                    }
-                                    if (!status.equals(container.getProvisionResult())) {
-                                        container.setProvisionResult(status);
-                                    }
-                                }
-                            }
-                        }
+                if (resyncRequested.getAndSet(false) || !isWatchingPods() || System.currentTimeMillis() - lastResync >= resyncTime) {
+                    refreshRequested.set(false);
+                    resync(kubernetes, service);
+                } else {
+                    if (refreshRequested.getAndSet(false)) {
+                        reloadContainers(service);
                     }
-
-                    // TODO now lets remove any containers which are not even running....
-                    Collection<Container> deadContainers = containerMap.values();
-                    for (Container container : deadContainers) {
-                        CreateContainerMetadata<?> metadata = container.getMetadata();
-                        // lets only update the kube created container status
-                        if (metadata instanceof CreateKubernetesContainerMetadata) {
-                            if (container.isAlive()) {
-                                container.setAlive(false);
-                            }
-                            String status = Container.PROVISION_STOPPED;
-                            if (!status.equals(container.getProvisionResult())) {
-                                container.setProvisionResult(status);
-                            }
-                        }
+                    reconcileChangedPods(service);
+                }
+                if (!jolokiaTargets.isEmpty()) {
+                    keepAliveProber.get().probe(zkMasterCache, service, jolokiaTargets.values(), pollTime);
+                    // the keep alive checks update the containers themselves so lets read them again next time
+                    for (JolokiaKeepAliveProber.Target target : jolokiaTargets.values()) {
+                        containerStatuses.remove(target.getContainer().getId());
                     }
                 }
-                Map<String, ReplicationControllerSchema> replicationMap = KubernetesHelper.getReplicationControllerMap(kubernetes);
-                Map<String, ServiceSchema> serviceMap = KubernetesHelper.getServiceMap(kubernetes);
-                checkKubeletContainers(service, containerArray, podMap, replicationMap, serviceMap);
             } catch (Exception e) {
                 LOGGER.warn("Health Check Caught: " + e, e);
             }
@@ -294,58 +315,211 @@ public final class KubernetesHealthChecker extends AbstractComponent implements
         }
     }
 
-    protected void checkKubeletContainers(FabricService fabricService, Container[] containerArray, Map<String, PodSchema> podMap, Map<String, ReplicationControllerSchema> replicationControllerMap, Map<String, ServiceSchema> serviceMap) {
+    /**
+     * Returns true if the pod watch is connected, otherwise the pods are polled on every health check
+     */
+    protected boolean isWatchingPods() {
+        PodWatcher watcher = podWatcher.get();
+        return watcher != null && watcher.isConnected();
+    }
+
+    protected void resync(Kubernetes kubernetes, FabricService service) throws Exception {
+        LOGGER.debug("Relisting the pods, replication controllers and services");
+        lastResync = System.currentTimeMillis();
+        changedPodIds.clear();
+        Map<String, PodSchema> podMap = KubernetesHelper.getPodMap(kubernetes);
+        // pods watched while listing are newer than the listed ones
+        for (String podId : pods.keySet()) {
+            if (!podMap.containsKey(podId) && !changedPodIds.contains(podId)) {
+                pods.remove(podId);
+            }
+        }
+        for (Map.Entry<String, PodSchema> entry : podMap.entrySet()) {
+            if (!changedPodIds.contains(entry.getKey())) {
+                pods.put(entry.getKey(), entry.getValue());
+            }
+        }
+        replicationControllerMap = KubernetesHelper.getReplicationControllerMap(kubernetes);
+        serviceMap = KubernetesHelper.getServiceMap(kubernetes);
+        containerStatuses.clear();
+        jolokiaTargets.clear();
+        refreshContainers(service);
+
+        Collection<PodSchema> podList = podMap.values();
+        if (!podList.isEmpty()) {
+            Map<String, Container> containerMap = new HashMap<>(podContainers);
+            for (PodSchema item : podList) {
+                Container container = containerMap.remove(item.getId());
+                if (container != null) {
+                    reconcilePod(service, item, container);
+                }
+            }
+
+            // TODO now lets remove any containers which are not even running....
+            for (Container container : containerMap.values()) {
+                markStopped(container);
+            }
+        }
+        checkKubeletContainers(podMap);
+    }
+
+    protected void reconcileChangedPods(FabricService service) {
+        if (changedPodIds.isEmpty()) {
+            return;
+        }
+        List<String> podIds = new ArrayList<>(changedPodIds);
+        changedPodIds.removeAll(podIds);
+        for (String podId : podIds) {
+            if (!podContainers.containsKey(podId) && pods.containsKey(podId)) {
+                // a new pod so lets look for its container
+                refreshContainers(service);
+                break;
+            }
+        }
+        for (String podId : podIds) {
+            Container container = podContainers.get(podId);
+            if (container == null) {
+                continue;
+            }
+            PodSchema item = pods.get(podId);
+            if (item != null) {
+                reconcilePod(service, item, container);
+            } else {
+                markStopped(container);
+            }
+        }
+        checkKubeletContainers(pods);
+    }
+
+    /**
+     * Reloads the containers and checks the pods of any new containers on this health check
+     */
+    protected void reloadContainers(FabricService service) {
+        Set<String> knownPodIds = new HashSet<>(podContainers.keySet());
+        refreshContainers(service);
+        for (String podId : podContainers.keySet()) {
+            if (!knownPodIds.contains(podId)) {
+                changedPodIds.add(podId);
+            }
+        }
+    }
+
+    protected void refreshContainers(FabricService service) {
+        Container[] containerArray = service.getContainers();
+        podContainers = createPodIdToContainerMap(containerArray);
+        Map<String, Container> containers = new HashMap<>();
+        Map<String, CreateKubernetesContainerMetadata> metadataMap = new HashMap<>();
         if (containerArray != null) {
             for (Container container : containerArray) {
                 CreateContainerMetadata<?> metadata = container.getMetadata();
                 if (metadata instanceof CreateKubernetesContainerMetadata) {
-                    CreateKubernetesContainerMetadata kubernetesContainerMetadata = (CreateKubernetesContainerMetadata) metadata;
-                    String status = Container.PROVISION_SUCCESS;
-                    List<String> podIds = notNullList(kubernetesContainerMetadata.getPodIds());
-                    List<String> errors = new ArrayList<>();
-                    for (String id : podIds) {
-                        PodSchema pod = podMap.get(id);
-                        String kubeletStatus = checkStatus(id, pod, errors);
-                        if (!isProvisionSuccess(kubeletStatus)) {
-                            status = kubeletStatus;
-                        }
-                    }
-                    if (isProvisionSuccess(status)) {
-                        List<String> ids = notNullList(kubernetesContainerMetadata.getReplicationControllerIds());
-                        for (String id : ids) {
-                            ReplicationControllerSchema replicationController = replicationControllerMap.get(id);
-                            status = checkStatus(id, replicationController, errors);
-                            if (!isProvisionSuccess(status)) {
-                                break;
-                            }
-                        }
-                    }
-                    if (isProvisionSuccess(status)) {
-                        List<String> ids = notNullList(kubernetesContainerMetadata.getServiceIds());
-                        for (String id : ids) {
-                            ServiceSchema service = serviceMap.get(id);
-                            status = checkStatus(id, service, errors);
-                            if (!isProvisionSuccess(status)) {
-                                break;
-                            }
-                        }
-                    }
-                    if (!status.equals(container.getProvisionResult())) {
-                        container.setProvisionResult(status);
-                    }
-                    String exception = null;
-                    if (!errors.isEmpty()) {
-                        exception = Strings.join(errors, "\n");
-                    }
-                    if (!Objects.equal(exception, container.getProvisionException())) {
-                        container.setProvisionException(exception);
+                    containers.put(container.getId(), container);
+                    metadataMap.put(container.getId(), (CreateKubernetesContainerMetadata) metadata);
+                }
+            }
+        }
+        kubernetesContainers = containers;
+        kubernetesMetadata = metadataMap;
+    }
+
+    protected void reconcilePod(FabricService service, PodSchema item, Container container) {
+        CurrentState currentState = item.getCurrentState();
+        if (currentState == null) {
+            return;
+        }
+        String status = currentState.getStatus();
+        ContainerStatus containerStatus = getContainerStatus(container);
+        DesiredState desiredState = item.getDesiredState();
+        if (desiredState != null) {
+            ManifestSchema manifest = desiredState.getManifest();
+            if (manifest != null) {
+                List<ManifestContainer> containers = manifest.getContainers();
+                for (ManifestContainer manifestContainer : containers) {
+                    // TODO
+                }
+            }
+        }
+
+        if (status != null) {
+            containerStatus.setAlive(true);
+            String result = currentStatusStringToContainerProvisionResult(status);
+            if (isProvisionSuccess(result)) {
+                keepAliveCheck(service, status, container, currentState, item);
+            } else {
+                jolokiaTargets.remove(item.getId());
+                containerStatus.setProvisionResult(result);
+            }
+        } else {
+            jolokiaTargets.remove(item.getId());
+            containerStatus.setAlive(false);
+            containerStatus.setProvisionResult(Container.PROVISION_STOPPED);
+        }
+    }
+
+    /**
+     * Marks a container created by this provider whose pod is gone as stopped
+     */
+    protected void markStopped(Container container) {
+        jolokiaTargets.remove(containerNameToPodId(container.getId()));
+        // lets only update the kube created container status
+        if (kubernetesMetadata.containsKey(container.getId())) {
+            ContainerStatus containerStatus = getContainerStatus(container);
+            containerStatus.setAlive(false);
+            containerStatus.setProvisionResult(Container.PROVISION_STOPPED);
+        }
+    }
+
+    protected ContainerStatus getContainerStatus(Container container) {
+        ContainerStatus answer = containerStatuses.get(container.getId());
+        if (answer == null) {
+            answer = new ContainerStatus(container);
+            containerStatuses.put(container.getId(), answer);
+        }
+        return answer;
+    }
+
+    protected void checkKubeletContainers(Map<String, PodSchema> podMap) {
+        for (Map.Entry<String, Container> entry : kubernetesContainers.entrySet()) {
+            Container container = entry.getValue();
+            CreateKubernetesContainerMetadata kubernetesContainerMetadata = kubernetesMetadata.get(entry.getKey());
+            String status = Container.PROVISION_SUCCESS;
+            List<String> podIds = notNullList(kubernetesContainerMetadata.getPodIds());
+            List<String> errors = new ArrayList<>();
+            for (String id : podIds) {
+                PodSchema pod = podMap.get(id);
+                String kubeletStatus = checkStatus(id, pod, errors);
+                if (!isProvisionSuccess(kubeletStatus)) {
+                    status = kubeletStatus;
+                }
+            }
+            if (isProvisionSuccess(status)) {
+                List<String> ids = notNullList(kubernetesContainerMetadata.getReplicationControllerIds());
+                for (String id : ids) {
+                    ReplicationControllerSchema replicationController = replicationControllerMap.get(id);
+                    status = checkStatus(id, replicationController, errors);
+                    if (!isProvisionSuccess(status)) {
+                        break;
                     }
-                    boolean alive = isProvisionSuccess(status);
-                    if (alive != container.isAlive()) {
-                        container.setAlive(alive);
+                }
+            }
+            if (isProvisionSuccess(status)) {
+                List<String> ids = notNullList(kubernetesContainerMetadata.getServiceIds());
+                for (String id : ids) {
+                    ServiceSchema service = serviceMap.get(id);
+                    status = checkStatus(id, service, errors);
+                    if (!isProvisionSuccess(status)) {
+                        break;
                     }
                 }
             }
+            ContainerStatus containerStatus = getContainerStatus(container);
+            containerStatus.setProvisionResult(status);
+            String exception = null;
+            if (!errors.isEmpty()) {
+                exception = Strings.join(errors, "\n");
+            }
+            containerStatus.setProvisionException(exception);
+            containerStatus.setAlive(isProvisionSuccess(status));
         }
     }
 
@@ -403,30 +577,30 @@ public final class KubernetesHealthChecker extends AbstractComponent implements
         return Container.PROVISION_STOPPED;
     }
 
+    /**
+     * Updates the container from the pod and adds it to the Jolokia keep alive checks of every health check if it has a Jolokia URL
+     */
     protected void keepAliveCheck(FabricService service, String status, Container container, CurrentState currentState, PodSchema item) {
+        ContainerStatus containerStatus = getContainerStatus(container);
         String host = currentState.getHost();
         String podIP = currentState.getPodIP();
-        if (!Strings.isNullOrBlank(host) && !Objects.equal(host, container.getPublicHostname())) {
-            container.setPublicHostname(host);
+        if (!Strings.isNullOrBlank(host)) {
+            containerStatus.setPublicHostname(host);
         }
-        if (!Strings.isNullOrBlank(podIP) && !Objects.equal(podIP, container.getPublicIp())) {
-            container.setPublicIp(podIP);
+        if (!Strings.isNullOrBlank(podIP)) {
+            containerStatus.setPublicIp(podIP);
         }
 
         String jolokiaUrl = getJolokiaURL(container, currentState, service, item);
         if (jolokiaUrl != null) {
-            JolokiaAgentHelper.jolokiaKeepAliveCheck(zkMasterCache, service, jolokiaUrl, container);
+            jolokiaTargets.put(item.getId(), new JolokiaKeepAliveProber.Target(container, jolokiaUrl, null));
             return;
         }
+        jolokiaTargets.remove(item.getId());
 
         // no jolokia check so lets just assume its alive
-        String provisionStatus = container.getProvisionStatus();
-        if (!Container.PROVISION_SUCCESS.equals(container.getProvisionResult())) {
-            container.setProvisionResult(Container.PROVISION_SUCCESS);
-        }
-        if (container.getProvisionException() != null) {
-            container.setProvisionException(null);
-        }
+        containerStatus.setProvisionResult(Container.PROVISION_SUCCESS);
+        containerStatus.setProvisionException(null);
     }
 
     protected String getJolokiaURL(Container container, CurrentState currentState, FabricService service, PodSchema item) {
@@ -541,6 +715,74 @@ public final class KubernetesHealthChecker extends AbstractComponent implements
         return state;
     }
 
+    /**
+     * The state of a container as last read from or written to ZooKeeper, so that a health check only writes what changed
+     */
+    protected static class ContainerStatus {
+        private final Container container;
+        private Boolean alive;
+        private String provisionResult;
+        private String provisionException;
+        private boolean provisionExceptionLoaded;
+        private String publicHostname;
+        private String publicIp;
+
+        public ContainerStatus(Container container) {
+            this.container = container;
+        }
+
+        public void setAlive(boolean value) {
+            if (alive == null) {
+                alive = container.isAlive();
+            }
+            if (alive != value) {
+                container.setAlive(value);
+                alive = value;
+            }
+        }
+
+        public void setProvisionResult(String value) {
+            if (provisionResult == null) {
+                provisionResult = container.getProvisionResult();
+            }
+            if (!Objects.equal(value, provisionResult)) {
+                container.setProvisionResult(value);
+                provisionResult = value;
+            }
+        }
+
+        public void setProvisionException(String value) {
+            if (!provisionExceptionLoaded) {
+                provisionException = container.getProvisionException();
+                provisionExceptionLoaded = true;
+            }
+            if (!Objects.equal(value, provisionException)) {
+                container.setProvisionException(value);
+                provisionException = value;
+            }
+        }
+
+        public void setPublicHostname(String value) {
+            if (publicHostname == null) {
+                publicHostname = container.getPublicHostname();
+            }
+            if (!Objects.equal(value, publicHostname)) {
+                container.setPublicHostname(value);
+                publicHostname = value;
+            }
+        }
+
+        public void setPublicIp(String value) {
+            if (publicIp == null) {
+                publicIp = container.getPublicIp();
+            }
+            if (!Objects.equal(value, publicIp)) {
+                container.setPublicIp(value);
+                publicIp = value;
+            }
+        }
+    }
+
     void bindFabricService(FabricService fabricService) {
         this.fabricService.bind(fabricService);
     }
@@ -573,4 +815,12 @@ public final class KubernetesHealthChecker extends AbstractComponent implements
         this.containerPlaceholderResolver.unbind(containerPlaceholderResolver);
     }
 
+    void bindKeepAliveProber(JolokiaKeepAliveProber keepAliveProber) {
+        this.keepAliveProber.bind(keepAliveProber);
+    }
+
+    void unbindKeepAliveProber(JolokiaKeepAliveProber keepAliveProber) {
+        this.keepAliveProber.unbind(keepAliveProber);
+    }
+
 }
@@ -0,0 +1,184 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.kubernetes.provider;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fabric8.common.util.Closeables;
+import io.fabric8.kubernetes.api.KubernetesFactory;
+import io.fabric8.kubernetes.api.model.PodSchema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the pods of the Kubernetes master and notifies a listener of every added, modified or deleted pod.
+ * Reconnects when the watch is closed, resuming from the last resource version seen when possible.
+ */
+public class PodWatcher implements Runnable, Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PodWatcher.class);
+
+    private static final long MAX_RECONNECT_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    public interface Listener {
+
+        /**
+         * The watch has been (re)connected, if it could not resume from the last resource version
+         * events may have been missed and the listener should relist the pods
+         */
+        void onWatchStarted(boolean resumed);
+
+        void onPodChanged(PodSchema pod);
+
+        void onPodDeleted(String podId);
+    }
+
+    private final String address;
+    private final Listener listener;
+    private final ObjectMapper mapper = KubernetesFactory.createObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final Thread thread = new Thread(this, "fabric8-kubernetes-pod-watcher");
+    private volatile boolean running = true;
+    private volatile boolean connected;
+    private volatile HttpURLConnection connection;
+    private String resourceVersion;
+
+    public PodWatcher(String address, Listener listener) {
+        this.address = address.endsWith("/") ? address : address + "/";
+        this.listener = listener;
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Returns true once a watch request has been accepted by the master and until a watch request fails,
+     * while it is false pod events may be missed and the pods should be polled instead
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        HttpURLConnection current = connection;
+        if (current != null) {
+            current.disconnect();
+        }
+        thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        long delay = 1000;
+        while (running) {
+            try {
+                if (watch()) {
+                    delay = 1000;
+                }
+            } catch (IOException e) {
+                connected = false;
+                if (running) {
+                    LOGGER.warn("Kubernetes pod watch failed, reconnecting in " + delay + " ms. " + e);
+                    LOGGER.debug("Kubernetes pod watch failed. " + e, e);
+                }
+            } catch (RuntimeException e) {
+                connected = false;
+                LOGGER.warn("Kubernetes pod watch failed. " + e, e);
+            }
+            if (running) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                delay = Math.min(delay * 2, MAX_RECONNECT_DELAY);
+            }
+        }
+    }
+
+    /**
+     * Processes the events of one watch request until the master closes it.
+     *
+     * @return true if the watch received events
+     */
+    protected boolean watch() throws IOException {
+        String url = address + "api/v1beta1/watch/pods";
+        boolean resumed = resourceVersion != null;
+        if (resumed) {
+            url += "?resourceVersion=" + resourceVersion;
+        }
+        HttpURLConnection current = (HttpURLConnection) new URL(url).openConnection();
+        current.setConnectTimeout(30000);
+        current.setReadTimeout(0);
+        connection = current;
+        InputStream is = null;
+        boolean received = false;
+        try {
+            int code = current.getResponseCode();
+            if (code < 200 || code >= 300) {
+                // the resource version may be too old to resume from
+                resourceVersion = null;
+                throw new IOException("Got a " + code + " when watching " + url);
+            }
+            is = current.getInputStream();
+            connected = true;
+            listener.onWatchStarted(resumed);
+            MappingIterator<JsonNode> events = mapper.readValues(mapper.getFactory().createParser(is), JsonNode.class);
+            while (running && events.hasNextValue()) {
+                JsonNode event = events.nextValue();
+                String type = event.path("type").asText();
+                JsonNode object = event.get("object");
+                if (object == null || !object.isObject()) {
+                    continue;
+                }
+                received = true;
+                String version = object.path("resourceVersion").asText();
+                if (version.length() > 0) {
+                    resourceVersion = version;
+                }
+                if ("ERROR".equals(type)) {
+                    resourceVersion = null;
+                    throw new IOException("Kubernetes pod watch error: " + object);
+                }
+                PodSchema pod = mapper.treeToValue(object, PodSchema.class);
+                if (pod.getId() == null) {
+                    continue;
+                }
+                if ("DELETED".equals(type)) {
+                    listener.onPodDeleted(pod.getId());
+                } else {
+                    listener.onPodChanged(pod);
+                }
+            }
+        } finally {
+            Closeables.closeQuietly(is);
+            current.disconnect();
+            connection = null;
+        }
+        return received;
+    }
+}
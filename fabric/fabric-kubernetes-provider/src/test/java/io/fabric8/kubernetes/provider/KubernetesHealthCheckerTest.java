@@ -0,0 +1,135 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.kubernetes.provider;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fabric8.api.Container;
+import io.fabric8.api.FabricService;
+import io.fabric8.kubernetes.api.Kubernetes;
+import io.fabric8.kubernetes.api.KubernetesFactory;
+import io.fabric8.kubernetes.api.model.PodListSchema;
+import io.fabric8.kubernetes.api.model.PodSchema;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class KubernetesHealthCheckerTest {
+
+    ObjectMapper mapper = KubernetesFactory.createObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    FabricService fabricService = mock(FabricService.class);
+    KubernetesService kubernetesService = mock(KubernetesService.class);
+    Kubernetes kubernetes = mock(Kubernetes.class);
+    Container container1 = mock(Container.class);
+    Container container2 = mock(Container.class);
+    PodListSchema podList = new PodListSchema();
+    KubernetesHealthChecker checker = new KubernetesHealthChecker();
+
+    @Before
+    public void setUp() throws Exception {
+        given(container1.getId()).willReturn("pod1");
+        given(container1.getProvisionResult()).willReturn(Container.PROVISION_INSTALLING);
+        given(container2.getId()).willReturn("pod2");
+        given(container2.getProvisionResult()).willReturn(Container.PROVISION_INSTALLING);
+        given(fabricService.getContainers()).willReturn(new Container[]{container1});
+        given(kubernetesService.getKubernetes()).willReturn(kubernetes);
+        given(kubernetes.getPods()).willReturn(podList);
+        podList.getItems().add(pod("pod1", "Running", "10.0.0.1"));
+        podList.getItems().add(pod("pod2", "Running", "10.0.0.2"));
+
+        checker.bindFabricService(fabricService);
+        checker.bindKubernetesService(kubernetesService);
+    }
+
+    @Test
+    public void testUpdateContainersOfListedPods() throws Exception {
+        checker.resync(kubernetes, fabricService);
+
+        verify(container1).setAlive(true);
+        verify(container1).setProvisionResult(Container.PROVISION_SUCCESS);
+        verify(container1).setPublicIp("10.0.0.1");
+    }
+
+    @Test
+    public void testOnlyChangedPodsAreCheckedBetweenResyncs() throws Exception {
+        checker.resync(kubernetes, fabricService);
+
+        checker.podListener.onPodChanged(pod("pod1", "Waiting", "10.0.0.1"));
+        checker.reconcileChangedPods(fabricService);
+        checker.reconcileChangedPods(fabricService);
+
+        verify(kubernetes, times(1)).getPods();
+        verify(container1).setProvisionResult(Container.PROVISION_INSTALLING);
+        verify(container1, times(1)).setAlive(true);
+        verify(container1, times(1)).setPublicIp("10.0.0.1");
+    }
+
+    @Test
+    public void testPodsOfNewContainersAreCheckedWithoutRelisting() throws Exception {
+        checker.resync(kubernetes, fabricService);
+        given(fabricService.getContainers()).willReturn(new Container[]{container1, container2});
+
+        checker.reloadContainers(fabricService);
+        checker.reconcileChangedPods(fabricService);
+
+        verify(kubernetes, times(1)).getPods();
+        verify(container2).setAlive(true);
+        verify(container2).setProvisionResult(Container.PROVISION_SUCCESS);
+        verify(container1, times(1)).setAlive(true);
+    }
+
+    @Test
+    public void testPodsArePolledWithoutPodWatch() throws Exception {
+        checker.healthCheck();
+        checker.healthCheck();
+
+        assertFalse(checker.isWatchingPods());
+        verify(kubernetes, times(2)).getPods();
+    }
+
+    @Test
+    public void testOnlyChangedContainerStatusIsWritten() throws Exception {
+        given(container1.isAlive()).willReturn(true);
+        given(container1.getPublicHostname()).willReturn("host1");
+        KubernetesHealthChecker.ContainerStatus status = new KubernetesHealthChecker.ContainerStatus(container1);
+
+        status.setAlive(true);
+        status.setPublicHostname("host1");
+        status.setProvisionResult(Container.PROVISION_SUCCESS);
+        status.setProvisionResult(Container.PROVISION_SUCCESS);
+        status.setProvisionException(null);
+        status.setProvisionException("failed");
+        status.setProvisionException("failed");
+
+        verify(container1, never()).setAlive(true);
+        verify(container1, never()).setPublicHostname("host1");
+        verify(container1, times(1)).getProvisionResult();
+        verify(container1, times(1)).setProvisionResult(Container.PROVISION_SUCCESS);
+        verify(container1, never()).setProvisionException(null);
+        verify(container1, times(1)).setProvisionException("failed");
+    }
+
+    private PodSchema pod(String id, String status, String podIP) throws Exception {
+        String json = "{\"id\":\"" + id + "\",\"currentState\":{\"status\":\"" + status + "\",\"podIP\":\"" + podIP + "\"}}";
+        return mapper.readValue(json, PodSchema.class);
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.kubernetes.provider;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.fabric8.kubernetes.api.model.PodSchema;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PodWatcherTest {
+
+    HttpServer server;
+    final List<String> requests = new ArrayList<>();
+    final LinkedList<String> responses = new LinkedList<>();
+    final List<String> events = new ArrayList<>();
+
+    PodWatcher.Listener listener = new PodWatcher.Listener() {
+        @Override
+        public void onWatchStarted(boolean resumed) {
+            events.add("started " + resumed);
+        }
+
+        @Override
+        public void onPodChanged(PodSchema pod) {
+            events.add("changed " + pod.getId() + " " + pod.getCurrentState().getStatus());
+        }
+
+        @Override
+        public void onPodDeleted(String podId) {
+            events.add("deleted " + podId);
+        }
+    };
+
+    PodWatcher watcher;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/v1beta1/watch/pods", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.add(exchange.getRequestURI().toString());
+                String response = responses.poll();
+                if (response == null) {
+                    exchange.sendResponseHeaders(410, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] bytes = response.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(bytes);
+                os.close();
+            }
+        });
+        server.start();
+        watcher = new PodWatcher("http://localhost:" + server.getAddress().getPort(), listener);
+    }
+
+    @After
+    public void tearDown() {
+        watcher.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testPodEvents() throws Exception {
+        responses.add(event("ADDED", "pod1", "Waiting", "1") + "\n"
+                + event("MODIFIED", "pod1", "Running", "2") + "\n"
+                + "{\"type\":\"MODIFIED\"}\n"
+                + event("ADDED", "pod2", "Running", "3")
+                + event("DELETED", "pod1", "Running", "4"));
+
+        boolean received = watcher.watch();
+
+        assertTrue(received);
+        assertTrue(watcher.isConnected());
+        assertEquals("/api/v1beta1/watch/pods", requests.get(0));
+        assertEquals("[started false, changed pod1 Waiting, changed pod1 Running, changed pod2 Running, deleted pod1]", events.toString());
+    }
+
+    @Test
+    public void testResumeFromTheLastResourceVersion() throws Exception {
+        responses.add(event("ADDED", "pod1", "Running", "7"));
+        responses.add("");
+        watcher.watch();
+
+        boolean received = watcher.watch();
+
+        assertFalse(received);
+        assertEquals("/api/v1beta1/watch/pods?resourceVersion=7", requests.get(1));
+        assertEquals("[started false, changed pod1 Running, started true]", events.toString());
+    }
+
+    @Test
+    public void testRelistAfterAWatchError() throws Exception {
+        responses.add(event("ADDED", "pod1", "Running", "7") + "{\"type\":\"ERROR\",\"object\":{\"code\":410}}");
+        responses.add("");
+
+        try {
+            watcher.watch();
+            fail("Expected the watch error");
+        } catch (IOException e) {
+            // expected
+        }
+        watcher.watch();
+
+        assertEquals("/api/v1beta1/watch/pods", requests.get(1));
+        assertEquals("[started false, changed pod1 Running, started false]", events.toString());
+    }
+
+    @Test
+    public void testRelistWhenTheMasterRejectsTheWatch() throws Exception {
+        responses.add(event("ADDED", "pod1", "Running", "7"));
+        watcher.watch();
+
+        try {
+            watcher.watch();
+            fail("Expected the rejected watch");
+        } catch (IOException e) {
+            // expected
+        }
+        responses.add("");
+        watcher.watch();
+
+        assertEquals("/api/v1beta1/watch/pods?resourceVersion=7", requests.get(1));
+        assertEquals("/api/v1beta1/watch/pods", requests.get(2));
+    }
+
+    private static String event(String type, String id, String status, String resourceVersion) {
+        return "{\"type\":\"" + type + "\",\"object\":{\"id\":\"" + id + "\",\"resourceVersion\":" + resourceVersion
+                + ",\"currentState\":{\"status\":\"" + status + "\"}}}";
+    }
+}
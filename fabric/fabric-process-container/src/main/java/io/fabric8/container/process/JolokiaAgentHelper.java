@@ -38,13 +38,12 @@ import org.apache.zookeeper.CreateMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -69,6 +68,15 @@ public class JolokiaAgentHelper {
     private static final transient Logger LOG = LoggerFactory.getLogger(JolokiaAgentHelper.class);
     private static ObjectMapper jolokiaMapper = new ObjectMapper();
 
+    /**
+     * The connect and read timeout in milliseconds of a keep alive check
+     */
+    public static final int DEFAULT_KEEP_ALIVE_TIMEOUT = 5000;
+
+    private static final String WEB_MODULE_READ_REQUEST = "{\"type\":\"read\",\"mbean\":\"*:j2eeType=WebModule,*\","
+            + "\"attribute\":[\"displayName\",\"path\",\"stateName\",\"startTime\"],"
+            + "\"config\":{\"maxDepth\":6,\"maxCollectionSize\":500,\"ignoreErrors\":true,\"canonicalNaming\":false}}";
+
     public static String findJolokiaUrlFromEnvironmentVariables(Map<String, String> environmentVariables, String defaultHost) {
         String javaAgent = getJavaAgent(environmentVariables);
         String answer = findJolokiaUrlFromJavaAgent(javaAgent, defaultHost);
@@ -469,9 +477,20 @@ public class JolokiaAgentHelper {
      */
     public static List<String> jolokiaKeepAliveCheck(ZooKeeperMasterCache zkMasterCache, FabricService fabric, Container container, Map<String, String> envVars) {
         List<String> newZkContainerPaths = new ArrayList<>();
+        jolokiaKeepAliveCheck(zkMasterCache, fabric, container, envVars, newZkContainerPaths, DEFAULT_KEEP_ALIVE_TIMEOUT);
+        return newZkContainerPaths;
+    }
+
+    /**
+     * Checks the container is still alive with a single bulk Jolokia request which lists the JMX domains
+     * and reads the web modules, and updates the container if anything has changed.
+     *
+     * @return true if the container is valid and none of its state had to be updated
+     */
+    static boolean jolokiaKeepAliveCheck(ZooKeeperMasterCache zkMasterCache, FabricService fabric, Container container, Map<String, String> envVars, List<String> newZkContainerPaths, int timeout) {
         String jolokiaUrl = container.getJolokiaUrl();
         if (Strings.isNullOrBlank(jolokiaUrl)) {
-            return newZkContainerPaths;
+            return true;
         }
 
         String containerName = container.getId();
@@ -486,48 +505,47 @@ public class JolokiaAgentHelper {
         if (!url.endsWith("/")) {
             url += "/";
         }
-        String listUrl = url + "list/?maxDepth=1";
+        String json = "[{\"type\":\"list\",\"config\":{\"maxDepth\":1}}";
+        if (zkMasterCache != null) {
+            json += "," + WEB_MODULE_READ_REQUEST;
+        }
+        json += "]";
         List<String> jmxDomains = new ArrayList<String>();
+        JsonNode webModules = null;
         boolean valid = false;
-        try {
-            URL theUrl = new URL(listUrl);
-            URLConnection urlConnection = theUrl.openConnection();
-            String authString = user + ":" + password;
-            String authStringEnc = Base64Encoder.encode(authString);
-            urlConnection.setRequestProperty("Authorization", "Basic " + authStringEnc);
-            InputStream is = urlConnection.getInputStream();
-            JsonNode jsonNode = jolokiaMapper.readTree(is);
-            if (jsonNode != null) {
-                JsonNode value = jsonNode.get("value");
-                if (value != null) {
-                    Iterator<String> iter = value.fieldNames();
-                    while (iter.hasNext()) {
-                        jmxDomains.add(iter.next());
-                    }
-                    if (debugLog) {
-                        LOG.debug("Container " + containerName + " has JMX Domains: " + jmxDomains);
-                    }
-                    valid = jmxDomains.size() > 0;
+        JsonNode jsonNode = postJson(url, json, user, password, timeout);
+        if (jsonNode != null && jsonNode.isArray()) {
+            JsonNode value = jsonNode.path(0).get("value");
+            if (value != null) {
+                Iterator<String> iter = value.fieldNames();
+                while (iter.hasNext()) {
+                    jmxDomains.add(iter.next());
+                }
+                if (debugLog) {
+                    LOG.debug("Container " + containerName + " has JMX Domains: " + jmxDomains);
                 }
+                valid = jmxDomains.size() > 0;
             }
-        } catch (IOException e) {
-            LOG.warn("Failed to query: " + listUrl + ". " + e, e);
+            webModules = jsonNode.get(1);
         }
 
         String provisionResult = container.getProvisionResult();
         if (debugLog) {
             LOG.debug("Current provision result: " + provisionResult + " valid: " + valid);
         }
-        valid = valid && performExtraJolokiaChecks(zkMasterCache, fabric, container, jmxDomains, url, envVars, newZkContainerPaths);
+        valid = valid && performExtraJolokiaChecks(zkMasterCache, fabric, container, jmxDomains, webModules, envVars, newZkContainerPaths);
+        boolean unchanged = true;
         if (valid) {
             if (!Objects.equal(Container.PROVISION_SUCCESS, provisionResult) || !container.isAlive()) {
                 container.setProvisionResult(Container.PROVISION_SUCCESS);
                 container.setProvisionException(null);
                 container.setAlive(true);
                 JavaContainers.registerJolokiaUrl(container, jolokiaUrl);
+                unchanged = false;
             }
             if (!Objects.equal(jmxDomains, container.getJmxDomains())) {
                 container.setJmxDomains(jmxDomains);
+                unchanged = false;
             }
         } else {
             if (container.isAlive()) {
@@ -537,7 +555,7 @@ public class JolokiaAgentHelper {
                 container.setProvisionResult(Container.PROVISION_FAILED);
             }
         }
-        return newZkContainerPaths;
+        return valid && unchanged;
     }
 
     /**
@@ -547,16 +565,13 @@ public class JolokiaAgentHelper {
      *
      * @return true if the container is deemed to still be valid after performing the checks
      */
-    protected static boolean performExtraJolokiaChecks(ZooKeeperMasterCache zkMasterCache, FabricService fabric, Container container, List<String> jmxDomains, String url, Map<String, String> envVars, List<String> newZkContainerPaths) {
+    protected static boolean performExtraJolokiaChecks(ZooKeeperMasterCache zkMasterCache, FabricService fabric, Container container, List<String> jmxDomains, JsonNode webModules, Map<String, String> envVars, List<String> newZkContainerPaths) {
         if (zkMasterCache != null) {
             for (String jmxDomain : jmxDomains) {
                 // check for tomcat web contexts
                 if (jmxDomain.startsWith("Catalina") || jmxDomain.startsWith("Tomcat")) {
-                    // get get the port from the ports...
-                    String tomcatUrl = url + "?maxDepth=6&maxCollectionSize=500&ignoreErrors=true&canonicalNaming=false";
-                    String json = "{\"type\":\"read\",\"mbean\":\"*:j2eeType=WebModule,*\",\"attribute\":[\"displayName\",\"path\",\"stateName\",\"startTime\"]}";
-
-                    JsonNode jsonNode = postJson(tomcatUrl, json);
+                    // the web modules were read in the same bulk request as the domains
+                    JsonNode jsonNode = webModules;
                     if (jsonNode != null) {
                         List<JsonNode> values = jsonNode.findValues("value");
                         for (JsonNode value : values) {
@@ -664,32 +679,59 @@ public class JolokiaAgentHelper {
 
 
     /**
-     * Posts a blob of JSON to a URL and returns the JSON object
+     * Posts a blob of JSON to a URL with basic authentication and returns the JSON object.
+     * The response is always read fully and closed so that the HTTP connection is kept alive for the next request.
      */
-    protected static JsonNode postJson(String url, String json) {
+    protected static JsonNode postJson(String url, String json, String user, String password, int timeout) {
+        HttpURLConnection connection = null;
         try {
-            URL theUrl = new URL(url);
-            URLConnection connection = theUrl.openConnection();
-            connection.setDoInput(true);
+            connection = (HttpURLConnection) new URL(url).openConnection();
             connection.setDoOutput(true);
-            connection.setConnectTimeout(50000);
-            connection.setReadTimeout(5000);
-            connection.connect();
-            OutputStream os = connection.getOutputStream();
-            OutputStreamWriter writer = new OutputStreamWriter(os);
-            writer.write(json);
-            writer.close();
-            if (connection instanceof HttpURLConnection) {
-                int code = ((HttpURLConnection) connection).getResponseCode();
-                if (code < 200 || code >= 300) {
-                    LOG.warn("Got a " + code + " when posting to URL " + url + " with JSON: " + json);
-                } else {
-                    return jolokiaMapper.readTree(connection.getInputStream());
-                }
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setRequestProperty("Authorization", "Basic " + Base64Encoder.encode(user + ":" + password));
+            OutputStreamWriter writer = new OutputStreamWriter(connection.getOutputStream(), "UTF-8");
+            try {
+                writer.write(json);
+            } finally {
+                writer.close();
+            }
+            int code = connection.getResponseCode();
+            if (code < 200 || code >= 300) {
+                LOG.warn("Got a " + code + " when posting to URL " + url);
+                readFully(connection.getErrorStream());
+            } else {
+                return jolokiaMapper.readTree(readFully(connection.getInputStream()));
             }
         } catch (IOException e) {
-            LOG.warn("Failed ot post to " + url + " with JSON: " + json + ". " + e, e);
+            LOG.warn("Failed to query: " + url + ". " + e);
+            LOG.debug("Failed to query: " + url + ". " + e, e);
+            if (connection != null) {
+                try {
+                    readFully(connection.getErrorStream());
+                } catch (IOException ignore) {
+                    // the connection can not be reused
+                }
+            }
         }
         return null;
     }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream answer = new ByteArrayOutputStream();
+        if (is != null) {
+            try {
+                byte[] buffer = new byte[4096];
+                int count;
+                while ((count = is.read(buffer)) >= 0) {
+                    answer.write(buffer, 0, count);
+                }
+            } finally {
+                is.close();
+            }
+        }
+        return answer.toByteArray();
+    }
 }
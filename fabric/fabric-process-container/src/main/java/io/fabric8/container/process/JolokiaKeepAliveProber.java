@@ -0,0 +1,307 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.container.process;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.fabric8.api.Container;
+import io.fabric8.api.FabricService;
+import io.fabric8.api.jcip.ThreadSafe;
+import io.fabric8.api.scr.AbstractComponent;
+import io.fabric8.common.util.Objects;
+import io.fabric8.common.util.Strings;
+import io.fabric8.zookeeper.utils.ZooKeeperMasterCache;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Performs the Jolokia keep alive checks of the containers of all the container providers in parallel,
+ * with a bounded number of concurrent checks and a deadline for each sweep.
+ * <p/>
+ * Containers which stay unchanged are checked less often: after every unchanged check the interval between two checks
+ * doubles, so the container skips 0, 1, 3 and then at most {@link #MAX_SKIPPED_SWEEPS} sweeps. Any change or failure
+ * checks it on every sweep again.
+ * <p/>
+ * A single instance is shared by all the container providers as a service, its threads are stopped when it is deactivated.
+ */
+@ThreadSafe
+@Component(name = "io.fabric8.container.process.keepalive", label = "Fabric8 Jolokia Keep Alive Prober", immediate = true, metatype = false)
+@Service(JolokiaKeepAliveProber.class)
+public class JolokiaKeepAliveProber extends AbstractComponent {
+
+    private static final transient Logger LOG = LoggerFactory.getLogger(JolokiaKeepAliveProber.class);
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 16;
+    public static final int MAX_SKIPPED_SWEEPS = 7;
+
+    /**
+     * States which have not been probed for this long belong to containers which are gone
+     */
+    private static final long STATE_EXPIRY = TimeUnit.HOURS.toMillis(1);
+
+    private final ExecutorService executor;
+    private final int timeout;
+    private final ConcurrentMap<String, ProbeState> states = new ConcurrentHashMap<>();
+
+    public JolokiaKeepAliveProber() {
+        this(DEFAULT_MAX_CONCURRENCY, JolokiaAgentHelper.DEFAULT_KEEP_ALIVE_TIMEOUT);
+    }
+
+    public JolokiaKeepAliveProber(int maxConcurrency, int timeout) {
+        this.executor = Executors.newFixedThreadPool(maxConcurrency, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("fabric8-jolokia-keepalive-%s").build());
+        this.timeout = timeout;
+    }
+
+    @Activate
+    void activate() {
+        activateComponent();
+    }
+
+    @Deactivate
+    void deactivate() {
+        deactivateComponent();
+        close();
+    }
+
+    /**
+     * Stops the checks in progress and the threads they run on
+     */
+    public void close() {
+        executor.shutdownNow();
+        states.clear();
+    }
+
+    /**
+     * Checks the given containers which are due in parallel and waits until they are done or the deadline has passed.
+     * Checks which miss the deadline keep running in the background and are not started again until they are done.
+     *
+     * @param deadline the maximum time to wait in milliseconds, usually the poll period of the caller
+     * @return the new ZooKeeper paths registered by the containers which have been checked by their container ID
+     */
+    public Map<String, List<String>> probe(ZooKeeperMasterCache zkMasterCache, FabricService fabric, Collection<Target> targets, long deadline) {
+        expireStates();
+        List<ProbeTask> tasks = new ArrayList<>();
+        for (Target target : targets) {
+            Container container = target.getContainer();
+            if (container == null) {
+                continue;
+            }
+            String jolokiaUrl = target.getJolokiaUrl();
+            if (jolokiaUrl != null && !Objects.equal(jolokiaUrl, container.getJolokiaUrl())) {
+                container.setJolokiaUrl(jolokiaUrl);
+                forget(container.getId());
+            }
+            if (Strings.isNullOrBlank(container.getJolokiaUrl())) {
+                continue;
+            }
+            ProbeState state = getState(container.getId());
+            if (state.startIfDue()) {
+                tasks.add(new ProbeTask(zkMasterCache, fabric, target, state));
+            }
+        }
+        if (tasks.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<String>> answer = new HashMap<>();
+        try {
+            List<Future<List<String>>> futures = executor.invokeAll(tasks, deadline, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < futures.size(); i++) {
+                ProbeTask task = tasks.get(i);
+                String id = task.target.getContainer().getId();
+                try {
+                    answer.put(id, futures.get(i).get());
+                } catch (CancellationException e) {
+                    task.cancel();
+                    LOG.warn("Jolokia keep alive check of container " + id + " did not complete within " + deadline + " ms");
+                } catch (ExecutionException e) {
+                    LOG.warn("Jolokia keep alive check failed for container " + id + ". " + e.getCause(), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            for (ProbeTask task : tasks) {
+                task.cancel();
+            }
+            Thread.currentThread().interrupt();
+        } catch (RejectedExecutionException e) {
+            // the prober has been deactivated
+            for (ProbeTask task : tasks) {
+                task.cancel();
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Jolokia keep alive checked " + answer.size() + " of " + targets.size() + " containers");
+        }
+        return answer;
+    }
+
+    /**
+     * Checks the container on the next sweep again
+     */
+    public void forget(String containerId) {
+        states.remove(containerId);
+    }
+
+    ProbeState getState(String containerId) {
+        ProbeState state = states.get(containerId);
+        if (state == null) {
+            ProbeState newState = new ProbeState();
+            state = states.putIfAbsent(containerId, newState);
+            if (state == null) {
+                state = newState;
+            }
+        }
+        return state;
+    }
+
+    private void expireStates() {
+        long expired = System.currentTimeMillis() - STATE_EXPIRY;
+        for (Map.Entry<String, ProbeState> entry : states.entrySet()) {
+            if (entry.getValue().getLastSweep() < expired) {
+                states.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private class ProbeTask implements Callable<List<String>> {
+        private final ZooKeeperMasterCache zkMasterCache;
+        private final FabricService fabric;
+        private final Target target;
+        private final ProbeState state;
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        ProbeTask(ZooKeeperMasterCache zkMasterCache, FabricService fabric, Target target, ProbeState state) {
+            this.zkMasterCache = zkMasterCache;
+            this.fabric = fabric;
+            this.target = target;
+            this.state = state;
+        }
+
+        @Override
+        public List<String> call() throws Exception {
+            List<String> newZkContainerPaths = new ArrayList<>();
+            if (!started.compareAndSet(false, true)) {
+                return newZkContainerPaths;
+            }
+            boolean stable = false;
+            try {
+                stable = JolokiaAgentHelper.jolokiaKeepAliveCheck(zkMasterCache, fabric, target.getContainer(), target.getEnvironmentVariables(), newZkContainerPaths, timeout);
+            } finally {
+                // new ZooKeeper paths are a change too
+                state.done(stable && newZkContainerPaths.isEmpty());
+            }
+            return newZkContainerPaths;
+        }
+
+        /**
+         * Releases the state of a task which was cancelled before it started, a running task releases it when it completes
+         */
+        void cancel() {
+            if (started.compareAndSet(false, true)) {
+                state.done(false);
+            }
+        }
+    }
+
+    /**
+     * A container to check, with an optional Jolokia URL to update the container with
+     */
+    public static class Target {
+        private final Container container;
+        private final String jolokiaUrl;
+        private final Map<String, String> environmentVariables;
+
+        public Target(Container container, String jolokiaUrl, Map<String, String> environmentVariables) {
+            this.container = container;
+            this.jolokiaUrl = jolokiaUrl;
+            this.environmentVariables = environmentVariables;
+        }
+
+        public Container getContainer() {
+            return container;
+        }
+
+        public String getJolokiaUrl() {
+            return jolokiaUrl;
+        }
+
+        public Map<String, String> getEnvironmentVariables() {
+            return environmentVariables;
+        }
+    }
+
+    /**
+     * The backoff state of the checks of a container
+     */
+    static class ProbeState {
+        private boolean running;
+        private int stableCount;
+        private int skip;
+        private long lastSweep = System.currentTimeMillis();
+
+        /**
+         * Called once per sweep, returns true if the container should be checked now
+         */
+        synchronized boolean startIfDue() {
+            lastSweep = System.currentTimeMillis();
+            if (running) {
+                return false;
+            }
+            if (skip > 0) {
+                skip--;
+                return false;
+            }
+            running = true;
+            return true;
+        }
+
+        synchronized void done(boolean stable) {
+            running = false;
+            if (stable) {
+                stableCount++;
+                // checked every 2^(stableCount - 1) sweeps, skipping the others
+                skip = Math.min((1 << Math.min(stableCount - 1, 30)) - 1, MAX_SKIPPED_SWEEPS);
+            } else {
+                stableCount = 0;
+                skip = 0;
+            }
+        }
+
+        synchronized long getLastSweep() {
+            return lastSweep;
+        }
+    }
+}
@@ -29,6 +29,7 @@ import io.fabric8.api.scr.Configurer;
 import io.fabric8.api.scr.ValidatingReference;
 import io.fabric8.common.util.Objects;
 import io.fabric8.process.manager.Installation;
+import io.fabric8.process.manager.ProcessInfo;
 import io.fabric8.process.manager.ProcessManager;
 import io.fabric8.service.child.ChildContainerController;
 import io.fabric8.service.child.ChildContainers;
@@ -46,6 +47,7 @@ import org.apache.felix.scr.annotations.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -78,11 +80,19 @@ public final class ProcessControllerFactoryService extends AbstractComponent imp
     @Reference(referenceInterface = ProcessManager.class)
     private final ValidatingReference<ProcessManager> processManager = new ValidatingReference<ProcessManager>();
 
+    @Reference(referenceInterface = JolokiaKeepAliveProber.class, bind = "bindKeepAliveProber", unbind = "unbindKeepAliveProber")
+    private final ValidatingReference<JolokiaKeepAliveProber> keepAliveProber = new ValidatingReference<JolokiaKeepAliveProber>();
+
     @Property(name = "monitorPollTime", longValue = 1500,
             label = "Monitor poll period",
             description = "The number of milliseconds after which the processes will be polled to check they are started and still alive.")
     private long monitorPollTime = 1500;
 
+    @Property(name = "downloadThreads", intValue = ProcessResolutionCache.DEFAULT_DOWNLOAD_THREADS,
+            label = "Download threads",
+            description = "The number of threads used to download the artifacts of the process containers in parallel.")
+    private int downloadThreads = ProcessResolutionCache.DEFAULT_DOWNLOAD_THREADS;
+
     private int externalJolokiaPort;
     private int externalPortCounter;
     private int[] containerLocalIp4Address = {127, 0, 0, 0};
@@ -97,12 +107,15 @@ public final class ProcessControllerFactoryService extends AbstractComponent imp
     };
 
     private final ConcurrentMap<String, Set<String>> containerToZKPathMap = new ConcurrentHashMap<>();
+    private final ProcessResolutionCache resolutionCache = new ProcessResolutionCache();
     private ZooKeeperMasterCache zkMasterCache;
 
 
     @Activate
-    void activate() {
+    void activate(Map<String, ?> configuration) throws Exception {
+        configurer.configure(configuration, this);
         activateComponent();
+        resolutionCache.setDownloadThreads(downloadThreads);
         keepAliveTimer = new Timer("fabric8-process-container-monitor");
 
         TimerTask timerTask = new TimerTask() {
@@ -128,6 +141,7 @@ public final class ProcessControllerFactoryService extends AbstractComponent imp
             keepAliveTimer.cancel();
             keepAliveTimer = null;
         }
+        resolutionCache.close();
         deactivateComponent();
     }
 
@@ -229,7 +243,9 @@ public final class ProcessControllerFactoryService extends AbstractComponent imp
         ProcessManager manager = getProcessManager();
         FabricService fabric = getFabricService();
         if (manager != null && fabric != null) {
+            resolutionCache.configurationChanged();
             ImmutableMap<String, Installation> map = manager.listInstallationMap();
+            resolutionCache.retainInstalled(map.keySet());
             ImmutableSet<Map.Entry<String, Installation>> entries = map.entrySet();
             for (Map.Entry<String, Installation> entry : entries) {
                 String id = entry.getKey();
@@ -330,6 +346,10 @@ public final class ProcessControllerFactoryService extends AbstractComponent imp
         return new ProcessManagerController(this, configurer, getProcessManager(), getFabricService(), getCuratorFramework());
     }
 
+    ProcessResolutionCache getResolutionCache() {
+        return resolutionCache;
+    }
+
     CuratorFramework getCuratorFramework() {
         return curator.get();
     }
@@ -375,6 +395,14 @@ public final class ProcessControllerFactoryService extends AbstractComponent imp
         this.processManager.unbind(processManager);
     }
 
+    void bindKeepAliveProber(JolokiaKeepAliveProber keepAliveProber) {
+        this.keepAliveProber.bind(keepAliveProber);
+    }
+
+    void unbindKeepAliveProber(JolokiaKeepAliveProber keepAliveProber) {
+        this.keepAliveProber.unbind(keepAliveProber);
+    }
+
 
     private void checkProcessesStatus() {
         ProcessManager manager = getProcessManager();
@@ -383,6 +411,9 @@ public final class ProcessControllerFactoryService extends AbstractComponent imp
             Set<String> aliveIds = new HashSet<>();
             ImmutableMap<String, Installation> map = manager.listInstallationMap();
             ImmutableSet<Map.Entry<String, Installation>> entries = map.entrySet();
+            // probe all processes in one pass rather than forking a process listing per installation
+            Map<String, ProcessInfo> processInfos = manager.probeInstallations();
+            List<JolokiaKeepAliveProber.Target> targets = new ArrayList<>();
             for (Map.Entry<String, Installation> entry : entries) {
                 String id = entry.getKey();
                 Installation installation = entry.getValue();
@@ -394,7 +425,8 @@ public final class ProcessControllerFactoryService extends AbstractComponent imp
                         LOG.debug("No container for id: " + id + ". " + e, e);
                     }
                     if (container != null) {
-                        Long pid = installation.getActivePid();
+                        ProcessInfo processInfo = processInfos.get(id);
+                        Long pid = processInfo != null && processInfo.isAlive() ? processInfo.getPid() : null;
                         if (LOG.isDebugEnabled()) {
                             LOG.debug("Polling container " + id + " for its PID");
                         }
@@ -412,20 +444,25 @@ public final class ProcessControllerFactoryService extends AbstractComponent imp
                             aliveIds.add(id);
 
                             Map<String, String> envVars = ProcessManagerController.getInstallationProxyPorts(installation);
-                            List<String> newZkPaths = JolokiaAgentHelper.jolokiaKeepAliveCheck(zkMasterCache, fabric, container, envVars);
-                            if (!newZkPaths.isEmpty()) {
-                                ChildContainerController controller = getControllerForContainer(container);
-                                if (controller instanceof ProcessManagerController) {
-                                    ProcessManagerController processManagerController = (ProcessManagerController) controller;
-                                    addZooKeeperPaths(installation, container, newZkPaths);
-                                }
-                            }
+                            targets.add(new JolokiaKeepAliveProber.Target(container, null, envVars));
                         }
                     }
                 } catch (Exception e) {
                     LOG.warn("Failed to get PID for process " + id + ". " + e, e);
                 }
             }
+            // check all the live containers in parallel rather than one after the other
+            Map<String, List<String>> newZkPathsById = keepAliveProber.get().probe(zkMasterCache, fabric, targets, monitorPollTime);
+            for (JolokiaKeepAliveProber.Target target : targets) {
+                Container container = target.getContainer();
+                List<String> newZkPaths = newZkPathsById.get(container.getId());
+                if (newZkPaths != null && !newZkPaths.isEmpty()) {
+                    ChildContainerController controller = getControllerForContainer(container);
+                    if (controller instanceof ProcessManagerController) {
+                        addZooKeeperPaths(map.get(container.getId()), container, newZkPaths);
+                    }
+                }
+            }
             deleteContainerPathsForDeadContainers(aliveIds);
         }
     }
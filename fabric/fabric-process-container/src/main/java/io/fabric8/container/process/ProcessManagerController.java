@@ -17,7 +17,6 @@ package io.fabric8.container.process;
 
 import com.google.common.collect.ImmutableMap;
 import io.fabric8.agent.download.DownloadManager;
-import io.fabric8.agent.download.DownloadManagers;
 import io.fabric8.maven.util.Parser;
 import io.fabric8.agent.utils.AgentUtils;
 import io.fabric8.api.Constants;
@@ -33,7 +32,6 @@ import io.fabric8.api.Profile;
 import io.fabric8.api.Profiles;
 import io.fabric8.api.scr.Configurer;
 import io.fabric8.api.scr.support.Strings;
-import io.fabric8.common.util.Files;
 import io.fabric8.common.util.Objects;
 import io.fabric8.deployer.JavaContainers;
 import io.fabric8.process.manager.DownloadStrategy;
@@ -42,12 +40,14 @@ import io.fabric8.process.manager.InstallOptions;
 import io.fabric8.process.manager.InstallTask;
 import io.fabric8.process.manager.Installation;
 import io.fabric8.process.manager.ProcessController;
+import io.fabric8.process.manager.ProcessInfo;
 import io.fabric8.process.manager.ProcessManager;
 import io.fabric8.process.manager.config.JsonHelper;
 import io.fabric8.process.manager.config.ProcessConfig;
 import io.fabric8.process.manager.support.ApplyConfigurationTask;
 import io.fabric8.process.manager.support.CompositeTask;
 import io.fabric8.process.manager.support.DownloadResourcesTask;
+import io.fabric8.process.manager.support.FileUtils;
 import io.fabric8.process.manager.support.InstallDeploymentsTask;
 import io.fabric8.process.manager.support.JarInstaller;
 import io.fabric8.process.manager.support.ProcessUtils;
@@ -74,8 +74,6 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 
 import static io.fabric8.deployer.JavaContainers.registerJolokiaUrl;
 
@@ -91,9 +89,9 @@ public class ProcessManagerController implements ChildContainerController {
     private final Configurer configurer;
     private final ProcessManager processManager;
     private final FabricService fabricService;
-    private final ScheduledExecutorService downloadExecutor = Executors.newSingleThreadScheduledExecutor();
     private final CuratorFramework curator;
-
+    private final ProcessResolutionCache resolutionCache;
+    private final ProcessResolutionCache.Substitutions substitutions = new ProcessResolutionCache.Substitutions();
 
     public ProcessManagerController(ProcessControllerFactoryService owner, Configurer configurer, ProcessManager processManager, FabricService fabricService, CuratorFramework curator) {
         this.owner = owner;
@@ -101,6 +99,7 @@ public class ProcessManagerController implements ChildContainerController {
         this.processManager = processManager;
         this.fabricService = fabricService;
         this.curator = curator;
+        this.resolutionCache = owner != null ? owner.getResolutionCache() : new ProcessResolutionCache();
     }
 
     @Override
@@ -127,6 +126,7 @@ public class ProcessManagerController implements ChildContainerController {
             container.setProvisionResult(Container.PROVISION_FINALIZING);
         }
         if (installation != null) {
+            resolutionCache.installed(containerId, getInstallationFingerprint(options, installation));
             installation.getController().start();
         }
         return metadata;
@@ -161,6 +161,7 @@ public class ProcessManagerController implements ChildContainerController {
 
     @Override
     public void destroy(Container container) {
+        resolutionCache.uninstalled(container.getId());
         Installation installation = getInstallation(container);
         if (installation != null) {
             try {
@@ -174,7 +175,8 @@ public class ProcessManagerController implements ChildContainerController {
     }
 
     /**
-     * A profile may have changed so lets double check that there have been no changes to the installation
+     * A profile may have changed so lets double check that there have been no changes to the installation.
+     * The update is skipped if none of the profiles of the container nor their parents have changed since the last update.
      */
     public void updateInstallation(final Container container, final Installation installation) throws Exception {
         Map<String, String> initialEnvironmentVariables = getInstallationProxyPorts(installation);
@@ -186,6 +188,12 @@ public class ProcessManagerController implements ChildContainerController {
             if (createOptions instanceof CreateChildContainerOptions) {
                 CreateChildContainerOptions options = (CreateChildContainerOptions) createOptions;
 
+                String fingerprint = getInstallationFingerprint(options, initialEnvironmentVariables);
+                if (resolutionCache.isInstalled(container.getId(), fingerprint)) {
+                    LOG.debug("No changes to the profiles of container " + container.getId() + " so not updating it");
+                    return;
+                }
+
                 // is this an update of existing container or do we need re-installation the container because its version changed?
                 // to know that we need to create the container config, and compare with existing
                 ProcessContainerConfig config = createProcessContainerConfig(options, initialEnvironmentVariables);
@@ -199,6 +207,7 @@ public class ProcessManagerController implements ChildContainerController {
                     try {
                         newInstallation.getController().install();
                         start(container);
+                        resolutionCache.installed(container.getId(), getInstallationFingerprint(options, newInstallation));
                     } catch (Exception e) {
                         handleException("Error installing container " + container.getId(), e);
                     }
@@ -246,6 +255,11 @@ public class ProcessManagerController implements ChildContainerController {
                             return processManager.getInstallation(id);
                         }
 
+                        @Override
+                        public Map<String, ProcessInfo> probeInstallations() {
+                            return processManager.probeInstallations();
+                        }
+
                         @Override
                         public ProcessConfig loadProcessConfig(InstallOptions options) throws IOException {
                             return processManager.loadProcessConfig(options);
@@ -254,6 +268,7 @@ public class ProcessManagerController implements ChildContainerController {
 
                     // reuse create installation with our procManager to do the update
                     createInstallation(procManager, container, options, metadata, initialEnvironmentVariables);
+                    resolutionCache.installed(container.getId(), fingerprint);
                 }
             }
         }
@@ -291,7 +306,7 @@ public class ProcessManagerController implements ChildContainerController {
                 LOG.debug("Requires restart as config has changed: OLD: " + JsonHelper.toJson(oldConfig) + " and NEW: " + JsonHelper.toJson(processConfig));
             }
             // need to resolve the environment variables first
-            resolveEnvironmentVariables(processConfig.getEnvironment());
+            resolveEnvironmentVariables(null, processConfig.getEnvironment());
             // make sure to update the process config
             JsonHelper.saveProcessConfig(processConfig, installDir);
             // need to update environment on the controller also, so it uses the updated environments when restarting
@@ -317,13 +332,41 @@ public class ProcessManagerController implements ChildContainerController {
         }
     }
 
-    protected void resolveEnvironmentVariables(Map<String, String> environmentVariables) {
-        JolokiaAgentHelper.substituteEnvironmentVariableExpressions(environmentVariables, environmentVariables, fabricService, curator, true);
+    protected void resolveEnvironmentVariables(CreateChildContainerOptions options, Map<String, String> environmentVariables) {
+        substituteEnvironmentVariableExpressions(options, environmentVariables, environmentVariables);
         // in case there's any current system environment variables to replace
         // such as the operating system PATH or FABRIC8_JAVA8_HOME when not using docker containers
         JolokiaAgentHelper.substituteEnvironmentVariableExpressions(environmentVariables, System.getenv(), null, null, true);
     }
 
+    /**
+     * Substitutes the environment variable expressions, reusing the result of the same substitution for the same profiles of the container
+     * during this install or update
+     */
+    protected void substituteEnvironmentVariableExpressions(CreateChildContainerOptions options, Map<String, String> map, Map<String, String> environmentVariables) {
+        String profilesFingerprint = options != null ? getProfilesFingerprint(options) : null;
+        substitutions.substituteEnvironmentVariableExpressions(profilesFingerprint, map, environmentVariables, fabricService, curator);
+    }
+
+    protected String getProfilesFingerprint(CreateChildContainerOptions options) {
+        return ProcessResolutionCache.getProfilesFingerprint(fabricService, options);
+    }
+
+    protected String getInstallationFingerprint(CreateChildContainerOptions options, Installation installation) {
+        return getInstallationFingerprint(options, getInstallationProxyPorts(installation));
+    }
+
+    /**
+     * Returns the fingerprint of the installation or null if it depends on SNAPSHOT artifacts or ZooKeeper values
+     * which may change without its profiles changing, so that it is always updated
+     */
+    protected String getInstallationFingerprint(CreateChildContainerOptions options, Map<String, String> proxyPorts) {
+        if (ProcessResolutionCache.hasVolatileInputs(fabricService, options)) {
+            return null;
+        }
+        return ProcessResolutionCache.getInstallationFingerprint(getProfilesFingerprint(options), proxyPorts);
+    }
+
     protected static ProcessConfig getProcessConfig(Installation installation) {
         ProcessController controller = installation.getController();
         return controller.getConfig();
@@ -340,7 +383,7 @@ public class ProcessManagerController implements ChildContainerController {
             }
         }
         ProcessContainerConfig processConfig = doCreateProcessContainerConfig(options, environmentVariables);
-        resolveEnvironmentVariables(environmentVariables);
+        resolveEnvironmentVariables(options, environmentVariables);
 
         return processConfig;
     }
@@ -360,7 +403,7 @@ public class ProcessManagerController implements ChildContainerController {
         if (container != null) {
             registerPorts(options, processConfig, container, environmentVariables);
         }
-        resolveEnvironmentVariables(environmentVariables);
+        resolveEnvironmentVariables(options, environmentVariables);
         publishZooKeeperValues(options, processConfig, container, environmentVariables);
 
         if (container != null) {
@@ -452,7 +495,7 @@ public class ProcessManagerController implements ChildContainerController {
         if (fabricService != null) {
             Container container = fabricService.getCurrentContainer();
             if (container != null) {
-                final DownloadManager downloadManager = DownloadManagers.createDownloadManager(fabricService, downloadExecutor);
+                final DownloadManager downloadManager = resolutionCache.getDownloadManager(fabricService);
                 return new DownloadStrategy() {
                     @Override
                     public File downloadContent(URL sourceUrl, File installDir) throws IOException {
@@ -465,9 +508,9 @@ public class ProcessManagerController implements ChildContainerController {
                             throw new IOException("Could not download " + sourceUrl, e);
                         }
                         if (file != null && file.exists() && file.isFile()) {
-                            // now lest copy it to the install dir
+                            // now lets copy it to the install dir, the download cache is not read only so it cannot be linked
                             File newFile = new File(installDir, file.getName());
-                            Files.copy(file, newFile);
+                            FileUtils.copy(file, newFile);
                             return newFile;
                         } else {
                             throw new IOException("Could not download " + sourceUrl);
@@ -488,7 +531,7 @@ public class ProcessManagerController implements ChildContainerController {
 
     protected Map<String, File> extractJarsFromProfiles(Container container, CreateChildContainerOptions installOptions) throws Exception {
         List<Profile> profiles = Profiles.getProfiles(fabricService, installOptions.getProfiles(), installOptions.getVersion());
-        Map<String, File> javaArtifacts = JavaContainers.getJavaContainerArtifactsFiles(fabricService, profiles, downloadExecutor);
+        Map<String, File> javaArtifacts = JavaContainers.getJavaContainerArtifactsFiles(fabricService, profiles, resolutionCache.getDownloadManager(fabricService));
         // no longer required ??
         //setProvisionList(container, javaArtifacts);
         return javaArtifacts;
@@ -524,7 +567,7 @@ public class ProcessManagerController implements ChildContainerController {
         Set<String> profileIds = options.getProfiles();
         String versionId = options.getVersion();
         Map<String, String> configuration = Profiles.getOverlayConfiguration(fabricService, profileIds, versionId, Constants.PROCESS_CONTAINER_PID);
-        JolokiaAgentHelper.substituteEnvironmentVariableExpressions(configuration, environmentVariables, fabricService, curator, true);
+        substituteEnvironmentVariableExpressions(options, configuration, environmentVariables);
         ProcessContainerConfig configObject = new ProcessContainerConfig();
         configurer.configure(configuration, configObject);
         return configObject;
@@ -543,7 +586,7 @@ public class ProcessManagerController implements ChildContainerController {
         }
 
         if (!configObject.isInternalAgent()) {
-            Map<String, File> javaArtifacts = JavaContainers.getJavaContainerArtifactsFiles(fabricService, profiles, downloadExecutor);
+            Map<String, File> javaArtifacts = JavaContainers.getJavaContainerArtifactsFiles(fabricService, profiles, resolutionCache.getDownloadManager(fabricService));
             if (!javaArtifacts.isEmpty()) {
                 Map<String, String> contextPathConfiguration = Profiles.getOverlayConfiguration(fabricService, profileIds, versionId, Constants.WEB_CONTEXT_PATHS_PID);
 
@@ -597,7 +640,7 @@ public class ProcessManagerController implements ChildContainerController {
                 if (variables == null) {
                     variables = new HashMap();
                 } else {
-                    JolokiaAgentHelper.substituteEnvironmentVariableExpressions(variables, environmentVariables, fabricService, curator, true);
+                    substituteEnvironmentVariableExpressions(options, variables, environmentVariables);
                 }
                 variables.putAll(environmentVariables);
                 LOG.info("Using template variables for MVEL: " + variables);
@@ -732,7 +775,7 @@ public class ProcessManagerController implements ChildContainerController {
             Map<String, String> exportConfig = entry.getValue();
 
             if (exportConfig != null && !exportConfig.isEmpty()) {
-                JolokiaAgentHelper.substituteEnvironmentVariableExpressions(exportConfig, environmentVariables, fabricService, curator, true);
+                substituteEnvironmentVariableExpressions(options, exportConfig, environmentVariables);
                 ZooKeeperPublishConfig config = new ZooKeeperPublishConfig();
                 try {
                     configurer.configure(exportConfig, config);
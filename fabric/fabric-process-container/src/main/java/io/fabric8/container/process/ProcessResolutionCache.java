@@ -0,0 +1,277 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.container.process;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.fabric8.agent.download.DownloadManager;
+import io.fabric8.agent.download.DownloadManagers;
+import io.fabric8.api.CreateChildContainerOptions;
+import io.fabric8.api.FabricService;
+import io.fabric8.api.Profile;
+import io.fabric8.api.ProfileService;
+import io.fabric8.api.Version;
+import io.fabric8.api.jcip.ThreadSafe;
+import org.apache.curator.framework.CuratorFramework;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The state shared by all the {@link ProcessManagerController} instances of a host: the download manager and its thread pool
+ * so that artifacts are resolved in parallel and only once, and the fingerprints of the profiles each installation was last
+ * updated from.
+ */
+@ThreadSafe
+public class ProcessResolutionCache {
+    public static final int DEFAULT_DOWNLOAD_THREADS = 4;
+
+    private final AtomicReference<DownloadManager> downloadManager = new AtomicReference<>();
+    private final ConcurrentMap<String, String> installedFingerprints = new ConcurrentHashMap<>();
+    private int downloadThreads = DEFAULT_DOWNLOAD_THREADS;
+    private ScheduledExecutorService downloadExecutor;
+
+    public synchronized void setDownloadThreads(int downloadThreads) {
+        this.downloadThreads = Math.max(1, downloadThreads);
+    }
+
+    /**
+     * Returns the executor the artifacts are downloaded with, creating it on first use
+     */
+    public synchronized ScheduledExecutorService getDownloadExecutor() {
+        if (downloadExecutor == null) {
+            downloadExecutor = Executors.newScheduledThreadPool(downloadThreads,
+                    new ThreadFactoryBuilder().setNameFormat("fabric8-process-download-%d").setDaemon(true).build());
+        }
+        return downloadExecutor;
+    }
+
+    /**
+     * Returns the download manager shared by all installations until the next configuration change
+     */
+    public DownloadManager getDownloadManager(FabricService fabricService) {
+        DownloadManager answer = downloadManager.get();
+        if (answer == null) {
+            answer = DownloadManagers.createDownloadManager(fabricService, getDownloadExecutor());
+            if (!downloadManager.compareAndSet(null, answer)) {
+                answer = downloadManager.get();
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * The maven configuration may have changed so the next download creates a new download manager
+     */
+    public void configurationChanged() {
+        downloadManager.set(null);
+    }
+
+    /**
+     * Returns a fingerprint of the given container and the hashes of its profiles and all their parents
+     * or null if the profiles cannot be found
+     */
+    public static String getProfilesFingerprint(FabricService fabricService, CreateChildContainerOptions options) {
+        if (fabricService == null) {
+            return null;
+        }
+        Version version;
+        String versionId = options.getVersion();
+        try {
+            if (versionId == null) {
+                version = fabricService.getRequiredDefaultVersion();
+            } else {
+                version = fabricService.adapt(ProfileService.class).getRequiredVersion(versionId);
+            }
+        } catch (Exception e) {
+            return null;
+        }
+        if (version == null || options.getProfiles() == null) {
+            return null;
+        }
+        SortedMap<String, String> profileHashes = new TreeMap<>();
+        Deque<String> profileIds = new ArrayDeque<>(options.getProfiles());
+        while (!profileIds.isEmpty()) {
+            String profileId = profileIds.pop();
+            if (profileHashes.containsKey(profileId)) {
+                continue;
+            }
+            Profile profile = version.getProfile(profileId);
+            if (profile == null) {
+                return null;
+            }
+            String profileHash = profile.getProfileHash();
+            profileHashes.put(profileId, profileHash != null ? profileHash : "");
+            profileIds.addAll(profile.getParentIds());
+        }
+        Hasher hasher = Hashing.sha1().newHasher();
+        putString(hasher, options.getName());
+        putString(hasher, version.getId());
+        putMap(hasher, profileHashes);
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Returns true if installing the container depends on more than its profiles: SNAPSHOT artifacts which may have been
+     * redeployed or ZooKeeper values substituted into its configuration, so it cannot be skipped when its profiles are unchanged
+     */
+    public static boolean hasVolatileInputs(FabricService fabricService, CreateChildContainerOptions options) {
+        if (fabricService == null) {
+            return true;
+        }
+        try {
+            String versionId = options.getVersion();
+            ProfileService profileService = fabricService.adapt(ProfileService.class);
+            Version version = versionId == null ? fabricService.getRequiredDefaultVersion() : profileService.getRequiredVersion(versionId);
+            if (version == null || options.getProfiles() == null) {
+                return true;
+            }
+            for (String profileId : options.getProfiles()) {
+                Profile profile = version.getProfile(profileId);
+                if (profile == null) {
+                    return true;
+                }
+                Profile overlay = profileService.getOverlayProfile(profile);
+                for (Map<String, String> configuration : overlay.getConfigurations().values()) {
+                    for (String value : configuration.values()) {
+                        if (value != null && (value.contains("SNAPSHOT") || value.contains("${zk:"))) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the fingerprint of an installation from the fingerprint of its profiles and the environment variables
+     * it preserves between updates
+     */
+    public static String getInstallationFingerprint(String profilesFingerprint, Map<String, String> environmentVariables) {
+        if (profilesFingerprint == null) {
+            return null;
+        }
+        Hasher hasher = Hashing.sha1().newHasher();
+        putString(hasher, profilesFingerprint);
+        putMap(hasher, environmentVariables);
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Returns true if the container was last installed or updated from the given fingerprint
+     */
+    public boolean isInstalled(String containerId, String fingerprint) {
+        return fingerprint != null && fingerprint.equals(installedFingerprints.get(containerId));
+    }
+
+    public void installed(String containerId, String fingerprint) {
+        if (fingerprint != null) {
+            installedFingerprints.put(containerId, fingerprint);
+        } else {
+            installedFingerprints.remove(containerId);
+        }
+    }
+
+    public void uninstalled(String containerId) {
+        installedFingerprints.remove(containerId);
+    }
+
+    /**
+     * Forgets the fingerprints of the containers which are no longer installed
+     */
+    public void retainInstalled(Collection<String> containerIds) {
+        installedFingerprints.keySet().retainAll(containerIds);
+    }
+
+    /**
+     * Stops the downloads and forgets all the cached state
+     */
+    public void close() {
+        synchronized (this) {
+            if (downloadExecutor != null) {
+                downloadExecutor.shutdownNow();
+                downloadExecutor = null;
+            }
+        }
+        downloadManager.set(null);
+        installedFingerprints.clear();
+    }
+
+    /**
+     * Remembers the results of the environment variable substitutions of a single install or update of a container,
+     * so that the same configuration is only substituted once while the next install or update reads the ZooKeeper values again
+     */
+    public static class Substitutions {
+        private final Map<String, Map<String, String>> results = new HashMap<>();
+
+        /**
+         * Substitutes the environment variable expressions in the given map, reusing the result of a previous substitution
+         * of the same map and environment variables for the same profiles fingerprint
+         */
+        public synchronized void substituteEnvironmentVariableExpressions(String profilesFingerprint, Map<String, String> map, Map<String, String> environmentVariables,
+                                                                          FabricService fabricService, CuratorFramework curator) {
+            if (profilesFingerprint == null) {
+                JolokiaAgentHelper.substituteEnvironmentVariableExpressions(map, environmentVariables, fabricService, curator, true);
+                return;
+            }
+            Hasher hasher = Hashing.sha1().newHasher();
+            putString(hasher, profilesFingerprint);
+            putMap(hasher, map);
+            putMap(hasher, environmentVariables);
+            String key = hasher.hash().toString();
+            Map<String, String> answer = results.get(key);
+            if (answer == null) {
+                JolokiaAgentHelper.substituteEnvironmentVariableExpressions(map, environmentVariables, fabricService, curator, true);
+                results.put(key, Collections.unmodifiableMap(new HashMap<>(map)));
+            } else {
+                map.putAll(answer);
+            }
+        }
+    }
+
+    private static void putMap(Hasher hasher, Map<String, String> map) {
+        if (map != null) {
+            for (Map.Entry<String, String> entry : new TreeMap<>(map).entrySet()) {
+                putString(hasher, entry.getKey());
+                putString(hasher, entry.getValue());
+            }
+        }
+        hasher.putByte((byte) 1);
+    }
+
+    private static void putString(Hasher hasher, String value) {
+        if (value != null) {
+            hasher.putString(value, Charsets.UTF_8);
+        }
+        hasher.putByte((byte) 0);
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.container.process;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.fabric8.api.Container;
+import io.fabric8.api.FabricService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+public class JolokiaKeepAliveProberTest extends Assert {
+
+    JolokiaKeepAliveProber prober = new JolokiaKeepAliveProber(2, 1000);
+
+    @After
+    public void after() {
+        prober.close();
+    }
+
+    @Test
+    public void shouldBackOffForUnchangedContainers() {
+        // Given
+        JolokiaKeepAliveProber.ProbeState state = prober.getState("c1");
+
+        // When
+        List<Boolean> checks = new ArrayList<>();
+        for (int sweep = 0; sweep < 24; sweep++) {
+            boolean due = state.startIfDue();
+            checks.add(due);
+            if (due) {
+                state.done(true);
+            }
+        }
+
+        // Then
+        assertEquals("[true, true, false, true, false, false, false, true, false, false, false, false, false, false, false, "
+                + "true, false, false, false, false, false, false, false, true]", checks.toString());
+    }
+
+    @Test
+    public void shouldCheckChangedContainersOnEverySweep() {
+        // Given
+        JolokiaKeepAliveProber.ProbeState state = prober.getState("c1");
+        for (int i = 0; i < 3; i++) {
+            state.startIfDue();
+            state.done(true);
+        }
+
+        // When
+        while (!state.startIfDue()) {
+        }
+        state.done(false);
+
+        // Then
+        assertTrue(state.startIfDue());
+    }
+
+    @Test
+    public void shouldNotStartRunningCheckAgain() {
+        JolokiaKeepAliveProber.ProbeState state = prober.getState("c1");
+        assertTrue(state.startIfDue());
+        assertFalse(state.startIfDue());
+        state.done(false);
+        assertTrue(state.startIfDue());
+    }
+
+    @Test
+    public void shouldNotProbeOnceClosed() {
+        // Given
+        Container container = mock(Container.class);
+        given(container.getId()).willReturn("c1");
+        given(container.getJolokiaUrl()).willReturn("http://localhost:1/jolokia/");
+        prober.close();
+
+        // When
+        Map<String, List<String>> newZkPaths = prober.probe(null, mock(FabricService.class), Arrays.asList(new JolokiaKeepAliveProber.Target(container, null, null)), 1000);
+
+        // Then
+        assertTrue(newZkPaths.isEmpty());
+        assertTrue(prober.getState("c1").startIfDue());
+    }
+
+    @Test
+    public void shouldPostBulkRequestOnKeptAliveConnection() throws Exception {
+        // Given
+        final List<String> requests = new ArrayList<>();
+        final Set<Integer> clientPorts = new HashSet<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/jolokia/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.add(exchange.getRequestMethod() + " " + exchange.getRequestHeaders().getFirst("Authorization") + " " + read(exchange.getRequestBody()));
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                byte[] response = "[{\"value\":{\"java.lang\":{},\"Catalina\":{}},\"status\":200},{\"status\":404}]".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(response);
+                os.close();
+            }
+        });
+        server.start();
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/jolokia/";
+
+            // When
+            JsonNode first = JolokiaAgentHelper.postJson(url, "[{\"type\":\"list\"}]", "admin", "secret", 1000);
+            JsonNode second = JolokiaAgentHelper.postJson(url, "[{\"type\":\"list\"}]", "admin", "secret", 1000);
+
+            // Then
+            assertTrue(first.isArray());
+            assertEquals(2, second.size());
+            assertTrue(second.get(0).get("value").has("Catalina"));
+            assertEquals("POST Basic YWRtaW46c2VjcmV0 [{\"type\":\"list\"}]", requests.get(0));
+            assertEquals(2, requests.size());
+            assertEquals(1, clientPorts.size());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static String read(InputStream is) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] bytes = new byte[1024];
+        int count;
+        while ((count = is.read(bytes)) > 0) {
+            buffer.write(bytes, 0, count);
+        }
+        return buffer.toString("UTF-8");
+    }
+}
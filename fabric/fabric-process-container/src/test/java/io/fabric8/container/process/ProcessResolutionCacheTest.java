@@ -0,0 +1,211 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.container.process;
+
+import io.fabric8.api.CreateChildContainerOptions;
+import io.fabric8.api.FabricService;
+import io.fabric8.api.Profile;
+import io.fabric8.api.ProfileService;
+import io.fabric8.api.Version;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+public class ProcessResolutionCacheTest extends Assert {
+
+    // Collaborators fixtures
+
+    FabricService fabricService = mock(FabricService.class);
+
+    ProfileService profileService = mock(ProfileService.class);
+
+    Version version = mock(Version.class);
+
+    Profile childProfile = mock(Profile.class);
+
+    Profile parentProfile = mock(Profile.class);
+
+    Profile overlayProfile = mock(Profile.class);
+
+    Map<String, Map<String, String>> overlayConfigurations = new HashMap<String, Map<String, String>>();
+
+    CreateChildContainerOptions containerOptions = new CreateChildContainerOptions.Builder().name("child1").version("1.0").profiles("child").build();
+
+    Map<String, String> proxyPorts = new HashMap<String, String>();
+
+    // Test subject fixture
+
+    ProcessResolutionCache resolutionCache = new ProcessResolutionCache();
+
+    ProcessResolutionCache.Substitutions substitutions = new ProcessResolutionCache.Substitutions();
+
+    // Fixtures setup
+
+    @Before
+    public void before() {
+        given(fabricService.adapt(ProfileService.class)).willReturn(profileService);
+        given(profileService.getRequiredVersion("1.0")).willReturn(version);
+        given(version.getId()).willReturn("1.0");
+        given(version.getProfile("child")).willReturn(childProfile);
+        given(version.getProfile("parent")).willReturn(parentProfile);
+        given(childProfile.getProfileHash()).willReturn("child-1");
+        given(childProfile.getParentIds()).willReturn(Arrays.asList("parent"));
+        given(parentProfile.getProfileHash()).willReturn("parent-1");
+        given(parentProfile.getParentIds()).willReturn(Collections.<String>emptyList());
+        given(profileService.getOverlayProfile(childProfile)).willReturn(overlayProfile);
+        given(overlayProfile.getConfigurations()).willReturn(overlayConfigurations);
+        overlayConfigurations.put("io.fabric8.agent", configuration("bundle.app", "mvn:io.fabric8/app/1.0"));
+
+        proxyPorts.put("FABRIC8_HTTP_PROXY_PORT", "9000");
+    }
+
+    // Tests
+
+    @Test
+    public void shouldSkipUpdateWhenProfilesAreUnchanged() {
+        // Given
+        resolutionCache.installed("child1", installationFingerprint());
+
+        // When
+        boolean installed = resolutionCache.isInstalled("child1", installationFingerprint());
+
+        // Then
+        assertTrue(installed);
+    }
+
+    @Test
+    public void shouldUpdateWhenParentProfileChanged() {
+        // Given
+        resolutionCache.installed("child1", installationFingerprint());
+        given(parentProfile.getProfileHash()).willReturn("parent-2");
+
+        // When
+        boolean installed = resolutionCache.isInstalled("child1", installationFingerprint());
+
+        // Then
+        assertFalse(installed);
+    }
+
+    @Test
+    public void shouldUpdateWhenPreservedEnvironmentChanged() {
+        // Given
+        resolutionCache.installed("child1", installationFingerprint());
+        proxyPorts.put("FABRIC8_HTTP_PROXY_PORT", "9001");
+
+        // When
+        boolean installed = resolutionCache.isInstalled("child1", installationFingerprint());
+
+        // Then
+        assertFalse(installed);
+    }
+
+    @Test
+    public void shouldUpdateWhenProfileIsMissing() {
+        // Given
+        resolutionCache.installed("child1", installationFingerprint());
+        given(version.getProfile("parent")).willReturn(null);
+
+        // When
+        String fingerprint = installationFingerprint();
+
+        // Then
+        assertNull(fingerprint);
+        assertFalse(resolutionCache.isInstalled("child1", fingerprint));
+    }
+
+    @Test
+    public void shouldUpdateUninstalledContainer() {
+        // Given
+        resolutionCache.installed("child1", installationFingerprint());
+
+        // When
+        resolutionCache.uninstalled("child1");
+
+        // Then
+        assertFalse(resolutionCache.isInstalled("child1", installationFingerprint()));
+    }
+
+    @Test
+    public void shouldNotSkipSnapshotArtifacts() {
+        // Given
+        assertFalse(ProcessResolutionCache.hasVolatileInputs(fabricService, containerOptions));
+        overlayConfigurations.put("io.fabric8.agent", configuration("bundle.app", "mvn:io.fabric8/app/1.1-SNAPSHOT"));
+
+        // When
+        boolean volatileInputs = ProcessResolutionCache.hasVolatileInputs(fabricService, containerOptions);
+
+        // Then
+        assertTrue(volatileInputs);
+    }
+
+    @Test
+    public void shouldNotSkipZooKeeperValues() {
+        // Given
+        overlayConfigurations.put("io.fabric8.environment", configuration("BROKER_URL", "${zk:broker/url}"));
+
+        // When
+        boolean volatileInputs = ProcessResolutionCache.hasVolatileInputs(fabricService, containerOptions);
+
+        // Then
+        assertTrue(volatileInputs);
+    }
+
+    @Test
+    public void shouldSubstituteWithTheGivenEnvironmentVariables() {
+        // Given
+        String profilesFingerprint = ProcessResolutionCache.getProfilesFingerprint(fabricService, containerOptions);
+        Map<String, String> environmentVariables = new HashMap<String, String>();
+        environmentVariables.put("FABRIC8_LISTEN_ADDRESS", "host1");
+
+        // When
+        Map<String, String> first = substitute(profilesFingerprint, environmentVariables);
+        Map<String, String> cached = substitute(profilesFingerprint, environmentVariables);
+        environmentVariables.put("FABRIC8_LISTEN_ADDRESS", "host2");
+        Map<String, String> changed = substitute(profilesFingerprint, environmentVariables);
+
+        // Then
+        assertEquals("http://host1/", first.get("url"));
+        assertEquals("http://host1/", cached.get("url"));
+        assertEquals("http://host2/", changed.get("url"));
+    }
+
+    private String installationFingerprint() {
+        String profilesFingerprint = ProcessResolutionCache.getProfilesFingerprint(fabricService, containerOptions);
+        return ProcessResolutionCache.getInstallationFingerprint(profilesFingerprint, proxyPorts);
+    }
+
+    private Map<String, String> substitute(String profilesFingerprint, Map<String, String> environmentVariables) {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("url", "http://${env:FABRIC8_LISTEN_ADDRESS}/");
+        substitutions.substituteEnvironmentVariableExpressions(profilesFingerprint, map, environmentVariables, null, null);
+        return map;
+    }
+
+    private static Map<String, String> configuration(String key, String value) {
+        Map<String, String> answer = new HashMap<String, String>();
+        answer.put(key, value);
+        return answer;
+    }
+
+}
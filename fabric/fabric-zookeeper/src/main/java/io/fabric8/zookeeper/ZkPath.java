@@ -85,8 +85,10 @@ public enum ZkPath {
     CONTAINER                      ("/fabric/registry/containers/config/{container}"),
     CONTAINER_DOMAINS              ("/fabric/registry/containers/domains/{container}"),
     CONTAINER_DOMAIN               ("/fabric/registry/containers/domains/{container}/{domain}"),
+    CONTAINERS_ALIVE               ("/fabric/registry/containers/alive"),
     CONTAINER_ALIVE                ("/fabric/registry/containers/alive/{container}"),
     CONTAINER_PROCESS_ID           ("/fabric/registry/containers/status/{container}/pid"),
+    CONTAINERS_PROVISION           ("/fabric/registry/containers/provision"),
     CONTAINER_PROVISION            ("/fabric/registry/containers/provision/{container}"),
     CONTAINER_PROVISION_LIST       ("/fabric/registry/containers/provision/{container}/list"),
     CONTAINER_PROVISION_CHECKSUMS  ("/fabric/registry/containers/provision/{container}/checksums"),
@@ -192,14 +194,26 @@ public enum ZkPath {
      */
     public static byte[] loadURL(CuratorFramework curator, String url) throws Exception {
         URI uri = new URI(url);
-        String ref = uri.getFragment();
+        String path = getURLPath(uri);
+        return getURLFragment(path, uri.getFragment(), curator.getData().forPath(path));
+    }
+
+    /**
+     * Returns the absolute path of the node a zoo keeper URL points to.
+     */
+    public static String getURLPath(URI uri) {
         String path = uri.getSchemeSpecificPart();
         path = path.trim();
         if( !path.startsWith("/") ) {
             path = ZkPath.CONTAINER.getPath(path);
         }
+        return path;
+    }
 
-        byte rc [] = curator.getData().forPath(path);
+    /**
+     * Extracts the value a zoo keeper URL fragment refers to from the content of the node at the given path.
+     */
+    public static byte[] getURLFragment(String path, String ref, byte[] rc) throws IOException {
         if( ref!=null ) {
             if( path.endsWith(".properties") ) {
                 Properties properties = new Properties();
@@ -48,6 +48,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Exchanger;
 import java.util.concurrent.ExecutionException;
@@ -55,6 +56,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -76,18 +78,26 @@ public class TreeCache implements Closeable
     private final boolean cacheData;
     private final boolean diffData;
     private final boolean dataIsCompressed;
+    private final TreeDataStorage storage;
     private final EnsurePath ensurePath;
     private final BlockingQueue<Operation> operations = new PriorityBlockingQueue<Operation>(10, new OperationComparator());
     private final ListenerContainer<PathChildrenCacheListener> listeners = new ListenerContainer<PathChildrenCacheListener>();
 
+    // set while getCurrentData(String, AtomicBoolean) runs, to tell the caller whether the loader ran
+    private final ThreadLocal<AtomicBoolean> loadedFlag = new ThreadLocal<AtomicBoolean>();
+
     private final LoadingCache<String, TreeData> currentData = CacheBuilder.newBuilder().build(new CacheLoader<String, TreeData>() {
         @Override
         public TreeData load(String key) throws Exception {
+            AtomicBoolean loaded = loadedFlag.get();
+            if (loaded != null) {
+                loaded.set(true);
+            }
             Stat stat = client.checkExists().forPath(key);
             if (stat!= null) {
                 byte[] bytes = dataIsCompressed ? client.getData().decompressed().usingWatcher(watcher).forPath(key) : client.getData().usingWatcher(watcher).forPath(key);
                 List<String> children = client.getChildren().usingWatcher(watcher).forPath(key);
-                return  new TreeData(key, stat, bytes, children);
+                return newTreeData(key, stat, bytes, children);
             } else {
                 return null;
             }
@@ -220,6 +230,19 @@ public class TreeCache implements Closeable
      * @param executorService  ExecutorService to use for the PathChildrenCache's background thread
      */
     public TreeCache(CuratorFramework client, String path, boolean cacheData, boolean dataIsCompressed, boolean diffData, final ExecutorService executorService)
+    {
+        this(client, path, cacheData, dataIsCompressed, diffData, executorService, null);
+    }
+
+    /**
+     * @param client           the client
+     * @param path             path to watch
+     * @param cacheData        if true, node contents are cached in addition to the stat
+     * @param dataIsCompressed if true, data in the path is compressed
+     * @param executorService  ExecutorService to use for the PathChildrenCache's background thread
+     * @param storage          if not null, node contents are deduplicated and compressed in this storage, which may be shared by several caches
+     */
+    public TreeCache(CuratorFramework client, String path, boolean cacheData, boolean dataIsCompressed, boolean diffData, final ExecutorService executorService, TreeDataStorage storage)
     {
         this.client = client;
         this.path = path;
@@ -227,6 +250,7 @@ public class TreeCache implements Closeable
         this.diffData = diffData;
         this.dataIsCompressed = dataIsCompressed;
         this.executorService = executorService;
+        this.storage = storage;
         ensurePath = client.newNamespaceAwareEnsurePath(path);
     }
 
@@ -436,6 +460,24 @@ public class TreeCache implements Closeable
         }
     }
 
+    /**
+     * Same as {@link #getCurrentData(String)}, also telling whether the node was missing from the cache
+     * or stale so that this call had to read it from ZooKeeper.
+     *
+     * @param fullPath full path to the node to check
+     * @param loaded set to true if this call read the node from ZooKeeper
+     * @return data or null
+     */
+    public TreeData getCurrentData(String fullPath, AtomicBoolean loaded)
+    {
+        loadedFlag.set(loaded);
+        try {
+            return getCurrentData(fullPath);
+        } finally {
+            loadedFlag.remove();
+        }
+    }
+
 
     public List<TreeData> getChildren(String fullPath)
     {
@@ -456,6 +498,78 @@ public class TreeCache implements Closeable
         return Lists.newArrayList();
     }
 
+    /**
+     * Marks the cached node and its parent as stale, so that the next call to
+     * {@link #getCurrentData(String)} reloads them from ZooKeeper. Use this after writing
+     * to a cached path to read your own writes without waiting for the watch to fire.
+     *
+     * @param fullPath the path of the node that was written
+     */
+    public void invalidate(String fullPath)
+    {
+        TreeData data = currentData.getIfPresent(fullPath);
+        if ( data != null )
+        {
+            data.invalidate();
+        }
+        Optional<String> parent = getParentOf(fullPath);
+        if ( parent.isPresent() )
+        {
+            TreeData parentData = currentData.getIfPresent(parent.get());
+            if ( parentData != null )
+            {
+                parentData.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Returns the memory used by this cache: the number of nodes, the size of their data
+     * and the number of bytes actually kept for it, which is lower when a {@link TreeDataStorage} is used.
+     *
+     * @return the footprint counters
+     */
+    public Map<String, Object> getFootprint()
+    {
+        long nodes = 0;
+        long dataBytes = 0;
+        long storedBytes = 0;
+        long offHeapBytes = 0;
+        Set<Object> seen = Sets.newIdentityHashSet();
+        for ( TreeData data : currentData.asMap().values() )
+        {
+            nodes++;
+            if ( data.getStat() != null )
+            {
+                dataBytes += data.getStat().getDataLength();
+            }
+            TreeDataStorage.StoredData stored = data.getStoredData();
+            if ( stored == null )
+            {
+                storedBytes += data.getStoredLength();
+            }
+            else if ( seen.add(stored) )
+            {
+                // shared payloads are only counted once
+                storedBytes += stored.getStoredLength();
+                if ( stored.isOffHeap() )
+                {
+                    offHeapBytes += stored.getStoredLength();
+                }
+            }
+        }
+        Map<String, Object> answer = new TreeMap<String, Object>();
+        answer.put("nodes", nodes);
+        answer.put("dataBytes", dataBytes);
+        answer.put("storedBytes", storedBytes);
+        answer.put("offHeapBytes", offHeapBytes);
+        if ( storage != null )
+        {
+            answer.putAll(storage.getStatistics());
+        }
+        return answer;
+    }
+
     /**
      * As a memory optimization, you can clear the cached data bytes for a node. Subsequent
      * calls to {@link ChildData#getData()} for this node will return <code>null</code>.
@@ -609,7 +723,7 @@ public class TreeCache implements Closeable
                 Stat stat = new Stat();
                 byte[] bytes = dataIsCompressed ? client.getData().decompressed().storingStatIn(stat).forPath(fullPath) : client.getData().storingStatIn(stat).forPath(fullPath);
                 List<String> children = client.getChildren().forPath(fullPath);
-                currentData.put(fullPath, new TreeData(fullPath, stat, bytes, children));
+                currentData.put(fullPath, newTreeData(fullPath, stat, bytes, children));
                 for (String child : children) {
                     String childPath = ZKPaths.makePath(fullPath, child);
                     internalRebuildNode(childPath);
@@ -628,7 +742,7 @@ public class TreeCache implements Closeable
             if ( stat != null )
             {
                 List<String> children = client.getChildren().forPath(fullPath);
-                currentData.put(fullPath, new TreeData(fullPath, stat, null, children));
+                currentData.put(fullPath, newTreeData(fullPath, stat, null, children));
                 for (String child : children) {
                     String childPath = ZKPaths.makePath(fullPath, child);
                     internalRebuildNode(childPath);
@@ -753,7 +867,7 @@ public class TreeCache implements Closeable
     {
         if ( resultCode == KeeperException.Code.OK.intValue() ) // otherwise - node must have dropped or something - we should be getting another event
         {
-            TreeData data = new TreeData(fullPath, stat, bytes, children);
+            TreeData data = newTreeData(fullPath, stat, bytes, children);
             TreeData previousData;
 
             synchronized (this) {
@@ -768,7 +882,7 @@ public class TreeCache implements Closeable
             }
             else if ( previousData.getStat().getVersion() != stat.getVersion() )
             {
-                if (!diffData || !Arrays.equals(data.getData(), previousData.getData())) {
+                if (!diffData || !(data.hasSameStoredData(previousData) || Arrays.equals(data.getData(), previousData.getData()))) {
                     offerOperation(new TreeEventOperation(this, new PathChildrenCacheEvent(PathChildrenCacheEvent.Type.CHILD_UPDATED, data)));
                 }
             }
@@ -854,6 +968,11 @@ public class TreeCache implements Closeable
         operations.offer(operation);
     }
 
+    private TreeData newTreeData(String fullPath, Stat stat, byte[] bytes, List<String> children)
+    {
+        return new TreeData(fullPath, stat, bytes, children, storage);
+    }
+
     private Optional<String> getParentOf(String path) {
         if (path == null || path.equals("/")) {
             return Optional.absent();
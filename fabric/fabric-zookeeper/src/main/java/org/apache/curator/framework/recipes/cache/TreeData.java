@@ -19,26 +19,77 @@ import org.apache.zookeeper.data.Stat;
 
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 public class TreeData extends ChildData {
 
-    private final Set<String> children = new HashSet<String>();
+    private final Set<String> children = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final TreeDataStorage storage;
+    private volatile TreeDataStorage.StoredData stored;
     private volatile boolean invalidated;
 
     public TreeData(String path, Stat stat, byte[] data)
     {
         super(path, stat, data);
+        this.storage = null;
     }
 
     public TreeData(String path, Stat stat, byte[] data, Collection<String> children) {
-        super(path, stat, data);
+        this(path, stat, data, children, null);
+    }
+
+    /**
+     * @param storage if not null, the data is kept in the given storage instead of this node
+     */
+    public TreeData(String path, Stat stat, byte[] data, Collection<String> children, TreeDataStorage storage) {
+        super(path, stat, storage != null ? null : data);
+        this.storage = storage;
+        this.stored = storage != null ? storage.store(data) : null;
         this.children.addAll(children);
     }
 
+    @Override
+    public byte[] getData() {
+        if (storage == null) {
+            return super.getData();
+        }
+        TreeDataStorage.StoredData current = stored;
+        return current != null ? storage.load(current) : null;
+    }
+
+    @Override
+    protected void clearData() {
+        super.clearData();
+        stored = null;
+    }
+
+    /**
+     * Returns true if both nodes are known to hold the same data without comparing it byte by byte.
+     */
+    boolean hasSameStoredData(TreeData other) {
+        return storage != null && storage == other.storage && stored != null && stored == other.stored;
+    }
+
+    /**
+     * Returns the number of bytes this node uses to keep its data.
+     */
+    int getStoredLength() {
+        if (storage == null) {
+            byte[] data = super.getData();
+            return data != null ? data.length : 0;
+        }
+        TreeDataStorage.StoredData current = stored;
+        return current != null ? current.getStoredLength() : 0;
+    }
+
+    TreeDataStorage.StoredData getStoredData() {
+        return stored;
+    }
+
     public boolean isInvalidated() {
         return invalidated;
     }
@@ -0,0 +1,199 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package org.apache.curator.framework.recipes.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>Compact storage for the node data of one or more {@link TreeCache}s.</p>
+ * <p>Identical payloads are stored once, payloads larger than the compression threshold are kept deflated
+ * (optionally in direct buffers, outside of the heap) and only the most recently read payloads are kept inflated.
+ * Payloads are inflated lazily on the first {@link ChildData#getData()} of a node, which returns a copy
+ * so that callers can not alter the payload shared with other nodes.</p>
+ */
+public final class TreeDataStorage {
+
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+    public static final int DEFAULT_MAX_INFLATED_ENTRIES = 256;
+
+    private final int compressionThreshold;
+    private final boolean offHeap;
+    private final Interner<StoredData> interner = Interners.newWeakInterner();
+    // keyed by identity, interned payloads are shared so this also shares the inflated copies
+    private final Cache<StoredData, byte[]> inflated;
+
+    public TreeDataStorage() {
+        this(DEFAULT_COMPRESSION_THRESHOLD, DEFAULT_MAX_INFLATED_ENTRIES, false);
+    }
+
+    /**
+     * @param compressionThreshold payloads of at least this many bytes are compressed
+     * @param maxInflatedEntries   the maximum number of compressed payloads that are kept inflated
+     * @param offHeap              if true, compressed payloads are kept in direct buffers
+     */
+    public TreeDataStorage(int compressionThreshold, int maxInflatedEntries, boolean offHeap) {
+        this.compressionThreshold = compressionThreshold;
+        this.offHeap = offHeap;
+        this.inflated = CacheBuilder.newBuilder().weakKeys().maximumSize(maxInflatedEntries).recordStats().build();
+    }
+
+    StoredData store(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        StoredData stored;
+        if (data.length >= compressionThreshold) {
+            byte[] compressed = deflate(data);
+            stored = compressed.length < data.length
+                    ? new StoredData(data.length, true, wrap(compressed))
+                    : new StoredData(data.length, false, wrap(data));
+        } else {
+            stored = new StoredData(data.length, false, ByteBuffer.wrap(data));
+        }
+        return interner.intern(stored);
+    }
+
+    /**
+     * Returns a copy of the payload, as the stored one is shared by all the nodes holding the same data.
+     */
+    byte[] load(StoredData stored) {
+        if (!stored.compressed) {
+            return copy(stored.buffer);
+        }
+        byte[] data = inflated.getIfPresent(stored);
+        if (data == null) {
+            data = inflate(stored);
+            inflated.put(stored, data);
+        }
+        return data.clone();
+    }
+
+    /**
+     * Returns the counters of the inflated payloads cache.
+     */
+    public Map<String, Object> getStatistics() {
+        CacheStats stats = inflated.stats();
+        Map<String, Object> answer = new TreeMap<String, Object>();
+        answer.put("inflatedEntries", inflated.size());
+        answer.put("inflateHits", stats.hitCount());
+        answer.put("inflateMisses", stats.missCount());
+        answer.put("inflateEvictions", stats.evictionCount());
+        return answer;
+    }
+
+    private ByteBuffer wrap(byte[] data) {
+        if (!offHeap) {
+            return ByteBuffer.wrap(data);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] copy(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(StoredData stored) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored.buffer.hasArray() ? stored.buffer.array() : copy(stored.buffer));
+            byte[] data = new byte[stored.length];
+            int offset = 0;
+            while (offset < data.length && !inflater.finished()) {
+                offset += inflater.inflate(data, offset, data.length - offset);
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Unable to inflate cached node data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * A stored payload. Instances are interned, so two nodes with the same data share the same instance.
+     */
+    static final class StoredData {
+
+        final int length;
+        final boolean compressed;
+        final ByteBuffer buffer;
+        private final int hash;
+
+        StoredData(int length, boolean compressed, ByteBuffer buffer) {
+            this.length = length;
+            this.compressed = compressed;
+            this.buffer = buffer;
+            this.hash = 31 * buffer.hashCode() + length;
+        }
+
+        /**
+         * Returns the number of bytes used to keep this payload.
+         */
+        int getStoredLength() {
+            return buffer.capacity();
+        }
+
+        boolean isOffHeap() {
+            return buffer.isDirect();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof StoredData)) return false;
+            StoredData other = (StoredData) o;
+            return hash == other.hash && length == other.length && compressed == other.compressed && buffer.equals(other.buffer);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package org.apache.curator.framework.recipes.cache;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TreeDataStorageTest {
+
+    @Test
+    public void testIdenticalPayloadsAreStoredOnce() {
+        TreeDataStorage storage = new TreeDataStorage();
+        TreeDataStorage.StoredData first = storage.store("endpoint".getBytes());
+        TreeDataStorage.StoredData second = storage.store("endpoint".getBytes());
+        assertSame(first, second);
+        assertFalse(first.compressed);
+        assertArrayEquals("endpoint".getBytes(), storage.load(second));
+        assertNull(storage.store(null));
+    }
+
+    @Test
+    public void testLargePayloadsAreCompressed() {
+        byte[] data = new byte[64 * 1024];
+        Arrays.fill(data, (byte) 'a');
+        for (boolean offHeap : new boolean[]{false, true}) {
+            TreeDataStorage storage = new TreeDataStorage(1024, 1, offHeap);
+            TreeDataStorage.StoredData stored = storage.store(data);
+            assertTrue(stored.compressed);
+            assertEquals(offHeap, stored.isOffHeap());
+            assertTrue(stored.getStoredLength() < data.length);
+            assertArrayEquals(data, storage.load(stored));
+            // the inflated copy is cached
+            storage.load(stored);
+            assertEquals(1L, storage.getStatistics().get("inflateHits"));
+        }
+    }
+
+    @Test
+    public void testLoadedPayloadsAreCopies() {
+        byte[] large = new byte[4096];
+        Arrays.fill(large, (byte) 'a');
+        for (byte[] data : new byte[][]{"endpoint".getBytes(), large}) {
+            TreeDataStorage storage = new TreeDataStorage(1024, 1, false);
+            TreeDataStorage.StoredData stored = storage.store(data.clone());
+            byte[] loaded = storage.load(stored);
+            loaded[0] = 'x';
+            assertArrayEquals(data, storage.load(stored));
+            assertArrayEquals(data, storage.load(storage.store(data.clone())));
+        }
+    }
+
+    @Test
+    public void testInflatedEntriesAreBounded() {
+        TreeDataStorage storage = new TreeDataStorage(16, 2, false);
+        for (int i = 0; i < 10; i++) {
+            byte[] data = new byte[1024];
+            Arrays.fill(data, (byte) i);
+            assertArrayEquals(data, storage.load(storage.store(data)));
+        }
+        assertTrue(((Number) storage.getStatistics().get("inflatedEntries")).longValue() <= 2);
+    }
+}
@@ -73,7 +73,7 @@ public class Activator implements BundleActivator, Container, ManagedService {
     public Activator() {
         strategies.put(BREADCRUMBS, new Breadcrumbs());
         strategies.put(PROFILER, new Profiler());
-        strategies.put(TRACER, new Tracer());
+        strategies.put(TRACER, new Tracer(storageProxy));
         strategies.put(AUDITOR, new Auditor(storageProxy));
     }
 
@@ -119,6 +119,7 @@ public class Activator implements BundleActivator, Container, ManagedService {
                 }
             }
         }
+        ((Tracer) strategies.get(TRACER)).shutdown();
         storageProxy.destroy();
     }
 
@@ -26,12 +26,17 @@ import java.util.Map;
  *
  */
 public class ExchangeData implements Synchronization {
+    final String exchangeId;
     final Map<Stats, ProcessorData> data = new HashMap<Stats, ProcessorData>();
     final LinkedList<Stats> queue = new LinkedList<Stats>();
     long last;
     long level;
     boolean completed;
 
+    public ExchangeData(String exchangeId) {
+        this.exchangeId = exchangeId;
+    }
+
     public static class ProcessorData {
         long time;
         long total;
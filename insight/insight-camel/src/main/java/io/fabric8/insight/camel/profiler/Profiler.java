@@ -33,6 +33,7 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  *
@@ -41,7 +42,7 @@ import java.util.concurrent.ConcurrentHashMap;
 public class Profiler extends SwitchableContainerStrategy implements ProfilerMBean {
 
     private final Map<ProcessorDefinition<?>, Stats> statistics = new LinkedHashMap<ProcessorDefinition<?>, Stats>();
-    private final Map<String, ExchangeData> exchanges = new ConcurrentHashMap<String, ExchangeData>();
+    private final ConcurrentMap<ProcessorDefinition<?>, Stats> index = new ConcurrentHashMap<ProcessorDefinition<?>, Stats>();
 
     public Profiler() {
         disable();
@@ -76,7 +77,7 @@ public class Profiler extends SwitchableContainerStrategy implements ProfilerMBe
                 RouteDefinitionHelper.forceAssignIds(routeContext.getCamelContext(), route);
             }
         }
-        ProfilerProcessor profilerProcessor = new ProfilerProcessor(this, processor, getStats(definition), exchanges);
+        ProfilerProcessor profilerProcessor = new ProfilerProcessor(this, processor, getStats(definition));
         profilerProcessor.setCamelContext(routeContext.getCamelContext());
         if (processor instanceof CamelContextAware) {
             ((CamelContextAware) processor).setCamelContext(routeContext.getCamelContext());
@@ -86,7 +87,7 @@ public class Profiler extends SwitchableContainerStrategy implements ProfilerMBe
 
     public String dumpStatsAsXml(String routeId) {
         Set<RouteDefinition> routes = new HashSet<RouteDefinition>();
-        for (ProcessorDefinition<?> definition : statistics.keySet()) {
+        for (ProcessorDefinition<?> definition : getStatistics().keySet()) {
             RouteDefinition route = ProcessorDefinitionHelper.getRoute(definition);
             routes.add(route);
         }
@@ -112,7 +113,7 @@ public class Profiler extends SwitchableContainerStrategy implements ProfilerMBe
     }
 
     protected void appendStats(StringBuilder sb, ProcessorDefinition<?> definition) {
-        Stats stats = statistics.get(definition);
+        Stats stats = index.get(definition);
         if (stats != null) {
             sb.append("<processor");
             if (definition.getId() != null) {
@@ -125,8 +126,11 @@ public class Profiler extends SwitchableContainerStrategy implements ProfilerMBe
             sb.append(" count=\"").append(stats.getCount()).append("\"");
             sb.append(" self=\"").append(stats.getSelf()).append("\"");
             sb.append(" total=\"").append(stats.getTotal()).append("\"");
+            sb.append(" p50=\"").append(stats.getPercentile(50)).append("\"");
+            sb.append(" p99=\"").append(stats.getPercentile(99)).append("\"");
+            sb.append(" max=\"").append(stats.getMax()).append("\"");
             sb.append(">");
-            for (ProcessorDefinition<?> child : statistics.keySet()) {
+            for (ProcessorDefinition<?> child : getStatistics().keySet()) {
                 if (child.getParent() == definition) {
                     appendStats(sb, child);
                 }
@@ -137,11 +141,16 @@ public class Profiler extends SwitchableContainerStrategy implements ProfilerMBe
 
     public Stats getStats(ProcessorDefinition<?> definition) {
         if (definition != null) {
+            Stats stats = index.get(definition);
+            if (stats != null) {
+                return stats;
+            }
             synchronized (statistics) {
-                Stats stats = statistics.get(definition);
+                stats = statistics.get(definition);
                 if (stats == null) {
                     stats = new Stats(definition, getStats(definition.getParent()));
                     statistics.put(definition, stats);
+                    index.put(definition, stats);
                 }
                 return stats;
             }
@@ -150,13 +159,18 @@ public class Profiler extends SwitchableContainerStrategy implements ProfilerMBe
     }
 
     public void reset() {
-        for (Stats stats : statistics.values()) {
+        for (Stats stats : index.values()) {
             stats.reset();
         }
     }
 
+    /**
+     * Returns a snapshot of the statistics, in the order the processors have been created.
+     */
     public Map<ProcessorDefinition<?>, Stats> getStatistics() {
-        return statistics;
+        synchronized (statistics) {
+            return new LinkedHashMap<ProcessorDefinition<?>, Stats>(statistics);
+        }
     }
 
 }
@@ -22,6 +22,11 @@ import io.fabric8.insight.camel.base.SwitchableContainerStrategyMBean;
  */
 public interface ProfilerMBean extends SwitchableContainerStrategyMBean {
 
+    /**
+     * Dumps the statistics of all routes.
+     * Each processor reports its count, self and total times along with
+     * the p50, p99 and max of its per exchange latency, all in nanoseconds.
+     */
     String dumpAllStatsAsXml();
 
     String dumpStatsAsXml(String routeId);
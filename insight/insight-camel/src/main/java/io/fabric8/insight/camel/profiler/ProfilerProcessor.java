@@ -18,22 +18,25 @@ package io.fabric8.insight.camel.profiler;
 import org.apache.camel.*;
 import org.apache.camel.processor.DelegateAsyncProcessor;
 
-import java.util.Map;
-
 /**
  *
  */
 public class ProfilerProcessor extends DelegateAsyncProcessor implements CamelContextAware {
+
+    /**
+     * Exchange property holding the {@link ExchangeData} of the exchange being profiled.
+     * Keeping the data on the exchange itself avoids a global map keyed by exchange id.
+     */
+    public static final String EXCHANGE_DATA = "InsightProfilerExchangeData";
+
     private final Profiler profiler;
     private final Stats stats;
-    private final Map<String, ExchangeData> exchanges;
     private CamelContext camelContext;
 
-    public ProfilerProcessor(Profiler profiler, Processor processor, Stats stats, Map<String, ExchangeData> exchanges) {
+    public ProfilerProcessor(Profiler profiler, Processor processor, Stats stats) {
         super(processor);
         this.profiler = profiler;
         this.stats = stats;
-        this.exchanges = exchanges;
     }
 
     @Override
@@ -41,13 +44,7 @@ public class ProfilerProcessor extends DelegateAsyncProcessor implements CamelCo
         if (!profiler.isEnabled(exchange)) {
             return processor.process(exchange, callback);
         }
-        ExchangeData data = exchanges.get(exchange.getExchangeId());
-        if (data == null) {
-            data = new ExchangeData();
-            exchanges.put(exchange.getExchangeId(), data);
-            exchange.addOnCompletion(data);
-        }
-        final ExchangeData ed = data;
+        final ExchangeData ed = getExchangeData(exchange);
         ed.start(stats);
         try {
             return processor.process(exchange, new AsyncCallback() {
@@ -58,18 +55,30 @@ public class ProfilerProcessor extends DelegateAsyncProcessor implements CamelCo
                         callback.done(doneSync);
                     } finally {
                         if (ed.stop(stats)) {
-                            exchanges.remove(exchange.getExchangeId());
+                            exchange.removeProperty(EXCHANGE_DATA);
                         }
                     }
                 }
             });
         } finally {
             if (ed.stop(stats)) {
-                exchanges.remove(exchange.getExchangeId());
+                exchange.removeProperty(EXCHANGE_DATA);
             }
         }
     }
 
+    protected ExchangeData getExchangeData(Exchange exchange) {
+        String exchangeId = exchange.getExchangeId();
+        ExchangeData data = exchange.getProperty(EXCHANGE_DATA, ExchangeData.class);
+        // copied exchanges inherit the properties of their parent, so make sure the data belongs to this exchange
+        if (data == null || !data.exchangeId.equals(exchangeId)) {
+            data = new ExchangeData(exchangeId);
+            exchange.setProperty(EXCHANGE_DATA, data);
+            exchange.addOnCompletion(data);
+        }
+        return data;
+    }
+
     @Override
     public String toString() {
         return "Profiler[" + processor + "]";
@@ -17,15 +17,14 @@ package io.fabric8.insight.camel.profiler;
 
 import org.apache.camel.model.ProcessorDefinition;
 
-import java.util.concurrent.atomic.AtomicLong;
-
 /**
  *
  */
 public class Stats {
-    final AtomicLong count = new AtomicLong();
-    final AtomicLong self = new AtomicLong();
-    final AtomicLong total = new AtomicLong();
+    final StripedCounter count = new StripedCounter();
+    final StripedCounter self = new StripedCounter();
+    final StripedCounter total = new StripedCounter();
+    final Histogram histogram = new Histogram();
     final Stats parent;
     final ProcessorDefinition definition;
 
@@ -34,10 +33,11 @@ public class Stats {
         this.parent = parent;
     }
 
-    public synchronized void addTime(long self, long total) {
-        this.count.incrementAndGet();
-        this.self.addAndGet(self);
-        this.total.addAndGet(total);
+    public void addTime(long self, long total) {
+        this.count.increment();
+        this.self.add(self);
+        this.total.add(total);
+        this.histogram.record(total);
     }
 
     public Stats getParent() {
@@ -56,10 +56,23 @@ public class Stats {
         return total.get();
     }
 
+    public long getPercentile(double percentile) {
+        return histogram.getPercentile(percentile);
+    }
+
+    public long getMax() {
+        return histogram.getMax();
+    }
+
+    public Histogram getHistogram() {
+        return histogram;
+    }
+
     public void reset() {
-        count.set(0);
-        self.set(0);
-        total.set(0);
+        count.reset();
+        self.reset();
+        total.reset();
+        histogram.reset();
     }
 
     public String toString() {
@@ -0,0 +1,91 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.camel.trace;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded FIFO of traced messages which also keeps the messages of each node
+ * in a separate list, so that dumping the messages of one node does not require
+ * scanning all of them.
+ */
+public class TraceBuffer {
+
+    private final Deque<TracerEventMessage> messages = new ArrayDeque<TracerEventMessage>();
+    private final Map<String, Deque<TracerEventMessage>> nodes = new HashMap<String, Deque<TracerEventMessage>>();
+    private volatile int maxSize;
+
+    public TraceBuffer(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public synchronized void add(TracerEventMessage message) {
+        messages.addLast(message);
+        Deque<TracerEventMessage> node = nodes.get(message.getToNode());
+        if (node == null) {
+            node = new ArrayDeque<TracerEventMessage>();
+            nodes.put(message.getToNode(), node);
+        }
+        node.addLast(message);
+        while (messages.size() > maxSize) {
+            evict(messages.pollFirst());
+        }
+    }
+
+    public synchronized List<TracerEventMessage> get(String nodeId) {
+        Deque<TracerEventMessage> node = nodes.get(nodeId);
+        return node != null ? new ArrayList<TracerEventMessage>(node) : new ArrayList<TracerEventMessage>();
+    }
+
+    /**
+     * Returns all the messages and clears the buffer.
+     */
+    public synchronized List<TracerEventMessage> drain() {
+        List<TracerEventMessage> answer = new ArrayList<TracerEventMessage>(messages);
+        clear();
+        return answer;
+    }
+
+    public synchronized int size() {
+        return messages.size();
+    }
+
+    public synchronized void clear() {
+        messages.clear();
+        nodes.clear();
+    }
+
+    private void evict(TracerEventMessage message) {
+        Deque<TracerEventMessage> node = nodes.get(message.getToNode());
+        if (node != null) {
+            // the evicted message is always the oldest one of its node
+            node.pollFirst();
+            if (node.isEmpty()) {
+                nodes.remove(message.getToNode());
+            }
+        }
+    }
+
+}
@@ -18,29 +18,25 @@ package io.fabric8.insight.camel.trace;
 import org.apache.camel.*;
 import org.apache.camel.model.ProcessorDefinition;
 import org.apache.camel.processor.DelegateAsyncProcessor;
-import org.apache.camel.util.MessageHelper;
 
 import java.util.Date;
-import java.util.Queue;
 
 /**
  *
  */
 public class TraceProcessor extends DelegateAsyncProcessor implements CamelContextAware {
 
-    private final Queue<TracerEventMessage> queue;
     private final Tracer tracer;
     private final ProcessorDefinition<?> processorDefinition;
     private final ProcessorDefinition<?> routeDefinition;
     private final boolean first;
     private CamelContext camelContext;
 
-    public TraceProcessor(Queue<TracerEventMessage> queue, Processor processor,
+    public TraceProcessor(Processor processor,
                           ProcessorDefinition<?> processorDefinition,
                           ProcessorDefinition<?> routeDefinition, boolean first,
                           Tracer tracer) {
         super(processor);
-        this.queue = queue;
         this.processorDefinition = processorDefinition;
         this.routeDefinition = routeDefinition;
         this.first = first;
@@ -49,30 +45,23 @@ public class TraceProcessor extends DelegateAsyncProcessor implements CamelConte
 
     @Override
     public boolean process(Exchange exchange, AsyncCallback callback) {
-        if (tracer.isEnabled(exchange)) {
+        if (tracer.isEnabled(exchange) && tracer.isSampled(exchange)) {
             try {
-                // ensure there is space on the queue
-                int drain = queue.size() - tracer.getQueueSize();
-                if (drain > 0) {
-                    for (int i = 0; i < drain; i++) {
-                        queue.poll();
-                    }
-                }
-
                 Date timestamp = new Date();
                 String toNode = processorDefinition.getId();
                 String exchangeId = exchange.getExchangeId();
-                String messageAsXml = MessageHelper.dumpAsXml(exchange.getIn());
+                // render the message now as its body may be a mutable object changed by the next processors
+                String messageAsXml = TracerEventMessage.renderMessage(exchange.getIn(), tracer.getMaxBodySize());
 
                 // if first we should add a pseudo trace message as well, so we have a starting message as well
                 if (first) {
                     Date created = exchange.getProperty(Exchange.CREATED_TIMESTAMP, timestamp, Date.class);
                     String routeId = routeDefinition.getId();
                     TracerEventMessage pseudo = new TracerEventMessage(tracer.incrementTraceCounter(), created, routeId, exchangeId, messageAsXml);
-                    queue.add(pseudo);
+                    tracer.trace(pseudo);
                 }
                 TracerEventMessage event = new TracerEventMessage(tracer.incrementTraceCounter(), timestamp, toNode, exchangeId, messageAsXml);
-                queue.add(event);
+                tracer.trace(event);
             } catch (Exception e) {
                 exchange.setException(e);
                 callback.done(true);
@@ -85,7 +74,7 @@ public class TraceProcessor extends DelegateAsyncProcessor implements CamelConte
 
     public void stop() throws Exception {
         super.stop();
-        queue.clear();
+        tracer.clearTracedMessages();
         // notify tracer we are stopping to not leak resources
         tracer.stopProcessor(this, processorDefinition);
     }
@@ -28,14 +28,27 @@ import org.apache.camel.model.RouteDefinitionHelper;
 import org.apache.camel.spi.NodeIdFactory;
 import org.apache.camel.spi.ProcessorFactory;
 import org.apache.camel.spi.RouteContext;
+import io.fabric8.insight.camel.audit.ScriptUtils;
 import io.fabric8.insight.camel.base.SwitchableContainerStrategy;
+import io.fabric8.insight.storage.StorageService;
+import org.apache.camel.Exchange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Queue;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -44,17 +57,82 @@ import java.util.concurrent.atomic.AtomicLong;
 @ManagedResource(description = "Tracer")
 public class Tracer extends SwitchableContainerStrategy implements TracerMBean {
 
+    private static final transient Logger LOG = LoggerFactory.getLogger(Tracer.class);
+
+    /**
+     * Exchange property holding the sampling decision taken for the exchange
+     */
+    public static final String SAMPLED = "InsightTracerSampled";
+
     private final AtomicLong traceCounter = new AtomicLong(0);
-    private Queue<TracerEventMessage> queue =  new ArrayBlockingQueue<TracerEventMessage>(1000);
     private int queueSize = 10;
+    private final TraceBuffer buffer = new TraceBuffer(queueSize);
     // remember the processors we are tracing, which we need later
     private final Set<ProcessorDefinition<?>> processors = new HashSet<ProcessorDefinition<?>>();
     private final Set<RouteContext> routeContexts = new HashSet<RouteContext>();
 
+    private volatile double samplingRate = 1.0;
+    private volatile int maxExchangesPerSecond;
+    private volatile int maxBodySize = 10000;
+    private final AtomicLong rateWindow = new AtomicLong();
+    private final AtomicInteger rateCount = new AtomicInteger();
+
+    private StorageService storage;
+    private volatile boolean storageEnabled;
+    private String storageType = "camel-trace";
+    private int storageBatchSize = 100;
+    private final BlockingQueue<TracerEventMessage> pending = new ArrayBlockingQueue<TracerEventMessage>(10000);
+    private ScheduledExecutorService storageExecutor;
+
     public Tracer() {
+        this(null);
+    }
+
+    public Tracer(StorageService storage) {
+        this.storage = storage;
         disable();
     }
 
+    @Override
+    public void update(Map<String, String> properties) {
+        super.update(properties);
+        if (properties != null) {
+            for (String key : new String[] {"samplingRate", "maxExchangesPerSecond", "maxBodySize", "queueSize"}) {
+                try {
+                    configure(key, properties.get(key));
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Ignoring invalid tracer " + key + " " + properties.get(key) + ": " + e.getMessage());
+                }
+            }
+            setStorageEnabled(Boolean.parseBoolean(properties.get("storage")));
+        }
+    }
+
+    /**
+     * Applies a configuration property through its setter so that it is validated,
+     * resetting it to its default value when it is not set
+     */
+    private void configure(String key, String value) {
+        switch (key) {
+            case "samplingRate":
+                setSamplingRate(value != null ? Double.parseDouble(value) : 1.0);
+                break;
+            case "maxExchangesPerSecond":
+                setMaxExchangesPerSecond(value != null ? Integer.parseInt(value) : 0);
+                break;
+            case "maxBodySize":
+                setMaxBodySize(value != null ? Integer.parseInt(value) : 10000);
+                break;
+            case "queueSize":
+                if (value != null) {
+                    setQueueSize(Integer.parseInt(value));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown property " + key);
+        }
+    }
+
     @Override
     public void manage(CamelContext context) throws Exception {
         final ProcessorFactory delegate = context.getProcessorFactory();
@@ -91,7 +169,7 @@ public class Tracer extends SwitchableContainerStrategy implements TracerMBean {
         }
         routeContexts.add(routeContext);
         processors.add(definition);
-        TraceProcessor traceProcessor = new TraceProcessor(queue, processor, definition, route, first, this);
+        TraceProcessor traceProcessor = new TraceProcessor(processor, definition, route, first, this);
         traceProcessor.setCamelContext(routeContext.getCamelContext());
         if (processor instanceof CamelContextAware) {
             ((CamelContextAware) processor).setCamelContext(routeContext.getCamelContext());
@@ -121,6 +199,95 @@ public class Tracer extends SwitchableContainerStrategy implements TracerMBean {
             throw new IllegalArgumentException("The queue size must be a positive number, was: " + queueSize);
         }
         this.queueSize = queueSize;
+        this.buffer.setMaxSize(queueSize);
+    }
+
+    @ManagedAttribute(description = "Probability (between 0 and 1) for an exchange to be traced")
+    public double getSamplingRate() {
+        return samplingRate;
+    }
+
+    @ManagedAttribute(description = "Probability (between 0 and 1) for an exchange to be traced")
+    public void setSamplingRate(double samplingRate) {
+        if (samplingRate < 0 || samplingRate > 1) {
+            throw new IllegalArgumentException("The sampling rate must be between 0 and 1, was: " + samplingRate);
+        }
+        this.samplingRate = samplingRate;
+    }
+
+    @ManagedAttribute(description = "Maximum number of exchanges traced per second, 0 for unlimited")
+    public int getMaxExchangesPerSecond() {
+        return maxExchangesPerSecond;
+    }
+
+    @ManagedAttribute(description = "Maximum number of exchanges traced per second, 0 for unlimited")
+    public void setMaxExchangesPerSecond(int maxExchangesPerSecond) {
+        if (maxExchangesPerSecond < 0) {
+            throw new IllegalArgumentException("The maximum number of exchanges per second must not be negative, was: " + maxExchangesPerSecond);
+        }
+        this.maxExchangesPerSecond = maxExchangesPerSecond;
+    }
+
+    @ManagedAttribute(description = "Maximum number of characters of the message body to capture, -1 for unlimited")
+    public int getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    @ManagedAttribute(description = "Maximum number of characters of the message body to capture, -1 for unlimited")
+    public void setMaxBodySize(int maxBodySize) {
+        if (maxBodySize < -1) {
+            throw new IllegalArgumentException("The maximum body size must be -1 or a positive number, was: " + maxBodySize);
+        }
+        this.maxBodySize = maxBodySize;
+    }
+
+    @ManagedAttribute(description = "Are traced messages sent to the storage")
+    public boolean isStorageEnabled() {
+        return storageEnabled;
+    }
+
+    @ManagedAttribute(description = "Are traced messages sent to the storage")
+    public synchronized void setStorageEnabled(boolean storageEnabled) {
+        this.storageEnabled = storageEnabled && storage != null;
+        if (this.storageEnabled && storageExecutor == null) {
+            storageExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Insight Camel tracer storage");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            storageExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flushStorage();
+                }
+            }, 1, 1, TimeUnit.SECONDS);
+        } else if (!this.storageEnabled && storageExecutor != null) {
+            storageExecutor.shutdown();
+            storageExecutor = null;
+            pending.clear();
+        }
+    }
+
+    public void setStorage(StorageService storage) {
+        this.storage = storage;
+    }
+
+    public void setStorageType(String storageType) {
+        this.storageType = storageType;
+    }
+
+    public void setStorageBatchSize(int storageBatchSize) {
+        this.storageBatchSize = storageBatchSize;
+    }
+
+    /**
+     * Stops sending traced messages to the storage
+     */
+    public void shutdown() {
+        setStorageEnabled(false);
     }
 
     @ManagedAttribute(description = "Number of total traced messages")
@@ -135,15 +302,10 @@ public class Tracer extends SwitchableContainerStrategy implements TracerMBean {
 
     @ManagedOperation(description = "Dumps the traced messages for the given node")
     public List<TracerEventMessage> dumpTracedMessages(String nodeId) {
-        List<TracerEventMessage> answer = new ArrayList<TracerEventMessage>();
-        if (nodeId != null) {
-            for (TracerEventMessage message : queue) {
-                if (nodeId.equals(message.getToNode())) {
-                    answer.add(message);
-                }
-            }
+        if (nodeId == null) {
+            return new ArrayList<TracerEventMessage>();
         }
-        return answer;
+        return buffer.get(nodeId);
     }
 
     @ManagedOperation(description = "Dumps the traced messages for the given node in xml format")
@@ -161,10 +323,7 @@ public class Tracer extends SwitchableContainerStrategy implements TracerMBean {
 
     @ManagedOperation(description = "Dumps the traced messages for all nodes")
     public List<TracerEventMessage> dumpAllTracedMessages() {
-        List<TracerEventMessage> answer = new ArrayList<TracerEventMessage>();
-        answer.addAll(queue);
-        queue.clear();
-        return answer;
+        return buffer.drain();
     }
 
     @ManagedOperation(description = "Dumps the traced messages for all nodes in xml format")
@@ -184,6 +343,73 @@ public class Tracer extends SwitchableContainerStrategy implements TracerMBean {
         return traceCounter.incrementAndGet();
     }
 
+    /**
+     * Decides once per exchange whether it is traced, according to the sampling rate
+     * and the maximum number of exchanges traced per second.
+     */
+    boolean isSampled(Exchange exchange) {
+        Boolean sampled = exchange.getProperty(SAMPLED, Boolean.class);
+        if (sampled == null) {
+            sampled = sample();
+            exchange.setProperty(SAMPLED, sampled);
+        }
+        return sampled;
+    }
+
+    private boolean sample() {
+        double rate = samplingRate;
+        if (rate < 1.0 && ThreadLocalRandom.current().nextDouble() >= rate) {
+            return false;
+        }
+        int max = maxExchangesPerSecond;
+        if (max > 0) {
+            long second = System.currentTimeMillis() / 1000;
+            long window = rateWindow.get();
+            if (window != second && rateWindow.compareAndSet(window, second)) {
+                rateCount.set(0);
+            }
+            return rateCount.incrementAndGet() <= max;
+        }
+        return true;
+    }
+
+    void trace(TracerEventMessage message) {
+        buffer.add(message);
+        if (storageEnabled && !pending.offer(message)) {
+            LOG.debug("Tracer storage queue full, dropping traced message");
+        }
+    }
+
+    void clearTracedMessages() {
+        buffer.clear();
+    }
+
+    private void flushStorage() {
+        StorageService svc = storage;
+        if (svc == null) {
+            return;
+        }
+        String host = System.getProperty("runtime.id");
+        List<TracerEventMessage> batch = new ArrayList<TracerEventMessage>(storageBatchSize);
+        while (pending.drainTo(batch, storageBatchSize) > 0) {
+            for (TracerEventMessage message : batch) {
+                try {
+                    Map<String, Object> doc = new LinkedHashMap<String, Object>();
+                    doc.put("host", host);
+                    doc.put("@timestamp", message.getTimestamp());
+                    doc.put("uid", message.getUid());
+                    doc.put("toNode", message.getToNode());
+                    doc.put("exchangeId", message.getExchangeId());
+                    doc.put("message", message.getMessageAsXml());
+                    svc.store(storageType, message.getTimestamp().getTime(), ScriptUtils.toJson(doc));
+                } catch (Exception e) {
+                    LOG.warn("Unable to store traced message " + message, e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
     void stopProcessor(TraceProcessor processor, ProcessorDefinition<?> processorDefinition) {
         this.processors.remove(processorDefinition);
     }
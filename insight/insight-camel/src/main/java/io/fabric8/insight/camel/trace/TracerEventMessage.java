@@ -15,6 +15,10 @@
  */
 package io.fabric8.insight.camel.trace;
 
+import org.apache.camel.Message;
+import org.apache.camel.util.MessageHelper;
+import org.apache.camel.util.StringHelper;
+
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -63,6 +67,31 @@ public class TracerEventMessage implements Serializable {
         return messageAsXml;
     }
 
+    /**
+     * Renders the given message as xml, truncating the body to the given number of characters, or not if negative.
+     */
+    static String renderMessage(Message message, int maxBodySize) {
+        if (maxBodySize < 0) {
+            return MessageHelper.dumpAsXml(message);
+        }
+        // dump the headers only, and append the body ourselves so that it can be truncated
+        String xml = MessageHelper.dumpAsXml(message, false);
+        String body = MessageHelper.extractBodyForLogging(message, "", false, false, maxBodySize);
+        int idx = xml.lastIndexOf("</message>");
+        if (idx < 0) {
+            return xml;
+        }
+        StringBuilder sb = new StringBuilder(xml.length() + body.length() + 64);
+        sb.append(xml, 0, idx);
+        sb.append("<body");
+        if (message.getBody() != null) {
+            sb.append(" type=\"").append(message.getBody().getClass().getCanonicalName()).append("\"");
+        }
+        sb.append(">").append(StringHelper.xmlEncode(body)).append("</body>\n");
+        sb.append(xml, idx, xml.length());
+        return sb.toString();
+    }
+
     @Override
     public String toString() {
         return "TracerEvent[" + exchangeId + " at " + toNode + "]";
@@ -83,7 +112,7 @@ public class TracerEventMessage implements Serializable {
         sb.append("<timestamp>").append(ts).append("</timestamp>\n");
         sb.append("<toNode>").append(toNode).append("</toNode>\n");
         sb.append("<exchangeId>").append(exchangeId).append("</exchangeId>\n");
-        sb.append(messageAsXml).append("\n");
+        sb.append(getMessageAsXml()).append("\n");
         sb.append("</").append(ROOT_TAG).append(">");
         return sb.toString();
     }
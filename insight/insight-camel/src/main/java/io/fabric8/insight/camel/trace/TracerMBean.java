@@ -28,6 +28,22 @@ public interface TracerMBean extends SwitchableContainerStrategyMBean {
 
     int getQueueSize();
 
+    double getSamplingRate();
+
+    void setSamplingRate(double samplingRate);
+
+    int getMaxExchangesPerSecond();
+
+    void setMaxExchangesPerSecond(int maxExchangesPerSecond);
+
+    int getMaxBodySize();
+
+    void setMaxBodySize(int maxBodySize);
+
+    boolean isStorageEnabled();
+
+    void setStorageEnabled(boolean storageEnabled);
+
     long getTraceCounter();
 
     void resetTraceCounter();
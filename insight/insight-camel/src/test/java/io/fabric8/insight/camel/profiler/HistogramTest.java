@@ -0,0 +1,67 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.camel.profiler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void testBucketBounds() {
+        for (long v : new long[] {0, 1, 7, 8, 15, 16, 1000, 123456789L, Long.MAX_VALUE}) {
+            int index = Histogram.bucketIndex(v);
+            assertTrue(index >= 0 && index < Histogram.BUCKETS);
+            assertTrue(Histogram.bucketUpperBound(index) >= v);
+            if (index > 0) {
+                assertTrue(Histogram.bucketUpperBound(index - 1) < v);
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000L, histogram.getMax());
+        long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 500000L && p50 <= 500000L * 1.125);
+        long p99 = histogram.getPercentile(99);
+        assertTrue(p99 >= 990000L && p99 <= 1000000L);
+        assertEquals(1000000L, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testMerge() {
+        Histogram h1 = new Histogram();
+        Histogram h2 = new Histogram();
+        h1.record(10);
+        h2.record(20);
+        h2.record(30000);
+        h1.merge(h2);
+        assertEquals(3, h1.getCount());
+        assertEquals(30000, h1.getMax());
+        h1.reset();
+        assertEquals(0, h1.getCount());
+        assertEquals(0, h1.getPercentile(99));
+    }
+
+}
@@ -0,0 +1,152 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.camel.trace;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class TracerTest extends Assert {
+
+    Tracer tracer = new Tracer();
+
+    CamelContext context = new DefaultCamelContext();
+
+    ProducerTemplate template;
+
+    @Before
+    public void before() throws Exception {
+        tracer.manage(context);
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("direct:start").routeId("route")
+                        .process(new Processor() {
+                            @Override
+                            public void process(Exchange exchange) throws Exception {
+                                // change the body in place
+                                exchange.getIn().getBody(StringBuilder.class).append(" changed");
+                            }
+                        }).id("change")
+                        .to("mock:out").id("out");
+            }
+        });
+        context.start();
+        template = context.createProducerTemplate();
+        tracer.setEnabled(true);
+    }
+
+    @After
+    public void after() throws Exception {
+        context.stop();
+    }
+
+    @Test
+    public void shouldTraceTheMessageAsItWasAtTheNode() {
+        // When
+        template.sendBody("direct:start", new StringBuilder("original"));
+
+        // Then
+        List<TracerEventMessage> changed = tracer.dumpTracedMessages("change");
+        List<TracerEventMessage> out = tracer.dumpTracedMessages("out");
+        assertEquals(1, changed.size());
+        assertEquals(1, out.size());
+        assertTrue(changed.get(0).getMessageAsXml().contains("original"));
+        assertFalse(changed.get(0).getMessageAsXml().contains("changed"));
+        assertTrue(out.get(0).getMessageAsXml().contains("original changed"));
+    }
+
+    @Test
+    public void shouldTruncateTheTracedBody() {
+        // Given
+        tracer.setMaxBodySize(5);
+
+        // When
+        template.sendBody("direct:start", new StringBuilder("0123456789"));
+
+        // Then
+        String xml = tracer.dumpTracedMessages("change").get(0).getMessageAsXml();
+        assertTrue(xml.contains("01234"));
+        assertFalse(xml.contains("0123456789"));
+    }
+
+    @Test
+    public void shouldNotTraceUnsampledExchanges() {
+        // Given
+        tracer.setSamplingRate(0);
+
+        // When
+        template.sendBody("direct:start", new StringBuilder("body"));
+
+        // Then
+        assertTrue(tracer.dumpAllTracedMessages().isEmpty());
+    }
+
+    @Test
+    public void shouldLimitTheTracedExchangesPerSecond() {
+        // Given
+        tracer.setMaxExchangesPerSecond(1);
+
+        // When
+        for (int i = 0; i < 5; i++) {
+            template.sendBody("direct:start", new StringBuilder("body " + i));
+        }
+
+        // Then
+        Set<String> exchanges = new HashSet<String>();
+        for (TracerEventMessage message : tracer.dumpAllTracedMessages()) {
+            exchanges.add(message.getExchangeId());
+        }
+        // the exchanges may have been sent across two seconds
+        assertTrue(exchanges.size() >= 1 && exchanges.size() <= 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectAnInvalidSamplingRate() {
+        tracer.setSamplingRate(2);
+    }
+
+    @Test
+    public void shouldValidateTheConfiguration() {
+        // Given
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("samplingRate", "2");
+        properties.put("maxExchangesPerSecond", "-1");
+        properties.put("maxBodySize", "100");
+
+        // When
+        tracer.update(properties);
+
+        // Then
+        assertEquals(1.0, tracer.getSamplingRate(), 0.0);
+        assertEquals(0, tracer.getMaxExchangesPerSecond());
+        assertEquals(100, tracer.getMaxBodySize());
+    }
+
+}
@@ -0,0 +1,284 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.influxdb;
+
+import io.fabric8.api.scr.ValidatingReference;
+import org.influxdb.InfluxDB;
+import org.influxdb.dto.Serie;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffers metric points and writes them to InfluxDB in batches.
+ * <p/>
+ * Points queued by the collectors are grouped every flush interval into one
+ * {@link Serie} per set of columns, each serie carrying one row per point.
+ * When InfluxDB can not be reached, batches are spooled to a {@link MetricsSpool}
+ * and replayed in order once the backend is back, a limited number per flush
+ * so that a large backlog does not overwhelm it.  Queueing never blocks: points
+ * are dropped, and counted, when both the queue and the spool are full.
+ */
+public class InfluxDBBatchWriter {
+
+    private static final transient Logger LOG = LoggerFactory.getLogger(InfluxDBBatchWriter.class);
+
+    public static final String SERIE_NAME = "insight";
+    public static final String DATABASE = "fabric";
+    public static final String TIME = "time";
+
+    private final ValidatingReference<InfluxDB> influxDB;
+    private final MetricsSpool spool;
+    private final BlockingQueue<Point> queue;
+    private final int batchSize;
+    private final int maxReplayedBatches;
+    private final ScheduledExecutorService executor;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong spooled = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public InfluxDBBatchWriter(ValidatingReference<InfluxDB> influxDB, MetricsSpool spool, int queueSize, int batchSize, int maxReplayedBatches) {
+        this.influxDB = influxDB;
+        this.spool = spool;
+        this.queue = new ArrayBlockingQueue<Point>(queueSize);
+        this.batchSize = batchSize;
+        this.maxReplayedBatches = maxReplayedBatches;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "InfluxDB metrics writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void start(long flushInterval) {
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (Throwable t) {
+                    LOG.warn("Error while flushing metrics", t);
+                }
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // keep whatever has not been written for the next start
+        List<Point> points = new ArrayList<Point>();
+        queue.drainTo(points);
+        if (!points.isEmpty()) {
+            spool(points);
+        }
+    }
+
+    /**
+     * Queues a point, without ever blocking the caller.
+     */
+    public void add(Point point) {
+        if (!queue.offer(point)) {
+            dropped.incrementAndGet();
+            LOG.debug("Metrics queue full, dropping point");
+        }
+    }
+
+    /**
+     * Writes the spooled batches, then the queued points.
+     */
+    public void flush() {
+        // Replay the spool first to keep the points in order
+        int replayed = 0;
+        byte[] record;
+        while (replayed < maxReplayedBatches && (record = spool.peek()) != null) {
+            List<Point> points;
+            try {
+                points = decode(record);
+            } catch (IOException e) {
+                LOG.warn("Discarding corrupted spooled metrics", e);
+                spool.remove();
+                continue;
+            }
+            if (!write(points)) {
+                break;
+            }
+            spool.remove();
+            replayed++;
+        }
+        boolean backlog = !spool.isEmpty();
+        List<Point> points = new ArrayList<Point>(batchSize);
+        while (queue.drainTo(points, batchSize) > 0) {
+            if (backlog || !write(points)) {
+                backlog = true;
+                spool(points);
+            }
+            points.clear();
+        }
+    }
+
+    protected boolean write(List<Point> points) {
+        InfluxDB db = influxDB.getOptional();
+        if (db == null) {
+            return false;
+        }
+        try {
+            db.write(DATABASE, TimeUnit.MILLISECONDS, toSeries(points));
+            written.addAndGet(points.size());
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("added " + points.size() + " metrics");
+            }
+            return true;
+        } catch (Exception e) {
+            LOG.debug("Unable to write metrics to InfluxDB", e);
+            return false;
+        }
+    }
+
+    protected void spool(List<Point> points) {
+        try {
+            if (spool.offer(encode(points))) {
+                spooled.addAndGet(points.size());
+                return;
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to spool metrics", e);
+        }
+        dropped.addAndGet(points.size());
+        LOG.warn("Metrics spool full, dropping " + points.size() + " points");
+    }
+
+    /**
+     * Groups the points having the same columns into a single serie.
+     */
+    static Serie[] toSeries(List<Point> points) {
+        Map<List<String>, Serie.Builder> builders = new LinkedHashMap<List<String>, Serie.Builder>();
+        for (Point point : points) {
+            List<String> key = Arrays.asList(point.columns);
+            Serie.Builder builder = builders.get(key);
+            if (builder == null) {
+                String[] columns = new String[point.columns.length + 1];
+                columns[0] = TIME;
+                System.arraycopy(point.columns, 0, columns, 1, point.columns.length);
+                builder = new Serie.Builder(SERIE_NAME).columns(columns);
+                builders.put(key, builder);
+            }
+            Object[] row = new Object[point.values.length + 1];
+            row[0] = point.time;
+            for (int i = 0; i < point.values.length; i++) {
+                row[i + 1] = point.values[i];
+            }
+            builder.values(row);
+        }
+        Serie[] series = new Serie[builders.size()];
+        int i = 0;
+        for (Serie.Builder builder : builders.values()) {
+            series[i++] = builder.build();
+        }
+        return series;
+    }
+
+    static byte[] encode(List<Point> points) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(points.size());
+        for (Point point : points) {
+            dos.writeLong(point.time);
+            dos.writeInt(point.columns.length);
+            for (int i = 0; i < point.columns.length; i++) {
+                dos.writeUTF(point.columns[i]);
+                dos.writeDouble(point.values[i]);
+            }
+        }
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    static List<Point> decode(byte[] record) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(record));
+        int size = dis.readInt();
+        if (size < 0 || size > record.length) {
+            throw new IOException("Invalid number of points: " + size);
+        }
+        List<Point> points = new ArrayList<Point>(size);
+        for (int p = 0; p < size; p++) {
+            long time = dis.readLong();
+            int nb = dis.readInt();
+            if (nb < 0 || nb > record.length) {
+                throw new IOException("Invalid number of columns: " + nb);
+            }
+            String[] columns = new String[nb];
+            double[] values = new double[nb];
+            for (int i = 0; i < nb; i++) {
+                columns[i] = dis.readUTF();
+                values[i] = dis.readDouble();
+            }
+            points.add(new Point(time, columns, values));
+        }
+        return points;
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getSpooled() {
+        return spooled.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * A set of values sharing the same timestamp.
+     */
+    public static class Point {
+        final long time;
+        final String[] columns;
+        final double[] values;
+
+        public Point(long time, String[] columns, double[] values) {
+            this.time = time;
+            this.columns = columns;
+            this.values = values;
+        }
+    }
+}
@@ -17,6 +17,7 @@ package io.fabric8.insight.influxdb;
 
 import io.fabric8.api.jcip.ThreadSafe;
 import io.fabric8.api.scr.AbstractComponent;
+import io.fabric8.api.scr.Configurer;
 import io.fabric8.api.scr.ValidatingReference;
 import io.fabric8.insight.metrics.model.MBeanAttrResult;
 import io.fabric8.insight.metrics.model.MBeanAttrsResult;
@@ -33,22 +34,19 @@ import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Properties;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.apache.felix.scr.annotations.ReferencePolicy;
 import org.apache.felix.scr.annotations.Service;
 import org.influxdb.InfluxDB;
-import org.influxdb.dto.Serie;
 import org.osgi.framework.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.management.InstanceNotFoundException;
-import javax.management.MBeanRegistrationException;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 
 @ThreadSafe
 @Component(name = "io.fabric8.insight.influxdb.metrics", label = "Fabric8 InfluxDB Metrics Storage", policy = ConfigurationPolicy.OPTIONAL, immediate = true, metatype = true)
@@ -59,88 +57,103 @@ import java.util.concurrent.TimeUnit;
 public class InfluxDBMetricsStorage extends AbstractComponent implements MetricsStorageService {
     private static final transient Logger LOG = LoggerFactory.getLogger(InfluxDBMetricsStorage.class);
 
-    @Reference(referenceInterface = InfluxDB.class)
+    @Reference
+    private Configurer configurer;
+
+    @Reference(referenceInterface = InfluxDB.class, cardinality = ReferenceCardinality.OPTIONAL_UNARY, policy = ReferencePolicy.DYNAMIC)
     private ValidatingReference<InfluxDB> influxDB = new ValidatingReference<>();
 
+    @Property(name = "flushInterval", label = "Flush Interval", description = "The interval in milliseconds between two writes to InfluxDB", longValue = 5000)
+    private long flushInterval = 5000;
+
+    @Property(name = "queueSize", label = "Queue Size", description = "The maximum number of points waiting to be written", intValue = 10000)
+    private int queueSize = 10000;
+
+    @Property(name = "batchSize", label = "Batch Size", description = "The maximum number of points written at once", intValue = 1000)
+    private int batchSize = 1000;
+
+    @Property(name = "spoolFile", label = "Spool File", description = "The file used to spool the points while InfluxDB is unavailable, defaults to data/insight/influxdb.spool")
+    private String spoolFile;
+
+    @Property(name = "spoolSize", label = "Spool Size", description = "The maximum size in bytes of the spool file", intValue = 64 * 1024 * 1024)
+    private int spoolSize = 64 * 1024 * 1024;
+
+    @Property(name = "maxReplayedBatches", label = "Max Replayed Batches", description = "The maximum number of spooled batches replayed at each flush", intValue = 10)
+    private int maxReplayedBatches = 10;
+
+    private MetricsSpool spool;
+    private InfluxDBBatchWriter writer;
+
     @Activate
-    void activate() throws Exception {
+    void activate(Map<String, ?> configuration) throws Exception {
+        configurer.configure(configuration, this);
+        File file = spoolFile != null && !spoolFile.isEmpty() ? new File(spoolFile)
+                : new File(System.getProperty("karaf.data", "data"), "insight/influxdb.spool");
+        spool = new MetricsSpool(file, spoolSize);
+        writer = new InfluxDBBatchWriter(influxDB, spool, queueSize, batchSize, maxReplayedBatches);
+        writer.start(flushInterval);
         activateComponent();
     }
 
-
     @Deactivate
-    void deactivate() throws MBeanRegistrationException, InstanceNotFoundException {
+    void deactivate() {
         deactivateComponent();
+        writer.stop();
+        try {
+            spool.close();
+        } catch (IOException e) {
+            LOG.debug("Error closing metrics spool", e);
+        }
     }
 
     @Override
     public void store(String type, long timestamp, QueryResult queryResult) {
         assertValid();
-        if (influxDB == null) {
-            throw new IllegalStateException("No influxDB available!");
-        }
-        List<Serie> series = new LinkedList<>();
-
         Map<String, Result<?>> results = queryResult.getResults();
-        if (results != null) {
-            Map<String, Object> data = new HashMap<>();
-
-            Set<Map.Entry<String, Result<?>>> entries = results.entrySet();
-            for (Map.Entry<String, Result<?>> entry : entries) {
-                String key = entry.getKey();
-                Result<?> result = entry.getValue();
-                if (result instanceof MBeanOpersResult) {
-                    MBeanOpersResult opersResult = (MBeanOpersResult) result;
-                    List<MBeanOperResult> operResults = opersResult.getResults();
-                    if (operResults != null) {
-                        for (MBeanOperResult operResult : operResults) {
-                            Object value = operResult.getValue();
-                            Double doubleValue = toDouble(value);
-                            if (doubleValue != null) {
-                                String id = Metrics.metricId(type, opersResult.getRequest());
-                                data.put(id, doubleValue);
-                            }
+        if (results == null) {
+            return;
+        }
+        Map<String, Double> data = new LinkedHashMap<>();
+        for (Result<?> result : results.values()) {
+            if (result instanceof MBeanOpersResult) {
+                MBeanOpersResult opersResult = (MBeanOpersResult) result;
+                List<MBeanOperResult> operResults = opersResult.getResults();
+                if (operResults != null) {
+                    for (MBeanOperResult operResult : operResults) {
+                        Double doubleValue = toDouble(operResult.getValue());
+                        if (doubleValue != null) {
+                            data.put(Metrics.metricId(type, opersResult.getRequest()), doubleValue);
                         }
                     }
-
-                } else if (result instanceof MBeanAttrsResult) {
-                    MBeanAttrsResult attrsResult = (MBeanAttrsResult) result;
-                    List<MBeanAttrResult> attrResults = attrsResult.getResults();
-                    if (attrResults != null) {
-                        for (MBeanAttrResult attrResult : attrResults) {
-                            Map<String, Object> attrs = attrResult.getAttrs();
-                            if (attrs != null) {
-                                Set<Map.Entry<String, Object>> attrEntries = attrs.entrySet();
-                                for (Map.Entry<String, Object> attrEntry : attrEntries) {
-                                    String attributeName = attrEntry.getKey();
-                                    Object value = attrEntry.getValue();
-                                    Double doubleValue = toDouble(value);
-                                    if (doubleValue != null) {
-                                        String id = Metrics.metricId(type, attrsResult.getRequest(), attributeName);
-                                        data.put(id, doubleValue);
-                                    }
+                }
+            } else if (result instanceof MBeanAttrsResult) {
+                MBeanAttrsResult attrsResult = (MBeanAttrsResult) result;
+                List<MBeanAttrResult> attrResults = attrsResult.getResults();
+                if (attrResults != null) {
+                    for (MBeanAttrResult attrResult : attrResults) {
+                        Map<String, Object> attrs = attrResult.getAttrs();
+                        if (attrs != null) {
+                            for (Map.Entry<String, Object> attrEntry : attrs.entrySet()) {
+                                Double doubleValue = toDouble(attrEntry.getValue());
+                                if (doubleValue != null) {
+                                    data.put(Metrics.metricId(type, attrsResult.getRequest(), attrEntry.getKey()), doubleValue);
                                 }
                             }
                         }
                     }
                 }
-
-                if (!data.isEmpty()) {
-                    data.put("time", timestamp);
-                    series.add(new Serie.Builder("insight")
-                                    .columns(data.keySet().toArray(new String[data.size()]))
-                                    .values(data.values().toArray(new Object[data.size()]))
-                                    .build()
-
-                    );
-                }
             }
-            if (!series.isEmpty()) {
-                influxDB.get().write("fabric", TimeUnit.MILLISECONDS, series.toArray(new Serie[series.size()]));
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("added " + series.size() + " metrics");
-                }
+        }
+        if (!data.isEmpty()) {
+            String[] columns = new String[data.size()];
+            double[] values = new double[data.size()];
+            int i = 0;
+            for (Map.Entry<String, Double> entry : data.entrySet()) {
+                columns[i] = entry.getKey();
+                values[i] = entry.getValue();
+                i++;
             }
+            writer.add(new InfluxDBBatchWriter.Point(timestamp, columns, values));
         }
     }
 
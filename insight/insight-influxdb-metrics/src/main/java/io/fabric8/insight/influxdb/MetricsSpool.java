@@ -0,0 +1,206 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.influxdb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A bounded FIFO of binary records backed by a memory-mapped file.
+ * <p/>
+ * The file is used as a circular buffer and its read / write offsets are kept in a
+ * small header, so that records spooled before a restart are replayed afterwards.
+ * Records are appended at the tail, and only removed from the head once they have
+ * been successfully processed.  A record whose length does not fit in the spool,
+ * for example after a crash while the header was being written, can not be
+ * delimited from the following ones, so it is discarded with the rest of the spool.
+ */
+public class MetricsSpool {
+
+    private static final transient Logger LOG = LoggerFactory.getLogger(MetricsSpool.class);
+
+    private static final int HEADER_SIZE = 24;
+    private static final int WRAP = -1;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long readPos;
+    private long writePos;
+    private long used;
+    private long discarded;
+
+    public MetricsSpool(File file, int size) throws IOException {
+        if (size <= HEADER_SIZE + 4) {
+            throw new IllegalArgumentException("Spool size too small: " + size);
+        }
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        boolean exists = file.exists() && file.length() == size;
+        this.file = new RandomAccessFile(file, "rw");
+        this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        this.capacity = size;
+        if (exists) {
+            readPos = buffer.getLong(0);
+            writePos = buffer.getLong(8);
+            used = buffer.getLong(16);
+        }
+        if (!exists || !isValid(readPos) || !isValid(writePos) || used < 0 || used > capacity - HEADER_SIZE) {
+            readPos = HEADER_SIZE;
+            writePos = HEADER_SIZE;
+            used = 0;
+            writeHeader();
+        }
+    }
+
+    private boolean isValid(long pos) {
+        return pos >= HEADER_SIZE && pos <= capacity;
+    }
+
+    /**
+     * Appends a record at the tail of the spool.
+     *
+     * @return <code>false</code> if there is not enough space left
+     */
+    public synchronized boolean offer(byte[] record) {
+        int needed = 4 + record.length;
+        long free = capacity - HEADER_SIZE - used;
+        if (writePos + needed > capacity) {
+            // wrap around, the end of the file is wasted
+            long wasted = capacity - writePos;
+            if (needed + wasted > free) {
+                return false;
+            }
+            if (wasted >= 4) {
+                buffer.putInt((int) writePos, WRAP);
+            }
+            used += wasted;
+            writePos = HEADER_SIZE;
+        } else if (needed > free) {
+            return false;
+        }
+        buffer.putInt((int) writePos, record.length);
+        ByteBuffer dup = buffer.duplicate();
+        dup.position((int) writePos + 4);
+        dup.put(record);
+        writePos += needed;
+        used += needed;
+        writeHeader();
+        return true;
+    }
+
+    /**
+     * Returns the record at the head of the spool without removing it.
+     */
+    public synchronized byte[] peek() {
+        if (!skipWrap()) {
+            return null;
+        }
+        int length = buffer.getInt((int) readPos);
+        byte[] record = new byte[length];
+        ByteBuffer dup = buffer.duplicate();
+        dup.position((int) readPos + 4);
+        dup.get(record);
+        return record;
+    }
+
+    /**
+     * Removes the record at the head of the spool.
+     */
+    public synchronized void remove() {
+        if (!skipWrap()) {
+            return;
+        }
+        int needed = 4 + buffer.getInt((int) readPos);
+        readPos += needed;
+        used -= needed;
+        if (used == 0) {
+            readPos = HEADER_SIZE;
+            writePos = HEADER_SIZE;
+        }
+        writeHeader();
+    }
+
+    public synchronized boolean isEmpty() {
+        return used == 0;
+    }
+
+    public synchronized long getUsedBytes() {
+        return used;
+    }
+
+    /**
+     * Returns the number of bytes dropped because of corrupted records.
+     */
+    public synchronized long getDiscardedBytes() {
+        return discarded;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized void close() throws IOException {
+        buffer.force();
+        file.close();
+    }
+
+    private boolean skipWrap() {
+        if (used == 0) {
+            return false;
+        }
+        if (capacity - readPos < 4 || buffer.getInt((int) readPos) == WRAP) {
+            used -= capacity - readPos;
+            readPos = HEADER_SIZE;
+            if (used <= 0) {
+                return discard();
+            }
+        }
+        int length = buffer.getInt((int) readPos);
+        if (length < 0 || readPos + 4 + length > capacity || 4 + length > used) {
+            return discard();
+        }
+        return true;
+    }
+
+    private boolean discard() {
+        if (used > 0) {
+            LOG.warn("Discarding " + used + " bytes of corrupted spooled metrics");
+            discarded += used;
+        }
+        readPos = HEADER_SIZE;
+        writePos = HEADER_SIZE;
+        used = 0;
+        writeHeader();
+        return false;
+    }
+
+    private void writeHeader() {
+        buffer.putLong(0, readPos);
+        buffer.putLong(8, writePos);
+        buffer.putLong(16, used);
+    }
+
+}
@@ -0,0 +1,171 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.influxdb;
+
+import io.fabric8.api.scr.ValidatingReference;
+import io.fabric8.insight.influxdb.InfluxDBBatchWriter.Point;
+import org.influxdb.InfluxDB;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class InfluxDBBatchWriterTest extends Assert {
+
+    // Collaborators fixtures
+
+    File file;
+
+    MetricsSpool spool;
+
+    boolean available = true;
+
+    List<List<Point>> batches = new ArrayList<List<Point>>();
+
+    // Test subject fixture
+
+    InfluxDBBatchWriter writer;
+
+    // Fixtures setup
+
+    @Before
+    public void before() throws IOException {
+        file = File.createTempFile("metrics", ".spool");
+        file.delete();
+        spool = new MetricsSpool(file, 4096);
+        writer = new InfluxDBBatchWriter(new ValidatingReference<InfluxDB>(), spool, 10, 2, 1) {
+            @Override
+            protected boolean write(List<Point> points) {
+                if (!available) {
+                    return false;
+                }
+                batches.add(new ArrayList<Point>(points));
+                return true;
+            }
+        };
+    }
+
+    @After
+    public void after() throws IOException {
+        spool.close();
+        file.delete();
+    }
+
+    // Tests
+
+    @Test
+    public void shouldWriteTheQueuedPointsInBatches() {
+        // Given
+        for (int i = 1; i <= 3; i++) {
+            writer.add(point(i));
+        }
+
+        // When
+        writer.flush();
+
+        // Then
+        assertEquals(2, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(1, batches.get(1).size());
+        assertEquals(0, writer.getSpooled());
+        assertTrue(spool.isEmpty());
+    }
+
+    @Test
+    public void shouldReplaySpooledPointsInOrder() {
+        // Given
+        available = false;
+        for (int i = 1; i <= 3; i++) {
+            writer.add(point(i));
+        }
+        writer.flush();
+        assertEquals(3, writer.getSpooled());
+        available = true;
+        writer.add(point(4));
+
+        // When
+        writer.flush();
+        writer.flush();
+        writer.flush();
+
+        // Then
+        assertEquals(3, batches.size());
+        assertEquals(4, writer.getSpooled());
+        assertTrue(spool.isEmpty());
+        long time = 0;
+        for (List<Point> batch : batches) {
+            for (Point point : batch) {
+                assertEquals(++time, point.time);
+            }
+        }
+        assertEquals(4, time);
+    }
+
+    @Test
+    public void shouldDropPointsWhenTheQueueIsFull() {
+        // When
+        for (int i = 1; i <= 11; i++) {
+            writer.add(point(i));
+        }
+
+        // Then
+        assertEquals(1, writer.getDropped());
+    }
+
+    @Test
+    public void shouldDiscardUndecodableSpooledRecords() {
+        // Given
+        spool.offer(new byte[]{1, 2, 3});
+        spool.offer(new byte[]{-1, -1, -1, -1});
+        writer.add(point(1));
+
+        // When
+        writer.flush();
+
+        // Then
+        assertEquals(1, batches.size());
+        assertEquals(1, batches.get(0).get(0).time);
+        assertTrue(spool.isEmpty());
+    }
+
+    @Test
+    public void shouldSpoolTheQueuedPointsOnStop() throws IOException {
+        // Given
+        writer.add(point(1));
+        writer.add(point(2));
+
+        // When
+        writer.stop();
+
+        // Then
+        List<Point> points = InfluxDBBatchWriter.decode(spool.peek());
+        assertEquals(2, points.size());
+        assertEquals(1, points.get(0).time);
+        assertEquals("value", points.get(1).columns[0]);
+        assertEquals(2.0, points.get(1).values[0], 0.0);
+        assertTrue(batches.isEmpty());
+    }
+
+    private static Point point(long time) {
+        return new Point(time, new String[]{"value"}, new double[]{time});
+    }
+
+}
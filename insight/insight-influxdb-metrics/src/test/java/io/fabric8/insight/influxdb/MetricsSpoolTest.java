@@ -0,0 +1,152 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.influxdb;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class MetricsSpoolTest extends Assert {
+
+    static final int HEADER_SIZE = 24;
+
+    File file;
+
+    MetricsSpool spool;
+
+    @Before
+    public void before() throws IOException {
+        file = File.createTempFile("metrics", ".spool");
+        file.delete();
+        spool = new MetricsSpool(file, HEADER_SIZE + 3 * (4 + 10) + 4);
+    }
+
+    @After
+    public void after() throws IOException {
+        spool.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldReturnTheRecordsInOrder() {
+        // When
+        assertTrue(spool.offer(record(1)));
+        assertTrue(spool.offer(record(2)));
+
+        // Then
+        assertArrayEquals(record(1), spool.peek());
+        assertArrayEquals(record(1), spool.peek());
+        spool.remove();
+        assertArrayEquals(record(2), spool.peek());
+        spool.remove();
+        assertNull(spool.peek());
+        assertTrue(spool.isEmpty());
+    }
+
+    @Test
+    public void shouldRejectRecordsWhenFull() {
+        // Given
+        for (int i = 0; i < 3; i++) {
+            assertTrue(spool.offer(record(i)));
+        }
+
+        // When
+        boolean offered = spool.offer(record(3));
+
+        // Then
+        assertFalse(offered);
+        assertArrayEquals(record(0), spool.peek());
+    }
+
+    @Test
+    public void shouldWrapAroundTheEndOfTheFile() {
+        // Given
+        for (int i = 0; i < 3; i++) {
+            assertTrue(spool.offer(record(i)));
+        }
+        spool.remove();
+        spool.remove();
+
+        // When
+        assertTrue(spool.offer(record(3)));
+        assertTrue(spool.offer(record(4)));
+
+        // Then
+        for (int i = 2; i < 5; i++) {
+            assertArrayEquals(record(i), spool.peek());
+            spool.remove();
+        }
+        assertTrue(spool.isEmpty());
+        assertEquals(0, spool.getUsedBytes());
+    }
+
+    @Test
+    public void shouldReplayTheRecordsAfterReopening() throws IOException {
+        // Given
+        spool.offer(record(1));
+        spool.offer(record(2));
+        spool.remove();
+        spool.close();
+
+        // When
+        spool = new MetricsSpool(file, HEADER_SIZE + 3 * (4 + 10) + 4);
+
+        // Then
+        assertArrayEquals(record(2), spool.peek());
+        spool.remove();
+        assertTrue(spool.isEmpty());
+    }
+
+    @Test
+    public void shouldDiscardCorruptedRecords() throws IOException {
+        // Given
+        spool.offer(record(1));
+        spool.offer(record(2));
+        spool.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(HEADER_SIZE);
+            raf.writeInt(Integer.MAX_VALUE);
+        } finally {
+            raf.close();
+        }
+        spool = new MetricsSpool(file, HEADER_SIZE + 3 * (4 + 10) + 4);
+
+        // When
+        byte[] record = spool.peek();
+
+        // Then
+        assertNull(record);
+        assertTrue(spool.isEmpty());
+        assertEquals(2 * (4 + 10), spool.getDiscardedBytes());
+        assertTrue(spool.offer(record(3)));
+        assertArrayEquals(record(3), spool.peek());
+    }
+
+    private static byte[] record(int value) {
+        byte[] record = new byte[10];
+        for (int i = 0; i < record.length; i++) {
+            record[i] = (byte) (value + i);
+        }
+        return record;
+    }
+
+}
@@ -28,6 +28,8 @@ public class LogFilter {
     private String matchesText;
     private Long beforeTimestamp;
     private Long afterTimestamp;
+    private String logger;
+    private Long cursor;
 
     @Override
     public String toString() {
@@ -35,6 +37,8 @@ public class LogFilter {
                 "count=" + count +
                 ", afterTimestamp=" + afterTimestamp +
                 ", matchesText='" + matchesText + '\'' +
+                ", logger='" + logger + '\'' +
+                ", cursor=" + cursor +
                 '}';
     }
 
@@ -88,4 +92,26 @@ public class LogFilter {
     public void setBeforeTimestamp(Long beforeTimestamp) {
         this.beforeTimestamp = beforeTimestamp;
     }
+
+    /**
+     * Returns the logger name prefix the events must match
+     */
+    public String getLogger() {
+        return logger;
+    }
+
+    public void setLogger(String logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Returns the cursor of the last event already retrieved; only the events logged after it are returned
+     */
+    public Long getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(Long cursor) {
+        this.cursor = cursor;
+    }
 }
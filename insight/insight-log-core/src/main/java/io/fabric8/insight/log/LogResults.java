@@ -26,6 +26,7 @@ public class LogResults {
     private Long fromTimestamp;
     private Long toTimestamp;
     private String host;
+    private Long cursor;
 
     public void addEvent(LogEvent event) {
         if (events == null) {
@@ -65,4 +66,15 @@ public class LogResults {
     public void setHost(String host) {
         this.host = host;
     }
+
+    /**
+     * Returns the cursor of the last returned event, to be used in the next {@link LogFilter} to page through the events
+     */
+    public Long getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(Long cursor) {
+        this.cursor = cursor;
+    }
 }
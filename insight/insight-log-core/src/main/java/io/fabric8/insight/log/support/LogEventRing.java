@@ -0,0 +1,433 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.log.support;
+
+import io.fabric8.insight.log.LogEvent;
+import io.fabric8.insight.log.LogFilter;
+import io.fabric8.insight.log.LogResults;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A fixed size ring of logging events which keeps secondary indexes so that
+ * filtered queries do not have to scan and convert every event.
+ * <p/>
+ * Each event is stored along with its pre-extracted timestamp, level, logger and
+ * message, and gets a sequence number which can be used as a cursor to page
+ * through the results.  Events are indexed by level, by logger and by time bucket;
+ * the conversion to a {@link LogEvent} is only done for the events which match
+ * the cheap criteria, and at most once per event.  The text filter is tried on the
+ * extracted fields, then on the other fields of the native event through
+ * {@link Converter#matches(Object, String)}, so it does not convert the events
+ * it rejects either.
+ */
+public class LogEventRing<E> {
+
+    /**
+     * Converts the native logging event to a {@link LogEvent}.
+     */
+    public interface Converter<E> {
+        LogEvent toLogEvent(E event);
+
+        /**
+         * Returns whether the fields of the native event which are not extracted when it is added
+         * to the ring, such as its thread, class name, exception or properties, contain the given text.
+         */
+        boolean matches(E event, String text);
+    }
+
+    static final long TIME_BUCKET = 1000L;
+
+    private final Converter<E> converter;
+    private final Entry<E>[] entries;
+    private final Map<String, SeqList> levels = new HashMap<String, SeqList>();
+    private final Map<String, SeqList> loggers = new HashMap<String, SeqList>();
+    private final TreeMap<Long, Long> buckets = new TreeMap<Long, Long>();
+    private long first;
+    private long next;
+
+    @SuppressWarnings("unchecked")
+    public LogEventRing(int size, Converter<E> converter) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("The size must be greater than 0");
+        }
+        this.entries = new Entry[size];
+        this.converter = converter;
+    }
+
+    public synchronized long add(E event, long timestamp, String level, String logger, String message) {
+        long seq = next++;
+        int slot = (int) (seq % entries.length);
+        Entry<E> old = entries[slot];
+        if (old != null) {
+            evict(old);
+        }
+        Entry<E> entry = new Entry<E>(seq, event, timestamp, level, logger, message);
+        entries[slot] = entry;
+        index(levels, level, seq);
+        index(loggers, logger, seq);
+        Long bucket = timestamp / TIME_BUCKET;
+        if (buckets.isEmpty() || bucket > buckets.lastKey()) {
+            buckets.put(bucket, seq);
+        }
+        return seq;
+    }
+
+    public synchronized int size() {
+        return (int) (next - oldest());
+    }
+
+    public synchronized void clear() {
+        first = next;
+        Arrays.fill(entries, null);
+        levels.clear();
+        loggers.clear();
+        buckets.clear();
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    /**
+     * Returns the events matching the given filter, in the order they have been logged.
+     */
+    public LogResults query(LogFilter filter) {
+        List<Entry<E>> candidates = new ArrayList<Entry<E>>();
+        long from = Long.MAX_VALUE;
+        long to = Long.MIN_VALUE;
+        synchronized (this) {
+            long oldest = oldest();
+            long start = oldest;
+            long end = next;
+            Set<String> levelSet = null;
+            String loggerPrefix = null;
+            Long after = null;
+            Long before = null;
+            if (filter != null) {
+                if (filter.getCursor() != null) {
+                    start = Math.max(start, filter.getCursor() + 1);
+                }
+                after = filter.getAfterTimestamp();
+                if (after != null) {
+                    // a bucket is only indexed by an event newer than all the events logged before it,
+                    // so the events logged before the bucket preceding the after timestamp are all older;
+                    // the events logged out of order after that point are filtered by their timestamp
+                    Map.Entry<Long, Long> e = buckets.floorEntry(after / TIME_BUCKET - 1);
+                    if (e != null) {
+                        start = Math.max(start, e.getValue());
+                    }
+                }
+                // events logged out of order by concurrent threads may be older than any bucket, so the
+                // before timestamp is only filtered and never used to stop the scan early
+                before = filter.getBeforeTimestamp();
+                if (!filter.getLevelsSet().isEmpty()) {
+                    levelSet = filter.getLevelsSet();
+                }
+                if (filter.getLogger() != null && filter.getLogger().length() > 0) {
+                    loggerPrefix = filter.getLogger();
+                }
+            }
+            if (oldest < next) {
+                from = entries[(int) (oldest % entries.length)].timestamp;
+                to = entries[(int) ((next - 1) % entries.length)].timestamp;
+            }
+            if (start < end) {
+                long[] seqs = null;
+                if (levelSet != null) {
+                    seqs = collect(levels, levelSet, null, start, end);
+                }
+                if (loggerPrefix != null) {
+                    long[] bylogger = collect(loggers, null, loggerPrefix, start, end);
+                    if (seqs == null || bylogger.length < seqs.length) {
+                        seqs = bylogger;
+                    }
+                }
+                if (seqs != null) {
+                    for (long seq : seqs) {
+                        addCandidate(candidates, seq, levelSet, loggerPrefix, after, before);
+                    }
+                } else {
+                    for (long seq = start; seq < end; seq++) {
+                        addCandidate(candidates, seq, levelSet, loggerPrefix, after, before);
+                    }
+                }
+            }
+        }
+
+        // Match the text and convert the events outside of the lock
+        int maxCount = filter != null ? filter.getCount() : -1;
+        TextMatcher matcher = filter != null ? TextMatcher.create(filter.getMatchesText()) : null;
+        List<LogEvent> events = new ArrayList<LogEvent>();
+        Long cursor = null;
+        for (Entry<E> entry : candidates) {
+            if (matcher != null && !matches(matcher, entry)) {
+                continue;
+            }
+            events.add(getLogEvent(entry));
+            cursor = entry.seq;
+            if (maxCount > 0 && events.size() >= maxCount) {
+                break;
+            }
+        }
+        LogResults results = new LogResults();
+        results.setEvents(events);
+        results.setCursor(cursor);
+        if (from < Long.MAX_VALUE) {
+            results.setFromTimestamp(from);
+        }
+        if (to > Long.MIN_VALUE) {
+            results.setToTimestamp(to);
+        }
+        return results;
+    }
+
+    private long oldest() {
+        return Math.max(first, next - entries.length);
+    }
+
+    private void addCandidate(List<Entry<E>> candidates, long seq, Set<String> levelSet, String loggerPrefix, Long after, Long before) {
+        Entry<E> entry = entries[(int) (seq % entries.length)];
+        if (entry == null || entry.seq != seq) {
+            return;
+        }
+        if (levelSet != null && (entry.level == null || !levelSet.contains(entry.level))) {
+            return;
+        }
+        if (loggerPrefix != null && (entry.logger == null || !entry.logger.startsWith(loggerPrefix))) {
+            return;
+        }
+        if (after != null && entry.timestamp <= after) {
+            return;
+        }
+        if (before != null && entry.timestamp >= before) {
+            return;
+        }
+        candidates.add(entry);
+    }
+
+    private boolean matches(TextMatcher matcher, Entry<E> entry) {
+        if (matcher.matches(entry.message) || matcher.matches(entry.logger)) {
+            return true;
+        }
+        LogEvent converted = entry.converted;
+        if (converted != null) {
+            return matcher.matches(converted);
+        }
+        return converter.matches(entry.event, matcher.text);
+    }
+
+    private LogEvent getLogEvent(Entry<E> entry) {
+        LogEvent event = entry.converted;
+        if (event == null) {
+            event = converter.toLogEvent(entry.event);
+            entry.converted = event;
+        }
+        return event;
+    }
+
+    private long[] collect(Map<String, SeqList> index, Collection<String> keys, String prefix, long start, long end) {
+        List<SeqList> lists = new ArrayList<SeqList>();
+        if (keys != null) {
+            for (String key : keys) {
+                SeqList list = index.get(key);
+                if (list != null) {
+                    lists.add(list);
+                }
+            }
+        } else {
+            for (Map.Entry<String, SeqList> e : index.entrySet()) {
+                if (e.getKey() != null && e.getKey().startsWith(prefix)) {
+                    lists.add(e.getValue());
+                }
+            }
+        }
+        int size = 0;
+        for (SeqList list : lists) {
+            size += list.size();
+        }
+        long[] seqs = new long[size];
+        int nb = 0;
+        for (SeqList list : lists) {
+            nb = list.copyRange(start, end, seqs, nb);
+        }
+        seqs = Arrays.copyOf(seqs, nb);
+        if (lists.size() > 1) {
+            Arrays.sort(seqs);
+        }
+        return seqs;
+    }
+
+    private void evict(Entry<E> entry) {
+        unindex(levels, entry.level);
+        unindex(loggers, entry.logger);
+        // drop the buckets which only contain evicted events
+        long oldest = entry.seq + 1;
+        while (buckets.size() > 1) {
+            Map.Entry<Long, Long> first = buckets.firstEntry();
+            Map.Entry<Long, Long> second = buckets.higherEntry(first.getKey());
+            if (second.getValue() <= oldest) {
+                buckets.remove(first.getKey());
+            } else {
+                break;
+            }
+        }
+    }
+
+    private static void index(Map<String, SeqList> index, String key, long seq) {
+        SeqList list = index.get(key);
+        if (list == null) {
+            list = new SeqList();
+            index.put(key, list);
+        }
+        list.add(seq);
+    }
+
+    private static void unindex(Map<String, SeqList> index, String key) {
+        SeqList list = index.get(key);
+        if (list != null) {
+            list.removeFirst();
+            if (list.size() == 0) {
+                index.remove(key);
+            }
+        }
+    }
+
+    static class Entry<E> {
+        final long seq;
+        final E event;
+        final long timestamp;
+        final String level;
+        final String logger;
+        final String message;
+        volatile LogEvent converted;
+
+        Entry(long seq, E event, long timestamp, String level, String logger, String message) {
+            this.seq = seq;
+            this.event = event;
+            this.timestamp = timestamp;
+            this.level = level;
+            this.logger = logger;
+            this.message = message;
+        }
+    }
+
+    /**
+     * A growable circular list of increasing sequence numbers.
+     */
+    static class SeqList {
+        private long[] seqs = new long[16];
+        private int head;
+        private int size;
+
+        void add(long seq) {
+            if (size == seqs.length) {
+                long[] n = new long[seqs.length * 2];
+                for (int i = 0; i < size; i++) {
+                    n[i] = seqs[(head + i) % seqs.length];
+                }
+                seqs = n;
+                head = 0;
+            }
+            seqs[(head + size) % seqs.length] = seq;
+            size++;
+        }
+
+        void removeFirst() {
+            if (size > 0) {
+                head = (head + 1) % seqs.length;
+                size--;
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        long get(int index) {
+            return seqs[(head + index) % seqs.length];
+        }
+
+        /**
+         * Copies the sequence numbers within [start, end) into the given array.
+         */
+        int copyRange(long start, long end, long[] dest, int offset) {
+            // binary search the first element >= start
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (get(mid) < start) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int i = lo; i < size; i++) {
+                long seq = get(i);
+                if (seq >= end) {
+                    break;
+                }
+                dest[offset++] = seq;
+            }
+            return offset;
+        }
+    }
+
+    /**
+     * Matches a text against the fields of an event, built once per query.
+     */
+    static class TextMatcher {
+        private final String text;
+
+        private TextMatcher(String text) {
+            this.text = text;
+        }
+
+        static TextMatcher create(String text) {
+            return text != null && text.length() > 0 ? new TextMatcher(text) : null;
+        }
+
+        boolean matches(String value) {
+            return value != null && value.contains(text);
+        }
+
+        boolean matches(LogEvent event) {
+            if (matches(event.getClassName()) || matches(event.getMessage())
+                    || matches(event.getLogger()) || matches(event.getThread())) {
+                return true;
+            }
+            String[] exception = event.getException();
+            if (exception != null) {
+                for (String line : exception) {
+                    if (matches(line)) {
+                        return true;
+                    }
+                }
+            }
+            Map properties = event.getProperties();
+            return properties != null && matches(properties.toString());
+        }
+    }
+
+}
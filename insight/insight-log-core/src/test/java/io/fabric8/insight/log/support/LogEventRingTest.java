@@ -0,0 +1,207 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.log.support;
+
+import io.fabric8.insight.log.LogEvent;
+import io.fabric8.insight.log.LogFilter;
+import io.fabric8.insight.log.LogResults;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LogEventRingTest {
+    private static final String[] LEVELS = {"DEBUG", "INFO", "WARN", "ERROR"};
+    private static final String[] LOGGERS = {"io.fabric8.a", "io.fabric8.a.b", "io.fabric8.c", "org.apache"};
+
+    private int conversions;
+    private List<LogEvent> logged = new ArrayList<LogEvent>();
+    private LogEventRing.Converter<LogEvent> converter = new LogEventRing.Converter<LogEvent>() {
+        @Override
+        public LogEvent toLogEvent(LogEvent event) {
+            conversions++;
+            return event;
+        }
+
+        @Override
+        public boolean matches(LogEvent event, String text) {
+            return event.getThread() != null && event.getThread().contains(text);
+        }
+    };
+
+    @Test
+    public void testWrapAround() {
+        LogEventRing<LogEvent> ring = new LogEventRing<LogEvent>(4, converter);
+        for (int i = 0; i < 10; i++) {
+            add(ring, event(i * 1000L, "INFO", "io.fabric8", "message " + i, "main"));
+        }
+
+        LogResults results = ring.query(null);
+        assertEquals(4, ring.size());
+        assertEquals(logged.subList(6, 10), results.getEvents());
+        assertEquals(Long.valueOf(6000L), results.getFromTimestamp());
+        assertEquals(Long.valueOf(9000L), results.getToTimestamp());
+        assertEquals(Long.valueOf(9L), results.getCursor());
+    }
+
+    @Test
+    public void testEvictedEventsAreUnindexed() {
+        LogEventRing<LogEvent> ring = new LogEventRing<LogEvent>(4, converter);
+        add(ring, event(0L, "ERROR", "io.fabric8.old", "old", "main"));
+        for (int i = 1; i <= 4; i++) {
+            add(ring, event(i * 5000L, "INFO", "io.fabric8.new", "new " + i, "main"));
+        }
+
+        assertTrue(ring.query(filter(new String[]{"ERROR"}, null, null, null, null)).getEvents().isEmpty());
+        assertTrue(ring.query(filter(null, "io.fabric8.old", null, null, null)).getEvents().isEmpty());
+        assertTrue(ring.query(filter(null, null, null, null, 1000L)).getEvents().isEmpty());
+        assertEquals(4, ring.query(filter(new String[]{"INFO"}, "io.fabric8.new", null, null, null)).getEvents().size());
+        assertEquals(4, conversions);
+    }
+
+    @Test
+    public void testIndexedQueriesMatchAFullScan() {
+        Random random = new Random(42);
+        LogEventRing<LogEvent> ring = new LogEventRing<LogEvent>(100, converter);
+        for (int i = 0; i < 350; i++) {
+            // events are slightly out of order
+            long timestamp = i * 100L + random.nextInt(500);
+            add(ring, event(timestamp, LEVELS[random.nextInt(LEVELS.length)], LOGGERS[random.nextInt(LOGGERS.length)],
+                    "message " + i, "thread-" + random.nextInt(3)));
+        }
+        List<LogEvent> retained = logged.subList(250, 350);
+
+        List<LogFilter> filters = new ArrayList<LogFilter>();
+        filters.add(filter(new String[]{"WARN", "ERROR"}, null, null, null, null));
+        filters.add(filter(null, "io.fabric8.a", null, null, null));
+        filters.add(filter(new String[]{"INFO"}, "io.fabric8", null, null, null));
+        filters.add(filter(null, null, null, 28000L, 31000L));
+        filters.add(filter(new String[]{"DEBUG"}, null, "thread-1", 26000L, null));
+        filters.add(filter(null, "org", "message 3", null, 34000L));
+        filters.add(filter(null, null, "thread-2", null, null));
+        for (LogFilter filter : filters) {
+            assertEquals(filter.toString(), scan(retained, filter), ring.query(filter).getEvents());
+        }
+    }
+
+    @Test
+    public void testTimestampFiltersWithEventsOutOfOrder() {
+        LogEventRing<LogEvent> ring = new LogEventRing<LogEvent>(10, converter);
+        // concurrent threads may append their events after newer ones
+        LogEvent e0 = add(ring, event(1000L, "INFO", "io.fabric8", "e0", "thread-0"));
+        LogEvent e1 = add(ring, event(5000L, "INFO", "io.fabric8", "e1", "thread-1"));
+        LogEvent e2 = add(ring, event(1100L, "INFO", "io.fabric8", "e2", "thread-0"));
+        LogEvent e3 = add(ring, event(6000L, "INFO", "io.fabric8", "e3", "thread-1"));
+        LogEvent e4 = add(ring, event(5100L, "INFO", "io.fabric8", "e4", "thread-0"));
+        LogEvent e5 = add(ring, event(3500L, "INFO", "io.fabric8", "e5", "thread-2"));
+
+        assertEquals(Arrays.asList(e0, e2), ring.query(filter(null, null, null, null, 1200L)).getEvents());
+        assertEquals(Arrays.asList(e0, e2, e5), ring.query(filter(null, null, null, null, 4000L)).getEvents());
+        assertEquals(Arrays.asList(e2, e5), ring.query(filter(null, null, null, 1050L, 4000L)).getEvents());
+        assertEquals(Arrays.asList(e1, e3, e4, e5), ring.query(filter(null, null, null, 3000L, null)).getEvents());
+        assertEquals(Arrays.asList(e3, e4), ring.query(filter(null, null, null, 5050L, null)).getEvents());
+    }
+
+    @Test
+    public void testTextFilterOnlyConvertsMatchingEvents() {
+        LogEventRing<LogEvent> ring = new LogEventRing<LogEvent>(10, converter);
+        for (int i = 0; i < 10; i++) {
+            add(ring, event(i * 1000L, "INFO", "io.fabric8", "message " + i, "thread-" + (i % 5)));
+        }
+
+        LogResults results = ring.query(filter(null, null, "thread-3", null, null));
+        assertEquals(2, results.getEvents().size());
+        assertEquals(2, conversions);
+    }
+
+    @Test
+    public void testPagingWithTheCursor() {
+        LogEventRing<LogEvent> ring = new LogEventRing<LogEvent>(10, converter);
+        for (int i = 0; i < 7; i++) {
+            add(ring, event(i * 1000L, "INFO", "io.fabric8", "message " + i, "main"));
+        }
+        LogFilter filter = new LogFilter();
+        filter.setCount(3);
+
+        List<LogEvent> events = new ArrayList<LogEvent>();
+        LogResults results;
+        do {
+            results = ring.query(filter);
+            events.addAll(results.getEvents());
+            filter.setCursor(results.getCursor());
+        } while (!results.getEvents().isEmpty());
+        assertEquals(logged, events);
+    }
+
+    private LogEvent add(LogEventRing<LogEvent> ring, LogEvent event) {
+        logged.add(event);
+        ring.add(event, event.getTimestamp().getTime(), event.getLevel(), event.getLogger(), event.getMessage());
+        return event;
+    }
+
+    private static List<LogEvent> scan(List<LogEvent> events, LogFilter filter) {
+        List<LogEvent> answer = new ArrayList<LogEvent>();
+        for (LogEvent event : events) {
+            long timestamp = event.getTimestamp().getTime();
+            if (!filter.getLevelsSet().isEmpty() && !filter.getLevelsSet().contains(event.getLevel())) {
+                continue;
+            }
+            if (filter.getLogger() != null && !event.getLogger().startsWith(filter.getLogger())) {
+                continue;
+            }
+            if (filter.getAfterTimestamp() != null && timestamp <= filter.getAfterTimestamp()) {
+                continue;
+            }
+            if (filter.getBeforeTimestamp() != null && timestamp >= filter.getBeforeTimestamp()) {
+                continue;
+            }
+            String text = filter.getMatchesText();
+            if (text != null && !event.getMessage().contains(text) && !event.getLogger().contains(text)
+                    && !event.getThread().contains(text)) {
+                continue;
+            }
+            answer.add(event);
+        }
+        return answer;
+    }
+
+    private static LogFilter filter(String[] levels, String logger, String text, Long after, Long before) {
+        LogFilter filter = new LogFilter();
+        filter.setLevels(levels);
+        filter.setLogger(logger);
+        filter.setMatchesText(text);
+        filter.setAfterTimestamp(after);
+        filter.setBeforeTimestamp(before);
+        return filter;
+    }
+
+    private static LogEvent event(long timestamp, String level, String logger, String message, String thread) {
+        LogEvent event = new LogEvent();
+        event.setTimestamp(new Date(timestamp));
+        event.setLevel(level);
+        event.setLogger(logger);
+        event.setMessage(message);
+        event.setThread(thread);
+        return event;
+    }
+
+}
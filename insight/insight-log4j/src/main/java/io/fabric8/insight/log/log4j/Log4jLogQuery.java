@@ -31,8 +31,7 @@ import io.fabric8.insight.log.LogEvent;
 import io.fabric8.insight.log.LogFilter;
 import io.fabric8.insight.log.LogResults;
 import io.fabric8.insight.log.support.LogQuerySupport;
-import io.fabric8.insight.log.support.LruList;
-import io.fabric8.insight.log.support.Predicate;
+import io.fabric8.insight.log.support.LogEventRing;
 import org.ops4j.util.property.PropertiesPropertyResolver;
 import org.slf4j.ILoggerFactory;
 import org.slf4j.Logger;
@@ -43,12 +42,9 @@ import javax.annotation.PreDestroy;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.ConfigurationPolicy;
@@ -66,7 +62,7 @@ public class Log4jLogQuery extends LogQuerySupport implements Log4jLogQueryMBean
     private static final transient Logger LOG = LoggerFactory.getLogger(Log4jLogQuery.class);
 
     private int size = 1000;
-    private LruList<LoggingEvent> events;
+    private volatile LogEventRing<LoggingEvent> events;
     private boolean addMavenCoordinates = true;
     private AetherBasedResolver resolver;
     private Properties properties = new Properties();
@@ -118,137 +114,15 @@ public class Log4jLogQuery extends LogQuerySupport implements Log4jLogQueryMBean
     }
 
     public LogResults getLogResults(int maxCount) throws IOException {
-        return filterLogResults(null, maxCount);
+        LogFilter filter = new LogFilter();
+        filter.setCount(maxCount);
+        return queryLogResults(filter);
     }
 
     public LogResults queryLogResults(LogFilter filter) {
-        Predicate<LogEvent> predicate = createPredicate(filter);
-        int maxCount = -1;
-        if (filter != null) {
-            maxCount = filter.getCount();
-        }
-        return filterLogResults(predicate, maxCount);
-    }
-
-    private Predicate<LogEvent> createPredicate(LogFilter filter) {
-        if (filter == null) {
-            return null;
-        }
-        final List<Predicate<LogEvent>> predicates = new ArrayList<Predicate<LogEvent>>();
-
-        final Set<String> levels = filter.getLevelsSet();
-        if (levels.size() > 0) {
-            predicates.add(new Predicate<LogEvent>() {
-                @Override
-                public boolean matches(LogEvent event) {
-                    String level = event.getLevel();
-                    return level != null && levels.contains(level.toString());
-                }
-            });
-        }
-        final Long before = filter.getBeforeTimestamp();
-        if (before != null) {
-            final Date date = new Date(before);
-            predicates.add(new Predicate<LogEvent>() {
-                @Override
-                public boolean matches(LogEvent event) {
-                    Date time = event.getTimestamp();
-                    return time != null && time.before(date);
-                }
-            });
-        }
-        final Long after = filter.getAfterTimestamp();
-        if (after != null) {
-            final Date date = new Date(after);
-            predicates.add(new Predicate<LogEvent>() {
-                @Override
-                public boolean matches(LogEvent event) {
-                    Date time = event.getTimestamp();
-                    return time != null && time.after(date);
-                }
-            });
-        }
-
-        final String matchesText = filter.getMatchesText();
-        if (matchesText != null && matchesText.length() > 0) {
-            predicates.add(new Predicate<LogEvent>() {
-                @Override
-                public boolean matches(LogEvent event) {
-                    if (contains(matchesText, event.getClassName(), event.getMessage(), event.getLogger(), event.getThread())) {
-                        return true;
-                    }
-                    String[] throwableStrRep = event.getException();
-                    if (throwableStrRep != null && contains(matchesText, throwableStrRep)) {
-                        return true;
-                    }
-                    Map properties = event.getProperties();
-                    if (properties != null && contains(matchesText, properties.toString())) {
-                        return true;
-                    }
-                    return false;
-                }
-            });
-        }
-
-        if (predicates.size() == 0) {
-            return null;
-        } else if (predicates.size() == 1) {
-            return predicates.get(0);
-        } else {
-            return new Predicate<LogEvent>() {
-                @Override
-                public String toString() {
-                    return "AndPredicate" + predicates;
-                }
-
-                @Override
-                public boolean matches(LogEvent event) {
-                    for (Predicate<LogEvent> predicate : predicates) {
-                        if (!predicate.matches(event)) {
-                            return false;
-                        }
-                    }
-                    return true;
-                }
-            };
-        }
-    }
-
-    protected LogResults filterLogResults(Predicate<LogEvent> predicate, int maxCount) {
-        int matched = 0;
-        long from = Long.MAX_VALUE;
-        long to = Long.MIN_VALUE;
-        List<LogEvent> list = new ArrayList<LogEvent>();
-        Iterable<LoggingEvent> elements = getEvents().getElements();
-        for (LoggingEvent element : elements) {
-            LogEvent logEvent = toLogEvent(element);
-            long timestamp = element.getTimeStamp();
-            if (timestamp > to) {
-                to = timestamp;
-            }
-            if (timestamp < from) {
-                from = timestamp;
-            }
-            if (logEvent != null) {
-                if (predicate == null || predicate.matches(logEvent)) {
-                    list.add(logEvent);
-                    matched += 1;
-                    if (maxCount > 0 && matched >= maxCount) {
-                        break;
-                    }
-                }
-            }
-        }
-        LogResults results = new LogResults();
-        results.setEvents(list);
-        if (from < Long.MAX_VALUE) {
-            results.setFromTimestamp(from);
-        }
-        if (to > Long.MIN_VALUE) {
-            results.setToTimestamp(to);
-        }
+        LogResults results = getEvents().query(filter);
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Requested " + maxCount + " logging items. returning "
+            LOG.debug("Requested " + (filter != null ? filter.getCount() : -1) + " logging items. returning "
                     + results.getEvents().size() + " event(s) from a possible " + getEvents().size());
 
         }
@@ -297,6 +171,27 @@ public class Log4jLogQuery extends LogQuerySupport implements Log4jLogQueryMBean
         return answer;
     }
 
+    /**
+     * Returns whether the fields of the event matched by the text filter, other than its message and logger,
+     * contain the given text, without rendering the whole event.
+     */
+    protected boolean matches(LoggingEvent element, String matchesText) {
+        String className = element.getFQNOfLoggerClass();
+        LocationInfo locationInformation = element.getLocationInformation();
+        if (locationInformation != null) {
+            className = locationInformation.getClassName();
+        }
+        if (contains(matchesText, className, element.getThreadName())) {
+            return true;
+        }
+        String[] throwableStrRep = element.getThrowableStrRep();
+        if (throwableStrRep != null && contains(matchesText, throwableStrRep)) {
+            return true;
+        }
+        Map properties = element.getProperties();
+        return properties != null && contains(matchesText, properties.toString());
+    }
+
     protected String filterLogEvents(LogFilter filter) throws IOException {
         // TODO
         return null;
@@ -361,14 +256,31 @@ public class Log4jLogQuery extends LogQuerySupport implements Log4jLogQueryMBean
 
     // Properties
     //-------------------------------------------------------------------------
-    public LruList<LoggingEvent> getEvents() {
-        if (events == null) {
-            events = new LruList<LoggingEvent>(LoggingEvent.class, getSize());
+    public LogEventRing<LoggingEvent> getEvents() {
+        LogEventRing<LoggingEvent> answer = events;
+        if (answer == null) {
+            synchronized (this) {
+                answer = events;
+                if (answer == null) {
+                    answer = new LogEventRing<LoggingEvent>(getSize(), new LogEventRing.Converter<LoggingEvent>() {
+                        @Override
+                        public LogEvent toLogEvent(LoggingEvent event) {
+                            return Log4jLogQuery.this.toLogEvent(event);
+                        }
+
+                        @Override
+                        public boolean matches(LoggingEvent event, String text) {
+                            return Log4jLogQuery.this.matches(event, text);
+                        }
+                    });
+                    events = answer;
+                }
+            }
         }
-        return events;
+        return answer;
     }
 
-    public void setEvents(LruList<LoggingEvent> events) {
+    public synchronized void setEvents(LogEventRing<LoggingEvent> events) {
         this.events = events;
     }
 
@@ -417,6 +329,8 @@ public class Log4jLogQuery extends LogQuerySupport implements Log4jLogQueryMBean
         if (addMavenCoordinates) {
             appendMavenCoordinates(record);
         }
-		getEvents().add(record);
+        Level level = record.getLevel();
+        getEvents().add(record, record.getTimeStamp(), level != null ? level.toString() : null,
+                record.getLoggerName(), record.getRenderedMessage());
 	}
 }
@@ -26,6 +26,7 @@ public class Query {
     private final int period;
     private final int minPeriod;
     private final String lock;
+    private transient int hash;
 
     public Query(String name, Set<Request> requests, String template, String metadata, String lock, int period, int minPeriod) {
         this.name = name;
@@ -85,11 +86,16 @@ public class Query {
 
     @Override
     public int hashCode() {
+        // queries are immutable and used as map keys on every collection, so cache the hash
+        if (hash != 0) {
+            return hash;
+        }
         int result = name != null ? name.hashCode() : 0;
         result = 31 * result + (requests != null ? requests.hashCode() : 0);
         result = 31 * result + (template != null ? template.hashCode() : 0);
         result = 31 * result + (metadata != null ? metadata.hashCode() : 0);
         result = 31 * result + period;
+        hash = result;
         return result;
     }
 }
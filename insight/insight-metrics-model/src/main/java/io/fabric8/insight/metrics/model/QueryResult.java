@@ -15,7 +15,11 @@
  */
 package io.fabric8.insight.metrics.model;
 
+import javax.management.ObjectName;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class QueryResult {
@@ -47,4 +51,69 @@ public class QueryResult {
     public Map<String, Result<?>> getResults() {
         return results;
     }
+
+    /**
+     * Computes the changes between the given previous result and this one.
+     * Only the attributes and operation values that differ are kept.
+     *
+     * @param previous the previous result of the same query
+     * @return a result holding the changed values only, or <code>null</code> if nothing changed
+     */
+    public QueryResult changesSince(QueryResult previous) {
+        if (previous == null || previous.getResults() == null || results == null) {
+            return this;
+        }
+        Map<String, Result<?>> changes = new HashMap<String, Result<?>>();
+        for (Map.Entry<String, Result<?>> entry : results.entrySet()) {
+            Result<?> result = entry.getValue();
+            Result<?> old = previous.getResults().get(entry.getKey());
+            Result<?> delta;
+            if (old == null || old.getClass() != result.getClass()) {
+                delta = result;
+            } else if (result instanceof MBeanAttrsResult) {
+                delta = changes((MBeanAttrsResult) result, (MBeanAttrsResult) old);
+            } else if (result instanceof MBeanOpersResult) {
+                delta = changes((MBeanOpersResult) result, (MBeanOpersResult) old);
+            } else {
+                delta = result.equals(old) ? null : result;
+            }
+            if (delta != null) {
+                changes.put(entry.getKey(), delta);
+            }
+        }
+        return changes.isEmpty() ? null : new QueryResult(server, query, timestamp, changes);
+    }
+
+    private static MBeanAttrsResult changes(MBeanAttrsResult result, MBeanAttrsResult old) {
+        Map<ObjectName, Map<String, Object>> previous = new HashMap<ObjectName, Map<String, Object>>();
+        for (MBeanAttrResult r : old.getResults()) {
+            previous.put(r.getObjectName(), r.getAttrs());
+        }
+        List<MBeanAttrResult> changed = new ArrayList<MBeanAttrResult>();
+        for (MBeanAttrResult r : result.getResults()) {
+            Map<String, Object> oldAttrs = previous.get(r.getObjectName());
+            if (oldAttrs == null) {
+                changed.add(r);
+                continue;
+            }
+            Map<String, Object> attrs = new HashMap<String, Object>();
+            for (Map.Entry<String, Object> attr : r.getAttrs().entrySet()) {
+                Object value = attr.getValue();
+                Object oldValue = oldAttrs.get(attr.getKey());
+                if (value != null ? !value.equals(oldValue) : oldValue != null || !oldAttrs.containsKey(attr.getKey())) {
+                    attrs.put(attr.getKey(), value);
+                }
+            }
+            if (!attrs.isEmpty()) {
+                changed.add(new MBeanAttrResult(r.getObjectName(), attrs));
+            }
+        }
+        return changed.isEmpty() ? null : new MBeanAttrsResult(result.getRequest(), changed);
+    }
+
+    private static MBeanOpersResult changes(MBeanOpersResult result, MBeanOpersResult old) {
+        List<MBeanOperResult> changed = new ArrayList<MBeanOperResult>(result.getResults());
+        changed.removeAll(old.getResults());
+        return changed.isEmpty() ? null : new MBeanOpersResult(result.getRequest(), changed);
+    }
 }
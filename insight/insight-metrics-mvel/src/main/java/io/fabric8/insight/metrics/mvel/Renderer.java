@@ -26,14 +26,27 @@ import org.mvel2.templates.TemplateRuntime;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class Renderer {
 
+    /**
+     * The maximum number of queries whose compiled template is remembered, the least recently used are dropped first
+     */
+    private static final int MAX_BOUND_TEMPLATES = 1000;
+
     private Map<Query, String> sources = new ConcurrentHashMap<Query, String>();
     private Map<String, CompiledTemplate> templates = new ConcurrentHashMap<String, CompiledTemplate>();
+    private Map<Query, CompiledTemplate> bound = Collections.synchronizedMap(new LinkedHashMap<Query, CompiledTemplate>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Query, CompiledTemplate> eldest) {
+            return size() > MAX_BOUND_TEMPLATES;
+        }
+    });
     private ParserContext context;
 
     public Renderer() {
@@ -53,11 +66,15 @@ public class Renderer {
     }
 
     private CompiledTemplate getTemplate(Query set) throws IOException {
-        String source = getTemplateSource(set);
-        CompiledTemplate template = templates.get(source);
+        CompiledTemplate template = bound.get(set);
         if (template == null) {
-            template = TemplateCompiler.compileTemplate(source, context);
-            templates.put(source, template);
+            String source = getTemplateSource(set);
+            template = templates.get(source);
+            if (template == null) {
+                template = TemplateCompiler.compileTemplate(source, context);
+                templates.put(source, template);
+            }
+            bound.put(set, template);
         }
         return template;
     }
@@ -27,6 +27,7 @@ import io.fabric8.groups.NodeState;
 import io.fabric8.groups.internal.TrackingZooKeeperGroup;
 import io.fabric8.insight.metrics.model.*;
 import io.fabric8.insight.metrics.service.support.JmxUtils;
+import io.fabric8.insight.metrics.service.support.ObjectNameCache;
 import io.fabric8.service.LocalJMXConnector;
 import org.apache.felix.scr.annotations.*;
 import org.apache.karaf.jaas.boot.principal.RolePrincipal;
@@ -86,6 +87,7 @@ public class MetricsCollector implements MetricsCollectorMBean {
 
     private ScheduledThreadPoolExecutor executor;
     private Map<Query, QueryState> queries = new ConcurrentHashMap<Query, QueryState>();
+    private ObjectNameCache objectNames;
 
     @Reference
     private MBeanServer mbeanServer;
@@ -99,17 +101,15 @@ public class MetricsCollector implements MetricsCollectorMBean {
     private BundleContext bundleContext;
 
     static class QueryState {
-        ScheduledFuture<?> future;
         Server server;
         Query query;
         QueryResult lastResult;
-        boolean lastResultSent;
         long lastSent;
+        volatile long nextRun;
         Map metadata;
         Group<QueryNodeState> lock;
 
         public void close() {
-            future.cancel(false);
             if (lock != null) {
                 try {
                     lock.close();
@@ -126,6 +126,8 @@ public class MetricsCollector implements MetricsCollectorMBean {
         this.executor = new ScheduledThreadPoolExecutor(threadPoolSize);
         this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
         this.executor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+        this.objectNames = new ObjectNameCache(mbeanServer);
+        this.objectNames.start();
 
         this.executor.scheduleWithFixedDelay(new Runnable() {
             @Override
@@ -133,6 +135,7 @@ public class MetricsCollector implements MetricsCollectorMBean {
                 process();
             }
         }, 1, defaultDelay, TimeUnit.SECONDS);
+        this.executor.scheduleAtFixedRate(new Task(), 1, 1, TimeUnit.SECONDS);
 
         JMXUtils.registerMBean(this, mbeanServer, new ObjectName("io.fabric8.insight:type=MetricsCollector"));
     }
@@ -157,6 +160,7 @@ public class MetricsCollector implements MetricsCollectorMBean {
         for (QueryState q : queries.values()) {
             q.close();
         }
+        objectNames.stop();
     }
 
     private void bindStorage(MetricsStorageService storage) {
@@ -248,12 +252,7 @@ public class MetricsCollector implements MetricsCollectorMBean {
                         state.lock.start();
                     }
 
-                    long delay = q.getPeriod() > 0 ? q.getPeriod() : defaultDelay;
-                    state.future = this.executor.scheduleAtFixedRate(
-                            new Task(state, storage),
-                            Math.round(Math.random() * 1000) + 1,
-                            delay * 1000,
-                            TimeUnit.MILLISECONDS);
+                    state.nextRun = System.currentTimeMillis() + Math.round(Math.random() * 1000) + 1;
                     queries.put(q, state);
                 }
             }
@@ -324,35 +323,47 @@ public class MetricsCollector implements MetricsCollectorMBean {
         }
     }
 
+    /**
+     * Collects all the queries that are due in a single pass, so that MBean names
+     * are resolved once and each MBean is read once per tick.
+     */
     class Task implements Runnable {
 
-        private final QueryState query;
-
-        public Task(QueryState query, ValidatingReference<MetricsStorageService> storage) {
-            this.query = query;
-        }
-
         @Override
         public void run() {
             try {
-                final MetricsStorageService svc = storage.get();
+                final MetricsStorageService svc = storage.getOptional();
                 // Abort if required services aren't available
                 if (mbeanServer == null || svc == null) {
                     return;
                 }
-                // If there's a lock, check we are the master
-                if (query.lock != null && !query.lock.isMaster()) {
+                long now = System.currentTimeMillis();
+                final Map<Query, QueryState> due = new LinkedHashMap<Query, QueryState>();
+                for (QueryState state : queries.values()) {
+                    if (state.nextRun <= now) {
+                        long delay = state.query.getPeriod() > 0 ? state.query.getPeriod() : defaultDelay;
+                        state.nextRun += TimeUnit.SECONDS.toMillis(delay);
+                        if (state.nextRun <= now) {
+                            state.nextRun = now + TimeUnit.SECONDS.toMillis(delay);
+                        }
+                        // If there's a lock, check we are the master
+                        if (state.lock == null || state.lock.isMaster()) {
+                            due.put(state.query, state);
+                        }
+                    }
+                }
+                if (due.isEmpty()) {
                     return;
                 }
 
                 Subject subject = new Subject();
                 subject.getPrincipals().add(new RolePrincipal("viewer"));
 
-                QueryResult qrs = Subject.doAsPrivileged(subject, new PrivilegedAction<QueryResult>() {
+                Map<Query, QueryResult> results = Subject.doAsPrivileged(subject, new PrivilegedAction<Map<Query, QueryResult>>() {
                     @Override
-                    public QueryResult run() {
+                    public Map<Query, QueryResult> run() {
                         try {
-                            return JmxUtils.execute(query.server, query.query, mbeanServer);
+                            return JmxUtils.execute(due.values().iterator().next().server, due.keySet(), mbeanServer, objectNames);
                         } catch (Throwable e) {
                             LOG.error("Error sending metrics", e);
                         }
@@ -360,28 +371,34 @@ public class MetricsCollector implements MetricsCollectorMBean {
                     }
                 }, AccessController.getContext());
 
-                if (qrs != null) {
-                    boolean forceSend = query.query.getMinPeriod() == query.query.getPeriod() ||
-                            qrs.getTimestamp().getTime() - query.lastSent >= TimeUnit.SECONDS.toMillis(query.query.getMinPeriod());
-                    if (!forceSend && query.lastResult != null) {
-                        if (qrs.getResults().equals(query.lastResult.getResults())) {
-                            query.lastResult = qrs;
-                            query.lastResultSent = false;
-                        }
-                        if (!query.lastResultSent) {
-                            renderAndSend(svc, query.lastResult);
+                if (results != null) {
+                    for (Map.Entry<Query, QueryResult> entry : results.entrySet()) {
+                        try {
+                            send(svc, due.get(entry.getKey()), entry.getValue());
+                        } catch (Throwable e) {
+                            LOG.error("Error sending metrics", e);
                         }
                     }
-                    query.lastResult = qrs;
-                    query.lastResultSent = true;
-                    query.lastSent = qrs.getTimestamp().getTime();
-                    renderAndSend(svc, qrs);
                 }
             } catch (Throwable e) {
                 LOG.error("Error sending metrics", e);
             }
         }
 
+        private void send(MetricsStorageService svc, QueryState query, QueryResult qrs) throws Exception {
+            boolean forceSend = query.lastResult == null
+                    || query.query.getMinPeriod() == query.query.getPeriod()
+                    || qrs.getTimestamp().getTime() - query.lastSent >= TimeUnit.SECONDS.toMillis(query.query.getMinPeriod());
+            // Only send when a value changed since the last collection, unless a full result is due.
+            // The whole result is sent as the templates render all the attributes of a query
+            boolean changed = forceSend || qrs.changesSince(query.lastResult) != null;
+            query.lastResult = qrs;
+            if (changed) {
+                query.lastSent = qrs.getTimestamp().getTime();
+                renderAndSend(svc, qrs);
+            }
+        }
+
         private void renderAndSend(MetricsStorageService svc, QueryResult qrs) throws Exception {
             long timestamp = qrs.getTimestamp().getTime();
             svc.store(type, timestamp, qrs);
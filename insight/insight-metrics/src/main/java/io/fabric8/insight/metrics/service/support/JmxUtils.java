@@ -17,6 +17,8 @@ package io.fabric8.insight.metrics.service.support;
 
 import io.fabric8.insight.metrics.model.*;
 import io.fabric8.insight.metrics.model.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.management.*;
 import javax.management.openmbean.CompositeDataSupport;
@@ -25,6 +27,8 @@ import java.util.*;
 
 public class JmxUtils {
 
+    private static final Logger LOG = LoggerFactory.getLogger(JmxUtils.class);
+
     public static QueryResult execute(Server server, Query query, MBeanServerConnection mbs) throws JMException, IOException {
         // Iterate through queries
         Map<String, Result<?>> queryResults = new HashMap<String, Result<?>>();
@@ -34,6 +38,98 @@ public class JmxUtils {
         return new QueryResult(server, query, new Date(), queryResults);
     }
 
+    /**
+     * Executes all the given queries in a single pass.
+     * Attribute requests are grouped per MBean so that each MBean is only read once
+     * with the union of the attributes needed by all the queries, and MBean names are
+     * resolved through the given cache.
+     * A failing request or MBean only drops its own values, the results of the other requests and queries are still returned.
+     */
+    public static Map<Query, QueryResult> execute(Server server, Collection<Query> queries, MBeanServerConnection mbs, ObjectNameCache cache) {
+        // Collect the attributes needed for each mbean
+        Map<ObjectName, Set<String>> attributes = new LinkedHashMap<ObjectName, Set<String>>();
+        for (Query query : queries) {
+            for (Request request : query.getRequests()) {
+                if (request instanceof MBeanAttrs) {
+                    Set<ObjectName> mbeans;
+                    try {
+                        mbeans = cache.queryNames(((MBeanAttrs) request).getObj());
+                    } catch (Exception e) {
+                        LOG.warn("Unable to resolve MBeans " + ((MBeanAttrs) request).getObj() + " of query " + query.getName() + ": " + e);
+                        continue;
+                    }
+                    for (ObjectName mbean : mbeans) {
+                        Set<String> attrs = attributes.get(mbean);
+                        if (attrs == null) {
+                            attrs = new LinkedHashSet<String>();
+                            attributes.put(mbean, attrs);
+                        }
+                        attrs.addAll(((MBeanAttrs) request).getAttrs());
+                    }
+                }
+            }
+        }
+        // Read them all at once
+        Map<ObjectName, Map<String, Object>> values = new HashMap<ObjectName, Map<String, Object>>();
+        for (Map.Entry<ObjectName, Set<String>> entry : attributes.entrySet()) {
+            Set<String> attrs = entry.getValue();
+            Map<String, Object> mbeanValues = new HashMap<String, Object>();
+            try {
+                AttributeList al = mbs.getAttributes(entry.getKey(), attrs.toArray(new String[attrs.size()]));
+                for (Attribute attribute : al.asList()) {
+                    mbeanValues.put(attribute.getName(), getJmxValue(attribute.getValue()));
+                }
+            } catch (InstanceNotFoundException e) {
+                // The mbean has been unregistered since the names have been resolved
+                continue;
+            } catch (Exception e) {
+                LOG.warn("Unable to read attributes " + attrs + " of MBean " + entry.getKey() + ": " + e);
+                continue;
+            }
+            values.put(entry.getKey(), mbeanValues);
+        }
+        // Dispatch the values to each query
+        Date timestamp = new Date();
+        Map<Query, QueryResult> results = new LinkedHashMap<Query, QueryResult>();
+        for (Query query : queries) {
+            Map<String, Result<?>> queryResults = new HashMap<String, Result<?>>();
+            for (Request request : query.getRequests()) {
+                try {
+                    if (request instanceof MBeanAttrs) {
+                        queryResults.put(request.getName(), select((MBeanAttrs) request, values, cache));
+                    } else if (request instanceof MBeanOpers) {
+                        queryResults.put(request.getName(), execute((MBeanOpers) request, mbs, cache.queryNames(((MBeanOpers) request).getObj())));
+                    } else {
+                        throw new IllegalArgumentException("Unsupported request " + request);
+                    }
+                } catch (Exception e) {
+                    LOG.warn("Unable to execute request " + request.getName() + " of query " + query.getName() + ": " + e);
+                }
+            }
+            if (!queryResults.isEmpty() || query.getRequests().isEmpty()) {
+                results.put(query, new QueryResult(server, query, timestamp, queryResults));
+            }
+        }
+        return results;
+    }
+
+    private static MBeanAttrsResult select(MBeanAttrs request, Map<ObjectName, Map<String, Object>> values, ObjectNameCache cache) throws JMException, IOException {
+        List<MBeanAttrResult> results = new ArrayList<MBeanAttrResult>();
+        for (ObjectName mbean : cache.queryNames(request.getObj())) {
+            Map<String, Object> mbeanValues = values.get(mbean);
+            if (mbeanValues != null) {
+                Map<String, Object> attrs = new HashMap<String, Object>();
+                for (String attr : request.getAttrs()) {
+                    if (mbeanValues.containsKey(attr)) {
+                        attrs.put(attr, mbeanValues.get(attr));
+                    }
+                }
+                results.add(new MBeanAttrResult(mbean, attrs));
+            }
+        }
+        return new MBeanAttrsResult(request, results);
+    }
+
     private static Result execute(Server server, Request request, MBeanServerConnection mbs) throws JMException, IOException {
         if (request instanceof MBeanAttrs) {
             return execute(server, ((MBeanAttrs) request), mbs);
@@ -45,9 +141,12 @@ public class JmxUtils {
     }
 
     public static MBeanOpersResult execute(Server server, MBeanOpers request, MBeanServerConnection mbs) throws JMException, IOException {
-        List<MBeanOperResult> results = new ArrayList<MBeanOperResult>();
         // Get all mbeans
-        Set<ObjectName> mbeans = mbs.queryNames(new ObjectName(request.getObj()), null);
+        return execute(request, mbs, mbs.queryNames(new ObjectName(request.getObj()), null));
+    }
+
+    private static MBeanOpersResult execute(MBeanOpers request, MBeanServerConnection mbs, Set<ObjectName> mbeans) throws JMException, IOException {
+        List<MBeanOperResult> results = new ArrayList<MBeanOperResult>();
         for (ObjectName mbean : mbeans) {
             // Invoke operation
             List<Object> args = request.getArgs();
@@ -0,0 +1,110 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.metrics.service.support;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the parsed {@link ObjectName} patterns used by metrics queries along with
+ * the names they resolve to.  Resolved names are invalidated when an MBean matching
+ * the pattern is registered or unregistered, so that <code>queryNames</code> is only
+ * issued again when the set of MBeans actually changed.
+ */
+public class ObjectNameCache implements NotificationListener {
+
+    private final MBeanServerConnection mbeanServer;
+    private final Map<String, ObjectName> patterns = new ConcurrentHashMap<String, ObjectName>();
+    private final Map<ObjectName, Set<ObjectName>> names = new ConcurrentHashMap<ObjectName, Set<ObjectName>>();
+    private final AtomicLong generation = new AtomicLong();
+    private volatile boolean listening;
+
+    public ObjectNameCache(MBeanServerConnection mbeanServer) {
+        this.mbeanServer = mbeanServer;
+    }
+
+    public void start() throws InstanceNotFoundException, IOException {
+        mbeanServer.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this, null, null);
+        listening = true;
+    }
+
+    public void stop() {
+        listening = false;
+        try {
+            mbeanServer.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this);
+        } catch (InstanceNotFoundException | ListenerNotFoundException | IOException e) {
+            // Ignore
+        }
+        clear();
+    }
+
+    public ObjectName getObjectName(String name) throws MalformedObjectNameException {
+        ObjectName objectName = patterns.get(name);
+        if (objectName == null) {
+            objectName = new ObjectName(name);
+            patterns.put(name, objectName);
+        }
+        return objectName;
+    }
+
+    /**
+     * Returns the names of the MBeans matching the given pattern.
+     */
+    public Set<ObjectName> queryNames(String name) throws MalformedObjectNameException, IOException {
+        ObjectName pattern = getObjectName(name);
+        Set<ObjectName> result = listening ? names.get(pattern) : null;
+        if (result == null) {
+            long gen = generation.get();
+            result = Collections.unmodifiableSet(mbeanServer.queryNames(pattern, null));
+            // do not cache a result that may have been outdated by a concurrent (un)registration
+            if (listening && gen == generation.get()) {
+                names.put(pattern, result);
+            }
+        }
+        return result;
+    }
+
+    public void clear() {
+        names.clear();
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (notification instanceof MBeanServerNotification) {
+            ObjectName mbean = ((MBeanServerNotification) notification).getMBeanName();
+            generation.incrementAndGet();
+            for (Iterator<ObjectName> it = names.keySet().iterator(); it.hasNext();) {
+                if (it.next().apply(mbean)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+}
@@ -17,10 +17,12 @@ package io.fabric8.insight.metrics;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.fabric8.insight.metrics.model.MBeanAttrs;
+import io.fabric8.insight.metrics.model.MBeanAttrsResult;
 import io.fabric8.insight.metrics.model.MBeanOpers;
 import io.fabric8.insight.metrics.model.Query;
 import io.fabric8.insight.metrics.model.Request;
 import io.fabric8.insight.metrics.service.support.JmxUtils;
+import io.fabric8.insight.metrics.service.support.ObjectNameCache;
 import io.fabric8.insight.metrics.mvel.Renderer;
 import io.fabric8.insight.metrics.model.QueryResult;
 import io.fabric8.insight.metrics.model.Server;
@@ -29,10 +31,12 @@ import org.junit.Test;
 import java.lang.management.ManagementFactory;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Collections;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 public class MetricsTest {
 
@@ -55,4 +59,62 @@ public class MetricsTest {
         assertEquals("local", map.get("host"));
         assertNotNull(map.get("@timestamp"));
     }
+
+    @Test
+    public void testBatchedExecution() throws Exception {
+        Query q1 = new Query("q1", new HashSet<Request>(Collections.singletonList(
+                new MBeanAttrs("runtime", "java.lang:type=Runtime", Arrays.asList("VmName", "VmVendor"))
+        )), null, null, null, 0, 0);
+        Query q2 = new Query("q2", new HashSet<Request>(Collections.singletonList(
+                new MBeanAttrs("runtime", "java.lang:type=Runtime", Arrays.asList("SpecName"))
+        )), null, null, null, 0, 0);
+
+        ObjectNameCache cache = new ObjectNameCache(ManagementFactory.getPlatformMBeanServer());
+        cache.start();
+        try {
+            Map<Query, QueryResult> results = JmxUtils.execute(new Server("local"), Arrays.asList(q1, q2),
+                    ManagementFactory.getPlatformMBeanServer(), cache);
+            assertEquals(2, results.size());
+            MBeanAttrsResult r1 = (MBeanAttrsResult) results.get(q1).getResults().get("runtime");
+            assertEquals(1, r1.getResults().size());
+            assertEquals(2, r1.getResults().get(0).getAttrs().size());
+            MBeanAttrsResult r2 = (MBeanAttrsResult) results.get(q2).getResults().get("runtime");
+            assertEquals(1, r2.getResults().get(0).getAttrs().size());
+
+            Map<Query, QueryResult> next = JmxUtils.execute(new Server("local"), Arrays.asList(q1, q2),
+                    ManagementFactory.getPlatformMBeanServer(), cache);
+            assertNull(next.get(q1).changesSince(results.get(q1)));
+        } finally {
+            cache.stop();
+        }
+    }
+
+    @Test
+    public void testBatchedExecutionKeepsSuccessfulResults() throws Exception {
+        Query good = new Query("good", new HashSet<Request>(Collections.singletonList(
+                new MBeanAttrs("runtime", "java.lang:type=Runtime", Arrays.asList("VmName"))
+        )), null, null, null, 0, 0);
+        Query failing = new Query("failing", new HashSet<Request>(Collections.singletonList(
+                new MBeanOpers("missing", "java.lang:type=Runtime", "doesNotExist",
+                        Collections.<Object>emptyList(), Collections.<String>emptyList())
+        )), null, null, null, 0, 0);
+        Query partial = new Query("partial", new HashSet<Request>(Arrays.asList(
+                new MBeanAttrs("runtime", "java.lang:type=Runtime", Arrays.asList("SpecName")),
+                new MBeanAttrs("invalid", "not a valid object name", Arrays.asList("Foo"))
+        )), null, null, null, 0, 0);
+
+        ObjectNameCache cache = new ObjectNameCache(ManagementFactory.getPlatformMBeanServer());
+        cache.start();
+        try {
+            Map<Query, QueryResult> results = JmxUtils.execute(new Server("local"), Arrays.asList(good, failing, partial),
+                    ManagementFactory.getPlatformMBeanServer(), cache);
+            assertEquals(2, results.size());
+            assertNotNull(results.get(good).getResults().get("runtime"));
+            assertNull(results.get(failing));
+            assertNotNull(results.get(partial).getResults().get("runtime"));
+            assertNull(results.get(partial).getResults().get("invalid"));
+        } finally {
+            cache.stop();
+        }
+    }
 }
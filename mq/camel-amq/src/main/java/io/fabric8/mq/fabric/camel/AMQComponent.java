@@ -28,8 +28,15 @@ import org.apache.felix.scr.annotations.Deactivate;
 public class AMQComponent extends ActiveMQComponent {
 
     public AMQComponent(CamelContext camelContext, ActiveMQConnectionFactory connectionFactory) {
+        this(camelContext, connectionFactory, null);
+    }
+
+    /**
+     * @param connectionPool the pool shared by all the components, or null to let this component create its own
+     */
+    public AMQComponent(CamelContext camelContext, ActiveMQConnectionFactory connectionFactory, AMQConnectionPool connectionPool) {
         super(camelContext);
-        setConfiguration(new AMQConfiguration(connectionFactory));
+        setConfiguration(new AMQConfiguration(connectionFactory, connectionPool));
     }
 
     @Activate
@@ -15,6 +15,13 @@
  */
 package io.fabric8.mq.fabric.camel;
 
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import io.fabric8.common.util.Maps;
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.camel.CamelContext;
 import org.apache.camel.spi.ComponentResolver;
@@ -25,31 +32,78 @@ import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * A {@link ComponentResolver} for the {@link AMQComponent}
+ * A {@link ComponentResolver} for the {@link AMQComponent}.
+ * Unless the <code>pooled</code> property is false, all the components share a single {@link AMQConnectionPool},
+ * sized by the <code>maxConnections</code>, <code>maximumActiveSessionPerConnection</code> and <code>idleTimeout</code> properties.
  */
 @Service(ComponentResolver.class)
 @Property(name = "component", value = "amq")
 @Component(name = "io.fabric8.mq.fabric.camel.resolver", label = "JBoss A-MQ Fabric Camel Component Resolver", immediate = true, metatype = false)
 public class AMQComponentResolver implements ComponentResolver {
 
+    private static final Logger LOG = LoggerFactory.getLogger(AMQComponentResolver.class);
+
     @Reference(referenceInterface = ActiveMQConnectionFactory.class)
     private ActiveMQConnectionFactory connectionFactory;
 
+    private AMQConnectionPool connectionPool;
+    private ObjectName objectName;
+
     @Activate
-    void activate() throws Exception {
+    void activate(Map<String, ?> properties) throws Exception {
         ObjectHelper.notNull(connectionFactory, "connectionFactory", this);
+        if (Maps.booleanValue(properties, "pooled", true)) {
+            AMQConnectionPool pool = new AMQConnectionPool(connectionFactory);
+            pool.setMaxConnections(Maps.integerValue(properties, "maxConnections", AMQConnectionPool.DEFAULT_MAX_CONNECTIONS));
+            pool.setMaximumActiveSessionPerConnection(Maps.integerValue(properties, "maximumActiveSessionPerConnection", AMQConnectionPool.DEFAULT_MAX_SESSIONS_PER_CONNECTION));
+            pool.setIdleTimeout(Maps.integerValue(properties, "idleTimeout", AMQConnectionPool.DEFAULT_IDLE_TIMEOUT));
+            pool.start();
+            connectionPool = pool;
+            registerMBean();
+        }
     }
 
     @Deactivate
     void deactivate() {
+        unregisterMBean();
+        if (connectionPool != null) {
+            connectionPool.stop();
+            connectionPool = null;
+        }
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("io.fabric8:type=AMQConnectionPool");
+            if (!mbeanServer.isRegistered(name)) {
+                mbeanServer.registerMBean(connectionPool, name);
+                objectName = name;
+            }
+        } catch (Exception e) {
+            LOG.warn("An error occurred during mbean server registration: " + e, e);
+        }
+    }
+
+    private void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                LOG.warn("An error occurred during mbean server unregistration: " + e, e);
+            }
+            objectName = null;
+        }
     }
 
     @Override
     public org.apache.camel.Component resolveComponent(String name, CamelContext camelContext) throws Exception {
         if (name.equals("amq") || name.equals("activemq")) {
-            return new AMQComponent(camelContext, connectionFactory);
+            return new AMQComponent(camelContext, connectionFactory, connectionPool);
         }
         return null;
     }
@@ -15,6 +15,8 @@
  */
 package io.fabric8.mq.fabric.camel;
 
+import javax.jms.ConnectionFactory;
+
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.activemq.camel.component.ActiveMQConfiguration;
 
@@ -24,9 +26,18 @@ import org.apache.activemq.camel.component.ActiveMQConfiguration;
  */
 public class AMQConfiguration extends ActiveMQConfiguration {
     private final ActiveMQConnectionFactory activeMQConnectionFactory;
+    private final AMQConnectionPool connectionPool;
 
     public AMQConfiguration(ActiveMQConnectionFactory activeMQConnectionFactory) {
+        this(activeMQConnectionFactory, null);
+    }
+
+    /**
+     * @param connectionPool the pool shared by all the components, or null to let each component create its own
+     */
+    public AMQConfiguration(ActiveMQConnectionFactory activeMQConnectionFactory, AMQConnectionPool connectionPool) {
         this.activeMQConnectionFactory = activeMQConnectionFactory;
+        this.connectionPool = connectionPool;
         setBrokerURL(activeMQConnectionFactory.getBrokerURL());
         setUserName(activeMQConnectionFactory.getUserName());
         setPassword(activeMQConnectionFactory.getPassword());
@@ -36,7 +47,16 @@ public class AMQConfiguration extends ActiveMQConfiguration {
         return activeMQConnectionFactory;
     }
 
-    // TODO if ever ActiveMQConfiguration provides a template method
-    // to create a vanilla ActiveMQConnectionFactory before its wrapped in pooling
-    // we could override that here!
+    public AMQConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    @Override
+    protected ConnectionFactory createConnectionFactory() {
+        // the shared pool is owned by the resolver, so it is not stopped along with the component
+        if (connectionPool != null) {
+            return connectionPool;
+        }
+        return super.createConnectionFactory();
+    }
 }
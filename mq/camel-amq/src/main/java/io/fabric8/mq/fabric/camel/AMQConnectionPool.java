@@ -0,0 +1,67 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq.fabric.camel;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.pool.PooledConnectionFactory;
+
+/**
+ * A bounded pool of connections to the fabric broker group, shared by all the {@link AMQComponent}s.
+ * Pooled connections hand out pooled sessions and each session keeps a cached anonymous producer,
+ * so routes do not create a connection, session and producer per exchange.
+ * <p>
+ * Connections use the fabric discovery transport, which rebalances them across the brokers of the group
+ * when it changes. Idle connections are closed after the idle timeout, so the pool shrinks again.
+ */
+public class AMQConnectionPool extends PooledConnectionFactory implements AMQConnectionPoolMBean {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 8;
+    public static final int DEFAULT_MAX_SESSIONS_PER_CONNECTION = 500;
+    public static final int DEFAULT_IDLE_TIMEOUT = 30 * 1000;
+
+    private final AtomicLong connectionRequests = new AtomicLong();
+
+    public AMQConnectionPool(ActiveMQConnectionFactory connectionFactory) {
+        super(connectionFactory);
+        setMaxConnections(DEFAULT_MAX_CONNECTIONS);
+        setMaximumActiveSessionPerConnection(DEFAULT_MAX_SESSIONS_PER_CONNECTION);
+        setIdleTimeout(DEFAULT_IDLE_TIMEOUT);
+        setBlockIfSessionPoolIsFull(true);
+        setUseAnonymousProducers(true);
+    }
+
+    @Override
+    public Connection createConnection(String userName, String password) throws JMSException {
+        connectionRequests.incrementAndGet();
+        return super.createConnection(userName, password);
+    }
+
+    @Override
+    public double getConnectionUtilization() {
+        int max = getMaxConnections();
+        return max > 0 ? (double) getNumConnections() / max : 0;
+    }
+
+    @Override
+    public long getConnectionRequests() {
+        return connectionRequests.get();
+    }
+}
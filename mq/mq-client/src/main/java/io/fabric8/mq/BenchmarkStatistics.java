@@ -0,0 +1,125 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The counters and latency histograms shared by all producer and consumer threads of a run.
+ * Every sample is recorded both in the totals and in the current interval, {@link #nextInterval()} hands out the interval.
+ */
+public class BenchmarkStatistics {
+
+    /**
+     * The message property holding the intended send time in microseconds since the epoch.
+     * Latencies between hosts are only meaningful if their clocks are synchronized.
+     */
+    public static final String SEND_TIME_PROPERTY = "MQClientSendTime";
+
+    private static final long EPOCH_MICROS = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    private static final long EPOCH_NANOS = System.nanoTime();
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicReference<Interval> interval = new AtomicReference<Interval>(new Interval());
+
+    /**
+     * Returns the current time in microseconds since the epoch, with the resolution of {@link System#nanoTime()}.
+     */
+    public static long currentTimeMicros() {
+        return EPOCH_MICROS + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - EPOCH_NANOS);
+    }
+
+    /**
+     * Records a completed send, measured from its intended send time so that a stalled producer does not hide latency.
+     */
+    public void recordSent(long latencyMicros) {
+        sent.incrementAndGet();
+        sendLatency.record(latencyMicros);
+        interval.get().sendLatency.record(latencyMicros);
+    }
+
+    /**
+     * Records a received message, with a negative latency if it has no send time.
+     */
+    public void recordReceived(long latencyMicros) {
+        received.incrementAndGet();
+        if (latencyMicros >= 0) {
+            latency.record(latencyMicros);
+            interval.get().latency.record(latencyMicros);
+        }
+    }
+
+    public void recordError() {
+        errors.incrementAndGet();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public LatencyHistogram getSendLatency() {
+        return sendLatency;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Starts a new interval and returns the histograms of the previous one.
+     */
+    public Interval nextInterval() {
+        return interval.getAndSet(new Interval());
+    }
+
+    public static class Interval {
+
+        private final LatencyHistogram sendLatency = new LatencyHistogram();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        public LatencyHistogram getSendLatency() {
+            return sendLatency;
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+    }
+
+    /**
+     * Formats a histogram summary as a JSON object.
+     */
+    static String toJson(LatencyHistogram histogram) {
+        return String.format(Locale.ENGLISH, "{\"count\":%d,\"mean\":%.1f,\"p50\":%d,\"p90\":%d,\"p99\":%d,\"p999\":%d,\"p9999\":%d,\"max\":%d}",
+                histogram.getCount(), histogram.getMean(), histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9), histogram.getValueAtPercentile(99.99), histogram.getMax());
+    }
+}
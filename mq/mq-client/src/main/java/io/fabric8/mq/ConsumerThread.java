@@ -19,6 +19,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.jms.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ConsumerThread extends Thread {
 
@@ -30,10 +33,13 @@ public class ConsumerThread extends Thread {
     int transactions = 0;
     String dest;
     JMSService service;
-    boolean breakOnNull = false;
+    volatile boolean breakOnNull = false;
     boolean running = false;
     int sleep;
     int transactionBatchSize;
+    AtomicLong remaining;
+    BenchmarkStatistics statistics = new BenchmarkStatistics();
+    final CountDownLatch subscribed = new CountDownLatch(1);
 
     public ConsumerThread(JMSService service, String dest) {
         this.dest = dest;
@@ -50,29 +56,44 @@ public class ConsumerThread extends Thread {
 
         try {
             consumer = service.createConsumer(dest);
-            while (running && received < messageCount) {
+            subscribed.countDown();
+            while (running && (remaining != null ? remaining.get() > 0 : received < messageCount)) {
                 Message msg = consumer.receive(receiveTimeOut);
                 if (msg != null) {
-                    LOG.info(threadName + " Received " + (msg instanceof TextMessage ? ((TextMessage) msg).getText() : msg.getJMSMessageID()));
+                    long now = BenchmarkStatistics.currentTimeMicros();
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug(threadName + " Received " + (msg instanceof TextMessage ? ((TextMessage) msg).getText() : msg.getJMSMessageID()));
+                    }
                     received++;
+                    if (remaining != null) {
+                        remaining.decrementAndGet();
+                    }
+                    statistics.recordReceived(msg.propertyExists(BenchmarkStatistics.SEND_TIME_PROPERTY)
+                            ? now - msg.getLongProperty(BenchmarkStatistics.SEND_TIME_PROPERTY) : -1L);
+
+                    if (transactionBatchSize > 0 && received % transactionBatchSize == 0) {
+                        LOG.debug(threadName + " Committing transaction: " + transactions++);
+                        service.getDefaultSession().commit();
+                    }
                 } else {
                     if (breakOnNull) {
                         break;
                     }
                 }
 
-                if (transactionBatchSize > 0 && received > 0 && received % transactionBatchSize == 0) {
-                    LOG.info(threadName + "Committing transaction: " + transactions++);
-                    service.getDefaultSession().commit();
-                }
-
                 if (sleep > 0) {
                     Thread.sleep(sleep);
                 }
             }
+            if (transactionBatchSize > 0 && received % transactionBatchSize != 0) {
+                LOG.debug(threadName + " Committing transaction: " + transactions++);
+                service.getDefaultSession().commit();
+            }
         } catch (Exception e) {
+            statistics.recordError();
             e.printStackTrace();
         } finally {
+            subscribed.countDown();
             if (consumer != null) {
                 System.out.println(threadName + " Consumed: " + this.getReceived() + " messages");
                 try {
@@ -86,6 +107,13 @@ public class ConsumerThread extends Thread {
         LOG.info(threadName + " Consumer thread finished");
     }
 
+    /**
+     * Waits until the consumer is subscribed to its destination, or has failed to.
+     */
+    public boolean awaitSubscribed(long timeout, TimeUnit unit) throws InterruptedException {
+        return subscribed.await(timeout, unit);
+    }
+
     public int getReceived() {
         return received;
     }
@@ -94,6 +122,18 @@ public class ConsumerThread extends Thread {
         this.messageCount = messageCount;
     }
 
+    /**
+     * Shares the number of messages left to receive with other consumers of the same queue,
+     * the consumer stops once it reaches zero instead of after its own message count.
+     */
+    public void setRemaining(AtomicLong remaining) {
+        this.remaining = remaining;
+    }
+
+    public void setStatistics(BenchmarkStatistics statistics) {
+        this.statistics = statistics;
+    }
+
     public void setBreakOnNull(boolean breakOnNull) {
         this.breakOnNull = breakOnNull;
     }
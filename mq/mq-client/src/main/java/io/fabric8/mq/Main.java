@@ -15,12 +15,18 @@
  */
 package io.fabric8.mq;
 
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.jms.JMSException;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
 
 public class Main {
     final static String loggingLevelProperty = "org.ops4j.pax.logging.DefaultServiceLog.level";
@@ -39,6 +45,14 @@ public class Main {
     String user;
     String groupID;
     int batchSize;
+    double rate;
+    double rampTo;
+    double rampPeriod;
+    PayloadDistribution payloadDistribution;
+    int reportInterval = 1;
+    String reportFormat = "json";
+    String reportFile;
+    boolean embedded;
 
     public static void main(String[] args) throws Exception {
 
@@ -82,6 +96,27 @@ public class Main {
                     main.persistent = Boolean.valueOf(shift(arg1)).booleanValue();
                 } else if ("--parallelThreads".equals(arg)) {
                     main.parallelThreads = Integer.parseInt(shift(arg1));
+                } else if ("--rate".equals(arg)) {
+                    main.rate = Double.parseDouble(shift(arg1));
+                } else if ("--rampTo".equals(arg)) {
+                    main.rampTo = Double.parseDouble(shift(arg1));
+                } else if ("--rampPeriod".equals(arg)) {
+                    main.rampPeriod = Double.parseDouble(shift(arg1));
+                } else if ("--payload".equals(arg)) {
+                    try {
+                        main.payloadDistribution = PayloadDistribution.parse(shift(arg1));
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Invalid usage: " + e.getMessage());
+                        displayHelpAndExit(1);
+                    }
+                } else if ("--reportInterval".equals(arg)) {
+                    main.reportInterval = Integer.parseInt(shift(arg1));
+                } else if ("--reportFormat".equals(arg)) {
+                    main.reportFormat = shift(arg1);
+                } else if ("--reportFile".equals(arg)) {
+                    main.reportFile = shift(arg1);
+                } else if ("--embedded".equals(arg)) {
+                    main.embedded = true;
                 } else {
                     System.err.println("Invalid usage: unknown option: " + arg);
                     displayHelpAndExit(1);
@@ -96,88 +131,149 @@ public class Main {
         System.exit(0);
     }
 
-    private void execute() {
+    private void execute() throws Exception {
         initDestination();
 
-        System.out.println("Using destination: " + destination + ", on broker: " + brokerUrl);
-
-        ArrayList<ProducerThread> producerThreads = new ArrayList();
-        ArrayList<ConsumerThread> consumerThreads = new ArrayList();
-        ActiveMQService activeMQService;
-        ProducerThread producerThread;
-        ConsumerThread consumerThread;
-
-        for (int i = 1; i <= parallelThreads; i++) {
-
-            activeMQService = new ActiveMQService(user, password, brokerUrl);
-            activeMQService.setTransacted(batchSize > 0);
-
-            try {
-
-                if ("producer".equals(action)) {
+        if (!"producer".equals(action) && !"consumer".equals(action) && !"benchmark".equals(action)) {
+            displayHelpAndExit(1);
+        }
+        if (!"json".equals(reportFormat) && !"csv".equals(reportFormat)) {
+            System.err.println("Invalid usage: unknown report format: " + reportFormat);
+            displayHelpAndExit(1);
+        }
 
-                    producerThread = new ProducerThread(activeMQService, destination);
-                    producerThread.setMessageCount(count);
-                    producerThread.setMessageSize(size);
-                    producerThread.setTextMessageSize(textSize);
-                    producerThread.setSleep(sleep);
-                    producerThread.setPersistent(persistent);
-                    producerThread.setTransactionBatchSize(batchSize);
-                    producerThread.setTTL(ttl);
-                    producerThread.setMsgGroupID(groupID);
+        BrokerService broker = null;
+        if (embedded) {
+            broker = startEmbeddedBroker();
+            brokerUrl = "vm://" + broker.getBrokerName() + "?create=false";
+        }
 
-                    producerThread.start();
-                    producerThreads.add(producerThread);
+        System.out.println("Using destination: " + destination + ", on broker: " + brokerUrl);
 
-                } else if ("consumer".equals(action)) {
+        SendSchedule schedule = null;
+        if (rate > 0 || (rampTo > 0 && rampPeriod > 0)) {
+            // the rates are for the whole run, every producer thread takes its share
+            schedule = new SendSchedule(rate / parallelThreads, rampTo / parallelThreads, rampPeriod);
+            System.out.println("Sending at " + schedule + " per thread");
+        }
 
-                    activeMQService.setClientId(clientId);
-                    activeMQService.start();
+        BenchmarkStatistics statistics = new BenchmarkStatistics();
+        PrintStream reportStream = reportFile != null ? openReportFile() : System.out;
+        StatisticsReporter reporter = new StatisticsReporter(statistics, TimeUnit.SECONDS.toMillis(reportInterval), "csv".equals(reportFormat), reportStream);
 
-                    consumerThread = new ConsumerThread(activeMQService, destination);
-                    consumerThread.setMessageCount(count);
-                    consumerThread.setSleep(sleep);
-                    consumerThread.setTransactionBatchSize(batchSize);
+        ArrayList<ProducerThread> producerThreads = new ArrayList();
+        ArrayList<ConsumerThread> consumerThreads = new ArrayList();
+        boolean topic = destination.startsWith("topic://");
+        // consumers of a queue share the messages of all producers
+        AtomicLong remaining = "benchmark".equals(action) && !topic ? new AtomicLong((long) count * parallelThreads) : null;
 
+        try {
+            if (!"producer".equals(action)) {
+                for (int i = 1; i <= parallelThreads; i++) {
+                    ConsumerThread consumerThread = createConsumerThread(statistics, remaining, topic);
                     consumerThread.start();
                     consumerThreads.add(consumerThread);
-
-                } else {
-                    displayHelpAndExit(1);
                 }
-
-            } catch (JMSException error) {
-                System.err.println(Thread.currentThread().getName() + "Execution failed with: " + error);
-                error.printStackTrace(System.err);
-                System.exit(2);
-            }
-        }
-
-        while (true) {
-            Iterator<?> itr = null;
-            if (producerThreads.size() > 0) {
-                itr = producerThreads.iterator();
+                // consumers must be subscribed before the first message is sent to a topic
+                for (ConsumerThread consumerThread : consumerThreads) {
+                    consumerThread.awaitSubscribed(30, TimeUnit.SECONDS);
+                }
             }
-            if (consumerThreads.size() > 0) {
-                itr = consumerThreads.iterator();
+            if (reportInterval > 0) {
+                reporter.start();
             }
-            int running = 0;
-            while (itr.hasNext()) {
-                Thread thread = (Thread) itr.next();
-                if (thread.isAlive()) {
-                    running++;
+            if (!"consumer".equals(action)) {
+                for (int i = 1; i <= parallelThreads; i++) {
+                    ProducerThread producerThread = createProducerThread(statistics, schedule);
+                    producerThread.start();
+                    producerThreads.add(producerThread);
                 }
             }
-            if (running <= 0) {
-                System.out.println("All threads completed their work");
-                break;
-            }
-            try {
-                Thread.sleep(1000);
-            } catch (Exception e) {
+        } catch (JMSException error) {
+            System.err.println(Thread.currentThread().getName() + "Execution failed with: " + error);
+            error.printStackTrace(System.err);
+            System.exit(2);
+        }
+
+        for (ProducerThread producerThread : producerThreads) {
+            producerThread.join();
+        }
+        for (ConsumerThread consumerThread : consumerThreads) {
+            if (!producerThreads.isEmpty()) {
+                // all messages are sent, stop once the destination stays empty
+                consumerThread.setBreakOnNull(true);
             }
         }
+        for (ConsumerThread consumerThread : consumerThreads) {
+            consumerThread.join();
+        }
+        System.out.println("All threads completed their work");
 
+        reporter.shutdown();
+        if (reportStream != System.out) {
+            reportStream.close();
+        }
+        if (broker != null) {
+            broker.stop();
+            broker.waitUntilStopped();
+        }
+    }
+
+    private ProducerThread createProducerThread(BenchmarkStatistics statistics, SendSchedule schedule) {
+        ActiveMQService activeMQService = new ActiveMQService(user, password, brokerUrl);
+        activeMQService.setTransacted(batchSize > 0);
+
+        ProducerThread producerThread = new ProducerThread(activeMQService, destination);
+        producerThread.setMessageCount(count);
+        producerThread.setMessageSize(size);
+        producerThread.setTextMessageSize(textSize);
+        producerThread.setSleep(sleep);
+        producerThread.setPersistent(persistent);
+        producerThread.setTransactionBatchSize(batchSize);
+        producerThread.setTTL(ttl);
+        producerThread.setMsgGroupID(groupID);
+        producerThread.setSchedule(schedule);
+        producerThread.setPayloadDistribution(payloadDistribution);
+        producerThread.setStatistics(statistics);
+        return producerThread;
+    }
+
+    private ConsumerThread createConsumerThread(BenchmarkStatistics statistics, AtomicLong remaining, boolean topic) throws JMSException {
+        ActiveMQService activeMQService = new ActiveMQService(user, password, brokerUrl);
+        activeMQService.setTransacted(batchSize > 0);
+        activeMQService.setClientId(clientId);
+        activeMQService.start();
+
+        ConsumerThread consumerThread = new ConsumerThread(activeMQService, destination);
+        // every consumer of a topic receives the messages of all producers
+        consumerThread.setMessageCount("benchmark".equals(action) && topic ? count * parallelThreads : count);
+        consumerThread.setRemaining(remaining);
+        consumerThread.setSleep(sleep);
+        consumerThread.setTransactionBatchSize(batchSize);
+        consumerThread.setStatistics(statistics);
+        return consumerThread;
+    }
+
+    private BrokerService startEmbeddedBroker() throws Exception {
+        BrokerService broker = new BrokerService();
+        broker.setBrokerName("mq-client");
+        broker.setUseJmx(false);
+        broker.setPersistent(persistent);
+        broker.setDataDirectory("target/mq-client-data");
+        broker.setDeleteAllMessagesOnStartup(true);
+        broker.start();
+        broker.waitUntilStarted();
+        return broker;
+    }
+
+    private PrintStream openReportFile() {
+        try {
+            return new PrintStream(new FileOutputStream(reportFile), true);
+        } catch (FileNotFoundException e) {
+            System.err.println("Invalid usage: cannot write the report file: " + reportFile);
+            displayHelpAndExit(1);
+            return null;
+        }
     }
 
     private void initDestination() {
@@ -199,7 +295,7 @@ public class Main {
     }
 
     private static void displayHelpAndExit(int exitCode) {
-        System.out.println(" usage   : (producer|consumer) [OPTIONS]");
+        System.out.println(" usage   : (producer|consumer|benchmark) [OPTIONS]");
         System.out.println(" options : [--destination (queue://..|topic://..) - ; default TEST");
         System.out.println("           [--persistent  true|false] - use persistent or non persistent messages; default true");
         System.out.println("           [--count           N] - number of messages to send or receive; default 100");
@@ -214,6 +310,14 @@ public class Main {
         System.out.println("           [--brokerUrl     URL] - connection factory url; default " + ActiveMQConnectionFactory.DEFAULT_BROKER_URL);
         System.out.println("           [--user          .. ] - connection user name");
         System.out.println("           [--password      .. ] - connection password");
+        System.out.println("           [--rate            N] - total messages per second sent by all threads, the send times do not depend on the broker; default 0, as fast as possible");
+        System.out.println("           [--rampTo          N] - total messages per second reached at the end of the ramp period");
+        System.out.println("           [--rampPeriod      N] - seconds to change the rate from --rate to --rampTo; default 0, no ramp");
+        System.out.println("           [--payload      SPEC] - BytesMessage sizes (fixed:N, uniform:MIN:MAX, exponential:MEAN[:MAX]); default none");
+        System.out.println("           [--reportInterval  N] - seconds between throughput and latency reports; default 1, 0 only reports the totals");
+        System.out.println("           [--reportFormat  .. ] - report format (json, csv); default json");
+        System.out.println("           [--reportFile  FILE ] - write the reports to a file; default the console");
+        System.out.println("           [--embedded         ] - run against an embedded broker, the --brokerUrl is ignored");
 
         System.out.println("");
 
@@ -0,0 +1,105 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq;
+
+import java.util.Random;
+
+/**
+ * The distribution of the payload sizes of a producer, parsed from one of:
+ * <ul>
+ *     <li><code>fixed:N</code> - every payload has N bytes</li>
+ *     <li><code>uniform:MIN:MAX</code> - sizes are uniformly distributed between MIN and MAX bytes</li>
+ *     <li><code>exponential:MEAN[:MAX]</code> - sizes are exponentially distributed around MEAN bytes, capped at MAX bytes</li>
+ * </ul>
+ */
+public class PayloadDistribution {
+
+    private final String type;
+    private final int min;
+    private final int max;
+    private final double mean;
+    private final Random random = new Random();
+
+    private PayloadDistribution(String type, int min, int max, double mean) {
+        this.type = type;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+    }
+
+    public static PayloadDistribution fixed(int size) {
+        return new PayloadDistribution("fixed", size, size, size);
+    }
+
+    public static PayloadDistribution parse(String text) {
+        String[] parts = text.split(":");
+        try {
+            if ("fixed".equals(parts[0]) && parts.length == 2) {
+                return fixed(Integer.parseInt(parts[1]));
+            } else if ("uniform".equals(parts[0]) && parts.length == 3) {
+                int min = Integer.parseInt(parts[1]);
+                int max = Integer.parseInt(parts[2]);
+                if (min < 0 || max < min) {
+                    throw new IllegalArgumentException("Invalid payload size range: " + text);
+                }
+                return new PayloadDistribution("uniform", min, max, (min + max) / 2.0);
+            } else if ("exponential".equals(parts[0]) && (parts.length == 2 || parts.length == 3)) {
+                int mean = Integer.parseInt(parts[1]);
+                int max = parts.length == 3 ? Integer.parseInt(parts[2]) : 16 * mean;
+                return new PayloadDistribution("exponential", 0, max, mean);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid payload size: " + text);
+        }
+        throw new IllegalArgumentException("Unknown payload distribution: " + text + ", expected fixed:N, uniform:MIN:MAX or exponential:MEAN[:MAX]");
+    }
+
+    /**
+     * Returns the largest size this distribution can return.
+     */
+    public int getMaxSize() {
+        return max;
+    }
+
+    /**
+     * Returns the size of the next payload. Not thread safe, every producer uses its own instance.
+     */
+    public int nextSize() {
+        if ("uniform".equals(type)) {
+            return min + random.nextInt(max - min + 1);
+        } else if ("exponential".equals(type)) {
+            return (int) Math.min(max, Math.round(-mean * Math.log(1.0 - random.nextDouble())));
+        }
+        return min;
+    }
+
+    /**
+     * Returns a new instance with its own random generator.
+     */
+    public PayloadDistribution copy() {
+        return new PayloadDistribution(type, min, max, mean);
+    }
+
+    @Override
+    public String toString() {
+        if ("uniform".equals(type)) {
+            return type + ":" + min + ":" + max;
+        } else if ("exponential".equals(type)) {
+            return type + ":" + (int) mean + ":" + max;
+        }
+        return type + ":" + min;
+    }
+}
@@ -22,6 +22,7 @@ import javax.jms.*;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class ProducerThread extends Thread {
 
@@ -42,6 +43,9 @@ public class ProducerThread extends Thread {
     long msgTTL = 0L;
     String msgGroupID=null;
     Set<String> sizeTypes;
+    SendSchedule schedule;
+    PayloadDistribution payloadDistribution;
+    BenchmarkStatistics statistics = new BenchmarkStatistics();
 
     public ProducerThread(JMSService service, String dest) {
         this.dest = dest;
@@ -62,24 +66,46 @@ public class ProducerThread extends Thread {
 
             LOG.info(threadName +  " Started to calculate elapsed time ...\n");
             long tStart = System.currentTimeMillis();
+            long startNanos = System.nanoTime();
+            long startMicros = BenchmarkStatistics.currentTimeMicros();
 
             for (sentCount = 0; sentCount < messageCount; sentCount++) {
                 if (!running)
                     break;
+                long sendTime;
+                if (schedule != null) {
+                    // open loop, the send time is fixed by the schedule whatever the previous sends took
+                    long offset = schedule.getSendOffset(sentCount);
+                    long wait = startNanos + offset - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    sendTime = startMicros + TimeUnit.NANOSECONDS.toMicros(offset);
+                } else {
+                    sendTime = BenchmarkStatistics.currentTimeMicros();
+                }
                 Message message = createMessage(sentCount);
                 if ((msgGroupID!=null)&&(!msgGroupID.isEmpty())) message.setStringProperty("JMSXGroupID", msgGroupID);
+                message.setLongProperty(BenchmarkStatistics.SEND_TIME_PROPERTY, sendTime);
                 producer.send(message);
-                LOG.info(threadName + " Sent: " + (message instanceof TextMessage ? ((TextMessage) message).getText() : message.getJMSMessageID()));
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(threadName + " Sent: " + (message instanceof TextMessage ? ((TextMessage) message).getText() : message.getJMSMessageID()));
+                }
 
-                if (transactionBatchSize > 0 && sentCount > 0 && sentCount % transactionBatchSize == 0) {
-                    LOG.info(threadName + " Committing transaction: " + transactions++);
+                if (transactionBatchSize > 0 && (sentCount + 1) % transactionBatchSize == 0) {
+                    LOG.debug(threadName + " Committing transaction: " + transactions++);
                     service.getDefaultSession().commit();
                 }
+                statistics.recordSent(BenchmarkStatistics.currentTimeMicros() - sendTime);
 
                 if (sleep > 0) {
                     Thread.sleep(sleep);
                 }
             }
+            if (transactionBatchSize > 0 && sentCount % transactionBatchSize != 0) {
+                LOG.debug(threadName + " Committing transaction: " + transactions++);
+                service.getDefaultSession().commit();
+            }
 
             LOG.info(threadName + " Produced: " + this.getSentCount() + " messages");
             long tEnd = System.currentTimeMillis();
@@ -88,6 +114,7 @@ public class ProducerThread extends Thread {
             LOG.info(threadName + " Elapsed time in milli second : " + (tEnd - tStart) + " milli seconds");
 
         } catch (Exception e) {
+            statistics.recordError();
             e.printStackTrace();
         } finally {
             if (producer != null) {
@@ -103,6 +130,9 @@ public class ProducerThread extends Thread {
     }
 
     private void initPayLoad() {
+        if (payloadDistribution != null) {
+            messageSize = Math.max(messageSize, payloadDistribution.getMaxSize());
+        }
         if (messageSize > 0) {
             payload = new byte[messageSize];
             for (int i = 0; i < payload.length; i++) {
@@ -118,7 +148,14 @@ public class ProducerThread extends Thread {
 
     protected Message createMessage(int i) throws Exception {
         Message message = null;
-        if (payload != null) {
+        if (payloadDistribution != null) {
+            BytesMessage bytesMessage = service.getDefaultSession().createBytesMessage();
+            int size = payloadDistribution.nextSize();
+            if (size > 0) {
+                bytesMessage.writeBytes(payload, 0, size);
+            }
+            message = bytesMessage;
+        } else if (payload != null) {
             message = service.createBytesMessage(payload);
         } else {
             if (textMessageSize == null) {
@@ -189,6 +226,24 @@ public class ProducerThread extends Thread {
 
     public void setMsgGroupID(String msgGroupID) { this.msgGroupID = msgGroupID;}
 
+    /**
+     * Sends the messages at the times of the given schedule instead of as fast as possible.
+     */
+    public void setSchedule(SendSchedule schedule) {
+        this.schedule = schedule;
+    }
+
+    /**
+     * Sends BytesMessages with sizes taken from the given distribution.
+     */
+    public void setPayloadDistribution(PayloadDistribution payloadDistribution) {
+        this.payloadDistribution = payloadDistribution != null ? payloadDistribution.copy() : null;
+    }
+
+    public void setStatistics(BenchmarkStatistics statistics) {
+        this.statistics = statistics;
+    }
+
     public static String dummy100bMessage() {
         return "Lorem ipsum dolor sit amet, consectetur adipiscing elit. Quisque id ex ut dolor iaculis turpis duis.";
     }
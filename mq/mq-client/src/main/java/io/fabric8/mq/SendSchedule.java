@@ -0,0 +1,73 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The intended send times of an open loop producer.
+ * The rate changes linearly from the start rate to the target rate during the ramp period and stays at the target rate afterwards.
+ * Send times never depend on when previous sends completed, so a slow broker shows up as latency instead of lowering the load.
+ */
+public class SendSchedule {
+
+    private final double startRate;
+    private final double targetRate;
+    private final double rampSeconds;
+
+    /**
+     * @param startRate   messages per second at the start
+     * @param targetRate  messages per second at the end of the ramp
+     * @param rampSeconds the duration of the ramp, 0 for a constant rate
+     */
+    public SendSchedule(double startRate, double targetRate, double rampSeconds) {
+        if (startRate <= 0 && (targetRate <= 0 || rampSeconds <= 0)) {
+            throw new IllegalArgumentException("The send rate must be positive");
+        }
+        this.startRate = startRate;
+        this.targetRate = rampSeconds > 0 ? targetRate : startRate;
+        this.rampSeconds = rampSeconds;
+    }
+
+    public static SendSchedule constant(double rate) {
+        return new SendSchedule(rate, rate, 0);
+    }
+
+    /**
+     * Returns the offset in nanoseconds from the start of the run at which the given message should be sent.
+     */
+    public long getSendOffset(long message) {
+        double seconds;
+        double rampMessages = (startRate + targetRate) * rampSeconds / 2;
+        if (rampSeconds <= 0 || targetRate == startRate) {
+            seconds = message / startRate;
+        } else if (message < rampMessages) {
+            // solves startRate * t + (targetRate - startRate) * t^2 / (2 * rampSeconds) = message
+            double a = (targetRate - startRate) / (2 * rampSeconds);
+            seconds = (-startRate + Math.sqrt(startRate * startRate + 4 * a * message)) / (2 * a);
+        } else if (targetRate > 0) {
+            seconds = rampSeconds + (message - rampMessages) / targetRate;
+        } else {
+            seconds = Double.POSITIVE_INFINITY;
+        }
+        return (long) Math.min(seconds * TimeUnit.SECONDS.toNanos(1), Long.MAX_VALUE);
+    }
+
+    @Override
+    public String toString() {
+        return rampSeconds > 0 ? "ramp " + startRate + " to " + targetRate + " msg/s in " + rampSeconds + " s" : startRate + " msg/s";
+    }
+}
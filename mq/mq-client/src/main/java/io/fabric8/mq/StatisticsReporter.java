@@ -0,0 +1,126 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prints one line per interval with the throughput and the latency percentiles of that interval,
+ * and a line with the totals of the run when it is stopped. Lines are either JSON objects or CSV rows.
+ * All latencies are in microseconds.
+ */
+public class StatisticsReporter extends Thread {
+
+    static final String CSV_HEADER = "type,time,elapsed,sent,sendRate,received,receiveRate,errors,"
+            + "sendP50,sendP99,sendMax,latencyP50,latencyP90,latencyP99,latencyP999,latencyMax";
+
+    private final BenchmarkStatistics statistics;
+    private final long intervalMillis;
+    private final boolean csv;
+    private final PrintStream out;
+    private final long start = System.nanoTime();
+    private volatile boolean running = true;
+    private long lastTime = start;
+    private long lastSent;
+    private long lastReceived;
+    private boolean headerPrinted;
+
+    /**
+     * @param intervalMillis the period of the interval reports, the reporter thread must only be started if it is positive
+     */
+    public StatisticsReporter(BenchmarkStatistics statistics, long intervalMillis, boolean csv, PrintStream out) {
+        super("mq-client statistics");
+        setDaemon(true);
+        this.statistics = statistics;
+        this.intervalMillis = intervalMillis;
+        this.csv = csv;
+        this.out = out;
+    }
+
+    @Override
+    public void run() {
+        long next = start;
+        while (running) {
+            next += TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+            long wait = next - System.nanoTime();
+            try {
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (running) {
+                reportInterval();
+            }
+        }
+    }
+
+    /**
+     * Stops the interval reports and prints the totals of the run.
+     */
+    public void shutdown() {
+        running = false;
+        if (isAlive()) {
+            interrupt();
+            try {
+                join(intervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            reportInterval();
+        }
+        long now = System.nanoTime();
+        print("total", now, statistics.getSent(), statistics.getReceived(), now - start,
+                statistics.getSendLatency(), statistics.getLatency());
+        out.flush();
+    }
+
+    private synchronized void reportInterval() {
+        long now = System.nanoTime();
+        long sent = statistics.getSent();
+        long received = statistics.getReceived();
+        BenchmarkStatistics.Interval interval = statistics.nextInterval();
+        print("interval", now, sent - lastSent, received - lastReceived, now - lastTime, interval.getSendLatency(), interval.getLatency());
+        lastTime = now;
+        lastSent = sent;
+        lastReceived = received;
+    }
+
+    private synchronized void print(String type, long now, long sent, long received, long durationNanos, LatencyHistogram sendLatency, LatencyHistogram latency) {
+        double seconds = Math.max(durationNanos, 1L) / (double) TimeUnit.SECONDS.toNanos(1);
+        double elapsed = (now - start) / (double) TimeUnit.SECONDS.toNanos(1);
+        long time = System.currentTimeMillis();
+        if (csv) {
+            if (!headerPrinted) {
+                out.println(CSV_HEADER);
+                headerPrinted = true;
+            }
+            out.println(String.format(Locale.ENGLISH, "%s,%d,%.3f,%d,%.1f,%d,%.1f,%d,%d,%d,%d,%d,%d,%d,%d,%d",
+                    type, time, elapsed, sent, sent / seconds, received, received / seconds, statistics.getErrors(),
+                    sendLatency.getValueAtPercentile(50), sendLatency.getValueAtPercentile(99), sendLatency.getMax(),
+                    latency.getValueAtPercentile(50), latency.getValueAtPercentile(90), latency.getValueAtPercentile(99),
+                    latency.getValueAtPercentile(99.9), latency.getMax()));
+        } else {
+            out.println(String.format(Locale.ENGLISH,
+                    "{\"type\":\"%s\",\"time\":%d,\"elapsed\":%.3f,\"sent\":%d,\"sendRate\":%.1f,\"received\":%d,\"receiveRate\":%.1f,\"errors\":%d,\"sendLatency\":%s,\"latency\":%s}",
+                    type, time, elapsed, sent, sent / seconds, received, received / seconds, statistics.getErrors(),
+                    BenchmarkStatistics.toJson(sendLatency), BenchmarkStatistics.toJson(latency)));
+        }
+    }
+}
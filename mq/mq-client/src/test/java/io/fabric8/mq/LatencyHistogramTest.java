@@ -0,0 +1,100 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest extends Assert {
+
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void shouldReturnZeroWhenEmpty() {
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0.0, histogram.getMean(), 0.0);
+    }
+
+    @Test
+    public void shouldKeepSmallValuesExact() {
+        // When
+        for (int i = 0; i < 128; i++) {
+            histogram.record(i);
+        }
+
+        // Then
+        assertEquals(128, histogram.getCount());
+        assertEquals(63, histogram.getValueAtPercentile(50));
+        assertEquals(127, histogram.getValueAtPercentile(100));
+        assertEquals(127, histogram.getMax());
+        assertEquals(63.5, histogram.getMean(), 0.0001);
+    }
+
+    @Test
+    public void shouldReportLargeValuesWithinTwoPercent() {
+        for (long value = 128; value < 1L << 40; value = value * 3 / 2 + 1) {
+            int index = LatencyHistogram.indexOf(value);
+            long highest = LatencyHistogram.highestValueOf(index);
+            assertTrue("value " + value + " reported as " + highest, highest >= value && highest <= value * 1.02);
+            assertTrue(LatencyHistogram.indexOf(value + 1) >= index);
+        }
+    }
+
+    @Test
+    public void shouldCapThePercentileAtTheMaximum() {
+        // When
+        histogram.record(1000000);
+        histogram.record(2000000);
+
+        // Then
+        long median = histogram.getValueAtPercentile(50);
+        assertTrue(median >= 1000000 && median <= 1020000);
+        assertEquals(2000000, histogram.getValueAtPercentile(100));
+        assertEquals(2000000, histogram.getValueAtPercentile(150));
+    }
+
+    @Test
+    public void shouldHandleExtremeValues() {
+        // When
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE / 4);
+
+        // Then
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE / 4, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void shouldAddAnotherHistogram() {
+        // Given
+        LatencyHistogram other = new LatencyHistogram();
+        histogram.record(10);
+        other.record(20);
+        other.record(30);
+
+        // When
+        histogram.add(other);
+
+        // Then
+        assertEquals(3, histogram.getCount());
+        assertEquals(30, histogram.getMax());
+        assertEquals(20.0, histogram.getMean(), 0.0001);
+        assertEquals(20, histogram.getValueAtPercentile(50));
+        assertEquals(2, other.getCount());
+    }
+
+}
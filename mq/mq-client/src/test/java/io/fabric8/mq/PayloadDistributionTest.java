@@ -0,0 +1,96 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PayloadDistributionTest extends Assert {
+
+    static final int SAMPLES = 100000;
+
+    @Test
+    public void shouldReturnFixedSizes() {
+        PayloadDistribution distribution = PayloadDistribution.parse("fixed:1024");
+
+        assertEquals(1024, distribution.getMaxSize());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1024, distribution.nextSize());
+        }
+    }
+
+    @Test
+    public void shouldReturnUniformSizesWithinTheRange() {
+        PayloadDistribution distribution = PayloadDistribution.parse("uniform:5:10");
+
+        boolean[] seen = new boolean[11];
+        for (int i = 0; i < SAMPLES; i++) {
+            int size = distribution.nextSize();
+            assertTrue("size " + size, size >= 5 && size <= 10);
+            seen[size] = true;
+        }
+        for (int size = 5; size <= 10; size++) {
+            assertTrue("size " + size + " never returned", seen[size]);
+        }
+        assertEquals(10, distribution.getMaxSize());
+    }
+
+    @Test
+    public void shouldReturnExponentialSizesAroundTheMean() {
+        PayloadDistribution distribution = PayloadDistribution.parse("exponential:100");
+
+        long total = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            int size = distribution.nextSize();
+            assertTrue("size " + size, size >= 0 && size <= 1600);
+            total += size;
+        }
+        assertEquals(100.0, (double) total / SAMPLES, 5.0);
+        assertEquals(1600, distribution.getMaxSize());
+    }
+
+    @Test
+    public void shouldCapExponentialSizes() {
+        PayloadDistribution distribution = PayloadDistribution.parse("exponential:100:150");
+
+        for (int i = 0; i < SAMPLES; i++) {
+            assertTrue(distribution.nextSize() <= 150);
+        }
+        assertEquals(150, distribution.getMaxSize());
+    }
+
+    @Test
+    public void shouldFormatAsParsed() {
+        for (String text : new String[]{"fixed:10", "uniform:1:20", "exponential:100:1600"}) {
+            assertEquals(text, PayloadDistribution.parse(text).toString());
+            assertEquals(text, PayloadDistribution.parse(text).copy().toString());
+        }
+        assertEquals("exponential:100:1600", PayloadDistribution.parse("exponential:100").toString());
+    }
+
+    @Test
+    public void shouldRejectInvalidDistributions() {
+        for (String text : new String[]{"fixed", "fixed:x", "uniform:10:5", "uniform:-1:5", "uniform:1", "gaussian:10", "exponential:1:2:3"}) {
+            try {
+                PayloadDistribution.parse(text);
+                fail("Expected " + text + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+}
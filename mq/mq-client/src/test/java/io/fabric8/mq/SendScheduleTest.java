@@ -0,0 +1,92 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class SendScheduleTest extends Assert {
+
+    static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void shouldSpaceMessagesEvenlyAtAConstantRate() {
+        SendSchedule schedule = SendSchedule.constant(100);
+
+        assertEquals(0, schedule.getSendOffset(0));
+        assertEquals(SECOND / 100, schedule.getSendOffset(1));
+        assertEquals(SECOND, schedule.getSendOffset(100));
+    }
+
+    @Test
+    public void shouldRampUpToTheTargetRate() {
+        // 0 to 100 msg/s in 10 s sends 500 messages during the ramp
+        SendSchedule schedule = new SendSchedule(0, 100, 10);
+
+        assertEquals(0, schedule.getSendOffset(0));
+        assertEquals(10 * SECOND, schedule.getSendOffset(500), 1000);
+        assertEquals(11 * SECOND, schedule.getSendOffset(600), 1000);
+        assertIncreasing(schedule, 1000);
+    }
+
+    @Test
+    public void shouldRampDownToTheTargetRate() {
+        // 100 to 10 msg/s in 5 s sends 275 messages during the ramp
+        SendSchedule schedule = new SendSchedule(100, 10, 5);
+
+        assertEquals(SECOND / 100, schedule.getSendOffset(1), SECOND / 1000);
+        assertEquals(5 * SECOND, schedule.getSendOffset(275), 1000);
+        assertEquals(6 * SECOND, schedule.getSendOffset(285), 1000);
+        assertIncreasing(schedule, 400);
+    }
+
+    @Test
+    public void shouldNeverSendAfterRampingDownToZero() {
+        SendSchedule schedule = new SendSchedule(10, 0, 2);
+
+        assertTrue(schedule.getSendOffset(9) < 2 * SECOND);
+        assertEquals(Long.MAX_VALUE, schedule.getSendOffset(10));
+    }
+
+    @Test
+    public void shouldIgnoreTheTargetRateWithoutARamp() {
+        SendSchedule schedule = new SendSchedule(10, 1000, 0);
+
+        assertEquals(SECOND, schedule.getSendOffset(10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectAZeroRate() {
+        new SendSchedule(0, 0, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectAZeroRateWithoutARamp() {
+        new SendSchedule(0, 100, 0);
+    }
+
+    private static void assertIncreasing(SendSchedule schedule, int messages) {
+        long previous = -1;
+        for (int i = 0; i < messages; i++) {
+            long offset = schedule.getSendOffset(i);
+            assertTrue("message " + i + " at " + offset + " before " + previous, offset > previous);
+            previous = offset;
+        }
+    }
+
+}
@@ -16,6 +16,7 @@
 package io.fabric8.mq.fabric;
 
 import java.beans.PropertyEditorManager;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
 import java.net.URL;
 import java.util.ArrayList;
@@ -23,20 +24,23 @@ import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.jms.ConnectionFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import io.fabric8.api.Container;
 import io.fabric8.api.FabricService;
@@ -44,6 +48,7 @@ import io.fabric8.groups.Group;
 import io.fabric8.groups.GroupListener;
 import io.fabric8.mq.fabric.discovery.FabricDiscoveryAgent;
 import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerPlugin;
 import org.apache.activemq.broker.BrokerService;
 import org.apache.activemq.broker.TransportConnector;
 import org.apache.activemq.network.DiscoveryNetworkConnector;
@@ -80,9 +85,9 @@ public class ActiveMQServiceFactory implements ManagedServiceFactory, ServiceTra
 
     private BundleContext bundleContext;
 
-    // Pool management
+    // Pool management, lock free so that an election is not delayed by a configuration update holding the factory monitor
 
-    private Set<String> ownedPools = new HashSet<String>();
+    private final Set<String> ownedPools = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     // Maintain a registry of configuration based on ManagedServiceFactory events.
     private Map<String, ClusteredConfiguration> configurations = new HashMap<String, ClusteredConfiguration>();
@@ -249,27 +254,25 @@ public class ActiveMQServiceFactory implements ManagedServiceFactory, ServiceTra
 
     /* now non-static members from Scala class */
 
-    public synchronized boolean can_own_pool(ClusteredConfiguration cc) {
+    public boolean can_own_pool(ClusteredConfiguration cc) {
         return cc.pool == null || !ownedPools.contains(cc.pool);
     }
 
-    public synchronized boolean take_pool(ClusteredConfiguration cc) {
+    public boolean take_pool(ClusteredConfiguration cc) {
         if (cc.pool == null) {
             return true;
         } else {
-            if (ownedPools.contains(cc.pool)) {
-                return false;
-            } else {
-                ownedPools.add(cc.pool);
+            if (ownedPools.add(cc.pool)) {
                 fire_pool_change(cc);
                 return true;
+            } else {
+                return false;
             }
         }
     }
 
-    public synchronized void return_pool(ClusteredConfiguration cc) {
-        if (cc.pool != null) {
-            ownedPools.remove(cc.pool);
+    public void return_pool(ClusteredConfiguration cc) {
+        if (cc.pool != null && ownedPools.remove(cc.pool)) {
             fire_pool_change(cc);
         }
     }
@@ -423,11 +426,16 @@ public class ActiveMQServiceFactory implements ManagedServiceFactory, ServiceTra
         private boolean standalone;
         private boolean registerService;
         private boolean configCheck;
+        private boolean warmStandby;
 
         private boolean pool_enabled = false;
         private long lastModified = -1L;
 
         private volatile ServerInfo server;
+        private final FailoverStatistics statistics;
+        // a broker built while this broker is a slave, only its store and connectors are started on promotion
+        private final WarmStandby<ServerInfo> standby;
+        private ObjectName objectName;
 
         private FabricDiscoveryAgent discoveryAgent = null;
 
@@ -438,6 +446,7 @@ public class ActiveMQServiceFactory implements ManagedServiceFactory, ServiceTra
 
         private Future<?> start_future = null;
         private Future<?> stop_future = null;
+        private Future<?> prepare_future = null;
 
         private ServiceRegistration<javax.jms.ConnectionFactory> cfServiceRegistration = null;
 
@@ -471,10 +480,30 @@ public class ActiveMQServiceFactory implements ManagedServiceFactory, ServiceTra
             this.standalone = "true".equalsIgnoreCase(properties.getProperty("standalone"));
             this.registerService = "true".equalsIgnoreCase(properties.getProperty("registerService"));
             this.configCheck = "true".equalsIgnoreCase(properties.getProperty("config.check"));
+            this.warmStandby = "true".equalsIgnoreCase(properties.getProperty("standby.warm")) && !standalone && !replicating;
 
             // code directly invoked in Scala case class
             ensure_broker_name_is_set();
 
+            this.statistics = new FailoverStatistics(name, warmStandby);
+            this.standby = new WarmStandby<ServerInfo>(statistics) {
+                @Override
+                protected ServerInfo build() throws Exception {
+                    return buildServer();
+                }
+
+                @Override
+                protected long lastModified(ServerInfo server) throws Exception {
+                    return server.getResource().lastModified();
+                }
+
+                @Override
+                protected void discard(ServerInfo server) {
+                    ClusteredConfiguration.this.discard(server);
+                }
+            };
+            registerMBean();
+
             if (standalone) {
                 if (started.compareAndSet(false, true)) {
                     info("Standalone broker %s is starting.", name);
@@ -517,6 +546,32 @@ public class ActiveMQServiceFactory implements ManagedServiceFactory, ServiceTra
             }
         }
 
+        private void registerMBean() {
+            try {
+                objectName = new ObjectName("io.fabric8:type=BrokerFailover,name=" + name);
+                MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+                if (!mbeanServer.isRegistered(objectName)) {
+                    mbeanServer.registerMBean(statistics, objectName);
+                }
+            } catch (Exception e) {
+                warn("An error occurred during mbean server registration: " + e);
+                objectName = null;
+            }
+        }
+
+        private void unregisterMBean() {
+            if (objectName != null) {
+                try {
+                    MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+                    if (mbeanServer.isRegistered(objectName)) {
+                        mbeanServer.unregisterMBean(objectName);
+                    }
+                } catch (Exception e) {
+                    warn("An error occurred during mbean server unregistration: " + e);
+                }
+            }
+        }
+
         public void osgiRegister(BrokerService broker) {
             final javax.jms.ConnectionFactory connectionFactory = new ActiveMQConnectionFactory("vm://" + broker.getBrokerName() + "?create=false");
             Hashtable<String, String> properties = new Hashtable<String, String>();
@@ -534,6 +589,7 @@ public class ActiveMQServiceFactory implements ManagedServiceFactory, ServiceTra
 
         private void start() {
             if (start_future == null || start_future.isDone()) {
+                statistics.onElected();
                 info("Broker %s is being started.", name);
                 start_future = executor.submit(new Runnable() {
                     @Override
@@ -551,6 +607,7 @@ public class ActiveMQServiceFactory implements ManagedServiceFactory, ServiceTra
                                     info("Broker %s interrupted while starting", name);
                                     break;
                                 }
+                                statistics.onStartFailed();
                                 info("Broker %s failed to start.  Will try again in 10 seconds", name);
                                 LOG.error("Exception on start: " + e.getMessage(), e);
                                 try {
@@ -566,7 +623,44 @@ public class ActiveMQServiceFactory implements ManagedServiceFactory, ServiceTra
             }
         }
 
-        private void doStart() throws Exception {
+        /**
+         * Builds the broker for a warm standby on the executor, so that it is ready when the broker is elected master.
+         */
+        private synchronized void prepare() {
+            if (warmStandby && !standby.isPrepared() && (prepare_future == null || prepare_future.isDone())) {
+                prepare_future = executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (started.get()) {
+                            return;
+                        }
+                        try {
+                            long begin = System.nanoTime();
+                            if (!standby.prepare()) {
+                                return;
+                            }
+                            if (executor.isShutdown()) {
+                                standby.clear();
+                                return;
+                            }
+                            info("Broker %s is prepared as a warm standby in %d ms.", name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+                        } catch (Throwable e) {
+                            LOG.warn("Failed to prepare broker " + name + " as a warm standby, it will be built on promotion: " + e.getMessage(), e);
+                        }
+                    }
+                });
+            }
+        }
+
+        private void discard(ServerInfo s) {
+            try {
+                s.getContext().close();
+            } catch (Throwable e) {
+                LOG.debug("Exception on close: " + e.getMessage(), e);
+            }
+        }
+
+        private ServerInfo buildServer() throws Exception {
             // If we are in a fabric, let pass along the zk password in the props.
             FabricService fs = fabricService.getService();
             if (fs != null) {
@@ -584,11 +678,9 @@ public class ActiveMQServiceFactory implements ManagedServiceFactory, ServiceTra
                     properties.setProperty("zookeeper.password", fs.getZookeeperPassword());
                 }
             }
-            // ok boot up the server..
-            info("booting up a broker from: " + config);
-            server = createBroker(config, properties);
+            ServerInfo s = createBroker(config, properties);
             // configure ports
-            for (TransportConnector t : server.getBroker().getTransportConnectors()) {
+            for (TransportConnector t : s.getBroker().getTransportConnectors()) {
                 String portKey = t.getName() + "-port";
                 if (properties.containsKey(portKey)) {
                     URI template = t.getUri();
@@ -597,11 +689,37 @@ public class ActiveMQServiceFactory implements ManagedServiceFactory, ServiceTra
                         template.getPath(), template.getQuery(), template.getFragment()));
                 }
             }
+            BrokerPlugin[] plugins = s.getBroker().getPlugins();
+            List<BrokerPlugin> allPlugins = new ArrayList<BrokerPlugin>();
+            if (plugins != null) {
+                Collections.addAll(allPlugins, plugins);
+            }
+            allPlugins.add(statistics.createPlugin());
+            s.getBroker().setPlugins(allPlugins.toArray(new BrokerPlugin[allPlugins.size()]));
+            return s;
+        }
+
+        private void doStart() throws Exception {
+            statistics.onBooting();
+            long begin = System.nanoTime();
+            ServerInfo s = standby.take();
+            if (s != null) {
+                info("booting up the prepared broker from: " + config);
+            } else {
+                // ok boot up the server..
+                info("booting up a broker from: " + config);
+                s = buildServer();
+            }
+            statistics.onContextBuilt(System.nanoTime() - begin);
+            server = s;
 
+            statistics.onBrokerStarting();
             server.getBroker().start();
             info("Broker %s has started.", name);
 
             server.getBroker().waitUntilStarted();
+            statistics.onStarted();
+            info("Broker %s failover timings: %s", name, statistics);
             server.getBroker().addShutdownHook(new Runnable() {
                 @Override
                 public void run() {
@@ -655,6 +773,7 @@ public class ActiveMQServiceFactory implements ManagedServiceFactory, ServiceTra
         }
 
         public void close() throws Exception {
+            unregisterMBean();
             synchronized (this) {
                 if (pool_enabled) {
                     return_pool(this);
@@ -670,6 +789,7 @@ public class ActiveMQServiceFactory implements ManagedServiceFactory, ServiceTra
                 waitForStop();
             }
             executor.shutdownNow();
+            standby.clear();
         }
 
         public synchronized void stop() {
@@ -762,6 +882,7 @@ public class ActiveMQServiceFactory implements ManagedServiceFactory, ServiceTra
                                                     } else {
                                                         update_pool_state();
                                                         started.set(false);
+                                                        prepare();
                                                     }
                                                 } else {
                                                     if (discoveryAgent.getServices().isEmpty()) {
@@ -774,6 +895,7 @@ public class ActiveMQServiceFactory implements ManagedServiceFactory, ServiceTra
                                                     return_pool(ClusteredConfiguration.this);
                                                     info("Broker %s is now a slave, stopping the broker.", name);
                                                     stop();
+                                                    prepare();
                                                 } else {
                                                     if (event.equals(GroupEvent.CHANGED)) {
                                                         info("Broker %s is slave", name);
@@ -794,6 +916,7 @@ public class ActiveMQServiceFactory implements ManagedServiceFactory, ServiceTra
 
                             info("Broker %s is waiting to become the master", name);
                             update_pool_state();
+                            prepare();
                         }
                     }
                 }
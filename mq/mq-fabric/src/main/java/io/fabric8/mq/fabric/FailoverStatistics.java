@@ -0,0 +1,190 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq.fabric;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.activemq.broker.Broker;
+import org.apache.activemq.broker.BrokerFilter;
+import org.apache.activemq.broker.BrokerPlugin;
+import org.apache.activemq.broker.ConnectionContext;
+import org.apache.activemq.command.ConnectionInfo;
+
+/**
+ * Records how long each phase of a broker promotion takes. The store recovery and first accept phases are measured
+ * by a {@link BrokerPlugin} installed in the broker, as they happen inside {@link org.apache.activemq.broker.BrokerService#start()}.
+ */
+public class FailoverStatistics implements FailoverStatisticsMBean {
+
+    private final String brokerName;
+    private final boolean warmStandby;
+    private final AtomicLong failovers = new AtomicLong();
+    private final AtomicBoolean awaitingAccept = new AtomicBoolean();
+
+    private volatile boolean prepared;
+    private volatile long electedAt;
+    // the election of the running promotion, kept after the start for a first accept that comes later
+    private volatile long promotedAt;
+    private volatile long brokerStartAt;
+    private volatile long lastElectionTime = -1L;
+    private volatile long lastContextBuildTime = -1L;
+    private volatile long lastStoreRecoveryTime = -1L;
+    private volatile long lastFirstAcceptTime = -1L;
+    private volatile long lastFailoverTime = -1L;
+
+    public FailoverStatistics(String brokerName, boolean warmStandby) {
+        this.brokerName = brokerName;
+        this.warmStandby = warmStandby;
+    }
+
+    void onElected() {
+        electedAt = System.nanoTime();
+    }
+
+    void onBooting() {
+        if (electedAt == 0L) {
+            electedAt = System.nanoTime();
+        }
+        promotedAt = electedAt;
+        lastElectionTime = millisSince(promotedAt);
+        lastContextBuildTime = -1L;
+        lastStoreRecoveryTime = -1L;
+        lastFirstAcceptTime = -1L;
+        lastFailoverTime = -1L;
+    }
+
+    void onContextBuilt(long nanos) {
+        lastContextBuildTime = TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    void onBrokerStarting() {
+        brokerStartAt = System.nanoTime();
+        awaitingAccept.set(true);
+    }
+
+    void onStoreRecovered() {
+        if (brokerStartAt != 0L) {
+            lastStoreRecoveryTime = millisSince(brokerStartAt);
+        }
+    }
+
+    void onConnectionAccepted() {
+        if (awaitingAccept.compareAndSet(true, false)) {
+            lastFirstAcceptTime = millisSince(promotedAt);
+        }
+    }
+
+    void onStarted() {
+        lastFailoverTime = millisSince(promotedAt);
+        failovers.incrementAndGet();
+        electedAt = 0L;
+        brokerStartAt = 0L;
+    }
+
+    /**
+     * Discards the measures of a promotion that did not complete.
+     */
+    void onStartFailed() {
+        awaitingAccept.set(false);
+        brokerStartAt = 0L;
+    }
+
+    void setPrepared(boolean prepared) {
+        this.prepared = prepared;
+    }
+
+    /**
+     * Creates the plugin that reports the end of the store recovery and the first accepted connection.
+     */
+    BrokerPlugin createPlugin() {
+        return new BrokerPlugin() {
+            @Override
+            public Broker installPlugin(Broker broker) throws Exception {
+                return new BrokerFilter(broker) {
+                    @Override
+                    public void start() throws Exception {
+                        // the persistence adapter is started before the broker chain
+                        onStoreRecovered();
+                        super.start();
+                    }
+
+                    @Override
+                    public void addConnection(ConnectionContext context, ConnectionInfo info) throws Exception {
+                        super.addConnection(context, info);
+                        onConnectionAccepted();
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public String getBrokerName() {
+        return brokerName;
+    }
+
+    @Override
+    public boolean isWarmStandby() {
+        return warmStandby;
+    }
+
+    @Override
+    public boolean isPrepared() {
+        return prepared;
+    }
+
+    @Override
+    public long getFailoverCount() {
+        return failovers.get();
+    }
+
+    @Override
+    public long getLastElectionTime() {
+        return lastElectionTime;
+    }
+
+    @Override
+    public long getLastContextBuildTime() {
+        return lastContextBuildTime;
+    }
+
+    @Override
+    public long getLastStoreRecoveryTime() {
+        return lastStoreRecoveryTime;
+    }
+
+    @Override
+    public long getLastFirstAcceptTime() {
+        return lastFirstAcceptTime;
+    }
+
+    @Override
+    public long getLastFailoverTime() {
+        return lastFailoverTime;
+    }
+
+    @Override
+    public String toString() {
+        return "election " + lastElectionTime + " ms, context build " + lastContextBuildTime + " ms, store recovery "
+                + lastStoreRecoveryTime + " ms, total " + lastFailoverTime + " ms";
+    }
+
+    private static long millisSince(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanos);
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq.fabric;
+
+/**
+ * Timings of the last promotion of a broker from slave to master, all durations are in milliseconds.
+ * A duration is -1 until it has been measured.
+ */
+public interface FailoverStatisticsMBean {
+
+    String getBrokerName();
+
+    /**
+     * Returns true if the broker configuration is built while the broker is a slave.
+     */
+    boolean isWarmStandby();
+
+    /**
+     * Returns true if a pre-built broker is waiting for the promotion.
+     */
+    boolean isPrepared();
+
+    long getFailoverCount();
+
+    /**
+     * Returns the time from the election until the broker started to boot.
+     */
+    long getLastElectionTime();
+
+    /**
+     * Returns the time spent building the broker configuration on promotion, close to 0 with a warm standby.
+     */
+    long getLastContextBuildTime();
+
+    /**
+     * Returns the time spent acquiring the store lock and recovering the store.
+     */
+    long getLastStoreRecoveryTime();
+
+    /**
+     * Returns the time from the election until the broker accepted its first connection.
+     */
+    long getLastFirstAcceptTime();
+
+    /**
+     * Returns the time from the election until the broker was fully started.
+     */
+    long getLastFailoverTime();
+}
@@ -0,0 +1,118 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq.fabric;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the broker a slave builds while it waits for the election. The broker is only handed out on promotion
+ * if its configuration did not change since it was built.
+ *
+ * @param <S> the built broker
+ */
+abstract class WarmStandby<S> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WarmStandby.class);
+
+    private final FailoverStatistics statistics;
+
+    private S prepared;
+    private long preparedLastModified = -1L;
+
+    WarmStandby(FailoverStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Builds the broker, without starting it.
+     */
+    protected abstract S build() throws Exception;
+
+    /**
+     * Returns the last modification time of the configuration the broker was built from.
+     */
+    protected abstract long lastModified(S server) throws Exception;
+
+    /**
+     * Releases a broker that will not be started.
+     */
+    protected abstract void discard(S server);
+
+    synchronized boolean isPrepared() {
+        return prepared != null;
+    }
+
+    /**
+     * Builds the broker unless one is already prepared.
+     *
+     * @return whether a broker was built
+     */
+    boolean prepare() throws Exception {
+        if (isPrepared()) {
+            return false;
+        }
+        S server = build();
+        long lastModified = lastModified(server);
+        synchronized (this) {
+            prepared = server;
+            preparedLastModified = lastModified;
+        }
+        statistics.setPrepared(true);
+        return true;
+    }
+
+    /**
+     * Returns the prepared broker if its configuration did not change since it was built, or null.
+     */
+    S take() {
+        S server;
+        long lastModified;
+        synchronized (this) {
+            server = prepared;
+            lastModified = preparedLastModified;
+            prepared = null;
+        }
+        statistics.setPrepared(false);
+        if (server != null) {
+            try {
+                if (lastModified(server) == lastModified) {
+                    return server;
+                }
+                LOG.info("Configuration of the prepared broker changed since it was built, building it again.");
+            } catch (Exception e) {
+                LOG.debug("Unable to check the configuration of the prepared broker: " + e.getMessage(), e);
+            }
+            discard(server);
+        }
+        return null;
+    }
+
+    /**
+     * Discards the prepared broker, if any.
+     */
+    void clear() {
+        S server;
+        synchronized (this) {
+            server = prepared;
+            prepared = null;
+        }
+        statistics.setPrepared(false);
+        if (server != null) {
+            discard(server);
+        }
+    }
+}
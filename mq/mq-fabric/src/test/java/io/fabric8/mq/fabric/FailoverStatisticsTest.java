@@ -0,0 +1,105 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq.fabric;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FailoverStatisticsTest extends Assert {
+
+    FailoverStatistics statistics = new FailoverStatistics("broker", true);
+
+    @Test
+    public void shouldMeasureTheFirstAcceptAfterTheStartFromTheElection() throws Exception {
+        statistics.onElected();
+        Thread.sleep(50);
+        statistics.onBooting();
+        statistics.onContextBuilt(0);
+        statistics.onBrokerStarting();
+        statistics.onStoreRecovered();
+        statistics.onStarted();
+        Thread.sleep(50);
+        statistics.onConnectionAccepted();
+
+        long firstAccept = statistics.getLastFirstAcceptTime();
+        assertTrue("first accept after " + firstAccept + " ms", firstAccept >= 100 && firstAccept < 10000);
+        assertTrue(firstAccept >= statistics.getLastFailoverTime());
+        assertTrue(statistics.getLastElectionTime() >= 50);
+        assertEquals(1, statistics.getFailoverCount());
+    }
+
+    @Test
+    public void shouldMeasureTheFirstAcceptBeforeTheStartFromTheElection() throws Exception {
+        statistics.onElected();
+        statistics.onBooting();
+        statistics.onBrokerStarting();
+        Thread.sleep(50);
+        statistics.onConnectionAccepted();
+        statistics.onStarted();
+
+        long firstAccept = statistics.getLastFirstAcceptTime();
+        assertTrue("first accept after " + firstAccept + " ms", firstAccept >= 50 && firstAccept < 10000);
+        assertTrue(firstAccept <= statistics.getLastFailoverTime());
+    }
+
+    @Test
+    public void shouldOnlyRecordTheFirstAccept() throws Exception {
+        statistics.onElected();
+        statistics.onBooting();
+        statistics.onBrokerStarting();
+        statistics.onStarted();
+        statistics.onConnectionAccepted();
+        long firstAccept = statistics.getLastFirstAcceptTime();
+        Thread.sleep(50);
+        statistics.onConnectionAccepted();
+
+        assertEquals(firstAccept, statistics.getLastFirstAcceptTime());
+    }
+
+    @Test
+    public void shouldNotRecordAnAcceptOfAFailedStart() throws Exception {
+        statistics.onElected();
+        statistics.onBooting();
+        statistics.onBrokerStarting();
+        statistics.onStartFailed();
+        statistics.onConnectionAccepted();
+
+        assertEquals(-1L, statistics.getLastFirstAcceptTime());
+        assertEquals(-1L, statistics.getLastFailoverTime());
+        assertEquals(0, statistics.getFailoverCount());
+    }
+
+    @Test
+    public void shouldMeasureEachPromotionFromItsOwnElection() throws Exception {
+        statistics.onElected();
+        statistics.onBooting();
+        statistics.onBrokerStarting();
+        Thread.sleep(100);
+        statistics.onStarted();
+        statistics.onConnectionAccepted();
+
+        statistics.onElected();
+        statistics.onBooting();
+        assertEquals(-1L, statistics.getLastFirstAcceptTime());
+        statistics.onBrokerStarting();
+        statistics.onStarted();
+        statistics.onConnectionAccepted();
+
+        assertTrue(statistics.getLastFailoverTime() < 100);
+        assertTrue(statistics.getLastFirstAcceptTime() < 100);
+        assertEquals(2, statistics.getFailoverCount());
+    }
+}
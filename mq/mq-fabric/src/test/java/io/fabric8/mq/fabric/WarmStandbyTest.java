@@ -0,0 +1,146 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq.fabric;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WarmStandbyTest extends Assert {
+
+    FailoverStatistics statistics = new FailoverStatistics("broker", true);
+
+    TestStandby standby = new TestStandby();
+
+    @Test
+    public void shouldTakeThePreparedBroker() throws Exception {
+        assertTrue(standby.prepare());
+        assertTrue(standby.isPrepared());
+        assertTrue(statistics.isPrepared());
+
+        assertEquals("broker1", standby.take());
+        assertFalse(standby.isPrepared());
+        assertFalse(statistics.isPrepared());
+        assertTrue(standby.discarded.isEmpty());
+    }
+
+    @Test
+    public void shouldReturnNullWhenNothingIsPrepared() {
+        assertNull(standby.take());
+        assertFalse(statistics.isPrepared());
+    }
+
+    @Test
+    public void shouldNotBuildAgainWhilePrepared() throws Exception {
+        assertTrue(standby.prepare());
+        assertFalse(standby.prepare());
+
+        assertEquals(1, standby.builds.get());
+        assertEquals("broker1", standby.take());
+    }
+
+    @Test
+    public void shouldDiscardThePreparedBrokerWhenTheConfigurationChanged() throws Exception {
+        standby.prepare();
+        standby.lastModified = 2L;
+
+        assertNull(standby.take());
+        assertEquals(1, standby.discarded.size());
+        assertEquals("broker1", standby.discarded.get(0));
+        assertFalse(statistics.isPrepared());
+    }
+
+    @Test
+    public void shouldDiscardThePreparedBrokerWhenTheConfigurationCannotBeChecked() throws Exception {
+        standby.prepare();
+        standby.failOnCheck = true;
+
+        assertNull(standby.take());
+        assertEquals(1, standby.discarded.size());
+    }
+
+    @Test
+    public void shouldPrepareAgainAfterTheBrokerWasTaken() throws Exception {
+        standby.prepare();
+        standby.take();
+
+        assertTrue(standby.prepare());
+        assertEquals("broker2", standby.take());
+    }
+
+    @Test
+    public void shouldDiscardThePreparedBrokerOnClear() throws Exception {
+        standby.prepare();
+
+        standby.clear();
+
+        assertFalse(standby.isPrepared());
+        assertFalse(statistics.isPrepared());
+        assertEquals(1, standby.discarded.size());
+        assertNull(standby.take());
+    }
+
+    @Test
+    public void shouldNotKeepABrokerThatFailedToBuild() {
+        standby.failOnBuild = true;
+
+        try {
+            standby.prepare();
+            fail("Expected the build to fail");
+        } catch (Exception e) {
+            // expected
+        }
+
+        assertFalse(standby.isPrepared());
+        assertFalse(statistics.isPrepared());
+    }
+
+    class TestStandby extends WarmStandby<String> {
+        final AtomicInteger builds = new AtomicInteger();
+        final List<String> discarded = new ArrayList<String>();
+        volatile long lastModified = 1L;
+        volatile boolean failOnBuild;
+        volatile boolean failOnCheck;
+
+        TestStandby() {
+            super(statistics);
+        }
+
+        @Override
+        protected String build() throws Exception {
+            if (failOnBuild) {
+                throw new Exception("build failed");
+            }
+            return "broker" + builds.incrementAndGet();
+        }
+
+        @Override
+        protected long lastModified(String server) throws Exception {
+            if (failOnCheck) {
+                throw new Exception("check failed");
+            }
+            return lastModified;
+        }
+
+        @Override
+        protected void discard(String server) {
+            discarded.add(server);
+        }
+    }
+}
@@ -17,6 +17,10 @@ package io.fabric8.mq.fabric.http;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
+import org.apache.curator.framework.recipes.cache.TreeCache;
 import io.fabric8.groups.NodeState;
 import io.fabric8.groups.internal.ZooKeeperGroup;
 import io.fabric8.zookeeper.utils.ZooKeeperUtils;
@@ -30,15 +34,41 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Returns the service urls of the masters of an ActiveMQ group, one per line.
+ * <p>
+ * The groups are kept in a watched cache of the cluster registry and the responses are only rendered
+ * again when a group changes. Responses carry an ETag, a request with a matching If-None-Match header
+ * gets a 304. When such a request also has a <code>wait</code> parameter, in seconds, it is held until
+ * the group changes or the wait expires, so clients can long-poll instead of polling in a tight loop.
+ * At most <code>maxWaiters</code> requests are held at a time, the others are answered right away.
+ * <p>
+ * Service urls with <code>${zk:...}</code> expressions are substituted again once the cache timeout
+ * expired, as the substituted values are not watched.
+ */
 public class FabricDiscoveryServlet extends HttpServlet {
 
     private static final Logger LOG = LoggerFactory.getLogger(FabricDiscoveryServlet.class);
 
+    static final String CLUSTERS_PATH = "/fabric/registry/clusters/amq";
+
     volatile CuratorFramework curator = null;
     long cacheTimeout = 1000;
+    long maxWait = TimeUnit.SECONDS.toMillis(60);
+    int maxWaiters = 100;
+    final AtomicInteger waiters = new AtomicInteger();
+    // only used while the registry cannot be watched
     ConcurrentHashMap<String, CacheEntry> cache = new ConcurrentHashMap<String, CacheEntry>();
+    final ConcurrentHashMap<String, GroupView> views = new ConcurrentHashMap<String, GroupView>();
+
+    private final Object treeCacheLock = new Object();
+    TreeCache treeCache;
+    private long treeCacheFailure;
 
     static class CacheEntry {
         long timestamp;
@@ -55,6 +85,113 @@ public class FabricDiscoveryServlet extends HttpServlet {
         String[] services;
     }
 
+    /**
+     * A rendered response and its entity tag.
+     */
+    static class Rendered {
+        final String result;
+        final String etag;
+        // whether the result depends on substituted values, which are not watched
+        final boolean substituted;
+        final long timestamp;
+
+        Rendered(String result) {
+            this(result, false);
+        }
+
+        Rendered(String result, boolean substituted) {
+            this.result = result;
+            this.etag = result != null ? "\"" + Integer.toHexString(result.hashCode()) + "-" + Integer.toHexString(result.length()) + "\"" : null;
+            this.substituted = substituted;
+            this.timestamp = System.currentTimeMillis();
+        }
+
+        boolean isExpired(long timeout) {
+            return substituted && System.currentTimeMillis() - timestamp > timeout;
+        }
+    }
+
+    /**
+     * The rendered response of a group, rendered again on the first request after a change.
+     */
+    class GroupView {
+        private final String groupName;
+        private final Object renderLock = new Object();
+        private volatile long generation;
+        private volatile long renderedGeneration = -1;
+        private Rendered rendered;
+
+        GroupView(String groupName) {
+            this.groupName = groupName;
+        }
+
+        Rendered get() throws Exception {
+            synchronized (renderLock) {
+                long current = generation;
+                if (rendered == null || renderedGeneration != current || rendered.isExpired(cacheTimeout)) {
+                    rendered = renderGroup(groupName);
+                    renderedGeneration = current;
+                }
+                return rendered;
+            }
+        }
+
+        /**
+         * Waits until the response differs from the given entity tag or the timeout expires.
+         */
+        Rendered await(String etag, long timeout) throws Exception {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (true) {
+                Rendered current = get();
+                if (current.etag == null || !current.etag.equals(etag)) {
+                    return current;
+                }
+                synchronized (this) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return current;
+                    }
+                    if (generation == renderedGeneration) {
+                        // substituted values are not watched, check them again once they expire
+                        wait(current.substituted ? Math.max(1, Math.min(remaining, cacheTimeout)) : remaining);
+                    }
+                }
+            }
+        }
+
+        void invalidate() {
+            synchronized (this) {
+                generation++;
+                notifyAll();
+            }
+        }
+    }
+
+    private final PathChildrenCacheListener treeListener = new PathChildrenCacheListener() {
+        @Override
+        public void childEvent(CuratorFramework client, PathChildrenCacheEvent event) throws Exception {
+            ChildData data = event.getData();
+            switch (event.getType()) {
+                case CHILD_ADDED:
+                case CHILD_UPDATED:
+                case CHILD_REMOVED:
+                    String path = data != null ? data.getPath() : null;
+                    if (path != null && path.startsWith(CLUSTERS_PATH + "/")) {
+                        String groupName = path.substring(CLUSTERS_PATH.length() + 1);
+                        int idx = groupName.indexOf('/');
+                        GroupView view = views.get(idx > 0 ? groupName.substring(0, idx) : groupName);
+                        if (view != null) {
+                            view.invalidate();
+                        }
+                    }
+                    break;
+                default:
+                    invalidateAll();
+                    break;
+            }
+        }
+    };
+
     public FabricDiscoveryServlet() {
     }
 
@@ -77,39 +214,28 @@ public class FabricDiscoveryServlet extends HttpServlet {
 
             LOG.debug("discovery request for group name={}", groupName);
 
-            // To avoid hammering ZooKeeper if we get to many HTTP requests back to back,
-            // lets cache results.
-            CacheEntry cacheEntry = cache.get(groupName);
-            long now = System.currentTimeMillis();
-            if (cacheEntry == null || cacheEntry.timestamp + cacheTimeout < now) {
-
-                try {
-                    Map<String, ActiveMQNode> members = ZooKeeperGroup.members(curator, "/fabric/registry/clusters/amq/" + groupName, ActiveMQNode.class);
-                    HashSet<String> masters = new HashSet<String>();
-                    StringBuilder buff = new StringBuilder();
-
-                    for (ActiveMQNode node : members.values()) {
-                        if (!masters.contains(node.getId())) {
-                            for (int i = 0; i < node.services.length; i++) {
-                                String url = node.services[i];
-                                url = ZooKeeperUtils.getSubstitutedData(curator, url);
-                                buff.append(url);
-                                buff.append('\n');
-                            }
-                            masters.add(node.getId());
-                        }
-                    }
-
-                    cacheEntry = new CacheEntry(buff.toString(), now);
-                } catch (Exception e) {
-                    cacheEntry = new CacheEntry(null, now);
+            Rendered rendered;
+            TreeCache tree = getTreeCache(curator);
+            if (tree != null && !groupName.isEmpty() && groupName.indexOf('/') < 0) {
+                if (!tree.getChildrenNames(CLUSTERS_PATH).contains(groupName)) {
+                    resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Group not found");
+                    return;
                 }
-
-                cache.put(groupName, cacheEntry);
+                GroupView view = getGroupView(groupName);
+                String ifNoneMatch = req.getHeader("If-None-Match");
+                long wait = getWait(req);
+                rendered = ifNoneMatch != null && wait > 0 ? await(view, ifNoneMatch, wait) : view.get();
+            } else {
+                rendered = getUnwatched(curator, groupName);
             }
 
-            if (cacheEntry.result != null) {
-                resp.getWriter().print(cacheEntry.result.toString());
+            if (rendered.result != null) {
+                resp.setHeader("ETag", rendered.etag);
+                if (rendered.etag.equals(req.getHeader("If-None-Match"))) {
+                    resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                } else {
+                    resp.getWriter().print(rendered.result);
+                }
             } else {
                 resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Group not found");
             }
@@ -119,6 +245,159 @@ public class FabricDiscoveryServlet extends HttpServlet {
         }
     }
 
+    @Override
+    public void destroy() {
+        synchronized (treeCacheLock) {
+            closeTreeCache();
+        }
+        invalidateAll();
+        super.destroy();
+    }
+
+    private long getWait(HttpServletRequest req) {
+        String wait = req.getParameter("wait");
+        if (wait == null) {
+            return 0;
+        }
+        try {
+            return Math.min(maxWait, TimeUnit.SECONDS.toMillis(Long.parseLong(wait)));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Holds the request until the group changes, unless too many requests are held already: those are answered
+     * right away so that long-polling clients cannot take all the servlet threads.
+     */
+    private Rendered await(GroupView view, String etag, long wait) throws Exception {
+        if (waiters.incrementAndGet() > maxWaiters) {
+            waiters.decrementAndGet();
+            return view.get();
+        }
+        try {
+            return view.await(etag, wait);
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    private GroupView getGroupView(String groupName) {
+        GroupView view = views.get(groupName);
+        if (view == null) {
+            view = new GroupView(groupName);
+            GroupView previous = views.putIfAbsent(groupName, view);
+            if (previous != null) {
+                view = previous;
+            }
+        }
+        return view;
+    }
+
+    private void invalidateAll() {
+        for (GroupView view : views.values()) {
+            view.invalidate();
+        }
+    }
+
+    /**
+     * Returns the watched cache of the cluster registry, or null if it cannot be started at the moment.
+     */
+    private TreeCache getTreeCache(CuratorFramework curator) {
+        synchronized (treeCacheLock) {
+            if (treeCache == null && System.currentTimeMillis() - treeCacheFailure > cacheTimeout) {
+                TreeCache tree = new TreeCache(curator, CLUSTERS_PATH, true);
+                tree.getListenable().addListener(treeListener);
+                try {
+                    tree.start(TreeCache.StartMode.BUILD_INITIAL_CACHE);
+                    treeCache = tree;
+                    invalidateAll();
+                } catch (Exception e) {
+                    LOG.debug("Unable to watch " + CLUSTERS_PATH + ", falling back to direct reads", e);
+                    treeCacheFailure = System.currentTimeMillis();
+                    try {
+                        tree.close();
+                    } catch (IOException ignore) {
+                    }
+                }
+            }
+            return treeCache;
+        }
+    }
+
+    private void closeTreeCache() {
+        if (treeCache != null) {
+            treeCache.getListenable().removeListener(treeListener);
+            try {
+                treeCache.close();
+            } catch (IOException e) {
+                LOG.debug("Error closing the cluster registry cache", e);
+            }
+            treeCache = null;
+        }
+    }
+
+    /**
+     * Renders the response of a group from the watched cache, returns null if the group does not exist.
+     */
+    Rendered renderGroup(String groupName) throws Exception {
+        TreeCache tree;
+        synchronized (treeCacheLock) {
+            tree = treeCache;
+        }
+        String groupPath = CLUSTERS_PATH + "/" + groupName;
+        if (tree == null || tree.getCurrentData(groupPath) == null) {
+            return new Rendered(null);
+        }
+        Map<String, ActiveMQNode> members = new TreeMap<String, ActiveMQNode>();
+        for (String member : tree.getChildrenNames(groupPath)) {
+            ChildData data = tree.getCurrentData(groupPath + "/" + member);
+            if (data != null && data.getData() != null) {
+                members.put(member, ZooKeeperGroup.MAPPER.readValue(data.getData(), ActiveMQNode.class));
+            }
+        }
+        return render(curator, members);
+    }
+
+    private Rendered getUnwatched(CuratorFramework curator, String groupName) {
+        // To avoid hammering ZooKeeper if we get to many HTTP requests back to back,
+        // lets cache results.
+        CacheEntry cacheEntry = cache.get(groupName);
+        long now = System.currentTimeMillis();
+        if (cacheEntry == null || cacheEntry.timestamp + cacheTimeout < now) {
+            try {
+                Map<String, ActiveMQNode> members = ZooKeeperGroup.members(curator, CLUSTERS_PATH + "/" + groupName, ActiveMQNode.class);
+                cacheEntry = new CacheEntry(render(curator, members).result, now);
+            } catch (Exception e) {
+                cacheEntry = new CacheEntry(null, now);
+            }
+            cache.put(groupName, cacheEntry);
+        }
+        return new Rendered(cacheEntry.result);
+    }
+
+    private static Rendered render(CuratorFramework curator, Map<String, ActiveMQNode> members) throws Exception {
+        HashSet<String> masters = new HashSet<String>();
+        StringBuilder buff = new StringBuilder();
+        boolean substituted = false;
+
+        for (ActiveMQNode node : members.values()) {
+            if (!masters.contains(node.getId())) {
+                for (int i = 0; i < node.services.length; i++) {
+                    String url = node.services[i];
+                    if (url != null && url.contains("${")) {
+                        url = ZooKeeperUtils.getSubstitutedData(curator, url);
+                        substituted = true;
+                    }
+                    buff.append(url);
+                    buff.append('\n');
+                }
+                masters.add(node.getId());
+            }
+        }
+        return new Rendered(buff.toString(), substituted);
+    }
+
     public long getCacheTimeout() {
         return cacheTimeout;
     }
@@ -127,6 +406,28 @@ public class FabricDiscoveryServlet extends HttpServlet {
         this.cacheTimeout = cacheTimeout;
     }
 
+    /**
+     * Returns the longest time, in milliseconds, a long-polling request is held.
+     */
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Returns the largest number of long-polling requests held at a time.
+     */
+    public int getMaxWaiters() {
+        return maxWaiters;
+    }
+
+    public void setMaxWaiters(int maxWaiters) {
+        this.maxWaiters = maxWaiters;
+    }
+
     public CuratorFramework getCurator() {
         return curator;
     }
@@ -0,0 +1,196 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.mq.fabric.http;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeData;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.fabric8.mq.fabric.http.FabricDiscoveryServlet.CLUSTERS_PATH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class FabricDiscoveryServletTest {
+
+    private static final String GROUP_PATH = CLUSTERS_PATH + "/default";
+    private static final String MEMBER_PATH = GROUP_PATH + "/00000001";
+
+    CuratorFramework curator = mock(CuratorFramework.class);
+    TreeCache tree = mock(TreeCache.class);
+    FabricDiscoveryServlet servlet = new FabricDiscoveryServlet();
+
+    @Before
+    public void setUp() {
+        given(tree.getChildrenNames(CLUSTERS_PATH)).willReturn(Arrays.asList("default"));
+        given(tree.getCurrentData(GROUP_PATH)).willReturn(new TreeData(GROUP_PATH, null, new byte[0]));
+        given(tree.getChildrenNames(GROUP_PATH)).willReturn(Arrays.asList("00000001"));
+        member("tcp://host1:61616");
+
+        servlet.setCurator(curator);
+        servlet.treeCache = tree;
+    }
+
+    @Test
+    public void testServiceUrlsWithAnETag() throws Exception {
+        Response response = get(null, null);
+
+        assertEquals("tcp://host1:61616\n", response.body());
+        verify(response.response).setHeader("ETag", currentETag());
+        verify(response.response, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+
+    @Test
+    public void testNotModifiedForTheCurrentETag() throws Exception {
+        get(null, null);
+
+        Response response = get(currentETag(), null);
+
+        verify(response.response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(response.response, never()).getWriter();
+    }
+
+    @Test
+    public void testNewUrlsOnceTheGroupChanged() throws Exception {
+        get(null, null);
+        String etag = currentETag();
+        member("tcp://host2:61616");
+        servlet.views.get("default").invalidate();
+
+        Response response = get(etag, null);
+
+        assertEquals("tcp://host2:61616\n", response.body());
+        assertFalse(etag.equals(currentETag()));
+    }
+
+    @Test
+    public void testLongPollIsHeldUntilTheGroupChanges() throws Exception {
+        get(null, null);
+        String etag = currentETag();
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                member("tcp://host2:61616");
+                servlet.views.get("default").invalidate();
+            }
+        }.start();
+
+        long start = System.currentTimeMillis();
+        Response response = get(etag, "30");
+
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals("tcp://host2:61616\n", response.body());
+        assertTrue("held for " + elapsed + " ms", elapsed >= 150 && elapsed < 10000);
+        assertEquals(0, servlet.waiters.get());
+    }
+
+    @Test
+    public void testNotModifiedWhenTheLongPollExpires() throws Exception {
+        get(null, null);
+        servlet.setMaxWait(200);
+
+        long start = System.currentTimeMillis();
+        Response response = get(currentETag(), "30");
+
+        assertTrue(System.currentTimeMillis() - start >= 150);
+        verify(response.response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+
+    @Test
+    public void testRequestsBeyondTheMaximumWaitersAreNotHeld() throws Exception {
+        get(null, null);
+        servlet.setMaxWaiters(0);
+
+        long start = System.currentTimeMillis();
+        Response response = get(currentETag(), "30");
+
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        verify(response.response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        assertEquals(0, servlet.waiters.get());
+    }
+
+    @Test
+    public void testSubstitutedUrlsAreRenderedAgainOnceExpired() throws Exception {
+        final AtomicInteger renders = new AtomicInteger();
+        servlet = new FabricDiscoveryServlet() {
+            @Override
+            Rendered renderGroup(String groupName) throws Exception {
+                return new Rendered("tcp://host" + renders.incrementAndGet() + ":61616\n", true);
+            }
+        };
+        servlet.setCurator(curator);
+        servlet.treeCache = tree;
+        servlet.setCacheTimeout(500);
+        get(null, null);
+
+        Response cached = get(null, null);
+        Thread.sleep(600);
+        Response expired = get(null, null);
+
+        assertEquals("tcp://host1:61616\n", cached.body());
+        assertEquals("tcp://host2:61616\n", expired.body());
+    }
+
+    private void member(String url) {
+        String json = "{\"id\":\"broker1\",\"container\":\"root\",\"services\":[\"" + url + "\"]}";
+        given(tree.getCurrentData(MEMBER_PATH)).willReturn(new TreeData(MEMBER_PATH, null, json.getBytes()));
+    }
+
+    private String currentETag() throws Exception {
+        return servlet.views.get("default").get().etag;
+    }
+
+    private Response get(String ifNoneMatch, String wait) throws Exception {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        given(request.getPathInfo()).willReturn("/default");
+        given(request.getHeader("If-None-Match")).willReturn(ifNoneMatch);
+        given(request.getParameter("wait")).willReturn(wait);
+        Response response = new Response();
+        servlet.doGet(request, response.response);
+        return response;
+    }
+
+    static class Response {
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        final StringWriter writer = new StringWriter();
+
+        Response() throws Exception {
+            given(response.getWriter()).willReturn(new PrintWriter(writer, true));
+        }
+
+        String body() {
+            return writer.toString();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.process.manager;
+
+import java.io.Serializable;
+
+/**
+ * The state of a managed process at the time it was probed.
+ */
+public class ProcessInfo implements Serializable {
+
+    private static final long serialVersionUID = -3410872562396127043L;
+
+    public static final long UNKNOWN = -1L;
+
+    private final long pid;
+    private final boolean alive;
+    private final String state;
+    private final int threads;
+    private final long residentMemory;
+    private final long cpuTime;
+
+    /**
+     * @param pid            the process id
+     * @param alive          true if the process is running
+     * @param state          the state reported by the operating system, or null if unknown
+     * @param threads        the number of threads or -1 if unknown
+     * @param residentMemory the resident set size in bytes or -1 if unknown
+     * @param cpuTime        the user and system CPU time in milliseconds or -1 if unknown
+     */
+    public ProcessInfo(long pid, boolean alive, String state, int threads, long residentMemory, long cpuTime) {
+        this.pid = pid;
+        this.alive = alive;
+        this.state = state;
+        this.threads = threads;
+        this.residentMemory = residentMemory;
+        this.cpuTime = cpuTime;
+    }
+
+    public static ProcessInfo dead(long pid) {
+        return new ProcessInfo(pid, false, null, (int) UNKNOWN, UNKNOWN, UNKNOWN);
+    }
+
+    public long getPid() {
+        return pid;
+    }
+
+    public boolean isAlive() {
+        return alive;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getResidentMemory() {
+        return residentMemory;
+    }
+
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    @Override
+    public String toString() {
+        return "ProcessInfo[pid=" + pid + ", alive=" + alive + ", state=" + state + ", threads=" + threads
+                + ", rss=" + residentMemory + ", cpu=" + cpuTime + "ms]";
+    }
+}
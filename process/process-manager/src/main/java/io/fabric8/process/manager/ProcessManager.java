@@ -20,6 +20,7 @@ import io.fabric8.process.manager.config.ProcessConfig;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
 
 /**
@@ -55,6 +56,13 @@ public interface ProcessManager {
      */
     Installation getInstallation(String id);
 
+    /**
+     * Probes the processes of all installations that have a PID in a single pass, without forking a launch script per process.
+     *
+     * @return the state of the processes by installation ID
+     */
+    Map<String, ProcessInfo> probeInstallations();
+
     ProcessConfig loadProcessConfig(InstallOptions options) throws IOException;
 
     Executor getExecutor();
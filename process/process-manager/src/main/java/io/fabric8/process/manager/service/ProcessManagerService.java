@@ -19,12 +19,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import javax.management.MBeanServer;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
@@ -43,15 +48,19 @@ import io.fabric8.process.manager.DownloadStrategy;
 import io.fabric8.process.manager.InstallContext;
 import io.fabric8.process.manager.Installation;
 import io.fabric8.process.manager.config.ProcessConfig;
+import io.fabric8.process.manager.support.ArchiveExtractor;
+import io.fabric8.process.manager.support.ArtifactStore;
 import io.fabric8.process.manager.support.JarInstaller;
 import io.fabric8.process.manager.support.command.Command;
 import io.fabric8.process.manager.support.command.Duration;
 import io.fabric8.process.manager.InstallOptions;
 import io.fabric8.process.manager.InstallTask;
 import io.fabric8.process.manager.ProcessController;
+import io.fabric8.process.manager.ProcessInfo;
 import io.fabric8.process.manager.config.JsonHelper;
 import io.fabric8.process.manager.support.DefaultProcessController;
 import io.fabric8.process.manager.support.FileUtils;
+import io.fabric8.process.manager.support.ProcessProbe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,9 +70,13 @@ public class ProcessManagerService implements ProcessManagerServiceMBean {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ProcessManagerService.class);
     private static final String INSTALLED_BINARY = "install.bin";
+    private static final String ARTIFACT_STORE = ".store";
 
     private Executor executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("fabric-process-manager-%s").build());
     private File storageLocation;
+    private ArtifactStore artifactStore;
+    // held for reading while installing from the artifact store and for writing while pruning it
+    private final ReadWriteLock artifactStoreLock = new ReentrantReadWriteLock();
     private int lastId = 0;
     private final Duration untarTimeout = Duration.valueOf("1h");
     private final Duration postUnpackTimeout = Duration.valueOf("1h");
@@ -173,6 +186,27 @@ public class ProcessManagerService implements ProcessManagerServiceMBean {
         return installations.get(id);
     }
 
+    @Override
+    public Map<String, ProcessInfo> probeInstallations() {
+        Map<String, Long> pids = new HashMap<String, Long>();
+        for (Installation installation : listInstallations()) {
+            try {
+                Long pid = installation.getController().getPid();
+                if (pid != null) {
+                    pids.put(installation.getId(), pid);
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Failed to read the PID of " + installation + ". " + e, e);
+            }
+        }
+        Map<Long, ProcessInfo> infos = ProcessProbe.probe(pids.values());
+        Map<String, ProcessInfo> answer = new HashMap<String, ProcessInfo>();
+        for (Map.Entry<String, Long> entry : pids.entrySet()) {
+            answer.put(entry.getKey(), infos.get(entry.getValue()));
+        }
+        return answer;
+    }
+
     @Override
     public Installation install(final InstallOptions options, final InstallTask postInstall) throws Exception {
         @SuppressWarnings("serial")
@@ -187,7 +221,7 @@ public class ProcessManagerService implements ProcessManagerServiceMBean {
                 File nestedProcessDirectory = null;
                 if (options.getExtractCmd() != null && archive.exists()) {
                     String extractCmd = options.getExtractCmd();
-                    FileUtils.extractArchive(archive, installDir, extractCmd, untarTimeout, executor);
+                    extractArchive(archive, installDir, extractCmd);
                     nestedProcessDirectory = findInstallDir(installDir);
                     exportInstallDirEnvVar(options, nestedProcessDirectory);
                     String[] postUnpackCmds = options.getPostUnpackCmds();
@@ -259,7 +293,11 @@ public class ProcessManagerService implements ProcessManagerServiceMBean {
                         return in;
                     }
                 }, tmpFile);
-                FileUtils.extractArchive(tmpFile, installDir, "tar zxf", untarTimeout, executor);
+                try {
+                    extractArchive(tmpFile, installDir, "tar zxf");
+                } finally {
+                    tmpFile.delete();
+                }
 
                 // lets generate the etc configs
                 File etc = new File(installDir, "etc");
@@ -268,10 +306,12 @@ public class ProcessManagerService implements ProcessManagerServiceMBean {
                 } else {
                     LOGGER.debug("Directory etc {} of process {} exists. Skipping.", etc, id);
                 }
-                Files.write("", new File(etc, "config.properties"), Charsets.UTF_8);
+                File configProperties = new File(etc, "config.properties");
+                FileUtils.unlink(configProperties);
+                Files.write("", configProperties, Charsets.UTF_8);
                 writeJvmConfig(etc, parameters.getJvmOptions());
 
-                JarInstaller installer = new JarInstaller(parameters, executor);
+                JarInstaller installer = new JarInstaller(parameters, executor, getArtifactStore());
                 installer.install(installContext, config, id, installDir);
                 if (postInstall != null) {
                     postInstall.install(installContext, config, id, installDir);
@@ -285,6 +325,36 @@ public class ProcessManagerService implements ProcessManagerServiceMBean {
     public void uninstall(Installation installation) {
         installation.getController().uninstall();
         installations.remove(installation.getId());
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                pruneArtifactStore();
+            }
+        });
+    }
+
+    /**
+     * Deletes the content of the artifact store which is no longer linked from any installation.
+     * Skipped while installations are in progress, the next uninstall prunes the store again.
+     */
+    protected void pruneArtifactStore() {
+        if (!artifactStoreLock.writeLock().tryLock()) {
+            return;
+        }
+        try {
+            List<File> installDirs = new ArrayList<File>();
+            for (Installation installation : listInstallations()) {
+                installDirs.add(installation.getInstallDir());
+            }
+            int deleted = getArtifactStore().prune(installDirs);
+            if (deleted > 0) {
+                LOGGER.info("Deleted {} unused files and archives from the artifact store", deleted);
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Failed to prune the artifact store: " + e, e);
+        } finally {
+            artifactStoreLock.writeLock().unlock();
+        }
     }
 
     private void writeJvmConfig(File etc, String[] jvmOptions) throws IOException {
@@ -294,6 +364,7 @@ public class ProcessManagerService implements ProcessManagerServiceMBean {
         } else {
             if (etc.exists() && etc.isDirectory()) {
                 LOGGER.debug("Writing the following jvmOptions to the {} file: {}", jvmConfigFile, Arrays.toString(jvmOptions));
+                FileUtils.unlink(jvmConfigFile);
                 Files.write(generateJvmConfig(jvmOptions), jvmConfigFile, Charsets.UTF_8);
             } else {
                 LOGGER.debug("No etc directory exists at {} so not writing jvm.config", etc);
@@ -329,8 +400,20 @@ public class ProcessManagerService implements ProcessManagerServiceMBean {
         return storageLocation;
     }
 
-    public void setStorageLocation(File storageLocation) {
+    public synchronized void setStorageLocation(File storageLocation) {
         this.storageLocation = storageLocation;
+        this.artifactStore = null;
+    }
+
+    /**
+     * Returns the store shared by all installations, kept in a hidden folder of the storage location
+     * so that it is not mistaken for an installation.
+     */
+    public synchronized ArtifactStore getArtifactStore() {
+        if (artifactStore == null) {
+            artifactStore = new ArtifactStore(new File(storageLocation, ARTIFACT_STORE));
+        }
+        return artifactStore;
     }
 
     @Override
@@ -353,27 +436,42 @@ public class ProcessManagerService implements ProcessManagerServiceMBean {
 
         ProcessConfig config = loadProcessConfig(options);
         InstallContext installContext = new InstallContext(options.getContainer(), installDir, false);
-        installTask.install(installContext, config, id, installDir);
-        JsonHelper.saveProcessConfig(config, installDir);
-        installContext.updateContainerChecksums();
+        Installation installation;
+        // the store is not pruned until the installation is listed with the files it links
+        artifactStoreLock.readLock().lock();
+        try {
+            installTask.install(installContext, config, id, installDir);
+            JsonHelper.saveProcessConfig(config, installDir);
+            installContext.updateContainerChecksums();
 
-        Installation installation = createInstallation(options.getUrl(), id, installDir, config);
+            installation = createInstallation(options.getUrl(), id, installDir, config);
+        } finally {
+            artifactStoreLock.readLock().unlock();
+        }
         installation.getController().install();
         return installation;
     }
 
+    /**
+     * Extracts the archive in the JVM through the artifact store when the extract command is a plain tar extraction,
+     * so that an archive is only extracted once, otherwise runs the extract command in the install dir
+     */
+    protected void extractArchive(File archive, File installDir, String extractCmd) throws Exception {
+        if (ArchiveExtractor.isSupported(extractCmd, archive)) {
+            ArtifactStore store = getArtifactStore();
+            store.installTree(store.extract(archive), installDir);
+        } else {
+            FileUtils.extractArchive(archive, installDir, extractCmd, untarTimeout, executor);
+        }
+    }
+
     protected DownloadStrategy createDeafultDownloadStrategy() {
         return new DownloadStrategy() {
             @Override
             public File downloadContent(final URL sourceUrl, final File installDir) throws IOException {
-                // copy the URL to the install dir
+                // link the stored content of the URL into the install dir
                 File archive = new File(installDir, INSTALLED_BINARY);
-                Files.copy(new InputSupplier<InputStream>() {
-                    @Override
-                    public InputStream getInput() throws IOException {
-                        return sourceUrl.openStream();
-                    }
-                }, archive);
+                FileUtils.linkOrCopy(getArtifactStore().download(sourceUrl), archive);
                 return archive;
             }
         };
@@ -85,6 +85,7 @@ public class ApplyConfigurationTask implements InstallTask {
         } else if (!target.exists() && !target.createNewFile()) {
             throw new IOException("Failed to create file: " + target.getAbsolutePath() + ".");
         }
+        FileUtils.unlink(target);
         Files.write(content.getBytes(Charsets.UTF_8), target);
         String lowerName = name.toLowerCase();
         if (lowerName.endsWith(".sh") || lowerName.endsWith(".bat") || lowerName.endsWith(".cmd")) {
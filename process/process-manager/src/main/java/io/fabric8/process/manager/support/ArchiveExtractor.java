@@ -0,0 +1,371 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.process.manager.support;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import io.fabric8.common.util.Closeables;
+
+/**
+ * Extracts tar and gzipped tar archives inside the JVM, streaming the decompression,
+ * so that installing a process does not need to fork a <code>tar</code> process.
+ * Supports the ustar, GNU long name and pax path headers, symbolic and hard links and restores the file modes.
+ */
+public class ArchiveExtractor {
+
+    private static final int BLOCK_SIZE = 512;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final PosixFilePermission[] PERMISSIONS = {
+            PosixFilePermission.OTHERS_EXECUTE, PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_READ,
+            PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_READ,
+            PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_READ
+    };
+
+    private ArchiveExtractor() {
+    }
+
+    /**
+     * Returns true if the extract command is a plain <code>tar</code> extraction, such as <code>tar zxf</code>,
+     * and the archive is a tar or gzip file, so that {@link #extract(File, File)} does the same as the command.
+     */
+    public static boolean isSupported(String extractCommand, File archive) {
+        if (extractCommand == null || archive == null || !archive.isFile()) {
+            return false;
+        }
+        String[] args = FileUtils.splitCommands(extractCommand.trim());
+        if (args.length != 2 || !"tar".equals(args[0])) {
+            return false;
+        }
+        String flags = args[1].startsWith("-") ? args[1].substring(1) : args[1];
+        if (!flags.matches("[xzvf]+") || flags.indexOf('x') < 0 || !flags.endsWith("f")) {
+            return false;
+        }
+        try {
+            return isGzip(archive) || isTar(archive);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Extracts the tar or gzipped tar archive into the target directory.
+     */
+    public static void extract(File archive, File targetDirectory) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(archive), 64 * 1024);
+        try {
+            if (isGzip(archive)) {
+                in = new GZIPInputStream(in, 64 * 1024);
+            }
+            extractTar(in, targetDirectory);
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Extracts a tar stream into the target directory.
+     */
+    public static void extractTar(InputStream input, File targetDirectory) throws IOException {
+        Path root = targetDirectory.getCanonicalFile().toPath();
+        DataInputStream in = new DataInputStream(input);
+        byte[] header = new byte[BLOCK_SIZE];
+        byte[] buffer = new byte[64 * 1024];
+        String longName = null;
+        String longLink = null;
+        while (true) {
+            try {
+                in.readFully(header);
+            } catch (EOFException e) {
+                // some archives omit the end of archive blocks
+                return;
+            }
+            if (isZero(header)) {
+                return;
+            }
+            verifyChecksum(header);
+            char type = (char) header[156];
+            long size = parseNumber(header, 124, 12);
+            if (type == 'L' || type == 'K') {
+                String value = trimNul(new String(readData(in, size), UTF_8));
+                if (type == 'L') {
+                    longName = value;
+                } else {
+                    longLink = value;
+                }
+                continue;
+            }
+            if (type == 'x' || type == 'g') {
+                byte[] data = readData(in, size);
+                if (type == 'x') {
+                    String path = parsePaxRecord(data, "path");
+                    String linkPath = parsePaxRecord(data, "linkpath");
+                    longName = path != null ? path : longName;
+                    longLink = linkPath != null ? linkPath : longLink;
+                }
+                continue;
+            }
+            String name = longName != null ? longName : parseName(header);
+            String linkName = longLink != null ? longLink : parseString(header, 157, 100);
+            longName = null;
+            longLink = null;
+            int mode = (int) parseNumber(header, 100, 8);
+            long modified = parseNumber(header, 136, 12);
+
+            Path target = resolve(root, name);
+            if (type == '5') {
+                Files.createDirectories(target);
+                skip(in, size);
+            } else if (type == '2') {
+                createParent(root, target);
+                Files.deleteIfExists(target);
+                Files.createSymbolicLink(target, Paths.get(linkName));
+                skip(in, size);
+            } else if (type == '1') {
+                createParent(root, target);
+                Files.deleteIfExists(target);
+                Files.createLink(target, resolve(root, linkName));
+                skip(in, size);
+            } else if (type == '0' || type == '\0' || type == '7') {
+                createParent(root, target);
+                Files.deleteIfExists(target);
+                OutputStream out = new FileOutputStream(target.toFile());
+                try {
+                    long remaining = size;
+                    while (remaining > 0) {
+                        int count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                        if (count < 0) {
+                            throw new EOFException("Unexpected end of archive in " + name);
+                        }
+                        out.write(buffer, 0, count);
+                        remaining -= count;
+                    }
+                } finally {
+                    out.close();
+                }
+                skipPadding(in, size);
+                setMode(target.toFile(), mode);
+                target.toFile().setLastModified(modified * 1000L);
+            } else {
+                // devices and fifos are not supported
+                skip(in, size);
+            }
+        }
+    }
+
+    static boolean isGzip(File file) throws IOException {
+        byte[] magic = readHead(file, 2);
+        return magic.length == 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b;
+    }
+
+    static boolean isTar(File file) throws IOException {
+        byte[] head = readHead(file, 262);
+        return head.length == 262 && "ustar".equals(new String(head, 257, 5, UTF_8));
+    }
+
+    private static byte[] readHead(File file, int length) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] answer = new byte[length];
+            int offset = 0;
+            int count;
+            while (offset < length && (count = in.read(answer, offset, length - offset)) > 0) {
+                offset += count;
+            }
+            return offset == length ? answer : new byte[0];
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Path resolve(Path root, String name) throws IOException {
+        Path answer = root.resolve(name).normalize();
+        if (!answer.startsWith(root) || answer.equals(root) && !name.matches("\\.?/?")) {
+            throw new IOException("Archive entry " + name + " is outside of " + root);
+        }
+        return answer;
+    }
+
+    /**
+     * Creates the parent directory of the target, failing if an earlier symbolic link points it outside of the root.
+     */
+    private static void createParent(Path root, Path target) throws IOException {
+        Path parent = Files.createDirectories(target.getParent());
+        if (!parent.toRealPath().startsWith(root)) {
+            throw new IOException("Archive entry " + target + " is outside of " + root);
+        }
+    }
+
+    private static void setMode(File file, int mode) throws IOException {
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        for (int i = 0; i < PERMISSIONS.length; i++) {
+            if ((mode & (1 << i)) != 0) {
+                permissions.add(PERMISSIONS[i]);
+            }
+        }
+        try {
+            Files.setPosixFilePermissions(file.toPath(), permissions);
+        } catch (UnsupportedOperationException e) {
+            file.setExecutable((mode & 0100) != 0);
+        }
+    }
+
+    private static byte[] readData(DataInputStream in, long size) throws IOException {
+        byte[] data = new byte[(int) size];
+        in.readFully(data);
+        skipPadding(in, size);
+        return data;
+    }
+
+    private static void skip(DataInputStream in, long size) throws IOException {
+        long remaining = size + padding(size);
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Unexpected end of archive");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static void skipPadding(DataInputStream in, long size) throws IOException {
+        int padding = padding(size);
+        if (padding > 0) {
+            in.readFully(new byte[padding]);
+        }
+    }
+
+    private static int padding(long size) {
+        return (int) ((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE);
+    }
+
+    private static boolean isZero(byte[] header) {
+        for (byte b : header) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void verifyChecksum(byte[] header) throws IOException {
+        long expected = parseNumber(header, 148, 8);
+        long sum = 0;
+        for (int i = 0; i < header.length; i++) {
+            sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+        }
+        if (sum != expected) {
+            throw new IOException("Invalid tar header checksum, the archive is corrupt or not a tar file");
+        }
+    }
+
+    private static String parseName(byte[] header) {
+        String name = parseString(header, 0, 100);
+        if ("ustar".equals(parseString(header, 257, 5))) {
+            String prefix = parseString(header, 345, 155);
+            if (prefix.length() > 0) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private static String parseString(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, UTF_8);
+    }
+
+    private static String trimNul(String text) {
+        int idx = text.indexOf('\0');
+        return idx >= 0 ? text.substring(0, idx) : text;
+    }
+
+    /**
+     * Parses an octal number, or a big endian binary number if the high bit of the first byte is set.
+     */
+    static long parseNumber(byte[] header, int offset, int length) {
+        if ((header[offset] & 0x80) != 0) {
+            long answer = header[offset] & 0x7f;
+            for (int i = offset + 1; i < offset + length; i++) {
+                answer = (answer << 8) | (header[i] & 0xff);
+            }
+            return answer;
+        }
+        long answer = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b >= '0' && b <= '7') {
+                answer = (answer << 3) + (b - '0');
+            } else if (b == 0 || (b == ' ' && answer > 0)) {
+                break;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the value of a pax extended header record, records have the form <code>"LENGTH KEY=VALUE\n"</code>.
+     */
+    static String parsePaxRecord(byte[] data, String key) {
+        int offset = 0;
+        while (offset < data.length) {
+            int space = offset;
+            while (space < data.length && data[space] != ' ') {
+                space++;
+            }
+            if (space >= data.length) {
+                break;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(data, offset, space - offset, UTF_8));
+            } catch (NumberFormatException e) {
+                break;
+            }
+            if (length <= 0 || offset + length > data.length) {
+                break;
+            }
+            String record = new String(data, space + 1, offset + length - space - 2, UTF_8);
+            int idx = record.indexOf('=');
+            if (idx > 0 && key.equals(record.substring(0, idx))) {
+                return record.substring(idx + 1);
+            }
+            offset += length;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,376 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.process.manager.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import io.fabric8.common.util.Closeables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A content addressed store of the artifacts and extracted archives of the process installations, keyed by their SHA-1.
+ * Installations get hard links to the stored files instead of copies, so installing the same artifact many times
+ * only stores it once. Stored files are read only as every installation linking them shares their content.
+ * Falls back to copying where hard links are not supported, such as when the store is on another file system.
+ */
+public class ArtifactStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArtifactStore.class);
+
+    /**
+     * The file extensions of the extracted files which are linked from an installation,
+     * all other files such as configuration files and scripts are copied as they may be modified in place.
+     */
+    private static final Set<String> LINKED_EXTENSIONS = new HashSet<String>(Arrays.asList(
+            "jar", "war", "ear", "rar", "kar", "zip", "so", "dll", "dylib", "jnilib"));
+
+    private final File blobDir;
+    private final File treeDir;
+    private final File urlDir;
+    private final File tmpDir;
+    private final Cache<File, Digest> digests = CacheBuilder.newBuilder().maximumSize(10000).build();
+
+    public ArtifactStore(File storeDir) {
+        this.blobDir = new File(storeDir, "blobs");
+        this.treeDir = new File(storeDir, "trees");
+        this.urlDir = new File(storeDir, "urls");
+        this.tmpDir = new File(storeDir, "tmp");
+    }
+
+    /**
+     * Returns the SHA-1 of the file, which is only computed again if the file has been modified since.
+     */
+    public String sha1(File file) throws IOException {
+        File key = file.getAbsoluteFile();
+        long length = file.length();
+        long lastModified = file.lastModified();
+        Digest digest = digests.getIfPresent(key);
+        if (digest == null || digest.length != length || digest.lastModified != lastModified) {
+            digest = new Digest(length, lastModified, com.google.common.io.Files.hash(file, Hashing.sha1()).toString());
+            digests.put(key, digest);
+        }
+        return digest.sha1;
+    }
+
+    /**
+     * Adds the file to the store unless it holds the same content already and returns the stored file.
+     */
+    public File add(File file) throws IOException {
+        String sha1 = sha1(file);
+        File blob = getBlob(sha1);
+        if (!blob.isFile()) {
+            File tmp = createTempFile();
+            try {
+                Files.copy(file.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                moveToBlob(tmp, blob);
+            } finally {
+                tmp.delete();
+            }
+        }
+        return blob;
+    }
+
+    /**
+     * Links the given file from the store to the destination, replacing the destination if it exists.
+     */
+    public void install(File file, File destination) throws IOException {
+        FileUtils.linkOrCopy(add(file), destination);
+    }
+
+    /**
+     * Downloads the content of the URL into the store and returns the stored file.
+     * Release Maven artifacts are only downloaded once as their content never changes.
+     */
+    public File download(URL url) throws IOException {
+        String location = url.toString();
+        boolean immutable = location.startsWith("mvn:") && !location.contains("SNAPSHOT");
+        File index = new File(urlDir, Hashing.sha1().hashString(location, Charsets.UTF_8).toString());
+        if (immutable && index.isFile()) {
+            File blob = getBlob(com.google.common.io.Files.toString(index, Charsets.UTF_8).trim());
+            if (blob.isFile()) {
+                LOG.debug("Using the stored content of {}", location);
+                return blob;
+            }
+        }
+        File tmp = createTempFile();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            InputStream in = new DigestInputStream(url.openStream(), digest);
+            try {
+                Files.copy(in, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Closeables.closeQuietly(in);
+            }
+            String sha1 = toHex(digest.digest());
+            File blob = getBlob(sha1);
+            moveToBlob(tmp, blob);
+            if (immutable) {
+                urlDir.mkdirs();
+                com.google.common.io.Files.write(sha1, index, Charsets.UTF_8);
+            }
+            return blob;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Returns the directory holding the extracted content of the tar or gzipped tar archive,
+     * which is only extracted the first time an archive with the same content is installed.
+     */
+    public File extract(File archive) throws IOException {
+        String sha1 = sha1(archive);
+        File tree = new File(treeDir, sha1);
+        if (tree.isDirectory()) {
+            LOG.debug("Using the extracted content of {} from {}", archive, tree);
+            return tree;
+        }
+        File tmp = createTempFile();
+        tmp.delete();
+        tmp.mkdirs();
+        try {
+            LOG.info("Extracting archive " + archive + " into the artifact store");
+            ArchiveExtractor.extract(archive, tmp);
+            protectLinkedFiles(tmp.toPath());
+            treeDir.mkdirs();
+            try {
+                Files.move(tmp.toPath(), tree.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // another installation extracted the same archive concurrently
+                if (!tree.isDirectory()) {
+                    throw e;
+                }
+            }
+        } finally {
+            deleteTree(tmp.toPath());
+        }
+        return tree;
+    }
+
+    /**
+     * Installs the extracted archive into the target directory, linking the binaries and copying all other files.
+     */
+    public void installTree(File tree, File targetDirectory) throws IOException {
+        final Path source = tree.toPath();
+        final Path target = targetDirectory.toPath();
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path destination = target.resolve(source.relativize(file));
+                if (attrs.isRegularFile() && isLinked(file)) {
+                    FileUtils.linkOrCopy(file.toFile(), destination.toFile());
+                } else {
+                    Files.copy(file, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Deletes the stored files and extracted archives which are not linked from any of the given installation directories.
+     * Must not run while files are being installed from the store, as they are not linked yet.
+     * Does nothing if the file system does not tell which files are the same.
+     *
+     * @return the number of deleted stored files and extracted archives
+     */
+    public int prune(Collection<File> installDirs) throws IOException {
+        final Set<Object> linked = new HashSet<Object>();
+        for (File installDir : installDirs) {
+            if (!installDir.isDirectory()) {
+                continue;
+            }
+            Files.walkFileTree(installDir.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isRegularFile() && attrs.fileKey() != null) {
+                        linked.add(attrs.fileKey());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        int deleted = 0;
+        File[] prefixes = blobDir.listFiles();
+        for (File prefix : prefixes != null ? prefixes : new File[0]) {
+            File[] blobs = prefix.listFiles();
+            for (File blob : blobs != null ? blobs : new File[0]) {
+                Object key = fileKey(blob.toPath());
+                if (key == null) {
+                    LOG.debug("Cannot tell the links of {}, not pruning the artifact store", blob);
+                    return deleted;
+                }
+                if (!linked.contains(key)) {
+                    LOG.debug("Deleting the unused stored file {}", blob);
+                    Files.delete(blob.toPath());
+                    digests.invalidate(blob.getAbsoluteFile());
+                    deleted++;
+                }
+            }
+        }
+        File[] trees = treeDir.listFiles();
+        for (File tree : trees != null ? trees : new File[0]) {
+            if (!isLinked(tree.toPath(), linked)) {
+                LOG.debug("Deleting the unused extracted archive {}", tree);
+                deleteTree(tree.toPath());
+                deleted++;
+            }
+        }
+        File[] indexes = urlDir.listFiles();
+        for (File index : indexes != null ? indexes : new File[0]) {
+            String sha1 = com.google.common.io.Files.toString(index, Charsets.UTF_8).trim();
+            if (sha1.length() < 2 || !getBlob(sha1).isFile()) {
+                index.delete();
+            }
+        }
+        deleteTree(tmpDir.toPath());
+        return deleted;
+    }
+
+    protected File getBlob(String sha1) {
+        return new File(new File(blobDir, sha1.substring(0, 2)), sha1);
+    }
+
+    private File createTempFile() throws IOException {
+        tmpDir.mkdirs();
+        return new File(tmpDir, UUID.randomUUID().toString());
+    }
+
+    private void moveToBlob(File tmp, File blob) throws IOException {
+        blob.getParentFile().mkdirs();
+        tmp.setReadOnly();
+        try {
+            Files.move(tmp.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // stored concurrently with the same content
+        } catch (IOException e) {
+            if (!blob.isFile()) {
+                throw e;
+            }
+        }
+    }
+
+    private void protectLinkedFiles(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile() && isLinked(file)) {
+                    file.toFile().setReadOnly();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Returns true if any file of the extracted archive is linked from an installation.
+     */
+    private static boolean isLinked(Path tree, final Set<Object> linked) throws IOException {
+        final boolean[] answer = new boolean[1];
+        Files.walkFileTree(tree, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile() && linked.contains(attrs.fileKey())) {
+                    answer[0] = true;
+                    return FileVisitResult.TERMINATE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return answer[0];
+    }
+
+    private static Object fileKey(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).fileKey();
+    }
+
+    private static boolean isLinked(Path file) {
+        String name = file.getFileName().toString();
+        int idx = name.lastIndexOf('.');
+        return idx > 0 && LINKED_EXTENSIONS.contains(name.substring(idx + 1).toLowerCase());
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    private static final class Digest {
+        private final long length;
+        private final long lastModified;
+        private final String sha1;
+
+        private Digest(long length, long lastModified, String sha1) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.sha1 = sha1;
+        }
+    }
+}
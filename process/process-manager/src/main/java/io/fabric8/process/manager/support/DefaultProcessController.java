@@ -22,6 +22,7 @@ import io.fabric8.common.util.ExecParseUtils;
 import io.fabric8.common.util.Files;
 import io.fabric8.common.util.Processes;
 import io.fabric8.process.manager.ProcessController;
+import io.fabric8.process.manager.ProcessInfo;
 import io.fabric8.process.manager.config.ProcessConfig;
 import io.fabric8.process.manager.support.command.CommandFailedException;
 import org.slf4j.Logger;
@@ -60,7 +61,7 @@ public class DefaultProcessController implements ProcessController {
     private final File baseDir;
     private final ProcessConfig config;
     private transient Executor executor;
-
+    private transient volatile PidFile pidFile;
 
     /**
      * @param id identifier of the controlled process. Usually PID.
@@ -111,6 +112,7 @@ public class DefaultProcessController implements ProcessController {
 
     @Override
     public int start() throws Exception {
+        pidFile = null;
         return runConfigCommandValueOrLaunchScriptWith(config.getStartCommand(), "start");
     }
 
@@ -118,15 +120,27 @@ public class DefaultProcessController implements ProcessController {
     public int stop() throws Exception {
         String customCommand = config.getKillCommand();
         if (Strings.isNullOrEmpty(customCommand)) {
+            Long pid = getPid();
+            if (ProcessProbe.isSupported()) {
+                ProcessInfo info = probe();
+                if (info == null || !info.isAlive()) {
+                    LOG.debug("Process " + this + " is not running, there is nothing to stop.");
+                    return 0;
+                }
+                pid = info.getPid();
+            }
             // lets just kill it
             LOG.info("No stop command configured so lets just try killing it " + this);
-            return Processes.killProcess(getPid(), "");
+            pidFile = null;
+            return Processes.killProcess(pid, "");
         }
+        pidFile = null;
         return runConfigCommandValueOrLaunchScriptWith(customCommand, "stop");
     }
 
     @Override
     public int kill() throws Exception {
+        pidFile = null;
         String customCommand = config.getKillCommand();
         if (Strings.isNullOrEmpty(customCommand)) {
             // lets stop it
@@ -148,12 +162,51 @@ public class DefaultProcessController implements ProcessController {
             }
             return answer;
         }
+        if (customCommand == null && ProcessProbe.isSupported()) {
+            ProcessInfo info = probe();
+            if (info != null && !info.isAlive()) {
+                LOG.debug("Process " + this + " is not running, starting it instead of restarting it.");
+                return start();
+            }
+        }
+        pidFile = null;
         return runConfigCommandValueOrLaunchScriptWith(customCommand, "restart");
     }
 
+    /**
+     * Returns the LSB status of the process. Unless a status command is configured, a process with a pid file
+     * is probed in the JVM instead of forking the launch script: 0 if it is running, 1 if it is dead.
+     */
     @Override
     public int status() throws Exception {
-        return runConfigCommandValueOrLaunchScriptWith(config.getStatusCommand(), "status");
+        String customCommand = config.getStatusCommand();
+        if (customCommand == null && ProcessProbe.isSupported()) {
+            ProcessInfo info = probe();
+            if (info != null) {
+                return info.isAlive() ? 0 : 1;
+            }
+        }
+        return runConfigCommandValueOrLaunchScriptWith(customCommand, "status");
+    }
+
+    /**
+     * Probes the process found in the pid file, returns null if there is no pid file.
+     */
+    public ProcessInfo probe() throws IOException {
+        Long pid = getPid();
+        if (pid == null) {
+            return null;
+        }
+        ProcessInfo info = ProcessProbe.probe(pid);
+        if (!info.isAlive()) {
+            // the pid file may have been rewritten within the resolution of its timestamp
+            pidFile = null;
+            Long current = getPid();
+            if (current != null && !current.equals(pid)) {
+                info = ProcessProbe.probe(current);
+            }
+        }
+        return info;
     }
 
     @Override
@@ -187,18 +240,30 @@ public class DefaultProcessController implements ProcessController {
         return config;
     }
 
+    /**
+     * Returns the PID from the pid file of the process. The pid file is only read again once it has been modified.
+     */
     public Long getPid() throws IOException {
-        Long answer = null;
+        PidFile cached = pidFile;
+        if (cached != null && cached.isUnchanged()) {
+            return cached.pid;
+        }
+        PidFile answer = readPidFile();
+        pidFile = answer != null && answer.pid != null ? answer : null;
+        return answer != null ? answer.pid : null;
+    }
+
+    private PidFile readPidFile() throws IOException {
         String pidFileName = config.getPidFile();
         if (pidFileName != null) {
             File file = new File(baseDir, pidFileName);
             if (file.exists() && file.isFile()) {
-                return extractPidFromFile(file);
+                return new PidFile(file);
             }
         }
-        File pidFile = new File(baseDir, "var/process.pid");
-        if (pidFile.exists()) {
-            return extractPidFromFile(pidFile);
+        File file = new File(baseDir, "var/process.pid");
+        if (file.exists()) {
+            return new PidFile(file);
         }
 
         File pidDir = new File(baseDir, "var/run");
@@ -213,25 +278,25 @@ public class DefaultProcessController implements ProcessController {
                 script = script.substring(idx + 1);
             }
             // lets try find the file /var/run/launcher.pid by default
-            pidFile = new File(pidDir, script + ".pid");
-            if (pidFile.exists()) {
-                return extractPidFromFile(pidFile);
+            file = new File(pidDir, script + ".pid");
+            if (file.exists()) {
+                return new PidFile(file);
             }
 
             // otherwise lets just find a /var/run/*.pid file
-            if (answer == null) {
-                File[] files = pidDir.listFiles();
-                for (File file : files) {
-                    if (file.getName().toLowerCase().endsWith(".pid")) {
-                        answer = extractPidFromFile(file);
-                        if (answer != null) {
-                            break;
+            File[] files = pidDir.listFiles();
+            if (files != null) {
+                for (File candidate : files) {
+                    if (candidate.getName().toLowerCase().endsWith(".pid")) {
+                        PidFile answer = new PidFile(candidate);
+                        if (answer.pid != null) {
+                            return answer;
                         }
                     }
                 }
             }
         }
-        return answer;
+        return null;
     }
 
     protected String getLaunchScript() {
@@ -243,7 +308,7 @@ public class DefaultProcessController implements ProcessController {
         return launchScript;
     }
 
-    private Long extractPidFromFile(File file) throws IOException {
+    private static Long extractPidFromFile(File file) throws IOException {
         List<String> lines = Files.readLines(file);
         for (String line : lines) {
             String text = line.trim();
@@ -282,4 +347,26 @@ public class DefaultProcessController implements ProcessController {
         }
     }
 
+    /**
+     * A pid file with the timestamp and length it had when it was read.
+     */
+    private static final class PidFile {
+
+        private final File file;
+        private final long lastModified;
+        private final long length;
+        private final Long pid;
+
+        PidFile(File file) throws IOException {
+            this.file = file;
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+            this.pid = extractPidFromFile(file);
+        }
+
+        boolean isUnchanged() {
+            return file.lastModified() == lastModified && file.length() == length;
+        }
+    }
+
 }
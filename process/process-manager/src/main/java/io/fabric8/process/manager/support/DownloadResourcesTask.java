@@ -65,6 +65,7 @@ public class DownloadResourcesTask implements InstallTask {
                     newFile.getParentFile().mkdirs();
                     InputStream stream = url.openStream();
                     if (stream != null) {
+                        FileUtils.unlink(newFile);
                         Files.copy(stream, new BufferedOutputStream(new FileOutputStream(newFile)));
                         installContext.onFileWrite(newFile, changeInfo);
                     }
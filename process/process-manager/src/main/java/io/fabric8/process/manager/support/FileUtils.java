@@ -16,6 +16,11 @@
 package io.fabric8.process.manager.support;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.concurrent.Executor;
 
@@ -47,6 +52,51 @@ public class FileUtils {
                 .execute(executor);
     }
 
+    /**
+     * Deletes the file before it is written again if it is a hard link shared with other files, such as the files
+     * of the {@link ArtifactStore} shared by the installations, which must never be modified in place.
+     * Other files are kept so that writing them preserves their permissions.
+     */
+    public static void unlink(File file) throws IOException {
+        Path path = file.toPath();
+        if (Files.exists(path, LinkOption.NOFOLLOW_LINKS) && isShared(path)) {
+            Files.delete(path);
+        }
+    }
+
+    private static boolean isShared(Path path) throws IOException {
+        try {
+            return ((Number) Files.getAttribute(path, "unix:nlink", LinkOption.NOFOLLOW_LINKS)).intValue() > 1;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // the stored files are read only
+            return !path.toFile().canWrite();
+        }
+    }
+
+    /**
+     * Copies the source file to the destination, replacing the destination without writing through it.
+     */
+    public static void copy(File source, File destination) throws IOException {
+        Files.deleteIfExists(destination.toPath());
+        Files.copy(source.toPath(), destination.toPath());
+    }
+
+    /**
+     * Creates a hard link to the source file at the destination, replacing the destination if it exists,
+     * or copies the source file if the file system does not support hard links between them.
+     * Only files of the {@link ArtifactStore} are linked, as they are never modified.
+     */
+    public static void linkOrCopy(File source, File destination) throws IOException {
+        Files.deleteIfExists(destination.toPath());
+        try {
+            Files.createLink(destination.toPath(), source.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            LOG.debug("Could not link " + destination + " to " + source + ", copying it instead. " + e);
+            Files.copy(source.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            destination.setWritable(true);
+        }
+    }
+
     /**
      * Splits the given command into an array of arguments.
      *
@@ -66,14 +66,23 @@ public class JarInstaller implements InstallTask {
     private final MavenResolver mavenResolver;
     private final InstallOptions parameters;
     private final Executor executor;
+    private final ArtifactStore artifactStore;
 
     public JarInstaller(InstallOptions parameters, Executor executor) {
+        this(parameters, executor, null);
+    }
+
+    /**
+     * @param artifactStore the store to link the jars from, or null to copy them into each installation
+     */
+    public JarInstaller(InstallOptions parameters, Executor executor, ArtifactStore artifactStore) {
         Hashtable<String, String> props = new Hashtable<>();
         if (parameters.isOffline()) {
             props.put("org.ops4j.pax.url.mvn." + ServiceConstants.PROPERTY_OFFLINE, "true");
         }
         this.parameters = parameters;
         this.executor = executor;
+        this.artifactStore = artifactStore;
         this.mavenResolver = MavenResolvers.createMavenResolver(props, "org.ops4j.pax.url.mvn");
     }
 
@@ -127,7 +136,7 @@ public class JarInstaller implements InstallTask {
             File sourceFile = pair.getFirst();
             File destFile = pair.getSecond();
             FileChangeInfo oldChangeInfo = installContext.createChangeInfo(destFile);
-            Files.copy(sourceFile, destFile);
+            copyFile(sourceFile, destFile);
             installContext.onDeploymentFileWrite(location, destFile, oldChangeInfo, true);
         }
     }
@@ -160,16 +169,33 @@ public class JarInstaller implements InstallTask {
             System.out.println("Cannot find file for main jar " + mainJarDependency);
         } else {
             File newMain = new File(libDir, "main.jar");
-            Files.copy(mainJar, newMain);
             String mainClass = parameters.getMainClass();
             if (mainClass != null) {
+                // the main jar gets rewritten so it must not be linked to the store
+                java.nio.file.Files.deleteIfExists(newMain.toPath());
+                Files.copy(mainJar, newMain);
                 setMainClass(config, installDir, newMain, id, mainClass);
+            } else {
+                copyFile(mainJar, newMain);
             }
         }
 
         copyDependencies(mainJarDependency, libDir, copyFiles);
     }
 
+    /**
+     * Links the file from the artifact store if there is one, otherwise copies it
+     */
+    protected void copyFile(File source, File destination) throws IOException {
+        if (artifactStore != null) {
+            artifactStore.install(source, destination);
+        } else {
+            // the destination may be a read only link into the artifact store so lets replace it rather than write through it
+            java.nio.file.Files.deleteIfExists(destination.toPath());
+            Files.copy(source, destination);
+        }
+    }
+
     private File getArtifactFile(URL url) throws IOException {
         File tmpFile = File.createTempFile("artifact", ".jar");
         FileOutputStream fos = null;
@@ -0,0 +1,133 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.process.manager.support;
+
+import io.fabric8.common.util.Processes;
+import io.fabric8.process.manager.ProcessInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Probes processes without forking: on Linux the state is read from <code>/proc/&lt;pid&gt;</code>,
+ * elsewhere all processes of a batch are checked with a single process listing.
+ */
+public final class ProcessProbe {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProcessProbe.class);
+
+    private static final File PROC = new File("/proc");
+    private static final boolean PROCFS = new File(PROC, "self/stat").isFile();
+    // USER_HZ, the unit of the cpu times in /proc/<pid>/stat, is 100 on all mainstream Linux architectures
+    private static final long MILLIS_PER_TICK = 10L;
+
+    private ProcessProbe() {
+    }
+
+    /**
+     * Returns true if processes can be probed without forking.
+     */
+    public static boolean isSupported() {
+        return PROCFS;
+    }
+
+    /**
+     * Returns the state of the given process.
+     */
+    public static ProcessInfo probe(long pid) {
+        if (PROCFS) {
+            return readProc(pid);
+        }
+        return Processes.isProcessAlive(pid) ? new ProcessInfo(pid, true, null, -1, ProcessInfo.UNKNOWN, ProcessInfo.UNKNOWN) : ProcessInfo.dead(pid);
+    }
+
+    /**
+     * Returns the state of all the given processes, probed in a single pass.
+     */
+    public static Map<Long, ProcessInfo> probe(Collection<Long> pids) {
+        Map<Long, ProcessInfo> answer = new HashMap<Long, ProcessInfo>();
+        if (PROCFS) {
+            for (Long pid : pids) {
+                if (pid != null && !answer.containsKey(pid)) {
+                    answer.put(pid, readProc(pid));
+                }
+            }
+        } else if (!pids.isEmpty()) {
+            List<Long> processIds = Processes.getProcessIds();
+            // an empty list means the platform cannot list processes, assume they are alive as Processes.isProcessAlive() does
+            Set<Long> alive = new HashSet<Long>(processIds);
+            for (Long pid : pids) {
+                if (pid != null) {
+                    answer.put(pid, processIds.isEmpty() || alive.contains(pid)
+                            ? new ProcessInfo(pid, true, null, -1, ProcessInfo.UNKNOWN, ProcessInfo.UNKNOWN) : ProcessInfo.dead(pid));
+                }
+            }
+        }
+        return answer;
+    }
+
+    static ProcessInfo readProc(long pid) {
+        File dir = new File(PROC, Long.toString(pid));
+        try {
+            String stat = read(new File(dir, "stat"));
+            // the command name may contain spaces and parenthesis, the fields start after the last one
+            int idx = stat.lastIndexOf(')');
+            if (idx < 0) {
+                return ProcessInfo.dead(pid);
+            }
+            String[] fields = stat.substring(idx + 1).trim().split("\\s+");
+            String state = fields[0];
+            if ("Z".equals(state) || "X".equals(state) || "x".equals(state)) {
+                // zombie or dead, waiting to be reaped
+                return ProcessInfo.dead(pid);
+            }
+            long cpuTime = (Long.parseLong(fields[11]) + Long.parseLong(fields[12])) * MILLIS_PER_TICK;
+            int threads = Integer.parseInt(fields[17]);
+            return new ProcessInfo(pid, true, state, threads, readResidentMemory(dir), cpuTime);
+        } catch (IOException e) {
+            // there is no such process or it exited while it was being read
+            return ProcessInfo.dead(pid);
+        } catch (RuntimeException e) {
+            LOG.debug("Failed to parse the status of process " + pid + ": " + e, e);
+            return dir.isDirectory() ? new ProcessInfo(pid, true, null, -1, ProcessInfo.UNKNOWN, ProcessInfo.UNKNOWN) : ProcessInfo.dead(pid);
+        }
+    }
+
+    private static long readResidentMemory(File dir) throws IOException {
+        for (String line : read(new File(dir, "status")).split("\n")) {
+            if (line.startsWith("VmRSS:")) {
+                String[] tokens = line.substring(6).trim().split("\\s+");
+                return Long.parseLong(tokens[0]) * 1024L;
+            }
+        }
+        // kernel threads have no resident memory
+        return 0L;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.process.manager.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.UUID.randomUUID;
+
+public class ArtifactStoreTest extends Assert {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    File baseDir = new File("target", randomUUID().toString());
+    ArtifactStore store;
+
+    @Before
+    public void setUp() {
+        baseDir.mkdirs();
+        store = new ArtifactStore(new File(baseDir, ".store"));
+    }
+
+    @Test
+    public void shouldStoreSameContentOnce() throws Exception {
+        // Given
+        File first = write("first.jar", "content");
+        File second = write("second.jar", "content");
+
+        // When
+        File firstDest = new File(baseDir, "1/lib/first.jar");
+        File secondDest = new File(baseDir, "2/lib/second.jar");
+        firstDest.getParentFile().mkdirs();
+        secondDest.getParentFile().mkdirs();
+        store.install(first, firstDest);
+        store.install(second, secondDest);
+
+        // Then
+        assertEquals(store.add(first), store.add(second));
+        assertEquals("content", new String(Files.readAllBytes(secondDest.toPath()), UTF_8));
+        assertTrue(Files.isSameFile(firstDest.toPath(), secondDest.toPath()));
+    }
+
+    @Test
+    public void shouldExtractArchiveOnce() throws Exception {
+        // Given
+        File archive = new File(baseDir, "app.tar.gz");
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(archive));
+        writeEntry(out, "app/bin/run.sh", 0755, "#!/bin/sh\n");
+        writeEntry(out, "app/lib/app.jar", 0644, "jar");
+        writeEntry(out, "app/etc/app.cfg", 0644, "key=value\n");
+        out.write(new byte[1024]);
+        out.close();
+        assertTrue(ArchiveExtractor.isSupported("tar zxf", archive));
+
+        // When
+        File tree = store.extract(archive);
+        File install = new File(baseDir, "1");
+        store.installTree(store.extract(archive), install);
+
+        // Then
+        assertEquals(tree, store.extract(archive));
+        assertTrue(new File(install, "app/bin/run.sh").canExecute());
+        assertEquals("key=value\n", new String(Files.readAllBytes(new File(install, "app/etc/app.cfg").toPath()), UTF_8));
+        assertTrue(Files.isSameFile(new File(tree, "app/lib/app.jar").toPath(), new File(install, "app/lib/app.jar").toPath()));
+        assertFalse(Files.isSameFile(new File(tree, "app/etc/app.cfg").toPath(), new File(install, "app/etc/app.cfg").toPath()));
+    }
+
+    @Test
+    public void shouldNotWriteThroughStoredFiles() throws Exception {
+        // Given
+        File source = write("app.jar", "content");
+        File dest = new File(baseDir, "1/lib/app.jar");
+        dest.getParentFile().mkdirs();
+        store.install(source, dest);
+
+        // When
+        FileUtils.unlink(dest);
+        Files.write(dest.toPath(), "changed".getBytes(UTF_8));
+
+        // Then
+        assertEquals("content", new String(Files.readAllBytes(store.add(source).toPath()), UTF_8));
+        assertEquals("changed", new String(Files.readAllBytes(dest.toPath()), UTF_8));
+    }
+
+    @Test
+    public void shouldKeepTheModesOfFilesWhichAreNotShared() throws Exception {
+        // Given
+        File script = write("run.sh", "#!/bin/sh\n");
+        script.setExecutable(true);
+
+        // When
+        FileUtils.unlink(script);
+
+        // Then
+        assertTrue(script.canExecute());
+    }
+
+    @Test
+    public void shouldPruneContentNoLongerLinked() throws Exception {
+        // Given
+        File used = write("used.jar", "used");
+        File unused = write("unused.jar", "unused");
+        File firstInstall = new File(baseDir, "1");
+        File secondInstall = new File(baseDir, "2");
+        new File(firstInstall, "lib").mkdirs();
+        new File(secondInstall, "lib").mkdirs();
+        store.install(used, new File(firstInstall, "lib/used.jar"));
+        store.install(unused, new File(secondInstall, "lib/unused.jar"));
+        File usedBlob = store.add(used);
+        File unusedBlob = store.add(unused);
+
+        // When
+        int deleted = store.prune(Arrays.asList(firstInstall));
+
+        // Then
+        assertEquals(1, deleted);
+        assertTrue(usedBlob.isFile());
+        assertFalse(unusedBlob.isFile());
+        assertEquals("unused", new String(Files.readAllBytes(new File(secondInstall, "lib/unused.jar").toPath()), UTF_8));
+        assertEquals(0, store.prune(Arrays.asList(firstInstall)));
+    }
+
+    @Test
+    public void shouldRejectEntriesOutsideOfTarget() throws Exception {
+        // Given
+        File archive = new File(baseDir, "evil.tar");
+        OutputStream out = new FileOutputStream(archive);
+        writeEntry(out, "../evil.sh", 0755, "evil");
+        out.close();
+
+        // When
+        try {
+            ArchiveExtractor.extract(archive, new File(baseDir, "target"));
+            fail("Extracted an entry outside of the target");
+        } catch (IOException e) {
+            // Then
+            assertFalse(new File(baseDir, "evil.sh").exists());
+        }
+    }
+
+    @Test
+    public void shouldNotSupportOtherCommands() throws Exception {
+        File archive = write("app.zip", "PK");
+        assertFalse(ArchiveExtractor.isSupported("unzip", archive));
+        assertFalse(ArchiveExtractor.isSupported("tar zxf", archive));
+        assertFalse(ArchiveExtractor.isSupported("tar jxf", archive));
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(baseDir, name);
+        Files.write(file.toPath(), content.getBytes(UTF_8));
+        return file;
+    }
+
+    private static void writeEntry(OutputStream out, String name, int mode, String content) throws IOException {
+        byte[] data = content.getBytes(UTF_8);
+        byte[] header = new byte[512];
+        put(header, 0, name);
+        put(header, 100, String.format("%07o", mode));
+        put(header, 108, "0000000");
+        put(header, 116, "0000000");
+        put(header, 124, String.format("%011o", data.length));
+        put(header, 136, String.format("%011o", System.currentTimeMillis() / 1000));
+        header[156] = '0';
+        put(header, 257, "ustar");
+        put(header, 263, "00");
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long sum = 0;
+        for (byte b : header) {
+            sum += b & 0xff;
+        }
+        put(header, 148, String.format("%06o", sum));
+        header[154] = 0;
+        out.write(header);
+        ByteArrayOutputStream padded = new ByteArrayOutputStream();
+        padded.write(data);
+        padded.write(new byte[(512 - data.length % 512) % 512]);
+        out.write(padded.toByteArray());
+    }
+
+    private static void put(byte[] header, int offset, String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+}
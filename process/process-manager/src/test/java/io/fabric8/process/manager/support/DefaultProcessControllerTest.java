@@ -20,14 +20,19 @@ import io.fabric8.process.manager.InstallTask;
 import io.fabric8.process.manager.config.ProcessConfig;
 import io.fabric8.process.manager.service.ProcessManagerService;
 import io.fabric8.process.manager.support.command.CommandFailedException;
+import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 import static java.util.UUID.randomUUID;
 
-public class DefaultProcessControllerTest {
+public class DefaultProcessControllerTest extends Assert {
 
     File installDir = new File("target", randomUUID().toString());
 
@@ -49,4 +54,38 @@ public class DefaultProcessControllerTest {
         controller.runConfigCommandValueOrLaunchScriptWith(null, "start");
     }
 
+    @Test
+    public void shouldProbeStatusFromPidFile() throws Exception {
+        Assume.assumeTrue(ProcessProbe.isSupported());
+
+        // Given
+        writePidFile(ProcessProbeTest.currentPid());
+
+        // Then
+        assertEquals(0, controller.status());
+        assertTrue(controller.probe().isAlive());
+    }
+
+    @Test
+    public void shouldReportDeadProcessWhenPidFileChanges() throws Exception {
+        Assume.assumeTrue(ProcessProbe.isSupported());
+
+        // Given
+        writePidFile(ProcessProbeTest.currentPid());
+        assertEquals(0, controller.status());
+
+        // When
+        writePidFile(ProcessProbeTest.UNUSED_PID);
+
+        // Then
+        assertEquals(1, controller.status());
+        assertEquals(Long.valueOf(ProcessProbeTest.UNUSED_PID), controller.getPid());
+    }
+
+    private void writePidFile(long pid) throws IOException {
+        File pidFile = new File(controller.getBaseDir(), "var/process.pid");
+        pidFile.getParentFile().mkdirs();
+        Files.write(pidFile.toPath(), (pid + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
 }
@@ -0,0 +1,64 @@
+/**
+ *  Copyright 2005-2014 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.process.manager.support;
+
+import io.fabric8.process.manager.ProcessInfo;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+
+public class ProcessProbeTest extends Assert {
+
+    // above the highest pid_max of Linux
+    static final long UNUSED_PID = 99999999L;
+
+    static long currentPid() {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        return Long.parseLong(name.substring(0, name.indexOf('@')));
+    }
+
+    @Test
+    public void shouldProbeCurrentProcess() {
+        Assume.assumeTrue(ProcessProbe.isSupported());
+
+        // When
+        ProcessInfo info = ProcessProbe.probe(currentPid());
+
+        // Then
+        assertTrue(info.isAlive());
+        assertTrue(info.getThreads() > 1);
+        assertTrue(info.getResidentMemory() > 0);
+        assertTrue(info.getCpuTime() >= 0);
+    }
+
+    @Test
+    public void shouldProbeProcessesInOnePass() {
+        Assume.assumeTrue(ProcessProbe.isSupported());
+
+        // When
+        Map<Long, ProcessInfo> infos = ProcessProbe.probe(Arrays.asList(currentPid(), UNUSED_PID));
+
+        // Then
+        assertEquals(2, infos.size());
+        assertTrue(infos.get(currentPid()).isAlive());
+        assertFalse(infos.get(UNUSED_PID).isAlive());
+    }
+
+}